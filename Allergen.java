@@ -0,0 +1,114 @@
+/**
+ * Allergen lists the allergens the dining hall CSV can mark a dish with.
+ *
+ * The Allergens column holds a comma-separated list of labels such as "Soy, Wheat, Milk".
+ * Each constant owns one bit, so the allergens of a dish fit in a single int mask and
+ * "contains none of these" is one AND.
+ *
+ * Example usage:
+ * <pre>
+ * int mask = Allergen.mask("Soy, Wheat, Milk");
+ * boolean dairyFree = (mask &amp; Allergen.MILK.bit()) == 0;
+ * int avoid = Allergen.mask(Allergen.SOY, Allergen.MILK);
+ * </pre>
+ *
+ * @author Yaseen Osman
+ */
+public enum Allergen {
+    MILK("Milk"),
+    EGG("Egg"),
+    FISH("Fish"),
+    SHELLFISH("Shellfish"),
+    TREE_NUTS("Tree Nuts"),
+    PEANUTS("Peanuts"),
+    WHEAT("Wheat"),
+    SOY("Soy"),
+    SESAME("Sesame");
+
+    //Shared copy of values(), which allocates a new array on every call
+    public static final Allergen[] ALL = values();
+
+    //Label used in the CSV, e.g. "Tree Nuts"
+    public final String label;
+
+    Allergen(String label) {
+        this.label = label;
+    }
+
+    /**
+     * Returns the bit of this allergen in a mask.
+     * @return 1 shifted left by ordinal()
+     */
+    public int bit() {
+        return 1 << ordinal();
+    }
+
+    /**
+     * Finds an allergen by label, ignoring case, surrounding spaces and a trailing "s"
+     * (so "peanut", "Peanuts" and "PEANUTS" all match PEANUTS).
+     *
+     * @param label Allergen label
+     * @return The allergen, or null if the label is unknown
+     */
+    public static Allergen forLabel(String label) {
+        String key = singular(label.trim().toLowerCase());
+        for (Allergen allergen : ALL) {
+            if (singular(allergen.label.toLowerCase()).equals(key)) return allergen;
+        }
+        return null;
+    }
+
+    /**
+     * Parses a comma-separated Allergens cell into a mask. Unknown labels are ignored.
+     *
+     * @param labels Cell text, e.g. "Soy, Wheat, Milk"; may be empty
+     * @return Mask of the listed allergens
+     */
+    public static int mask(String labels) {
+        int mask = 0;
+        int start = 0;
+        while (start <= labels.length()) {
+            int end = labels.indexOf(',', start);
+            if (end < 0) end = labels.length();
+            String label = labels.substring(start, end);
+            if (!label.isBlank()) {
+                Allergen allergen = forLabel(label);
+                if (allergen != null) mask |= allergen.bit();
+            }
+            start = end + 1;
+        }
+        return mask;
+    }
+
+    /**
+     * Combines allergens into a mask.
+     *
+     * @param allergens The allergens
+     * @return Mask with the bit of every given allergen set
+     */
+    public static int mask(Allergen... allergens) {
+        int mask = 0;
+        for (Allergen allergen : allergens) mask |= allergen.bit();
+        return mask;
+    }
+
+    /**
+     * Lists the labels of a mask, e.g. for display.
+     *
+     * @param mask Allergen mask
+     * @return Comma-separated labels, or an empty string for 0
+     */
+    public static String labels(int mask) {
+        StringBuilder sb = new StringBuilder();
+        for (Allergen allergen : ALL) {
+            if ((mask & allergen.bit()) == 0) continue;
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(allergen.label);
+        }
+        return sb.toString();
+    }
+
+    private static String singular(String label) {
+        return label.endsWith("s") ? label.substring(0, label.length() - 1) : label;
+    }
+}
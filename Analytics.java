@@ -0,0 +1,361 @@
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collector;
+
+/**
+ * Analytics answers campus-wide leaderboard questions over every registered user, e.g.
+ * "top 20 students by average daily protein this week" or "dining hall with the highest
+ * average sodium per meal".
+ *
+ * Queries run over the UserRegistry as a parallel stream on the common ForkJoinPool.
+ * Each user is read under their own registry lock for just the time it takes to score
+ * them, so queries can run continuously against a live registry while meals are logged:
+ * a logMeal call waits at most for one user's scoring, never for a whole query. Results
+ * are selected with a bounded min-heap of size k per worker, merged at the end, instead
+ * of sorting every user.
+ *
+ * Student scores without a hall or meal filter come from NutritionHistory in constant
+ * time per user. With a filter, or when grouping by hall or meal period, the user's
+ * LoggedMeals in the date range are scanned: each meal's place code is matched against
+ * the halls and meal periods of the current menu version, and its nutrients are read
+ * from the DishTable. Meals from a hall or meal period the current menu does not have
+ * are skipped.
+ *
+ * Example usage:
+ * <pre>
+ * Analytics analytics = new Analytics(registry, live);
+ * List<Analytics.Entry> protein = analytics.topStudents(Nutrient.PROTEIN, "2025-05-08", "2025-05-14", null, null, 20);
+ * List<Analytics.Entry> sodium = analytics.topHalls(Nutrient.SODIUM, "2025-05-08", "2025-05-14", null, 1);
+ * </pre>
+ *
+ * @author Yaseen Osman
+ */
+public class Analytics {
+    private final UserRegistry users;
+    private final LiveMenu live;
+
+    /**
+     * One row of a leaderboard.
+     */
+    public static class Entry {
+        //Student ID, dining hall or meal period
+        public final String key;
+        //Student name, or the same as key for halls and meal periods
+        public final String label;
+        //Score the entries are ranked by, e.g. average grams of protein per day
+        public final double value;
+        //Number of logged meals behind the score; days with entries for history-based scores
+        public final long meals;
+
+        Entry(String key, String label, double value, long meals) {
+            this.key = key;
+            this.label = label;
+            this.value = value;
+            this.meals = meals;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s: %.1f (%d)", label, value, meals);
+        }
+    }
+
+    /**
+     * Constructs an analytics engine over a registry, resolving dishes in the live menu.
+     *
+     * @param users Registered users
+     * @param live  Menu the logged dish ids refer to
+     */
+    public Analytics(UserRegistry users, LiveMenu live) {
+        this.users = users;
+        this.live = live;
+    }
+
+    /**
+     * Returns the k students with the highest average daily intake of a nutrient over a date
+     * range. Days without entries count as zero; students with nothing in the range are left out.
+     *
+     * @param nutrient   Nutrient to rank by
+     * @param from       First date in "YYYY-MM-DD" format
+     * @param to         Last date in "YYYY-MM-DD" format, inclusive
+     * @param diningHall Count only meals from this hall, or null for every hall
+     * @param mealPeriod Count only meals from this meal period, or null for every meal
+     * @param k          Number of students to return
+     * @return Up to k students, highest first; ties by student ID
+     */
+    public List<Entry> topStudents(Nutrient nutrient, String from, String to, String diningHall, String mealPeriod, int k) {
+        int first = NutritionHistory.epochDay(from), last = NutritionHistory.epochDay(to);
+        int days = Math.max(1, last - first + 1);
+        int n = nutrient.ordinal();
+        //No more students than are registered can be returned
+        int limit = Math.min(k, users.size());
+        if (diningHall == null && mealPeriod == null) {
+            return users.mapEach(u -> {
+                int logged = u.history.loggedDays(first, last);
+                return logged == 0 ? null : new Entry(u.studentId, u.name, u.history.average(first, last, n), logged);
+            }).collect(top(limit));
+        }
+
+        MenuStore store = live.current().store;
+        int hall = code(store.halls(), diningHall), meal = code(store.meals(), mealPeriod);
+        if (hall == -2 || meal == -2) return new ArrayList<>();
+        DishTable table = DishTable.shared();
+        int[] hallOf = codes(table, store.halls(), true), mealOf = codes(table, store.meals(), false);
+        return users.mapEach(u -> {
+            double sum = 0;
+            long count = 0;
+            LoggedMeals.Cursor m = u.meals.cursor();
+            while (m.next()) {
+                if (m.day < first || m.day > last || m.place >= hallOf.length) continue;
+                if (hall >= 0 && hallOf[m.place] != hall || meal >= 0 && mealOf[m.place] != meal) continue;
+                sum += m.servings * table.value(m.dish, nutrient);
+                count++;
+            }
+            return count == 0 ? null : new Entry(u.studentId, u.name, sum / days, count);
+        }).collect(top(limit));
+    }
+
+    /**
+     * Returns the k dining halls with the highest average of a nutrient per logged meal
+     * over a date range, across every user.
+     *
+     * @param nutrient   Nutrient to rank by
+     * @param from       First date in "YYYY-MM-DD" format
+     * @param to         Last date in "YYYY-MM-DD" format, inclusive
+     * @param mealPeriod Count only meals from this meal period, or null for every meal
+     * @param k          Number of halls to return
+     * @return Up to k halls, highest first
+     */
+    public List<Entry> topHalls(Nutrient nutrient, String from, String to, String mealPeriod, int k) {
+        MenuStore store = live.current().store;
+        int meal = code(store.meals(), mealPeriod);
+        if (meal == -2) return new ArrayList<>();
+        return topGroups(store, store.halls(), true, nutrient, from, to, meal, k);
+    }
+
+    /**
+     * Returns the k meal periods with the highest average of a nutrient per logged meal
+     * over a date range, across every user.
+     *
+     * @param nutrient   Nutrient to rank by
+     * @param from       First date in "YYYY-MM-DD" format
+     * @param to         Last date in "YYYY-MM-DD" format, inclusive
+     * @param diningHall Count only meals from this hall, or null for every hall
+     * @param k          Number of meal periods to return
+     * @return Up to k meal periods, highest first
+     */
+    public List<Entry> topMealPeriods(Nutrient nutrient, String from, String to, String diningHall, int k) {
+        MenuStore store = live.current().store;
+        int hall = code(store.halls(), diningHall);
+        if (hall == -2) return new ArrayList<>();
+        return topGroups(store, store.meals(), false, nutrient, from, to, hall, k);
+    }
+
+    //Averages per hall (byHall) or per meal period, keeping only meals whose other code matches filter (-1 for any)
+    private List<Entry> topGroups(MenuStore store, SymbolTable groups, boolean byHall, Nutrient nutrient,
+                                  String from, String to, int filter, int k) {
+        int first = NutritionHistory.epochDay(from), last = NutritionHistory.epochDay(to);
+        DishTable table = DishTable.shared();
+        int[] groupOf = codes(table, groups, byHall), otherOf = codes(table, byHall ? store.meals() : store.halls(), !byHall);
+        int size = groups.size();
+        //Per-user partial sums, then one reduction; each partial is {sums..., counts...}
+        double[] totals = users.mapEach(u -> {
+            double[] partial = null;
+            LoggedMeals.Cursor m = u.meals.cursor();
+            while (m.next()) {
+                if (m.day < first || m.day > last || m.place >= groupOf.length) continue;
+                int group = groupOf[m.place];
+                if (group < 0 || filter >= 0 && otherOf[m.place] != filter) continue;
+                if (partial == null) partial = new double[size * 2];
+                partial[group] += m.servings * table.value(m.dish, nutrient);
+                partial[size + group]++;
+            }
+            return partial;
+        }).reduce(new double[size * 2], (a, b) -> {
+            double[] sum = a.clone();
+            for (int i = 0; i < sum.length; i++) sum[i] += b[i];
+            return sum;
+        });
+
+        TopK best = new TopK(Math.min(k, size));
+        for (int g = 0; g < size; g++) {
+            long count = (long) totals[size + g];
+            if (count > 0) best.offer(new Entry(groups.decode(g), groups.decode(g), totals[g] / count, count));
+        }
+        return best.sorted();
+    }
+
+    //Code in a hall (byHall) or meal table of every place code the DishTable has so far; -1 if not on the menu
+    private static int[] codes(DishTable table, SymbolTable names, boolean byHall) {
+        int[] codes = new int[table.places()];
+        for (int p = 0; p < codes.length; p++) codes[p] = names.code(byHall ? table.hall(p) : table.meal(p));
+        return codes;
+    }
+
+    //Code of a hall or meal name: -1 for null (any), -2 if the menu does not have it
+    private static int code(SymbolTable table, String name) {
+        if (name == null) return -1;
+        int code = table.code(name);
+        return code < 0 ? -2 : code;
+    }
+
+    /**
+     * Collects the k highest entries of a stream, highest first.
+     *
+     * @param k Number of entries to keep
+     * @return Collector that keeps a bounded heap per worker and merges them
+     */
+    public static Collector<Entry, ?, List<Entry>> top(int k) {
+        return Collector.of(() -> new TopK(k), TopK::offer, TopK::merge, TopK::sorted);
+    }
+
+    /**
+     * Bounded min-heap of the k best entries seen so far. The root is the worst kept
+     * entry, so a new entry is compared once and most are rejected without touching the heap.
+     * The array grows with the entries offered up to k, so a large k costs nothing until
+     * there are that many entries; every worker of a parallel collect has its own heap.
+     */
+    private static class TopK {
+        final int k;
+        Entry[] heap;
+        int size;
+
+        TopK(int k) {
+            this.k = Math.max(0, k);
+            heap = new Entry[Math.min(this.k, 16)];
+        }
+
+        void offer(Entry e) {
+            if (k == 0) return;
+            if (size < k) {
+                if (size == heap.length) heap = Arrays.copyOf(heap, (int) Math.min(k, 2L * size));
+                heap[size] = e;
+                up(size++);
+            } else if (better(e, heap[0])) {
+                heap[0] = e;
+                down(0);
+            }
+        }
+
+        TopK merge(TopK other) {
+            for (int i = 0; i < other.size; i++) offer(other.heap[i]);
+            return this;
+        }
+
+        List<Entry> sorted() {
+            Entry[] entries = Arrays.copyOf(heap, size);
+            Arrays.sort(entries, (a, b) -> better(a, b) ? -1 : better(b, a) ? 1 : 0);
+            return new ArrayList<>(Arrays.asList(entries));
+        }
+
+        //Higher value wins; equal values go to the smaller key, so results do not depend on thread timing
+        static boolean better(Entry a, Entry b) {
+            return a.value > b.value || a.value == b.value && a.key.compareTo(b.key) < 0;
+        }
+
+        void up(int i) {
+            Entry e = heap[i];
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!better(heap[parent], e)) break;
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = e;
+        }
+
+        void down(int i) {
+            Entry e = heap[i];
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && better(heap[child], heap[child + 1])) child++;
+                if (!better(e, heap[child])) break;
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = e;
+        }
+    }
+
+    /**
+     * Runs the leaderboard queries on a synthetic campus while other threads keep logging
+     * meals, checks the top students against a full sort and prints timings.
+     * @param args Students (default 20000), days (default 30), logging threads (default 2)
+     * @throws Exception if the menu cannot be loaded
+     */
+    public static void main(String[] args) throws Exception {
+        int students = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int days = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        int loggers = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        MenuStore store = MenuStore.load("PomonaDiningHalls.csv");
+        LiveMenu live = new LiveMenu(null, store);
+        UserRegistry registry = new UserRegistry();
+        Random random = new Random(42);
+        int firstDay = (int) LocalDate.of(2025, 5, 1).toEpochDay();
+        for (int i = 0; i < students; i++) {
+            User user = new User(String.valueOf(100_000 + i), "Student " + i, NutritionServer.goals(2000, 100, 250, 70));
+            for (int d = 0; d < days; d++) {
+                for (int m = 0; m < 3; m++) {
+                    int dish = random.nextInt(store.size());
+                    user.logMeal(NutritionHistory.date(firstDay + d), store, dish, 1);
+                }
+            }
+            registry.register(user);
+        }
+        String from = NutritionHistory.date(firstDay + days - 7), to = NutritionHistory.date(firstDay + days - 1);
+
+        //Loggers keep writing to the registry for the whole run
+        Thread[] threads = new Thread[loggers];
+        long[] logged = new long[loggers];
+        AtomicBoolean stop = new AtomicBoolean();
+        for (int t = 0; t < loggers; t++) {
+            int index = t;
+            threads[t] = new Thread(() -> {
+                Random rnd = new Random(index);
+                while (!stop.get()) {
+                    int dish = rnd.nextInt(store.size());
+                    registry.logMeal(String.valueOf(100_000 + rnd.nextInt(students)), to, store, dish, 1);
+                    logged[index]++;
+                }
+            });
+            threads[t].start();
+        }
+
+        Analytics analytics = new Analytics(registry, live);
+        for (int run = 0; run < 5; run++) {
+            long start = System.nanoTime();
+            List<Entry> protein = analytics.topStudents(Nutrient.PROTEIN, from, to, null, null, 20);
+            long t1 = System.nanoTime();
+            List<Entry> frary = analytics.topStudents(Nutrient.PROTEIN, from, to, "Frary", null, 20);
+            long t2 = System.nanoTime();
+            List<Entry> sodium = analytics.topHalls(Nutrient.SODIUM, from, to, null, 5);
+            long t3 = System.nanoTime();
+            System.out.printf("top students %.1f ms, top students at Frary %.1f ms, top halls %.1f ms%n",
+                    (t1 - start) / 1e6, (t2 - t1) / 1e6, (t3 - t2) / 1e6);
+            if (run == 4) {
+                System.out.println("Top protein: " + protein.subList(0, Math.min(3, protein.size())));
+                System.out.println("Top protein at Frary: " + frary.subList(0, Math.min(3, frary.size())));
+                System.out.println("Sodium per meal by hall: " + sodium);
+            }
+        }
+        stop.set(true);
+        long total = 0;
+        for (int t = 0; t < loggers; t++) {
+            threads[t].join();
+            total += logged[t];
+        }
+        System.out.println("Meals logged concurrently: " + total);
+
+        //With the loggers stopped, the heap selection must agree with a full sort
+        int first = NutritionHistory.epochDay(from), last = NutritionHistory.epochDay(to);
+        List<Entry> all = registry.mapEach(u -> new Entry(u.studentId, u.name,
+                u.history.average(first, last, Nutrient.PROTEIN.ordinal()), 0)).sorted((a, b) ->
+                TopK.better(a, b) ? -1 : TopK.better(b, a) ? 1 : 0).toList();
+        List<Entry> top = analytics.topStudents(Nutrient.PROTEIN, from, to, null, null, 20);
+        boolean match = top.size() == 20;
+        for (int i = 0; i < top.size() && match; i++) match = top.get(i).key.equals(all.get(i).key);
+        System.out.println(match ? "Top 20 matches a full sort." : "Top 20 DIFFERS from a full sort.");
+    }
+}
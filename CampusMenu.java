@@ -0,0 +1,355 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * CampusMenu is the menu of several colleges, each published as its own CSV in the
+ * DiningHallMenuLoader column layout, merged into one map namespaced by campus:
+ * <pre>
+ *   "Pomona/Frank" -> "Breakfast" -> [MenuItem, ...]
+ * </pre>
+ * The campus is the file name without ".csv" and a trailing "DiningHalls", so
+ * PomonaDiningHalls.csv serves "Pomona/Frank", "Pomona/Frary" and so on.
+ *
+ * Loading only builds a hall index: every file is memory-mapped and scanned once for
+ * the hall column and the offset of each row, with no per-dish objects. A hall's
+ * meal -> item lists are parsed from the mapped file the first time the hall is read
+ * through get() or an entry's value, and kept from then on. Startup therefore grows
+ * with the bytes scanned rather than with the objects built, and halls nobody asks
+ * for are never materialized. Iterating keySet() does not materialize anything.
+ *
+ * The map is read-only and safe to share between threads; two threads reading the same
+ * new hall materialize it once. Materialized meal maps and item lists are unmodifiable,
+ * and items carry no MenuStore id.
+ *
+ * Example usage:
+ * <pre>
+ * CampusMenu menu = DiningHallMenuLoader.loadCampuses("menus/");
+ * for (String hall : menu.halls("Scripps")) System.out.println(hall);   // nothing parsed yet
+ * List<MenuItem> lunch = menu.get("Pomona/Frary").get("Lunch");          // parses Frary only
+ *
+ * java CampusMenu [campuses] [scale]   // startup time and heap as campuses are added
+ * </pre>
+ *
+ * @author Yaseen Osman
+ */
+public class CampusMenu extends AbstractMap<String, Map<String, List<MenuItem>>> {
+    //Separator between campus and hall in the keys
+    public static final char SEPARATOR = '/';
+
+    //Parsing the rows of one hall on first access
+    private static final Metrics.Operation MATERIALIZE = Metrics.register("menu.hall");
+
+    //Campus names in load order
+    private final List<String> campuses;
+    //Every hall by namespaced key, campus by campus in file order, halls in first-seen order
+    private final LinkedHashMap<String, Hall> halls;
+    private final Set<Entry<String, Map<String, List<MenuItem>>>> entries = new EntrySet();
+
+    CampusMenu(List<String> campuses, LinkedHashMap<String, Hall> halls) {
+        this.campuses = List.copyOf(campuses);
+        this.halls = halls;
+    }
+
+    /**
+     * One dining hall: where its rows are, and its meals once they have been parsed.
+     */
+    static final class Hall {
+        final String campus, name;
+        //The campus file and the start offset of each of this hall's rows in it
+        private final MappedByteBuffer file;
+        private int[] rows = new int[16];
+        private int size;
+        //Meal -> items, set once on first access
+        private volatile Map<String, List<MenuItem>> meals;
+
+        Hall(String campus, String name, MappedByteBuffer file) {
+            this.campus = campus;
+            this.name = name;
+            this.file = file;
+        }
+
+        void addRow(int offset) {
+            if (size == rows.length) rows = Arrays.copyOf(rows, size * 2);
+            rows[size++] = offset;
+        }
+
+        Map<String, List<MenuItem>> meals() {
+            Map<String, List<MenuItem>> m = meals;
+            if (m != null) return m;
+            synchronized (this) {
+                if (meals == null) meals = parse();
+                return meals;
+            }
+        }
+
+        //Parses every row of the hall the same way DiningHallMenuLoader.loadMenu does
+        private Map<String, List<MenuItem>> parse() {
+            long start = MATERIALIZE.start();
+            SymbolTable mealNames = new SymbolTable(), stations = new SymbolTable(), servingSizes = new SymbolTable();
+            LinkedHashMap<String, List<MenuItem>> parsed = new LinkedHashMap<>();
+            byte[] line = new byte[256];
+            for (int r = 0; r < size; r++) {
+                int length = 0;
+                for (int i = rows[r]; i < file.limit(); i++) {
+                    byte b = file.get(i);
+                    if (b == '\n') break;
+                    if (length == line.length) line = Arrays.copyOf(line, length * 2);
+                    line[length++] = b;
+                }
+                if (length > 0 && line[length - 1] == '\r') length--;
+                String[] tokens = DiningHallMenuLoader.parseCSVLine(new String(line, 0, length, StandardCharsets.UTF_8));
+                String meal = mealNames.intern(tokens[2].trim());
+                parsed.computeIfAbsent(meal, k -> new ArrayList<>()).add(DiningHallMenuLoader.item(tokens, stations, servingSizes));
+            }
+            parsed.replaceAll((meal, items) -> Collections.unmodifiableList(items));
+            rows = null;
+            MATERIALIZE.stop(start);
+            return Collections.unmodifiableMap(parsed);
+        }
+    }
+
+    /**
+     * Returns the campuses in the order their files were given.
+     * @return Campus names
+     */
+    public List<String> campuses() {
+        return campuses;
+    }
+
+    /**
+     * Returns the namespaced keys of one campus's halls, without materializing them.
+     *
+     * @param campus Campus name, e.g. "Pomona"
+     * @return Keys such as "Pomona/Frank", in first-seen order
+     */
+    public List<String> halls(String campus) {
+        List<String> keys = new ArrayList<>();
+        halls.forEach((key, hall) -> {
+            if (hall.campus.equals(campus)) keys.add(key);
+        });
+        return keys;
+    }
+
+    /**
+     * Returns the campus part of a hall key.
+     *
+     * @param hallKey Namespaced hall, e.g. "Pomona/Frank"
+     * @return The campus, e.g. "Pomona"
+     */
+    public static String campus(String hallKey) {
+        return hallKey.substring(0, hallKey.indexOf(SEPARATOR));
+    }
+
+    /**
+     * Returns the hall part of a hall key, as it appears in the campus CSV.
+     *
+     * @param hallKey Namespaced hall, e.g. "Pomona/Frank"
+     * @return The hall, e.g. "Frank"
+     */
+    public static String hall(String hallKey) {
+        return hallKey.substring(hallKey.indexOf(SEPARATOR) + 1);
+    }
+
+    /**
+     * Returns the number of dish rows indexed for a hall, without materializing it.
+     *
+     * @param hallKey Namespaced hall
+     * @return Number of rows, or 0 if there is no such hall
+     */
+    public int rows(String hallKey) {
+        Hall hall = halls.get(hallKey);
+        return hall == null ? 0 : hall.size;
+    }
+
+    /**
+     * Returns how many halls have been materialized so far.
+     * @return Materialized halls
+     */
+    public int materialized() {
+        int count = 0;
+        for (Hall hall : halls.values()) if (hall.meals != null) count++;
+        return count;
+    }
+
+    /**
+     * Returns a hall's meal -> item lists, parsing them on the first call.
+     *
+     * @param hallKey Namespaced hall, e.g. "Pomona/Frank"
+     * @return Unmodifiable meal map, or null if there is no such hall
+     */
+    @Override
+    public Map<String, List<MenuItem>> get(Object hallKey) {
+        Hall hall = halls.get(hallKey);
+        return hall == null ? null : hall.meals();
+    }
+
+    @Override
+    public boolean containsKey(Object hallKey) {
+        return halls.containsKey(hallKey);
+    }
+
+    @Override
+    public int size() {
+        return halls.size();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return Collections.unmodifiableSet(halls.keySet());
+    }
+
+    @Override
+    public Set<Entry<String, Map<String, List<MenuItem>>>> entrySet() {
+        return entries;
+    }
+
+    //Entries whose value is materialized when getValue is called
+    private final class EntrySet extends AbstractSet<Entry<String, Map<String, List<MenuItem>>>> {
+        @Override
+        public Iterator<Entry<String, Map<String, List<MenuItem>>>> iterator() {
+            Iterator<Entry<String, Hall>> it = halls.entrySet().iterator();
+            return new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                @Override
+                public Entry<String, Map<String, List<MenuItem>>> next() {
+                    Entry<String, Hall> e = it.next();
+                    return new Entry<>() {
+                        @Override
+                        public String getKey() {
+                            return e.getKey();
+                        }
+
+                        @Override
+                        public Map<String, List<MenuItem>> getValue() {
+                            return e.getValue().meals();
+                        }
+
+                        @Override
+                        public Map<String, List<MenuItem>> setValue(Map<String, List<MenuItem>> value) {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return halls.size();
+        }
+    }
+
+    /**
+     * Memory-maps one campus CSV and indexes its rows by hall. Rows with fewer than 17
+     * columns are skipped, as in loadMenu; the first line is the header.
+     *
+     * @param campus Campus name
+     * @param file   The CSV
+     * @return Halls of the campus in first-seen order, keyed by hall name
+     * @throws IOException if the file cannot be read or is 2 GB or larger
+     */
+    static LinkedHashMap<String, Hall> index(String campus, Path file) throws IOException {
+        MappedByteBuffer bytes;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() >= Integer.MAX_VALUE) throw new IOException(file + " is too large to index");
+            bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        LinkedHashMap<String, Hall> halls = new LinkedHashMap<>();
+        //The hall name of the previous row, to skip the lookup while rows stay in one hall
+        byte[] lastName = new byte[0];
+        Hall last = null;
+        int limit = bytes.limit(), pos = 0;
+        while (pos < limit && bytes.get(pos) != '\n') pos++; //skip header
+        pos++;
+        while (pos < limit) {
+            int start = pos, commas = 0, hallStart = -1, hallEnd = -1;
+            boolean inQuotes = false;
+            for (; pos < limit; pos++) {
+                byte b = bytes.get(pos);
+                if (b == '\n') break;
+                if (b == '"') {
+                    inQuotes = !inQuotes;
+                } else if (b == ',' && !inQuotes) {
+                    commas++;
+                    if (commas == 1) hallStart = pos + 1;
+                    else if (commas == 2) hallEnd = pos;
+                }
+            }
+            pos++;
+            if (commas < 16) continue;
+
+            byte[] name = new byte[hallEnd - hallStart];
+            bytes.get(hallStart, name);
+            if (last == null || !Arrays.equals(name, lastName)) {
+                String hall = unquote(new String(name, StandardCharsets.UTF_8)).trim();
+                last = halls.computeIfAbsent(hall, k -> new Hall(campus, k, bytes));
+                lastName = name;
+            }
+            last.addRow(start);
+        }
+        return halls;
+    }
+
+    //Drops the quotes parseCSVLine would drop
+    private static String unquote(String field) {
+        return field.indexOf('"') < 0 ? field : field.replace("\"", "");
+    }
+
+    /**
+     * Copies the bundled CSV as several campuses and compares loading them all eagerly
+     * with DiningHallMenuLoader.loadMenu against indexing them as a CampusMenu, then
+     * times materializing one hall.
+     *
+     * @param args [campuses] [scale]: number of campus files (default 5) and how many
+     *             copies of the bundled rows each holds (default 20)
+     * @throws Exception if the files cannot be written or read
+     */
+    public static void main(String[] args) throws Exception {
+        int campusCount = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int scale = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        String[] names = {"Pomona", "Scripps", "Pitzer", "ClaremontMcKenna", "HarveyMudd"};
+        List<String> lines = java.nio.file.Files.readAllLines(Path.of("PomonaDiningHalls.csv"));
+        Path dir = java.nio.file.Files.createTempDirectory("campuses");
+        for (int c = 0; c < campusCount; c++) {
+            List<String> copy = new ArrayList<>(lines.subList(0, 1));
+            for (int s = 0; s < scale; s++) copy.addAll(lines.subList(1, lines.size()));
+            String campus = c < names.length ? names[c] : "Campus" + c;
+            java.nio.file.Files.write(dir.resolve(campus + "DiningHalls.csv"), copy);
+        }
+
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            int eagerHalls = 0;
+            for (Path file : DiningHallMenuLoader.campusFiles(dir.toString())) {
+                eagerHalls += DiningHallMenuLoader.loadMenu(file.toString()).size();
+            }
+            long eager = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            CampusMenu menu = DiningHallMenuLoader.loadCampuses(dir.toString());
+            long lazy = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            String first = menu.keySet().iterator().next();
+            int items = 0;
+            for (List<MenuItem> list : menu.get(first).values()) items += list.size();
+            long one = System.nanoTime() - start;
+
+            System.out.printf(Locale.ROOT, "%d campuses x %d rows: eager loadMenu %.1f ms (%d halls); "
+                            + "index %.1f ms (%d halls); first access to %s %.1f ms (%d items)%n",
+                    campusCount, scale * (lines.size() - 1), eager / 1e6, eagerHalls, lazy / 1e6, menu.size(),
+                    first, one / 1e6, items);
+        }
+        for (Path file : DiningHallMenuLoader.campusFiles(dir.toString())) java.nio.file.Files.delete(file);
+        java.nio.file.Files.delete(dir);
+    }
+}
@@ -0,0 +1,453 @@
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * CampusSimulator reproduces campus-scale load on one machine, offline, for throughput
+ * measurements and long soak runs.
+ *
+ * It generates a synthetic student population:
+ * <ul>
+ *   <li>calorie goals drawn around 2200 kcal, split into protein, carbs and fat goals
+ *       the way User.goals holds them</li>
+ *   <li>a random friend graph with a configurable number of friends per student</li>
+ *   <li>dietary restrictions for some students (allergens to avoid)</li>
+ * </ul>
+ * Many virtual threads then play out visits to the dining halls: pick a hall and meal
+ * period from the loaded menu, browse its dishes, ask for a recommendation, log one to
+ * three dishes (often the recommended one), check the day's summary and now and then
+ * share it with friends and read what they shared. Simulated days advance with wall-clock time, so histories grow
+ * as they would over a semester.
+ *
+ * Visits run either directly against UserRegistry, LiveMenu and RecommendationCache,
+ * or with --http against a NutritionServer on a free local port. Every report interval
+ * and at the end it prints per-operation throughput and latency percentiles, GC pause
+ * counts and percentiles from the JVM's GC notifications, and the heap left after the
+ * last collection, so growth over a soak run is visible.
+ *
+ * Example usage:
+ * <pre>
+ * java CampusSimulator --seconds=60 --clients=512 --students=20000 --friends=8
+ * java -Xmx1g CampusSimulator --seconds=3600 --http --report=60 --day=30   // one-hour soak over HTTP
+ * </pre>
+ *
+ * @author Yaseen Osman
+ */
+public class CampusSimulator {
+    /**
+     * One kind of request a visit makes.
+     */
+    enum Op {
+        BROWSE, RECOMMEND, LOG, SUMMARY, SHARE;
+
+        static final Op[] ALL = values();
+    }
+
+    /**
+     * The tracker operations a visit uses, in process or over HTTP.
+     */
+    interface Tracker extends AutoCloseable {
+        //Dish ids served at a hall and meal that the filter allows
+        int[] browse(String hall, String meal, DietaryIndex.Filter filter) throws Exception;
+
+        //Recommended dish id, or -1 if there is none
+        int recommend(String student, String date, String hall, String meal, DietaryIndex.Filter filter) throws Exception;
+
+        void log(String student, String date, int dish, double servings) throws Exception;
+
+        void summary(String student, String date) throws Exception;
+
+        void share(String student, String date) throws Exception;
+
+        @Override
+        void close() throws Exception;
+    }
+
+    //Settings, from --name=value arguments
+    private final int seconds, clients, students, friends, reportSeconds, thinkMillis;
+    private final double secondsPerDay;
+    private final boolean http;
+    private final long seed;
+
+    private final LiveMenu live;
+    private final UserRegistry registry = new UserRegistry();
+    //Restrictions per student, indexed like studentId(i); null for none
+    private DietaryIndex.Filter[] filters;
+    //Hall and meal pairs that serve at least one dish
+    private final List<String[]> groups = new ArrayList<>();
+
+    //Latency per operation, over the whole run and since the last report
+    private final LatencyHistogram[] total = new LatencyHistogram[Op.ALL.length];
+    private final LatencyHistogram[] interval = new LatencyHistogram[Op.ALL.length];
+    private final LongAdder[] errors = new LongAdder[Op.ALL.length];
+    private final LongAdder visits = new LongAdder();
+    //GC pauses, over the whole run and since the last report, and the heap after the last collection
+    private final LatencyHistogram pauses = new LatencyHistogram(), intervalPauses = new LatencyHistogram();
+    private final AtomicLong heapAfterGc = new AtomicLong(-1);
+
+    CampusSimulator(Map<String, String> options) throws Exception {
+        seconds = Integer.parseInt(options.getOrDefault("seconds", "30"));
+        clients = Integer.parseInt(options.getOrDefault("clients", "256"));
+        students = Integer.parseInt(options.getOrDefault("students", "10000"));
+        friends = Integer.parseInt(options.getOrDefault("friends", "5"));
+        reportSeconds = Integer.parseInt(options.getOrDefault("report", "10"));
+        thinkMillis = Integer.parseInt(options.getOrDefault("think", "0"));
+        secondsPerDay = Double.parseDouble(options.getOrDefault("day", "10"));
+        http = options.containsKey("http");
+        seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        String csv = options.getOrDefault("menu", "PomonaDiningHalls.csv");
+        live = new LiveMenu(null, MenuStore.load(csv));
+        for (int i = 0; i < Op.ALL.length; i++) {
+            total[i] = new LatencyHistogram();
+            interval[i] = new LatencyHistogram();
+            errors[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Builds the population: goals, friends and restrictions.
+     */
+    void populate() {
+        Random random = new Random(seed);
+        Allergen[] allergens = Allergen.values();
+        filters = new DietaryIndex.Filter[students];
+        for (int i = 0; i < students; i++) {
+            //Calorie goal around 2200 kcal; protein 15-30%, carbs 40-55%, fat the rest of the energy
+            int calories = (int) Math.max(1400, Math.min(3600, 2200 + 350 * random.nextGaussian()));
+            double protein = 0.15 + 0.15 * random.nextDouble(), carbs = 0.40 + 0.15 * random.nextDouble();
+            double fat = 1 - protein - carbs;
+            User user = new User(studentId(i), "Student " + i, NutritionServer.goals(calories,
+                    (int) (calories * protein / 4), (int) (calories * carbs / 4), (int) (calories * fat / 9)));
+            registry.register(user);
+            if (random.nextInt(100) < 15) {
+                filters[i] = new DietaryIndex.Filter().avoid(allergens[random.nextInt(allergens.length)]);
+                if (random.nextInt(4) == 0) filters[i].avoid(allergens[random.nextInt(allergens.length)]);
+            }
+        }
+        //Each student starts half of their friendships with random others; friendships go both ways
+        for (int i = 0; i < students && students > 1; i++) {
+            for (int f = 0; f < (friends + 1) / 2; f++) {
+                int other = random.nextInt(students - 1);
+                if (other >= i) other++;
+                String a = studentId(i), b = studentId(other);
+                registry.withUser(a, u -> u.friends.add(b));
+                registry.withUser(b, u -> u.friends.add(a));
+            }
+        }
+        MenuStore store = live.current().store;
+        for (int h = 0; h < store.halls().size(); h++) {
+            for (int m = 0; m < store.meals().size(); m++) {
+                if (store.ids(h, m).length > 0) groups.add(new String[]{store.halls().decode(h), store.meals().decode(m)});
+            }
+        }
+    }
+
+    /**
+     * Runs the simulation for the configured time and prints the reports.
+     * @throws Exception if the tracker cannot be started
+     */
+    void run() throws Exception {
+        watchGc();
+        long start = System.nanoTime(), deadline = start + seconds * 1_000_000_000L;
+        LocalDate firstDay = LocalDate.now();
+        System.out.printf(Locale.ROOT, "%d students, %d friends each, %d clients, %s, %.0f s per simulated day%n",
+                students, friends, clients, http ? "over HTTP" : "in process", secondsPerDay);
+        try (Tracker tracker = http ? new HttpTracker() : new DirectTracker();
+             ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < clients; c++) {
+                Random random = new Random(seed * 31 + c);
+                workers.submit(() -> {
+                    while (System.nanoTime() < deadline) {
+                        long day = (long) ((System.nanoTime() - start) / 1e9 / secondsPerDay);
+                        visit(tracker, random, firstDay.plusDays(day).toString());
+                        //Virtual threads are not time-sliced: without a pause, a client that never blocks keeps its carrier
+                        if (thinkMillis > 0) Thread.sleep(random.nextInt(2 * thinkMillis + 1));
+                        else Thread.yield();
+                    }
+                    return null;
+                });
+            }
+            long last = start;
+            while (System.nanoTime() < deadline) {
+                long next = Math.min(deadline, last + reportSeconds * 1_000_000_000L);
+                Thread.sleep(Math.max(1, (next - System.nanoTime()) / 1_000_000));
+                long now = System.nanoTime();
+                report(String.format(Locale.ROOT, "t=%.0fs", (now - start) / 1e9), interval, intervalPauses, now - last);
+                for (LatencyHistogram h : interval) h.reset();
+                intervalPauses.reset();
+                last = now;
+            }
+        }
+        report("total", total, pauses, System.nanoTime() - start);
+    }
+
+    //One visit to a dining hall
+    private void visit(Tracker tracker, Random random, String date) {
+        int index = random.nextInt(students);
+        String student = studentId(index);
+        DietaryIndex.Filter filter = filters[index];
+        String[] group = groups.get(random.nextInt(groups.size()));
+        visits.increment();
+
+        int[] dishes = time(Op.BROWSE, () -> tracker.browse(group[0], group[1], filter));
+        Integer recommended = random.nextInt(4) == 0 ? null
+                : time(Op.RECOMMEND, () -> tracker.recommend(student, date, group[0], group[1], filter));
+        int plates = 1 + random.nextInt(3);
+        for (int p = 0; p < plates; p++) {
+            int dish = p == 0 && recommended != null && recommended >= 0 && random.nextBoolean() ? recommended
+                    : dishes != null && dishes.length > 0 ? dishes[random.nextInt(dishes.length)] : -1;
+            if (dish < 0) continue;
+            double servings = random.nextInt(5) == 0 ? 0.5 + random.nextInt(4) * 0.5 : 1;
+            time(Op.LOG, () -> {
+                tracker.log(student, date, dish, servings);
+                return null;
+            });
+        }
+        time(Op.SUMMARY, () -> {
+            tracker.summary(student, date);
+            return null;
+        });
+        if (random.nextInt(10) == 0) {
+            time(Op.SHARE, () -> {
+                tracker.share(student, date);
+                return null;
+            });
+        }
+    }
+
+    private interface Call<T> {
+        T call() throws Exception;
+    }
+
+    //Times one operation; failures are counted and return null
+    private <T> T time(Op op, Call<T> call) {
+        long start = System.nanoTime();
+        try {
+            T result = call.call();
+            long nanos = System.nanoTime() - start;
+            total[op.ordinal()].record(nanos);
+            interval[op.ordinal()].record(nanos);
+            return result;
+        } catch (Exception e) {
+            errors[op.ordinal()].increment();
+            return null;
+        }
+    }
+
+    private void report(String label, LatencyHistogram[] latencies, LatencyHistogram gc, long nanos) {
+        StringBuilder sb = new StringBuilder(String.format(Locale.ROOT, "%n[%s] %-10s %10s %10s %10s %10s %10s %8s%n",
+                label, "operation", "ops/s", "p50 us", "p99 us", "p999 us", "max us", "errors"));
+        long operations = 0;
+        for (Op op : Op.ALL) {
+            LatencyHistogram h = latencies[op.ordinal()];
+            long count = h.count();
+            operations += count;
+            long[] p = h.percentiles(0.5, 0.99, 0.999);
+            sb.append(String.format(Locale.ROOT, "%s %-10s %10.0f %10.1f %10.1f %10.1f %10.1f %8d%n",
+                    " ".repeat(label.length() + 2), op.name().toLowerCase(), count * 1e9 / nanos, p[0] / 1e3,
+                    p[1] / 1e3, p[2] / 1e3, h.max() / 1e3, errors[op.ordinal()].sum()));
+        }
+        long[] p = gc.percentiles(0.5, 0.99);
+        long heap = heapAfterGc.get();
+        sb.append(String.format(Locale.ROOT, "%s %.0f ops/s; %d GC pauses, %.1f ms total (p50 %.2f ms, p99 %.2f ms, "
+                        + "max %.2f ms); heap after last GC %s; %d visits so far",
+                " ".repeat(label.length() + 2), operations * 1e9 / nanos, gc.count(), gc.total() / 1e6, p[0] / 1e6,
+                p[1] / 1e6, gc.max() / 1e6, heap < 0 ? "n/a" : String.format(Locale.ROOT, "%.1f MB", heap / 1e6),
+                visits.sum()));
+        System.out.println(sb);
+    }
+
+    //Records every stop-the-world collection's duration and the heap it left behind
+    private void watchGc() {
+        NotificationListener listener = (notification, handback) -> {
+            if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) return;
+            GarbageCollectionNotificationInfo info =
+                    GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            //Concurrent cycles run beside the application; only pauses count
+            if (info.getGcAction().contains("concurrent") || info.getGcName().contains("Concurrent")) return;
+            long nanos = info.getGcInfo().getDuration() * 1_000_000;
+            pauses.record(nanos);
+            intervalPauses.record(nanos);
+            long used = 0;
+            for (MemoryUsage usage : info.getGcInfo().getMemoryUsageAfterGc().values()) used += usage.getUsed();
+            heapAfterGc.set(used);
+        };
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter) ((NotificationEmitter) gc).addNotificationListener(listener, null, null);
+        }
+    }
+
+    private static String studentId(int index) {
+        return String.valueOf(100_000 + index);
+    }
+
+    /**
+     * Calls the tracker classes directly, the way NutritionServer's handlers do.
+     */
+    private class DirectTracker implements Tracker {
+        private final RecommendationCache cache = RecommendationCache.fromProperties(live);
+        private final ShareFanout sharing = ShareFanout.fromProperties(FriendGraph.of(registry));
+
+        @Override
+        public int[] browse(String hall, String meal, DietaryIndex.Filter filter) {
+            return live.current().dietary.search(hall, meal, filter);
+        }
+
+        @Override
+        public int recommend(String student, String date, String hall, String meal, DietaryIndex.Filter filter) {
+            int day = NutritionHistory.epochDay(date);
+            double remaining = registry.withUser(student, u -> u.budget.remaining(Nutrient.CALORIES, day));
+            List<RecommendationIndex.Match> matches = cache.nearestCalories(remaining, 1, hall, meal, filter);
+            return matches.isEmpty() ? -1 : matches.get(0).item.id;
+        }
+
+        @Override
+        public void log(String student, String date, int dish, double servings) {
+            registry.logMeal(student, date, live.current().store, dish, servings);
+        }
+
+        @Override
+        public void summary(String student, String date) {
+            registry.getDailyNutrition(student, date);
+        }
+
+        @Override
+        public void share(String student, String date) {
+            String summary = registry.withUser(student, u -> u.shareNutrition(date));
+            sharing.share(student, summary);
+            sharing.inbox(student, 20);
+        }
+
+        @Override
+        public void close() {
+            sharing.close();
+        }
+    }
+
+    /**
+     * Sends every operation to a NutritionServer on a free local port.
+     */
+    private class HttpTracker implements Tracker {
+        private final Pattern ID = Pattern.compile("\"id\":(\\d+)");
+        private final NutritionServer server = new NutritionServer(live, registry, null);
+        private final ExecutorService clientThreads = Executors.newVirtualThreadPerTaskExecutor();
+        private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+                .executor(clientThreads).build();
+        private final String base;
+
+        HttpTracker() throws Exception {
+            server.start(0);
+            base = "http://localhost:" + server.port();
+        }
+
+        @Override
+        public int[] browse(String hall, String meal, DietaryIndex.Filter filter) throws Exception {
+            return ids(get("/menu?hall=" + encode(hall) + "&meal=" + encode(meal) + avoid(filter)));
+        }
+
+        @Override
+        public int recommend(String student, String date, String hall, String meal, DietaryIndex.Filter filter)
+                throws Exception {
+            int[] ids = ids(get("/recommend?student=" + student + "&date=" + date + "&hall=" + encode(hall)
+                    + "&meal=" + encode(meal) + avoid(filter)));
+            return ids.length == 0 ? -1 : ids[0];
+        }
+
+        @Override
+        public void log(String student, String date, int dish, double servings) throws Exception {
+            post("/log?student=" + student + "&date=" + date + "&dish=" + dish + "&servings=" + servings);
+        }
+
+        @Override
+        public void summary(String student, String date) throws Exception {
+            get("/summary?student=" + student + "&date=" + date);
+        }
+
+        @Override
+        public void share(String student, String date) throws Exception {
+            post("/share?student=" + student + "&date=" + date);
+            get("/inbox?student=" + student);
+        }
+
+        private String get(String path) throws Exception {
+            return send(HttpRequest.newBuilder(URI.create(base + path)));
+        }
+
+        private String post(String path) throws Exception {
+            return send(HttpRequest.newBuilder(URI.create(base + path)).POST(HttpRequest.BodyPublishers.noBody()));
+        }
+
+        private String send(HttpRequest.Builder request) throws Exception {
+            HttpResponse<String> response = client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) throw new IllegalStateException(response.statusCode() + " " + response.body());
+            return response.body();
+        }
+
+        private int[] ids(String json) {
+            Matcher m = ID.matcher(json);
+            int[] ids = new int[8];
+            int size = 0;
+            while (m.find()) {
+                if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+                ids[size++] = Integer.parseInt(m.group(1));
+            }
+            return Arrays.copyOf(ids, size);
+        }
+
+        private String avoid(DietaryIndex.Filter filter) {
+            if (filter == null || filter.allergens == 0) return "";
+            return "&avoid=" + encode(Allergen.labels(filter.allergens));
+        }
+
+        private String encode(String value) {
+            return URLEncoder.encode(value, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() {
+            client.close();
+            clientThreads.close();
+            server.stop();
+        }
+    }
+
+    /**
+     * Runs a simulation.
+     *
+     * @param args --seconds=30 --clients=256 --students=10000 --friends=5 --report=10
+     *             --think=0 (mean ms between a client's visits) --day=10 (seconds per
+     *             simulated day) --seed=42 --menu=PomonaDiningHalls.csv, and --http to
+     *             go through a local NutritionServer
+     * @throws Exception if the menu cannot be loaded or the server cannot start
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) throw new IllegalArgumentException("Expected --name=value: " + arg);
+            int eq = arg.indexOf('=');
+            options.put(eq < 0 ? arg.substring(2) : arg.substring(2, eq), eq < 0 ? "" : arg.substring(eq + 1));
+        }
+        CampusSimulator simulator = new CampusSimulator(options);
+        simulator.populate();
+        simulator.run();
+    }
+}
@@ -0,0 +1,210 @@
+import java.util.*;
+
+/**
+ * DensityIndex keeps the dishes of a MenuStore ranked by nutrient density, e.g. protein
+ * per kcal, so "highest protein per kcal at Frank Dinner" and its next pages are array
+ * slices instead of a scan and sort of the menu.
+ *
+ * For every Ratio and every scope (whole menu, one dining hall, one meal period, or one
+ * hall and meal) it stores the dish ids sorted from the highest ratio to the lowest,
+ * ties in row order. A page of k dishes is read from either end in O(k); from the low
+ * end, ties come in reverse row order. Dishes whose denominator is 0, such as a dish
+ * without calories or without a serving weight, have no ratio and are left out of that
+ * ratio's views.
+ *
+ * Example usage:
+ * <pre>
+ * DensityIndex density = new DensityIndex(store);
+ * int[] best = density.top(DensityIndex.Ratio.PROTEIN_PER_KCAL, "Frank", "Dinner", 0, 10, false);
+ * List<MenuItem> next = density.page(DensityIndex.Ratio.PROTEIN_PER_KCAL, "Frank", "Dinner", 10, 10, false);
+ * int[] leastSalty = density.top(DensityIndex.Ratio.SODIUM_PER_GRAM, null, "Lunch", 0, 5, true);
+ * </pre>
+ *
+ * @author Yaseen Osman
+ */
+public class DensityIndex {
+    /**
+     * A nutrient divided by calories or by serving weight.
+     */
+    public enum Ratio {
+        PROTEIN_PER_KCAL(Nutrient.PROTEIN, Nutrient.CALORIES),
+        FIBER_PER_KCAL(Nutrient.FIBER, Nutrient.CALORIES),
+        SODIUM_PER_KCAL(Nutrient.SODIUM, Nutrient.CALORIES),
+        CALORIES_PER_GRAM(Nutrient.CALORIES, null),
+        PROTEIN_PER_GRAM(Nutrient.PROTEIN, null),
+        SODIUM_PER_GRAM(Nutrient.SODIUM, null);
+
+        //Shared copy of values()
+        public static final Ratio[] ALL = values();
+
+        //Nutrient divided
+        public final Nutrient numerator;
+        //Nutrient divided by, or null for the serving weight in grams
+        public final Nutrient denominator;
+
+        Ratio(Nutrient numerator, Nutrient denominator) {
+            this.numerator = numerator;
+            this.denominator = denominator;
+        }
+
+        /**
+         * Returns the unit of the ratio, e.g. "g/kcal" or "mg/g".
+         * @return Unit
+         */
+        public String unit() {
+            return numerator.unit + "/" + (denominator == null ? "g" : denominator.unit);
+        }
+
+        /**
+         * Looks up a ratio by constant name, ignoring case; spaces and dashes count as
+         * underscores, so "protein_per_kcal" and "Sodium per gram" both match.
+         *
+         * @param name Ratio name
+         * @return The ratio, or null if none matches
+         */
+        public static Ratio forName(String name) {
+            String key = name.trim().replace(' ', '_').replace('-', '_');
+            for (Ratio ratio : ALL) {
+                if (ratio.name().equalsIgnoreCase(key)) return ratio;
+            }
+            return null;
+        }
+    }
+
+    private final MenuStore store;
+    //Ratio value per dish, indexed by Ratio.ordinal() then dish id; NaN where undefined
+    private final double[][] values = new double[Ratio.ALL.length][];
+    //Sorted dish ids, indexed by Ratio.ordinal() then scope(hallCode, mealCode)
+    private final int[][][] views = new int[Ratio.ALL.length][][];
+
+    /**
+     * Builds every view of a loaded store.
+     *
+     * @param store The menu store
+     */
+    public DensityIndex(MenuStore store) {
+        this.store = store;
+        int n = store.size();
+        int scopes = (store.halls().size() + 1) * (store.meals().size() + 1);
+        for (Ratio ratio : Ratio.ALL) {
+            double[] value = new double[n];
+            double[] top = store.column(ratio.numerator);
+            int defined = 0;
+            for (int id = 0; id < n; id++) {
+                double below = ratio.denominator == null ? store.grams(id) : store.value(id, ratio.denominator);
+                value[id] = below > 0 ? top[id] / below : Double.NaN;
+                if (below > 0) defined++;
+            }
+
+            //Sort once, then deal the ids out to their four scopes in that order
+            int[] sorted = new int[defined];
+            defined = 0;
+            for (int id = 0; id < n; id++) if (!Double.isNaN(value[id])) sorted[defined++] = id;
+            sortDescending(sorted, value);
+            int[] counts = new int[scopes];
+            for (int id : sorted) for (int scope : scopes(id)) counts[scope]++;
+            int[][] view = new int[scopes][];
+            for (int s = 0; s < scopes; s++) view[s] = new int[counts[s]];
+            int[] fill = new int[scopes];
+            for (int id : sorted) for (int scope : scopes(id)) view[scope][fill[scope]++] = id;
+
+            values[ratio.ordinal()] = value;
+            views[ratio.ordinal()] = view;
+        }
+    }
+
+    /**
+     * Returns a page of dish ids ranked by a ratio.
+     *
+     * @param ratio      The ratio
+     * @param diningHall Dining hall, or null for every hall
+     * @param mealPeriod Meal period, or null for every meal
+     * @param offset     Number of ranked dishes to skip
+     * @param limit      Maximum number of dishes to return
+     * @param ascending  True to start from the lowest ratio, false from the highest
+     * @return Up to limit dish ids in rank order; empty if the hall or meal is unknown
+     */
+    public int[] top(Ratio ratio, String diningHall, String mealPeriod, int offset, int limit, boolean ascending) {
+        int[] view = view(ratio, diningHall, mealPeriod);
+        int from = Math.max(0, offset), to = (int) Math.min(view.length, (long) from + Math.max(0, limit));
+        if (from >= to) return new int[0];
+        if (!ascending) return Arrays.copyOfRange(view, from, to);
+        int[] page = new int[to - from];
+        for (int i = 0; i < page.length; i++) page[i] = view[view.length - 1 - from - i];
+        return page;
+    }
+
+    /**
+     * Returns a page of MenuItem views ranked by a ratio; see top.
+     *
+     * @param ratio      The ratio
+     * @param diningHall Dining hall, or null for every hall
+     * @param mealPeriod Meal period, or null for every meal
+     * @param offset     Number of ranked dishes to skip
+     * @param limit      Maximum number of dishes to return
+     * @param ascending  True to start from the lowest ratio, false from the highest
+     * @return Up to limit dishes in rank order
+     */
+    public List<MenuItem> page(Ratio ratio, String diningHall, String mealPeriod, int offset, int limit,
+                               boolean ascending) {
+        List<MenuItem> items = new ArrayList<>();
+        for (int id : top(ratio, diningHall, mealPeriod, offset, limit, ascending)) items.add(store.item(id));
+        return items;
+    }
+
+    /**
+     * Returns how many dishes of a scope have a value for a ratio, i.e. how far pages go.
+     *
+     * @param ratio      The ratio
+     * @param diningHall Dining hall, or null for every hall
+     * @param mealPeriod Meal period, or null for every meal
+     * @return Number of ranked dishes
+     */
+    public int count(Ratio ratio, String diningHall, String mealPeriod) {
+        return view(ratio, diningHall, mealPeriod).length;
+    }
+
+    /**
+     * Returns a dish's value of a ratio.
+     *
+     * @param ratio The ratio
+     * @param id    Dish id
+     * @return The ratio, or NaN if its denominator is 0
+     */
+    public double value(Ratio ratio, int id) {
+        return values[ratio.ordinal()][id];
+    }
+
+    private int[] view(Ratio ratio, String diningHall, String mealPeriod) {
+        int hall = diningHall == null ? -1 : store.halls().code(diningHall);
+        int meal = mealPeriod == null ? -1 : store.meals().code(mealPeriod);
+        if (diningHall != null && hall < 0 || mealPeriod != null && meal < 0) return new int[0];
+        return views[ratio.ordinal()][scope(hall, meal)];
+    }
+
+    //Slot of a hall and meal code pair; -1 stands for every hall or every meal
+    private int scope(int hallCode, int mealCode) {
+        return (hallCode + 1) * (store.meals().size() + 1) + mealCode + 1;
+    }
+
+    //The four scopes a dish belongs to
+    private int[] scopes(int id) {
+        int hall = store.hallCode(id), meal = store.mealCode(id);
+        return new int[]{scope(-1, -1), scope(hall, -1), scope(-1, meal), scope(hall, meal)};
+    }
+
+    //Stable merge sort of ids by value, highest first; ids start in row order, so ties stay in it
+    private static void sortDescending(int[] ids, double[] value) {
+        int[] buffer = new int[ids.length];
+        for (int width = 1; width < ids.length; width *= 2) {
+            for (int lo = 0; lo < ids.length; lo += 2 * width) {
+                int mid = Math.min(lo + width, ids.length), hi = Math.min(lo + 2 * width, ids.length);
+                int a = lo, b = mid, out = lo;
+                while (a < mid && b < hi) buffer[out++] = value[ids[b]] > value[ids[a]] ? ids[b++] : ids[a++];
+                while (a < mid) buffer[out++] = ids[a++];
+                while (b < hi) buffer[out++] = ids[b++];
+            }
+            System.arraycopy(buffer, 0, ids, 0, ids.length);
+        }
+    }
+}
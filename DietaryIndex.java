@@ -0,0 +1,299 @@
+import java.util.*;
+
+/**
+ * DietaryIndex answers allergen and ingredient searches over a MenuStore without
+ * scanning ingredient text per query.
+ *
+ * It is built once when the menu is loaded and keeps:
+ * <ul>
+ *   <li>the allergen mask of every dish, so "contains none of these allergens" is one AND per dish</li>
+ *   <li>an inverted index from normalized ingredient token to the sorted ids of the
+ *       dishes that list it, so ingredient filters are merges of sorted postings</li>
+ * </ul>
+ * Ingredient text is split into words, lower-cased and reduced to a simple singular
+ * ("Peanuts" and "peanut" both become "peanut"). A phrase such as "peanut butter"
+ * matches dishes whose ingredients contain every word of it.
+ *
+ * Example usage:
+ * <pre>
+ *   DietaryIndex dietary = new DietaryIndex(store);
+ *   DietaryIndex.Filter filter = new DietaryIndex.Filter()
+ *           .avoid(Allergen.SOY, Allergen.MILK)
+ *           .avoidIngredient("peanut");
+ *   List<MenuItem> safe = dietary.searchItems("Frary", "Lunch", filter);
+ *   BitSet excluded = dietary.excluded(filter);   // for RecommendationIndex
+ * </pre>
+ *
+ * @author Yaseen Osman
+ */
+public class DietaryIndex {
+    //Store the dish ids refer to
+    private final MenuStore store;
+    //Allergen mask per dish id
+    private final int[] allergens;
+    //Normalized ingredient token -> sorted dish ids listing it
+    private final Map<String, int[]> postings = new HashMap<>();
+
+    /**
+     * Dietary restrictions of one search: allergens and ingredients to avoid, and
+     * ingredients a dish must contain.
+     */
+    public static class Filter {
+        //Mask of allergens to avoid
+        public int allergens;
+        //Ingredient phrases to avoid and to require
+        public final List<String> avoidIngredients = new ArrayList<>();
+        public final List<String> requireIngredients = new ArrayList<>();
+
+        /**
+         * Avoids dishes listing any of the given allergens.
+         * @param avoided Allergens to avoid
+         * @return This filter
+         */
+        public Filter avoid(Allergen... avoided) {
+            allergens |= Allergen.mask(avoided);
+            return this;
+        }
+
+        /**
+         * Avoids dishes whose ingredients contain a phrase, e.g. "peanut".
+         * @param phrase Ingredient word or phrase
+         * @return This filter
+         */
+        public Filter avoidIngredient(String phrase) {
+            avoidIngredients.add(phrase);
+            return this;
+        }
+
+        /**
+         * Keeps only dishes whose ingredients contain a phrase, e.g. "chickpea".
+         * @param phrase Ingredient word or phrase
+         * @return This filter
+         */
+        public Filter requireIngredient(String phrase) {
+            requireIngredients.add(phrase);
+            return this;
+        }
+
+        /**
+         * Returns whether the filter lets every dish through.
+         * @return True if nothing is avoided or required
+         */
+        public boolean isEmpty() {
+            return allergens == 0 && avoidIngredients.isEmpty() && requireIngredients.isEmpty();
+        }
+
+        /**
+         * Returns a canonical form of the filter that is the same for filters differing only
+         * in the order, case, plurals or repeats of their allergens, phrases and words.
+         * @return Canonical form of the filter, e.g. for cache keys
+         */
+        public String key() {
+            return allergens + "|" + phrases(avoidIngredients) + "|" + phrases(requireIngredients);
+        }
+
+        //Sorted, deduplicated phrases, each as its sorted words
+        private static String phrases(List<String> phrases) {
+            Set<String> keys = new TreeSet<>();
+            List<String> words = new ArrayList<>();
+            for (String phrase : phrases) {
+                words.clear();
+                tokenize(phrase, words);
+                keys.add(String.join(" ", new TreeSet<>(words)));
+            }
+            return String.join(",", keys);
+        }
+    }
+
+    /**
+     * Builds the index from a loaded store.
+     *
+     * @param store The menu store
+     */
+    public DietaryIndex(MenuStore store) {
+        this.store = store;
+        int n = store.size();
+        allergens = new int[n];
+        Map<String, IntList> lists = new HashMap<>();
+        List<String> words = new ArrayList<>();
+        for (int id = 0; id < n; id++) {
+            allergens[id] = store.allergens(id);
+            words.clear();
+            tokenize(store.ingredients(id), words);
+            for (String word : words) {
+                //Ids arrive in increasing order, so each list stays sorted; skip repeats within a dish
+                IntList list = lists.computeIfAbsent(word, k -> new IntList());
+                if (list.size == 0 || list.values[list.size - 1] != id) list.add(id);
+            }
+        }
+        lists.forEach((word, list) -> postings.put(word, Arrays.copyOf(list.values, list.size)));
+    }
+
+    /**
+     * Builds the index for a new version of a menu whose dish ids, allergens and
+     * ingredients are all unchanged, sharing the previous masks and postings.
+     *
+     * @param store    The new store
+     * @param previous Index of the previous version
+     */
+    DietaryIndex(MenuStore store, DietaryIndex previous) {
+        this.store = store;
+        this.allergens = previous.allergens;
+        this.postings.putAll(previous.postings);
+    }
+
+    /**
+     * Returns the ids of the dishes at a hall and meal that pass a filter, in row order.
+     *
+     * @param diningHall Dining hall name, or null for every hall
+     * @param mealPeriod Meal period, or null for every meal
+     * @param filter     Restrictions to apply, or null for none
+     * @return Matching dish ids, sorted
+     */
+    public int[] search(String diningHall, String mealPeriod, Filter filter) {
+        int[] candidates = scope(diningHall, mealPeriod);
+        if (filter == null || filter.isEmpty()) return candidates.clone();
+
+        for (String phrase : filter.requireIngredients) candidates = intersect(candidates, containing(phrase));
+        for (String phrase : filter.avoidIngredients) candidates = subtract(candidates, containing(phrase));
+
+        int mask = filter.allergens, size = 0;
+        int[] result = new int[candidates.length];
+        for (int id : candidates) {
+            if ((allergens[id] & mask) == 0) result[size++] = id;
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Returns MenuItem views of the dishes at a hall and meal that pass a filter.
+     *
+     * @param diningHall Dining hall name, or null for every hall
+     * @param mealPeriod Meal period, or null for every meal
+     * @param filter     Restrictions to apply, or null for none
+     * @return Matching dishes in row order
+     */
+    public List<MenuItem> searchItems(String diningHall, String mealPeriod, Filter filter) {
+        List<MenuItem> items = new ArrayList<>();
+        for (int id : search(diningHall, mealPeriod, filter)) items.add(store.item(id));
+        return items;
+    }
+
+    /**
+     * Returns the dishes of the whole menu that a filter rules out, as a set of dish ids.
+     * RecommendationIndex skips these dishes.
+     *
+     * @param filter Restrictions to apply, or null for none
+     * @return Excluded dish ids, or null if the filter excludes nothing
+     */
+    public BitSet excluded(Filter filter) {
+        if (filter == null || filter.isEmpty()) return null;
+        BitSet excluded = new BitSet(allergens.length);
+        excluded.set(0, allergens.length);
+        for (int id : search(null, null, filter)) excluded.clear(id);
+        return excluded;
+    }
+
+    /**
+     * Returns the sorted ids of the dishes whose ingredients contain every word of a phrase.
+     *
+     * @param phrase Ingredient word or phrase
+     * @return Sorted dish ids
+     */
+    public int[] containing(String phrase) {
+        List<String> words = new ArrayList<>();
+        tokenize(phrase, words);
+        if (words.isEmpty()) return new int[0];
+        int[] ids = null;
+        for (String word : words) {
+            int[] list = postings.getOrDefault(word, new int[0]);
+            ids = ids == null ? list.clone() : intersect(ids, list);
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the number of distinct ingredient tokens in the index.
+     * @return Number of tokens
+     */
+    public int tokens() {
+        return postings.size();
+    }
+
+    private int[] scope(String diningHall, String mealPeriod) {
+        if (diningHall != null && mealPeriod != null) return store.ids(diningHall, mealPeriod);
+        int hall = diningHall == null ? -1 : store.halls().code(diningHall);
+        int meal = mealPeriod == null ? -1 : store.meals().code(mealPeriod);
+        if (diningHall != null && hall < 0 || mealPeriod != null && meal < 0) return new int[0];
+        int size = 0;
+        int[] ids = new int[store.size()];
+        for (int id = 0; id < store.size(); id++) {
+            if ((hall < 0 || store.hallCode(id) == hall) && (meal < 0 || store.mealCode(id) == meal)) ids[size++] = id;
+        }
+        return Arrays.copyOf(ids, size);
+    }
+
+    //Splits text into lower-case singular words
+    static void tokenize(String text, List<String> words) {
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && !Character.isLetterOrDigit(text.charAt(i))) i++;
+            int start = i;
+            while (i < length && Character.isLetterOrDigit(text.charAt(i))) i++;
+            if (i > start) words.add(singular(text.substring(start, i).toLowerCase()));
+        }
+    }
+
+    //Strips common English plural endings: berries -> berry, tomatoes -> tomato, peanuts -> peanut
+    static String singular(String word) {
+        int n = word.length();
+        if (n > 4 && word.endsWith("ies")) return word.substring(0, n - 3) + "y";
+        if (n > 4 && word.endsWith("oes")) return word.substring(0, n - 2);
+        if (n > 3 && word.endsWith("s") && !word.endsWith("ss") && !word.endsWith("us") && !word.endsWith("is")) {
+            return word.substring(0, n - 1);
+        }
+        return word;
+    }
+
+    //Ids in both sorted arrays
+    private static int[] intersect(int[] a, int[] b) {
+        int[] out = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, size = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) i++;
+            else if (a[i] > b[j]) j++;
+            else {
+                out[size++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(out, size);
+    }
+
+    //Ids of sorted array a that are not in sorted array b
+    private static int[] subtract(int[] a, int[] b) {
+        int[] out = new int[a.length];
+        int i = 0, j = 0, size = 0;
+        while (i < a.length) {
+            while (j < b.length && b[j] < a[i]) j++;
+            if (j == b.length || b[j] != a[i]) out[size++] = a[i];
+            i++;
+        }
+        return Arrays.copyOf(out, size);
+    }
+
+    /**
+     * Growable int array used while building postings.
+     */
+    private static class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+    }
+}
@@ -1,22 +1,44 @@
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 /**
  * DiningHallMenuLoader is a utility class for loading dining hall menu data
  * from a CSV file into a nested HashMap structure.
  *
  * The resulting data structure is:
  *   HashMap<diningHall, HashMap<mealPeriod, List<MenuItem>>>
- * where each MenuItem contains nutrition facts and other info.
+ * where each MenuItem contains nutrition facts and other info. Dining hall, meal period,
+ * station and serving size go through a SymbolTable while loading, so every item shares
+ * one String per distinct value instead of holding a copy per row.
+ *
+ * loadCampuses reads one CSV per college, from a directory or a list of files, into a
+ * CampusMenu keyed by "Campus/Hall". The files are indexed concurrently and each hall
+ * is only parsed when it is first read.
  *
  * Example usage:
  *   HashMap<String, HashMap<String, List<MenuItem>>> menu = DiningHallMenuLoader.loadMenu("PomonaDiningHalls.csv");
+ *   CampusMenu campuses = DiningHallMenuLoader.loadCampuses("menus/");
  *
  * @author Yaseen Osman
  */
 
 public class DiningHallMenuLoader {
+    //Columns of the allergen and ingredient lists
+    static final int ALLERGENS_COLUMN = 25, INGREDIENTS_COLUMN = 26;
+
     public static HashMap<String, HashMap<String, List<MenuItem>>> loadMenu(String filename) throws IOException {
+        long start = Metrics.MENU_LOAD.start();
         HashMap<String, HashMap<String, List<MenuItem>>> menu = new HashMap<>();
+        //Dictionaries of the low-cardinality columns; every row shares one String per distinct value
+        SymbolTable halls = new SymbolTable(), meals = new SymbolTable();
+        SymbolTable stations = new SymbolTable(), servingSizes = new SymbolTable();
+        //Item lists by hall code, then meal code, so a row finds its list by array indexing
+        List<List<List<MenuItem>>> lists = new ArrayList<>();
         BufferedReader br = new BufferedReader(new FileReader(filename));
         String header = br.readLine(); //skip header
         String line;
@@ -26,29 +48,130 @@ public class DiningHallMenuLoader {
             //Defensive: skip if not enough columns
             if (tokens.length < 17) continue;
 
-            String diningHall = tokens[1].trim();
-            String mealPeriod = tokens[2].trim();
-            String station = tokens[3].trim();
-            String dish = tokens[4].trim();
-            String servingSize = tokens[5].trim();
+            int hall = halls.encode(tokens[1].trim());
+            int meal = meals.encode(tokens[2].trim());
+            MenuItem item = item(tokens, stations, servingSizes);
 
-            double calories = parseDouble(tokens[6]);
-            double fat = parseDouble(tokens[7]);
-            double carbs = parseDouble(tokens[12]);
-            double protein = parseDouble(tokens[16]);
+            if (hall == lists.size()) lists.add(new ArrayList<>());
+            List<List<MenuItem>> hallLists = lists.get(hall);
+            while (hallLists.size() <= meal) hallLists.add(null);
+            List<MenuItem> items = hallLists.get(meal);
+            if (items == null) {
+                //First dish of this hall and meal: create the list once and register it in the map
+                items = new ArrayList<>();
+                hallLists.set(meal, items);
+                menu.computeIfAbsent(halls.decode(hall), k -> new HashMap<>()).put(meals.decode(meal), items);
+            }
+            items.add(item);
+        }
+        br.close();
+        Metrics.MENU_LOAD.stop(start);
+        return menu;
+    }
 
-            MenuItem item = new MenuItem(dish, station, servingSize, calories, fat, carbs, protein);
+    /**
+     * Loads one CSV per campus, concurrently, into a menu namespaced by campus. Only the
+     * hall index is built here; see CampusMenu.
+     *
+     * @param paths CSV files, or directories whose *.csv files are each one campus
+     * @return Every campus's halls, keyed "Campus/Hall"
+     * @throws IOException if a file cannot be read, or two files have the same campus name
+     */
+    public static CampusMenu loadCampuses(String... paths) throws IOException {
+        long start = Metrics.MENU_LOAD.start();
+        List<Path> files = campusFiles(paths);
+        List<String> campuses = new ArrayList<>();
+        for (Path file : files) {
+            String campus = campusName(file);
+            if (campuses.contains(campus)) throw new IOException("Two menus for campus " + campus + ": " + files);
+            campuses.add(campus);
+        }
 
-            menu.putIfAbsent(diningHall, new HashMap<>());
-            menu.get(diningHall).putIfAbsent(mealPeriod, new ArrayList<>());
-            menu.get(diningHall).get(mealPeriod).add(item);
+        //Index every file on its own worker, then merge in file order
+        List<Future<LinkedHashMap<String, CampusMenu.Hall>>> indexes = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            String campus = campuses.get(i);
+            Path file = files.get(i);
+            indexes.add(ForkJoinPool.commonPool().submit(() -> CampusMenu.index(campus, file)));
         }
-        br.close();
+        LinkedHashMap<String, CampusMenu.Hall> halls = new LinkedHashMap<>();
+        for (int i = 0; i < files.size(); i++) {
+            try {
+                for (CampusMenu.Hall hall : indexes.get(i).get().values()) {
+                    halls.put(hall.campus + CampusMenu.SEPARATOR + hall.name, hall);
+                }
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                throw new IOException("Could not index " + files.get(i), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while indexing " + files.get(i));
+            }
+        }
+        CampusMenu menu = new CampusMenu(campuses, halls);
+        Metrics.MENU_LOAD.stop(start);
         return menu;
     }
 
+    /**
+     * Expands files and directories into the campus CSVs they name: a directory stands
+     * for its *.csv files in name order, and a file for itself.
+     *
+     * @param paths Files or directories
+     * @return CSV files
+     * @throws IOException if a directory cannot be listed
+     */
+    static List<Path> campusFiles(String... paths) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (String name : paths) {
+            Path path = Path.of(name);
+            if (!Files.isDirectory(path)) {
+                files.add(path);
+                continue;
+            }
+            try (Stream<Path> listing = Files.list(path)) {
+                listing.filter(p -> p.getFileName().toString().toLowerCase().endsWith(".csv") && Files.isRegularFile(p))
+                       .sorted()
+                       .forEach(files::add);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Returns the campus a CSV belongs to: its file name without ".csv" and without a
+     * trailing "DiningHalls", e.g. "Pomona" for PomonaDiningHalls.csv.
+     *
+     * @param file The CSV
+     * @return Campus name
+     */
+    static String campusName(Path file) {
+        String name = file.getFileName().toString();
+        if (name.toLowerCase().endsWith(".csv")) name = name.substring(0, name.length() - 4);
+        if (name.endsWith("DiningHalls") && name.length() > "DiningHalls".length()) {
+            name = name.substring(0, name.length() - "DiningHalls".length());
+        }
+        return name.replace(CampusMenu.SEPARATOR, '_');
+    }
+
+    //Builds the MenuItem of a parsed row of at least 17 columns; station and serving size are interned
+    static MenuItem item(String[] tokens, SymbolTable stations, SymbolTable servingSizes) {
+        String station = stations.intern(tokens[3].trim());
+        String dish = tokens[4].trim();
+        String servingSize = servingSizes.intern(tokens[5].trim());
+
+        double calories = parseDouble(tokens[6]);
+        double fat = parseDouble(tokens[7]);
+        double carbs = parseDouble(tokens[12]);
+        double protein = parseDouble(tokens[16]);
+
+        MenuItem item = new MenuItem(dish, station, servingSize, calories, fat, carbs, protein);
+        if (tokens.length > ALLERGENS_COLUMN) item.allergens = Allergen.mask(tokens[ALLERGENS_COLUMN]);
+        return item;
+    }
+
     //Helper to handle empty or "NA" values
-    private static double parseDouble(String s) {
+    static double parseDouble(String s) {
         try {
             if (s == null || s.trim().isEmpty() || s.trim().equalsIgnoreCase("NA")) return 0.0;
             return Double.parseDouble(s.trim());
@@ -58,7 +181,7 @@ public class DiningHallMenuLoader {
     }
 
     //Simple CSV parser (handles quoted commas)
-    private static String[] parseCSVLine(String line) {
+    static String[] parseCSVLine(String line) {
     List<String> tokens = new ArrayList<>();
     StringBuilder sb = new StringBuilder();
     boolean inQuotes = false;
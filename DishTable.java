@@ -0,0 +1,247 @@
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * DishTable gives every distinct dish on campus one canonical int id, shared by every
+ * menu version and every MenuStore loaded in the process.
+ *
+ * A dish is identified by its name, its serving size text and a fingerprint of every
+ * nutrient value, so the same dish served at several halls or meal periods, or still on
+ * the menu after a reload, keeps one id; a recipe change (different nutrients) gets a
+ * new one. Where a dish was eaten is recorded separately as a place code, one per
+ * dining hall and meal period pair. Ids and place codes are assigned in order of first
+ * appearance and never reused or removed, so they stay valid in LoggedMeals for as long
+ * as the process runs.
+ *
+ * Interning is synchronized; reads are lock-free. Each dish is an immutable Dish, and
+ * the arrays holding them are republished through a volatile field after every insert,
+ * so any id handed out by intern can be read from any thread.
+ *
+ * Example usage:
+ * <pre>
+ * DishTable table = DishTable.shared();
+ * int id = store.canonicalId(42);                 // same as table.intern(store.dish(42), ...)
+ * double sodium = 1.5 * table.value(id, Nutrient.SODIUM);
+ * String where = table.hall(store.place(42)) + " " + table.meal(store.place(42));
+ * </pre>
+ *
+ * @author Yaseen Osman
+ */
+public final class DishTable {
+    private static final DishTable SHARED = new DishTable();
+
+    /**
+     * One canonical dish.
+     */
+    public static final class Dish {
+        //Canonical id
+        public final int id;
+        //Dish name and serving size text from the CSV
+        public final String name;
+        public final String servingSize;
+        //Grams of one serving, 0 if unknown
+        public final double grams;
+        //Every nutrient of one serving, indexed by Nutrient.ordinal(); never modified
+        private final double[] values;
+        private final int hash;
+
+        Dish(int id, String name, String servingSize, double[] values) {
+            this.id = id;
+            this.name = name;
+            this.servingSize = servingSize;
+            this.grams = ServingSize.grams(servingSize);
+            this.values = values;
+            this.hash = hash(name, servingSize, values);
+        }
+
+        /**
+         * Returns one nutrient of one serving.
+         * @param nutrient The nutrient
+         * @return Amount in the nutrient's unit
+         */
+        public double value(Nutrient nutrient) {
+            return values[nutrient.ordinal()];
+        }
+
+        /**
+         * Returns every nutrient of one serving.
+         * @return A new NutrientVector
+         */
+        public NutrientVector vector() {
+            NutrientVector v = new NutrientVector();
+            System.arraycopy(values, 0, v.values, 0, values.length);
+            return v;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Dish)) return false;
+            Dish d = (Dish) o;
+            return hash == d.hash && name.equals(d.name) && servingSize.equals(d.servingSize) && Arrays.equals(values, d.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return name + " (" + servingSize + ")";
+        }
+    }
+
+    //Canonical dishes by id, and hall and meal names by place code; republished on every insert
+    private volatile Dish[] dishes = new Dish[64];
+    private volatile String[][] places = new String[16][];
+    private volatile int size, placeCount;
+    //Lookup for interning, only used under the lock
+    private final Map<Dish, Dish> byKey = new HashMap<>();
+    private final Map<String, Integer> byPlace = new HashMap<>();
+
+    /**
+     * Returns the table shared by every MenuStore in the process.
+     * @return The shared table
+     */
+    public static DishTable shared() {
+        return SHARED;
+    }
+
+    /**
+     * Returns the canonical id of a dish, adding it if it is new.
+     *
+     * @param name        Dish name
+     * @param servingSize Serving size text, e.g. "85.00 FHP2"
+     * @param nutrients   Every nutrient of one serving; copied
+     * @return Canonical id
+     */
+    public synchronized int intern(String name, String servingSize, NutrientVector nutrients) {
+        Dish key = new Dish(size, name, servingSize == null ? "" : servingSize, nutrients.values.clone());
+        Dish existing = byKey.get(key);
+        if (existing != null) return existing.id;
+        Dish[] array = size == dishes.length ? Arrays.copyOf(dishes, size * 2) : dishes;
+        array[size] = key;
+        byKey.put(key, key);
+        //Volatile writes after the element write publish it to readers of dishes
+        dishes = array;
+        size = key.id + 1;
+        return key.id;
+    }
+
+    /**
+     * Returns the place code of a dining hall and meal period, adding it if it is new.
+     *
+     * @param diningHall Dining hall
+     * @param mealPeriod Meal period
+     * @return Place code
+     */
+    public synchronized int place(String diningHall, String mealPeriod) {
+        String key = diningHall + '\u0000' + mealPeriod;
+        Integer code = byPlace.get(key);
+        if (code != null) return code;
+        String[][] array = placeCount == places.length ? Arrays.copyOf(places, placeCount * 2) : places;
+        array[placeCount] = new String[]{diningHall, mealPeriod};
+        byPlace.put(key, placeCount);
+        places = array;
+        placeCount++;
+        return placeCount - 1;
+    }
+
+    /**
+     * Returns the number of canonical dishes.
+     * @return Number of dishes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of place codes.
+     * @return Number of hall and meal period pairs
+     */
+    public int places() {
+        return placeCount;
+    }
+
+    /**
+     * Returns a canonical dish.
+     * @param id Canonical id
+     * @return The dish
+     */
+    public Dish dish(int id) {
+        return dishes[id];
+    }
+
+    /**
+     * Returns one nutrient of one serving of a canonical dish.
+     *
+     * @param id       Canonical id
+     * @param nutrient The nutrient
+     * @return Amount in the nutrient's unit
+     */
+    public double value(int id, Nutrient nutrient) {
+        return dishes[id].values[nutrient.ordinal()];
+    }
+
+    /**
+     * Adds the nutrients of a number of servings of a canonical dish to a running total.
+     *
+     * @param id       Canonical id
+     * @param servings Number of servings
+     * @param totals   Totals indexed by Nutrient.ordinal()
+     */
+    public void addTo(int id, double servings, double[] totals) {
+        double[] values = dishes[id].values;
+        for (int n = 0; n < values.length; n++) totals[n] += servings * values[n];
+    }
+
+    /**
+     * Returns the dining hall of a place code.
+     * @param place Place code
+     * @return Dining hall
+     */
+    public String hall(int place) {
+        return places[place][0];
+    }
+
+    /**
+     * Returns the meal period of a place code.
+     * @param place Place code
+     * @return Meal period
+     */
+    public String meal(int place) {
+        return places[place][1];
+    }
+
+    private static int hash(String name, String servingSize, double[] values) {
+        return (name.hashCode() * 31 + servingSize.hashCode()) * 31 + Arrays.hashCode(values);
+    }
+
+    /**
+     * Loads the menu, prints how many rows collapse into canonical dishes, and compares
+     * the memory of a meal history kept as LoggedMeals with one object per meal.
+     *
+     * @param args Menu CSV (default PomonaDiningHalls.csv), meals to log (default 1000000)
+     * @throws IOException if the menu cannot be loaded
+     */
+    public static void main(String[] args) throws IOException {
+        MenuStore store = MenuStore.load(args.length > 0 ? args[0] : "PomonaDiningHalls.csv");
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        DishTable table = shared();
+        for (int id = 0; id < store.size(); id++) store.canonicalId(id);
+        System.out.printf("%d menu rows -> %d canonical dishes at %d places%n", store.size(), table.size(), table.places());
+
+        //One user's history: three meals a day, mostly one serving
+        Random random = new Random(42);
+        LoggedMeals meals = new LoggedMeals();
+        int day = (int) java.time.LocalDate.of(2025, 1, 1).toEpochDay();
+        for (int i = 0; i < count; i++) {
+            int row = random.nextInt(store.size());
+            meals.add(day + i / 3, store.canonicalId(row), store.place(row), random.nextInt(4) == 0 ? 1.5 : 1);
+        }
+        //Object per meal: header 12 + String ref + int + double + String ref, padded to 32, plus a list slot of 4
+        long objects = count * 36L;
+        System.out.printf("%d meals: %d bytes encoded (%.1f per meal) vs about %d bytes as objects (%.1fx)%n",
+                count, meals.bytes(), meals.bytes() / (double) count, objects, objects / (double) meals.bytes());
+    }
+}
@@ -0,0 +1,163 @@
+import java.util.*;
+
+/**
+ * FriendGraph is an immutable snapshot of who is friends with whom, stored as compact
+ * int adjacency arrays (compressed sparse rows) instead of a Set of student IDs per user.
+ *
+ * Every student gets a dense int index. The friends of student i are the indexes
+ * friends[offsets[i]] to friends[offsets[i + 1] - 1], sorted, so walking a student's
+ * friends is a scan of one int[] slice with no lookups or boxing; the whole graph takes
+ * 4 bytes per friendship plus 4 per student. Friend IDs that are not registered are
+ * left out. A snapshot does not follow later changes to User.friends; build a new one
+ * and hand it to ShareFanout.graph() after friendships change.
+ *
+ * Example usage:
+ * <pre>
+ * FriendGraph graph = FriendGraph.of(registry);
+ * int alice = graph.index("1001");
+ * for (int e = graph.from(alice); e < graph.to(alice); e++) System.out.println(graph.id(graph.friendAt(e)));
+ * </pre>
+ *
+ * @author Yaseen Osman
+ */
+public final class FriendGraph {
+    //Student ID per index, and index per student ID
+    private final String[] ids;
+    private final Map<String, Integer> index;
+    //friends[offsets[i]..offsets[i + 1]) are the indexes of student i's friends
+    private final int[] offsets;
+    private final int[] friends;
+
+    private FriendGraph(Map<String, ? extends Collection<String>> adjacency) {
+        ids = adjacency.keySet().toArray(new String[0]);
+        Arrays.sort(ids);
+        index = new HashMap<>(ids.length * 2);
+        for (int i = 0; i < ids.length; i++) index.put(ids[i], i);
+        offsets = new int[ids.length + 1];
+        int[] all = new int[16];
+        int edges = 0;
+        for (int i = 0; i < ids.length; i++) {
+            int start = edges;
+            for (String friend : adjacency.get(ids[i])) {
+                Integer f = index.get(friend);
+                if (f == null || f == i) continue;
+                if (edges == all.length) all = Arrays.copyOf(all, edges * 2);
+                all[edges++] = f;
+            }
+            //Sorted and without repeats, so a slice can be searched and merged
+            Arrays.sort(all, start, edges);
+            int kept = start;
+            for (int e = start; e < edges; e++) if (e == start || all[e] != all[e - 1]) all[kept++] = all[e];
+            edges = kept;
+            offsets[i + 1] = edges;
+        }
+        friends = Arrays.copyOf(all, edges);
+    }
+
+    /**
+     * Builds a graph from student IDs and their friends' IDs.
+     *
+     * @param adjacency Friends' student IDs by student ID
+     * @return The graph
+     */
+    public static FriendGraph of(Map<String, ? extends Collection<String>> adjacency) {
+        return new FriendGraph(adjacency);
+    }
+
+    /**
+     * Builds a graph from users that nothing else is changing, e.g. Main's sample users.
+     *
+     * @param users The users
+     * @return The graph
+     */
+    public static FriendGraph of(Collection<User> users) {
+        Map<String, Set<String>> adjacency = new HashMap<>();
+        for (User user : users) adjacency.put(user.studentId, user.friends);
+        return new FriendGraph(adjacency);
+    }
+
+    /**
+     * Builds a graph from every user of a registry, copying each user's friends under
+     * that user's lock.
+     *
+     * @param registry The registry
+     * @return The graph
+     */
+    public static FriendGraph of(UserRegistry registry) {
+        Map<String, List<String>> adjacency = new HashMap<>();
+        registry.mapEach(u -> Map.entry(u.studentId, List.copyOf(u.friends)))
+                .forEachOrdered(e -> adjacency.put(e.getKey(), e.getValue()));
+        return new FriendGraph(adjacency);
+    }
+
+    /**
+     * Returns the number of students.
+     * @return Number of students
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * Returns the number of friendships, counting each direction once.
+     * @return Number of directed edges
+     */
+    public int edges() {
+        return friends.length;
+    }
+
+    /**
+     * Returns the index of a student.
+     * @param studentId Student ID
+     * @return Index, or -1 if the student is not in the graph
+     */
+    public int index(String studentId) {
+        Integer i = index.get(studentId);
+        return i == null ? -1 : i;
+    }
+
+    /**
+     * Returns the student ID of an index.
+     * @param node Index
+     * @return Student ID
+     */
+    public String id(int node) {
+        return ids[node];
+    }
+
+    /**
+     * Returns the number of friends of a student.
+     * @param node Index
+     * @return Number of friends
+     */
+    public int degree(int node) {
+        return offsets[node + 1] - offsets[node];
+    }
+
+    /**
+     * Returns the first edge of a student's friends.
+     * @param node Index
+     * @return Edge to pass to friendAt
+     */
+    public int from(int node) {
+        return offsets[node];
+    }
+
+    /**
+     * Returns the end of a student's friends, exclusive.
+     * @param node Index
+     * @return One past the last edge
+     */
+    public int to(int node) {
+        return offsets[node + 1];
+    }
+
+    /**
+     * Returns the friend an edge leads to.
+     * @param edge Edge, from from(node) to to(node) - 1
+     * @return Index of the friend
+     */
+    public int friendAt(int edge) {
+        return friends[edge];
+    }
+}
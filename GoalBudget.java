@@ -0,0 +1,223 @@
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * GoalBudget keeps a user's goals as a primitive array indexed by Nutrient.ordinal(),
+ * the same layout as NutrientVector and NutritionHistory, and what is left of each goal
+ * for the day the user last logged.
+ *
+ * User.logMeal tells the budget about every logged meal. A meal on the tracked day
+ * subtracts its nutrients from the remaining amounts; a meal on a later day moves the
+ * budget to that day and reads its totals once from the history. remaining() and
+ * fraction() are then an array read: O(1), no allocation, no goal lookup by name, so
+ * recommenders and the UI can poll them as often as they like. Other days are read
+ * from the history, also in O(1).
+ *
+ * Listeners hear when a meal takes a day's total of a nutrient across a threshold, a
+ * fraction of its goal: by default 90% and 100%, e.g. "90% of calories" or "sodium over
+ * its limit" once a sodium goal is set. Listeners run on the logging thread while the
+ * user is locked, so they must not block; hand slow work to a queue or executor.
+ * Bulk updates that bypass logMeal (MealIngest, MealLogStore.restore) call refresh()
+ * and fire no events. Like the rest of User, a budget is guarded by the user's lock in
+ * UserRegistry.
+ *
+ * Example usage:
+ * <pre>
+ * user.budget.setGoal(Nutrient.SODIUM, 2300);
+ * user.budget.addListener((u, nutrient, threshold, total, goal, day) ->
+ *         alerts.offer(u.name + " reached " + Math.round(threshold * 100) + "% of " + nutrient.label));
+ * user.logMeal("2025-05-14", store, 42, 1);
+ * double kcalLeft = user.budget.remaining(Nutrient.CALORIES);
+ * </pre>
+ *
+ * @author Yaseen Osman
+ */
+public class GoalBudget {
+    //Fractions of a goal that fire events unless thresholds() sets others
+    public static final double[] DEFAULT_THRESHOLDS = {0.9, 1.0};
+
+    /**
+     * Hears when a day's total of a nutrient reaches a threshold of its goal.
+     */
+    public interface Listener {
+        /**
+         * Called on the logging thread under the user's lock; must return quickly and not block.
+         *
+         * @param user      The user who logged the meal
+         * @param nutrient  The nutrient
+         * @param threshold Fraction of the goal that was reached, e.g. 0.9
+         * @param total     The day's total after the meal
+         * @param goal      The goal
+         * @param epochDay  Day of the meal
+         */
+        void crossed(User user, Nutrient nutrient, double threshold, double total, double goal, int epochDay);
+    }
+
+    private final User user;
+    //Goal per nutrient, 0 for none
+    private final double[] goals = new double[Nutrient.COUNT];
+    //Goal minus the tracked day's total, per nutrient
+    private final double[] remaining = new double[Nutrient.COUNT];
+    private double[] thresholds = DEFAULT_THRESHOLDS;
+    //Day remaining is for; Integer.MIN_VALUE until something is logged
+    private int day = Integer.MIN_VALUE;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Creates a budget from a user's goals map. Keys are nutrient names as accepted by
+     * Nutrient.forName, e.g. "calories" or "sodium"; other keys are ignored.
+     *
+     * @param user The user; its goals and history are read
+     */
+    public GoalBudget(User user) {
+        this.user = user;
+        if (user.goals != null) {
+            for (Map.Entry<String, Integer> goal : user.goals.entrySet()) {
+                Nutrient nutrient = Nutrient.forName(goal.getKey());
+                if (nutrient != null && goal.getValue() != null) goals[nutrient.ordinal()] = Math.max(0, goal.getValue());
+            }
+        }
+        System.arraycopy(goals, 0, remaining, 0, goals.length);
+    }
+
+    /**
+     * Returns the goal for a nutrient.
+     * @param nutrient The nutrient
+     * @return The goal, or 0 if there is none
+     */
+    public double goal(Nutrient nutrient) {
+        return goals[nutrient.ordinal()];
+    }
+
+    /**
+     * Returns whether a nutrient has a goal.
+     * @param nutrient The nutrient
+     * @return True if its goal is above 0
+     */
+    public boolean hasGoal(Nutrient nutrient) {
+        return goals[nutrient.ordinal()] > 0;
+    }
+
+    /**
+     * Sets or clears the goal for a nutrient.
+     *
+     * @param nutrient The nutrient
+     * @param goal     The goal, or 0 for none
+     */
+    public void setGoal(Nutrient nutrient, double goal) {
+        int n = nutrient.ordinal();
+        double value = Math.max(0, goal);
+        remaining[n] += value - goals[n];
+        goals[n] = value;
+    }
+
+    /**
+     * Sets the fractions of a goal that fire events, e.g. 0.5, 0.9 and 1.0.
+     * @param fractions Thresholds in ascending order
+     */
+    public void thresholds(double... fractions) {
+        thresholds = fractions.clone();
+    }
+
+    /**
+     * Adds a listener for threshold crossings.
+     * @param listener The listener
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener.
+     * @param listener The listener
+     */
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns the day remaining() is for: the latest day logged.
+     * @return Epoch day, or Integer.MIN_VALUE if nothing has been logged
+     */
+    public int day() {
+        return day;
+    }
+
+    /**
+     * Returns what is left of a goal on the tracked day.
+     *
+     * @param nutrient The nutrient
+     * @return Goal minus the day's total, negative once over; the goal itself before anything is logged
+     */
+    public double remaining(Nutrient nutrient) {
+        return remaining[nutrient.ordinal()];
+    }
+
+    /**
+     * Returns what is left of a goal on any day.
+     *
+     * @param nutrient The nutrient
+     * @param epochDay The day
+     * @return Goal minus that day's total
+     */
+    public double remaining(Nutrient nutrient, int epochDay) {
+        int n = nutrient.ordinal();
+        return epochDay == day ? remaining[n] : goals[n] - user.history.get(epochDay, n);
+    }
+
+    /**
+     * Returns how much of a goal the tracked day's total is.
+     *
+     * @param nutrient The nutrient
+     * @return Total divided by goal, e.g. 0.9; 0 if the nutrient has no goal
+     */
+    public double fraction(Nutrient nutrient) {
+        int n = nutrient.ordinal();
+        return goals[n] > 0 ? (goals[n] - remaining[n]) / goals[n] : 0;
+    }
+
+    /**
+     * Updates the budget after values were added to a day of the user's history, and
+     * fires events for every threshold the day's totals crossed. User.logMeal calls it.
+     *
+     * @param epochDay Day the values were added to
+     * @param values   The values added, indexed by Nutrient.ordinal()
+     */
+    public void added(int epochDay, double[] values) {
+        if (epochDay == day) {
+            for (int n = 0; n < remaining.length; n++) remaining[n] -= values[n];
+        } else if (epochDay > day) {
+            track(epochDay);
+        }
+        if (listeners.isEmpty()) return;
+        for (int n = 0; n < goals.length; n++) {
+            if (goals[n] <= 0 || values[n] <= 0) continue;
+            double after = epochDay == day ? goals[n] - remaining[n] : user.history.get(epochDay, n);
+            double before = after - values[n];
+            for (double threshold : thresholds) {
+                double level = goals[n] * threshold;
+                if (before < level && after >= level) {
+                    for (Listener listener : listeners) {
+                        listener.crossed(user, Nutrient.ALL[n], threshold, after, goals[n], epochDay);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Rereads the tracked day, or the history's last day if that is later, after the
+     * history changed without going through added(). Fires no events.
+     */
+    public void refresh() {
+        if (user.history.isEmpty()) return;
+        track(Math.max(day, user.history.lastDay()));
+    }
+
+    //Moves the budget to a day, reading its totals from the history
+    private void track(int epochDay) {
+        day = epochDay;
+        for (int n = 0; n < remaining.length; n++) remaining[n] = goals[n] - user.history.get(epochDay, n);
+    }
+}
@@ -0,0 +1,129 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram counts latencies in nanoseconds in log-linear buckets, in the style of
+ * HdrHistogram, so percentiles can be read at any time with a bounded relative error.
+ *
+ * Values below 128 ns get a bucket each. Above that, every power of two is split into 64
+ * equal buckets, so a reported percentile is at most 1/64 (about 1.6%) above the true
+ * value. Recording is one array increment plus a running sum and maximum: it takes no
+ * lock and allocates nothing, so it can sit on hot paths and be called from many threads.
+ * Reads are not atomic across buckets; a value recorded during a read may or may not be
+ * counted.
+ *
+ * Example usage:
+ * <pre>
+ * LatencyHistogram latency = new LatencyHistogram();
+ * long start = System.nanoTime();
+ * ...
+ * latency.record(System.nanoTime() - start);
+ * long[] p = latency.percentiles(0.5, 0.99, 0.999);
+ * </pre>
+ *
+ * @author Yaseen Osman
+ */
+public class LatencyHistogram {
+    //Buckets per power of two above the linear range, as a bit count
+    private static final int SUB_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    //Values below this get a bucket each
+    private static final int LINEAR = SUB_BUCKETS * 2;
+    //Linear buckets, then SUB_BUCKETS for each power of two from LINEAR up to 2^62
+    private static final int BUCKETS = LINEAR + (63 - (SUB_BITS + 1)) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records one latency.
+     * @param nanos Latency in nanoseconds; negative values count as 0
+     */
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(bucket(nanos));
+        total.add(nanos);
+        long m;
+        while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos)) {
+            //Another thread raised the maximum; try again against the new value
+        }
+    }
+
+    /**
+     * Returns the number of recorded latencies.
+     * @return Count
+     */
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) count += counts.get(i);
+        return count;
+    }
+
+    /**
+     * Returns the sum of every recorded latency.
+     * @return Total in nanoseconds
+     */
+    public long total() {
+        return total.sum();
+    }
+
+    /**
+     * Returns the largest recorded latency, exactly.
+     * @return Maximum in nanoseconds, or 0 if nothing was recorded
+     */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * Returns several percentiles in one pass over the buckets. Each is the highest value
+     * that falls in the same bucket as the true percentile, capped at the maximum.
+     *
+     * @param quantiles Quantiles between 0 and 1 in ascending order, e.g. 0.5, 0.99, 0.999
+     * @return One latency in nanoseconds per quantile; all 0 if nothing was recorded
+     */
+    public long[] percentiles(double... quantiles) {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) count += snapshot[i] = counts.get(i);
+        long[] values = new long[quantiles.length];
+        if (count == 0) return values;
+        long seen = 0, top = max.get();
+        int q = 0;
+        for (int i = 0; i < BUCKETS && q < quantiles.length; i++) {
+            seen += snapshot[i];
+            while (q < quantiles.length && seen >= Math.max(1, (long) Math.ceil(quantiles[q] * count))) {
+                values[q++] = Math.min(highest(i), top);
+            }
+        }
+        while (q < quantiles.length) values[q++] = top;
+        return values;
+    }
+
+    /**
+     * Clears every count.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        total.reset();
+        max.set(0);
+    }
+
+    //Bucket of a non-negative value
+    static int bucket(long value) {
+        if (value < LINEAR) return (int) value;
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        return LINEAR + (msb - (SUB_BITS + 1)) * SUB_BUCKETS + (int) ((value >>> (msb - SUB_BITS)) & (SUB_BUCKETS - 1));
+    }
+
+    //Highest value that falls in a bucket
+    static long highest(int bucket) {
+        if (bucket < LINEAR) return bucket;
+        int msb = (bucket - LINEAR) / SUB_BUCKETS + SUB_BITS + 1;
+        long sub = (bucket - LINEAR) % SUB_BUCKETS;
+        int shift = msb - SUB_BITS;
+        return ((SUB_BUCKETS + sub) << shift) + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,324 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LiveMenu keeps the menu up to date while the tracker runs, so a republished CSV is
+ * picked up without a restart.
+ *
+ * The current menu is one immutable Version: the MenuStore, the nested menu map and the
+ * indexes built over it. Readers call current() once per request and use that version
+ * throughout; they never block and never see a half-loaded menu. A reload:
+ * <ul>
+ *   <li>parses the CSV on the reloading thread, off the request path</li>
+ *   <li>diffs the new rows against the current ones by row key (CSV column 0); a key
+ *       that appears more than once is matched by occurrence</li>
+ *   <li>rebuilds only the RecommendationIndex scopes of halls and meals that changed,
+ *       and keeps the DietaryIndex when dish ids, allergens and ingredients are unchanged</li>
+ *   <li>re-ranks the DensityIndex views, which take one sort per ratio</li>
+ *   <li>publishes the new Version with a single volatile write</li>
+ * </ul>
+ * watch() reloads automatically: a daemon thread waits on a WatchService for the CSV to
+ * be modified or replaced, and reloads once it has been quiet for a short while. Dish ids
+ * are row numbers of the current version, so they can change when rows are added or removed.
+ *
+ * Example usage:
+ * <pre>
+ *   LiveMenu live = new LiveMenu("PomonaDiningHalls.csv", MenuStore.load("PomonaDiningHalls.csv"));
+ *   live.addListener((version, diff) -> System.out.println("Menu updated: " + diff));
+ *   live.watch();
+ *   LiveMenu.Version menu = live.current();
+ *   RecommendationIndex.Match best = menu.recommendations.nearestCalories(650, null, null);
+ * </pre>
+ *
+ * @author Yaseen Osman
+ */
+public class LiveMenu implements Closeable {
+    //How long the CSV must be left alone before a watched change is reloaded
+    private static final long QUIET_MILLIS = 250;
+
+    /**
+     * One immutable version of the menu and its indexes.
+     */
+    public static class Version {
+        //Increases by one with every published reload, starting at 1
+        public final long number;
+        public final MenuStore store;
+        //Nested map: diningHall -> mealPeriod -> List of MenuItem; read-only
+        public final Map<String, Map<String, List<MenuItem>>> menu;
+        public final RecommendationIndex recommendations;
+        public final DietaryIndex dietary;
+        public final DensityIndex density;
+
+        Version(long number, MenuStore store, Map<String, Map<String, List<MenuItem>>> menu,
+                RecommendationIndex recommendations, DietaryIndex dietary) {
+            this.number = number;
+            this.store = store;
+            this.menu = menu;
+            this.recommendations = recommendations;
+            this.dietary = dietary;
+            this.density = new DensityIndex(store);
+        }
+    }
+
+    /**
+     * What one reload changed, by row key.
+     */
+    public static class Diff {
+        public final List<String> added = new ArrayList<>();
+        public final List<String> removed = new ArrayList<>();
+        public final List<String> changed = new ArrayList<>();
+        //Meal periods with any added, removed, changed or reordered dish, by dining hall
+        public final Map<String, Set<String>> changedGroups = new HashMap<>();
+        //Whether every dish kept its id and its allergens and ingredients
+        boolean dietaryUnchanged = true;
+        //Scopes of the RecommendationIndex rebuilt and reused by the reload
+        public int builtScopes, reusedScopes;
+        //Time spent parsing and diffing plus building the new version, in nanoseconds
+        public long nanos;
+
+        /**
+         * Returns whether the reload found no difference.
+         * @return True if nothing changed
+         */
+        public boolean isEmpty() {
+            return changedGroups.isEmpty();
+        }
+
+        void group(String hall, String meal) {
+            changedGroups.computeIfAbsent(hall, k -> new HashSet<>()).add(meal);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d added, %d removed, %d changed in %s; %d index scopes rebuilt, %d reused (%.1f ms)",
+                    added.size(), removed.size(), changed.size(), changedGroups, builtScopes, reusedScopes, nanos / 1e6);
+        }
+    }
+
+    /**
+     * Receives every published version.
+     */
+    public interface Listener {
+        /**
+         * @param version The new current version
+         * @param diff    What changed since the previous version
+         */
+        void reloaded(Version version, Diff diff);
+    }
+
+    private final Path csv;
+    private volatile Version current;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private WatchService watchService;
+    private Thread watcher;
+
+    /**
+     * Wraps an already loaded store as version 1.
+     *
+     * @param csv   CSV the store was loaded from and reloads read, or null if the menu never reloads
+     * @param store The loaded store
+     */
+    public LiveMenu(String csv, MenuStore store) {
+        this.csv = csv == null ? null : Paths.get(csv).toAbsolutePath();
+        Map<String, Map<String, List<MenuItem>>> menu = readOnly(store);
+        current = new Version(1, store, menu, new RecommendationIndex(menu), new DietaryIndex(store));
+    }
+
+    /**
+     * Returns the current version. Use the same version for everything one request does.
+     * @return The current version
+     */
+    public Version current() {
+        return current;
+    }
+
+    /**
+     * Adds a listener that is called on the reloading thread after each published reload.
+     * @param listener The listener
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Parses the CSV now and publishes a new version if anything changed. A CSV without
+     * any dish is treated as a bad export and not published.
+     *
+     * @return What changed; empty if the version was kept
+     * @throws IOException if the CSV cannot be read or has no dishes
+     */
+    public synchronized Diff reload() throws IOException {
+        if (csv == null) throw new IllegalStateException("This menu was not loaded from a CSV");
+        long start = System.nanoTime();
+        MenuStore store = MenuStore.load(csv.toString());
+        if (store.size() == 0) throw new IOException("No dishes in " + csv + "; keeping the current menu");
+
+        Version old = current;
+        Diff diff = diff(old.store, store);
+        if (diff.isEmpty()) {
+            diff.nanos = System.nanoTime() - start;
+            return diff;
+        }
+        Map<String, Map<String, List<MenuItem>>> menu = readOnly(store);
+        RecommendationIndex recommendations = new RecommendationIndex(menu, old.recommendations, diff.changedGroups);
+        DietaryIndex dietary = diff.dietaryUnchanged ? new DietaryIndex(store, old.dietary) : new DietaryIndex(store);
+        diff.builtScopes = recommendations.builtScopes();
+        diff.reusedScopes = recommendations.reusedScopes();
+
+        Version next = new Version(old.number + 1, store, menu, recommendations, dietary);
+        current = next;
+        diff.nanos = System.nanoTime() - start;
+        for (Listener listener : listeners) listener.reloaded(next, diff);
+        return diff;
+    }
+
+    /**
+     * Starts a daemon thread that reloads the menu whenever the CSV is modified or replaced.
+     * Failed reloads are reported on System.err and keep the current version.
+     *
+     * @throws IOException if the CSV's directory cannot be watched
+     */
+    public synchronized void watch() throws IOException {
+        if (csv == null) throw new IllegalStateException("This menu was not loaded from a CSV");
+        if (watcher != null) return;
+        watchService = csv.getFileSystem().newWatchService();
+        csv.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        watcher = new Thread(this::watchLoop, "menu-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Stops watching the CSV.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (watcher == null) return;
+        watchService.close();
+        watcher.interrupt();
+        watcher = null;
+    }
+
+    private void watchLoop() {
+        try {
+            while (true) {
+                if (!touched(watchService.take())) continue;
+                //Exports are often written in several steps; wait until the file settles
+                WatchKey key;
+                while ((key = watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS)) != null) touched(key);
+                try {
+                    reload();
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Menu reload failed: " + e.getMessage());
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            //Closed
+        }
+    }
+
+    //Drains a watch key and returns whether any of its events concern the CSV
+    private boolean touched(WatchKey key) {
+        boolean touched = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || csv.getFileName().equals(event.context())) {
+                touched = true;
+            }
+        }
+        key.reset();
+        return touched;
+    }
+
+    /**
+     * Compares two stores row by row, matching rows by row key and occurrence.
+     */
+    static Diff diff(MenuStore old, MenuStore store) {
+        Diff diff = new Diff();
+        Map<String, Integer> oldIds = new HashMap<>();
+        String[] oldKeys = occurrenceKeys(old), newKeys = occurrenceKeys(store);
+        for (int id = 0; id < old.size(); id++) oldIds.put(oldKeys[id], id);
+
+        boolean[] matched = new boolean[old.size()];
+        if (old.size() != store.size()) diff.dietaryUnchanged = false;
+        for (int id = 0; id < store.size(); id++) {
+            Integer oldId = oldIds.get(newKeys[id]);
+            if (oldId == null) {
+                diff.added.add(store.rowKey(id));
+                diff.group(store.diningHall(id), store.mealPeriod(id));
+                diff.dietaryUnchanged = false;
+                continue;
+            }
+            matched[oldId] = true;
+            if (oldId != id || old.allergens(oldId) != store.allergens(id)
+                    || !old.ingredients(oldId).equals(store.ingredients(id))) {
+                diff.dietaryUnchanged = false;
+            }
+            if (!sameRow(old, oldId, store, id)) {
+                diff.changed.add(store.rowKey(id));
+                diff.group(old.diningHall(oldId), old.mealPeriod(oldId));
+                diff.group(store.diningHall(id), store.mealPeriod(id));
+            }
+        }
+        for (int id = 0; id < old.size(); id++) {
+            if (matched[id]) continue;
+            diff.removed.add(old.rowKey(id));
+            diff.group(old.diningHall(id), old.mealPeriod(id));
+            diff.dietaryUnchanged = false;
+        }
+
+        //Same rows in a different order still change the group's scan order
+        for (int h = 0; h < store.halls().size(); h++) {
+            for (int m = 0; m < store.meals().size(); m++) {
+                String hall = store.halls().decode(h), meal = store.meals().decode(m);
+                int[] before = old.ids(hall, meal), after = store.ids(h, m);
+                if (before.length != after.length) continue; //Already counted as added or removed
+                for (int i = 0; i < after.length; i++) {
+                    if (!oldKeys[before[i]].equals(newKeys[after[i]])) {
+                        diff.group(hall, meal);
+                        break;
+                    }
+                }
+            }
+        }
+        return diff;
+    }
+
+    //Row key plus how many earlier rows had the same key
+    private static String[] occurrenceKeys(MenuStore store) {
+        Map<String, Integer> seen = new HashMap<>();
+        String[] keys = new String[store.size()];
+        for (int id = 0; id < store.size(); id++) {
+            int occurrence = seen.merge(store.rowKey(id), 1, Integer::sum) - 1;
+            keys[id] = occurrence == 0 ? store.rowKey(id) : store.rowKey(id) + '\u0000' + occurrence;
+        }
+        return keys;
+    }
+
+    private static boolean sameRow(MenuStore a, int i, MenuStore b, int j) {
+        if (!a.diningHall(i).equals(b.diningHall(j)) || !a.mealPeriod(i).equals(b.mealPeriod(j))
+                || !a.station(i).equals(b.station(j)) || !a.dish(i).equals(b.dish(j))
+                || !a.servingSize(i).equals(b.servingSize(j)) || a.allergens(i) != b.allergens(j)
+                || !a.ingredients(i).equals(b.ingredients(j))) {
+            return false;
+        }
+        for (Nutrient n : Nutrient.ALL) {
+            if (Double.compare(a.value(i, n), b.value(j, n)) != 0) return false;
+        }
+        return true;
+    }
+
+    //The store's nested map with read-only maps and lists
+    private static Map<String, Map<String, List<MenuItem>>> readOnly(MenuStore store) {
+        Map<String, Map<String, List<MenuItem>>> menu = new HashMap<>();
+        store.toMenu().forEach((hall, meals) -> {
+            Map<String, List<MenuItem>> lists = new HashMap<>();
+            meals.forEach((meal, items) -> lists.put(meal, Collections.unmodifiableList(items)));
+            menu.put(hall, Collections.unmodifiableMap(lists));
+        });
+        return Collections.unmodifiableMap(menu);
+    }
+}
@@ -0,0 +1,230 @@
+import java.util.*;
+
+/**
+ * LoggedMeals is a user's list of individual meals: which dish, where, on which day and
+ * how many servings. NutritionHistory only keeps daily totals; this list is what lets
+ * analytics break a user's intake down by dining hall and meal period, and answers
+ * "what did I eat" for a day.
+ *
+ * Dishes are canonical DishTable ids and places are DishTable place codes, so meals stay
+ * readable after the menu is reloaded. Meals are kept in logging order as one byte[] of
+ * variable-length ints (7 bits per byte): the day as a delta from the previous meal's
+ * day, the dish id as a delta from the previous meal's dish, the place code, and the
+ * servings in hundredths, or as raw float bits if the servings are not a whole number of
+ * hundredths. A typical meal takes 5 bytes. Meals are read in order with a Cursor.
+ *
+ * Daily totals are not stored here: totals() and history() recompute them from the
+ * meals and the DishTable.
+ *
+ * Example usage:
+ * <pre>
+ * LoggedMeals.Cursor meal = user.meals.cursor();
+ * while (meal.next()) {
+ *     if (table.hall(meal.place).equals("Frary")) sodium += meal.servings * table.value(meal.dish, Nutrient.SODIUM);
+ * }
+ * List<LoggedMeals.Meal> today = user.meals.on(NutritionHistory.epochDay("2025-05-14"));
+ * </pre>
+ *
+ * @author Yaseen Osman
+ */
+public class LoggedMeals {
+    //Encoded meals and the number of bytes in use
+    private byte[] data = new byte[16];
+    private int length;
+    private int size;
+    //Day and dish of the last meal added, the base of the next deltas
+    private int lastDay, lastDish;
+
+    /**
+     * One decoded meal.
+     */
+    public static class Meal {
+        //Epoch day, canonical dish id, place code and servings
+        public final int day, dish, place;
+        public final double servings;
+
+        Meal(int day, int dish, int place, double servings) {
+            this.day = day;
+            this.dish = dish;
+            this.place = place;
+            this.servings = servings;
+        }
+    }
+
+    /**
+     * Reads meals in logging order. The fields hold the current meal after next()
+     * returns true.
+     */
+    public class Cursor {
+        //Current meal
+        public int day, dish, place;
+        public double servings;
+        private int offset, read;
+
+        /**
+         * Moves to the next meal.
+         * @return False if there are no more meals
+         */
+        public boolean next() {
+            if (read == size) return false;
+            day += unzigzag(readVarint());
+            dish += unzigzag(readVarint());
+            place = readVarint();
+            int amount = readVarint();
+            if ((amount & 1) == 0) {
+                servings = (amount >>> 1) / 100.0;
+            } else {
+                int bits = 0;
+                for (int i = 0; i < 4; i++) bits |= (data[offset++] & 0xFF) << (8 * i);
+                servings = Float.intBitsToFloat(bits);
+            }
+            read++;
+            return true;
+        }
+
+        private int readVarint() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = data[offset++];
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) return value;
+            }
+        }
+    }
+
+    /**
+     * Adds a meal.
+     *
+     * @param epochDay Day the meal was eaten
+     * @param dish     Canonical DishTable id
+     * @param place    DishTable place code of the hall and meal period
+     * @param servings Number of servings eaten, not negative
+     */
+    public void add(int epochDay, int dish, int place, double servings) {
+        if (length + 24 > data.length) data = Arrays.copyOf(data, Math.max(length + 24, data.length * 2));
+        writeVarint(zigzag(epochDay - lastDay));
+        writeVarint(zigzag(dish - lastDish));
+        writeVarint(place);
+        long hundredths = Math.round(servings * 100);
+        if (hundredths >= 0 && hundredths < 1L << 30 && hundredths / 100.0 == servings) {
+            writeVarint((int) hundredths << 1);
+        } else {
+            writeVarint(1);
+            int bits = Float.floatToIntBits((float) servings);
+            for (int i = 0; i < 4; i++) data[length++] = (byte) (bits >>> (8 * i));
+        }
+        lastDay = epochDay;
+        lastDish = dish;
+        size++;
+    }
+
+    /**
+     * Adds every meal of another list.
+     * @param other Meals to add
+     */
+    public void addAll(LoggedMeals other) {
+        //Deltas are relative to the previous meal, so meals are re-encoded against this list
+        Cursor meal = other.cursor();
+        while (meal.next()) add(meal.day, meal.dish, meal.place, meal.servings);
+    }
+
+    /**
+     * Returns the number of meals.
+     * @return Number of meals
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of bytes the encoded meals take.
+     * @return Encoded bytes, not counting spare capacity
+     */
+    public int bytes() {
+        return length;
+    }
+
+    /**
+     * Returns a cursor before the first meal.
+     * @return A new Cursor
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Returns the meals eaten on one day, in logging order.
+     *
+     * @param epochDay The day
+     * @return Decoded meals
+     */
+    public List<Meal> on(int epochDay) {
+        List<Meal> result = new ArrayList<>();
+        Cursor meal = cursor();
+        while (meal.next()) {
+            if (meal.day == epochDay) result.add(new Meal(meal.day, meal.dish, meal.place, meal.servings));
+        }
+        return result;
+    }
+
+    /**
+     * Recomputes the nutrient totals of a date range from the meals.
+     *
+     * @param fromDay First epoch day
+     * @param toDay   Last epoch day, inclusive
+     * @param table   Table the dish ids belong to
+     * @return Totals indexed by Nutrient.ordinal()
+     */
+    public NutrientVector totals(int fromDay, int toDay, DishTable table) {
+        NutrientVector totals = new NutrientVector();
+        Cursor meal = cursor();
+        while (meal.next()) {
+            if (meal.day >= fromDay && meal.day <= toDay) table.addTo(meal.dish, meal.servings, totals.values);
+        }
+        return totals;
+    }
+
+    /**
+     * Rebuilds daily totals of every nutrient from the meals. Nutrients logged without a
+     * dish, e.g. through User.logMeal(String, NutrientVector), are not in the meals and so
+     * not in the result.
+     *
+     * @param table Table the dish ids belong to
+     * @return A new NutritionHistory
+     */
+    public NutritionHistory history(DishTable table) {
+        NutritionHistory history = new NutritionHistory(NutritionHistory.NUTRIENTS);
+        double[] day = new double[NutritionHistory.NUTRIENTS];
+        //Meals of a day are usually logged together, so add one total per run of the same day
+        int current = 0;
+        boolean pending = false;
+        Cursor meal = cursor();
+        while (meal.next()) {
+            if (pending && meal.day != current) {
+                history.add(current, day);
+                Arrays.fill(day, 0);
+            }
+            current = meal.day;
+            pending = true;
+            table.addTo(meal.dish, meal.servings, day);
+        }
+        if (pending) history.add(current, day);
+        return history;
+    }
+
+    private void writeVarint(int value) {
+        while ((value & ~0x7F) != 0) {
+            data[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data[length++] = (byte) value;
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -1,5 +1,5 @@
+import java.nio.file.Paths;
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
 import java.util.*;
 
 /**
@@ -8,82 +8,87 @@ import java.util.*;
  * This class provides a console interface for students to:
  * - Log meals from Pomona dining hall menus
  * - Track daily nutrition
- * - Get meal recommendations based on calorie goals
+ * - Get meal recommendations based on calorie goals, avoiding allergens and ingredients
  * - Share nutrition logs with friends
  * 
- * Dependencies: MenuItem.java, DiningHallMenuLoader.java, PomonaDiningHalls.csv
+ * Dependencies: MenuItem.java, MenuStore.java, DiningHallMenuLoader.java, DietaryIndex.java, LiveMenu.java, MealLogStore.java,
+ * RecommendationCache.java, User.java, NutrientVector.java, Metrics.java, PomonaDiningHalls.csv
  * 
  * @author Yaseen Osman
  */
 public class Main {
 
-    /**
-     * NutritionFacts stores daily nutrition totals for a user.
-     */
-    static class NutritionFacts {
-        double calories = 0, fat = 0, carbs = 0, protein = 0;
-
-        /**
-         * Adds the nutrition from a MenuItem to the current totals.
-         * @param item The MenuItem to add.
-         */
-        public void add(MenuItem item) {
-            calories += item.calories;
-            fat += item.fat;
-            carbs += item.carbs;
-            protein += item.protein;
-        }
-
-        /**
-         * Returns a string summary of the nutrition facts.
-         * @return String summary.
-         */
-        public String toString() {
-            return String.format("Calories: %.1f, Fat: %.1fg, Carbs: %.1fg, Protein: %.1fg",
-                    calories, fat, carbs, protein);
-        }
-    }
+    //Epoch day and "YYYY-MM-DD" string of the last today() call, so the date is only formatted once per day
+    private static long cachedDay = Long.MIN_VALUE;
+    private static String cachedDate;
 
     /**
-     * User stores profile, calorie goal, friends, and daily nutrition logs.
+     * Returns today's date in "YYYY-MM-DD" format.
+     * @return Today's date
      */
-    static class User {
-        String id, name;
-        double calorieGoal;
-        Set<String> friends = new HashSet<>();
-        Map<String, NutritionFacts> logs = new HashMap<>(); // date -> NutritionFacts
-
-        /**
-         * Constructs a new User.
-         * @param id Student ID
-         * @param name Name
-         * @param calorieGoal Daily calorie goal
-         */
-        public User(String id, String name, double calorieGoal) {
-            this.id = id;
-            this.name = name;
-            this.calorieGoal = calorieGoal;
+    static String today() {
+        long day = LocalDate.now().toEpochDay();
+        if (day != cachedDay) {
+            cachedDate = LocalDate.ofEpochDay(day).toString();
+            cachedDay = day;
         }
+        return cachedDate;
     }
 
     /**
      * Main entry point for the Student Nutrition Tracker.
-     * @param args Command-line arguments (not used)
+     * @param args Command-line arguments; "--mapped" loads the menu with MappedMenuLoader,
+     *             "--server [port]" serves the tracker over HTTP instead of the console
      * @throws Exception if file loading fails
      */
     public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--server")) {
+            //Concurrent HTTP server for the whole campus
+            NutritionServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
         //Load menu from CSV file using helper class
         String filename = "PomonaDiningHalls.csv";
-        HashMap<String, HashMap<String, List<MenuItem>>> menu = DiningHallMenuLoader.loadMenu(filename);
+        MenuStore store;
+        if (args.length > 0 && args[0].equals("--mapped")) {
+            //Parallel memory-mapped loader for large exports
+            MappedMenuLoader.LoadReport report = new MappedMenuLoader.LoadReport();
+            store = MappedMenuLoader.loadStore(filename, report);
+            System.out.println(report);
+        } else {
+            //Precompiled binary snapshot when it is fresh, otherwise the CSV (which rewrites the snapshot)
+            store = MenuSnapshot.loadStore(filename, "PomonaDiningHalls.snap");
+        }
+        //Menu views, nearest-match index and dietary filters, reloaded whenever the CSV changes
+        LiveMenu live = new LiveMenu(filename, store);
+        live.addListener((version, diff) -> System.out.println("\n[Menu updated: " + diff + "]"));
+        live.watch();
+        //Repeated recommendation queries are answered from memory until the menu changes
+        RecommendationCache recommendations = RecommendationCache.fromProperties(live);
 
         //Sample users; add more users here as needed
         Map<String, User> users = new HashMap<>();
-        User alice = new User("1001", "Alice", 2000);
-        User bob = new User("1002", "Bob", 2200);
+        User alice = new User("1001", "Alice", NutritionServer.goals(2000, 100, 250, 70));
+        User bob = new User("1002", "Bob", NutritionServer.goals(2200, 120, 275, 75));
         alice.friends.add("1002");
         bob.friends.add("1001");
-        users.put(alice.id, alice);
-        users.put(bob.id, bob);
+        users.put(alice.studentId, alice);
+        users.put(bob.studentId, bob);
+
+        //Reload meals logged in earlier runs from the durable meal log
+        MealLogStore mealLog = MealLogStore.open(Paths.get("meal-log"));
+        mealLog.restore(users);
+        //Tell the user when a meal takes them to 90% or past a goal
+        for (User u : users.values()) {
+            u.budget.addListener((who, nutrient, threshold, total, goal, day) ->
+                    System.out.printf("[%s: %.0f%% of your %s goal (%.0f of %.0f %s)]\n", who.name,
+                            threshold * 100, nutrient.label.toLowerCase(), total, goal, nutrient.unit));
+        }
+        //Shared summaries go to friends' inboxes on background threads
+        ShareFanout sharing = ShareFanout.fromProperties(FriendGraph.of(users.values()));
+        //Appends latency percentiles to a file when run with -Dnutrition.metrics=FILE
+        AutoCloseable metrics = Metrics.dumpFromProperties();
 
         Scanner sc = new Scanner(System.in);
         System.out.println("Welcome to the Student Nutrition Tracker!");
@@ -102,13 +107,17 @@ public class Main {
             System.out.println("2. View today's nutrition");
             System.out.println("3. Get meal recommendation");
             System.out.println("4. Share nutrition with friends");
-            System.out.println("5. Exit");
+            System.out.println("5. Show timings");
+            System.out.println("6. Exit");
             System.out.print("Select an option: ");
             String choice = sc.nextLine().trim();
 
             if (choice.equals("1")) {
                 //Log a meal for today's date
-                String date = LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd"));
+                String date = today();
+                //Keep one menu version for the whole selection, even if the CSV is reloaded meanwhile
+                LiveMenu.Version version = live.current();
+                Map<String, Map<String, List<MenuItem>>> menu = version.menu;
 
                 //List available dining halls
                 List<String> halls = new ArrayList<>(menu.keySet());
@@ -148,60 +157,95 @@ public class Main {
                 }
                 MenuItem item = items.get(dishIdx);
 
-                //Log the selected meal for the user on the current date
-                user.logs.putIfAbsent(date, new NutritionFacts());
-                user.logs.get(date).add(item);
-                System.out.println("Logged: " + item.dish + " for " + date);
+                //Portion as a multiple of the serving or as a weight, scaled through the serving size
+                System.out.printf("Portion (servings, or grams like 200g; one serving is %s; blank for 1): ",
+                        item.grams > 0 ? String.format("%.0fg", item.grams) : item.servingSize);
+                double servings;
+                try {
+                    servings = ServingSize.servings(sc.nextLine(), item.grams);
+                    //Log every nutrient of the selected meal for the user on the current date
+                    user.logMeal(date, version.store, item.id, servings);
+                } catch (IllegalArgumentException e) {
+                    System.out.println(e.getMessage());
+                    continue;
+                }
+                mealLog.append(user.studentId, date, version.store, item.id, servings);
+                System.out.printf("Logged: %.2f x %s for %s\n", servings, item.dish, date);
             }
             else if (choice.equals("2")) {
                 //View today's nutrition summary
-                String date = LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd"));
-                NutritionFacts nf = user.logs.getOrDefault(date, new NutritionFacts());
+                String date = today();
+                NutritionFacts nf = user.getDailyNutrition(date);
                 System.out.println("Nutrition for " + date + ": " + nf);
-                System.out.println("Your calorie goal: " + user.calorieGoal);
+                System.out.println("Your calorie goal: " + user.goals.get("calories"));
+                int day = NutritionHistory.epochDay(date);
+                for (Nutrient nutrient : Nutrient.ALL) {
+                    if (!user.budget.hasGoal(nutrient)) continue;
+                    System.out.printf("  %s left: %.1f %s\n", nutrient.label,
+                            user.budget.remaining(nutrient, day), nutrient.unit);
+                }
+
+                //What was eaten, from the meal history
+                DishTable table = DishTable.shared();
+                for (LoggedMeals.Meal meal : user.getMeals(date)) {
+                    System.out.printf("  %.2f x %s (%s %s)\n", meal.servings, table.dish(meal.dish).name,
+                            table.hall(meal.place), table.meal(meal.place));
+                }
             }
             else if (choice.equals("3")) {
                 //Get a meal recommendation based on remaining calories
-                String date = LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd"));
-                double remaining = user.calorieGoal - user.logs.getOrDefault(date, new NutritionFacts()).calories;
-                MenuItem best = null;
-                String bestHall = "", bestMeal = "";
-                double minDiff = Double.MAX_VALUE;
-
-                //Iterate through all menu items to find the closest calorie match
-                for (String hall : menu.keySet()) {
-                    for (String meal : menu.get(hall).keySet()) {
-                        for (MenuItem item : menu.get(hall).get(meal)) {
-                            double diff = Math.abs(item.calories - remaining);
-                            if (diff < minDiff) {
-                                minDiff = diff;
-                                best = item;
-                                bestHall = hall;
-                                bestMeal = meal;
-                            }
-                        }
-                    }
+                String date = today();
+                double remaining = user.budget.remaining(Nutrient.CALORIES, NutritionHistory.epochDay(date));
+
+                //Optional dietary restrictions, answered by the allergen masks and ingredient index
+                DietaryIndex.Filter filter = new DietaryIndex.Filter();
+                System.out.print("Allergens to avoid (e.g. Soy, Milk; blank for none): ");
+                for (String label : sc.nextLine().split(",")) {
+                    if (label.isBlank()) continue;
+                    Allergen allergen = Allergen.forLabel(label);
+                    if (allergen != null) filter.avoid(allergen);
+                    else System.out.println("Unknown allergen ignored: " + label.trim());
                 }
+                System.out.print("Ingredients to avoid (e.g. peanut; blank for none): ");
+                for (String phrase : sc.nextLine().split(",")) {
+                    if (!phrase.isBlank()) filter.avoidIngredient(phrase.trim());
+                }
+
+                //Look up the closest calorie match, from the cache when a similar budget was asked for
+                List<RecommendationIndex.Match> matches = recommendations.nearestCalories(remaining, 1, null, null, filter);
+                RecommendationIndex.Match best = matches.isEmpty() ? null : matches.get(0);
                 if (best != null) {
                     System.out.printf("Recommended: %s at %s (%s) - %.1f kcal\n",
-                            best.dish, bestHall, bestMeal, best.calories);
+                            best.item.dish, best.diningHall, best.mealPeriod, best.item.calories);
                 } else {
                     System.out.println("No recommendation available.");
                 }
             }
             else if (choice.equals("4")) {
                 //Share today's nutrition log with friends
-                String date = LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd"));
-                NutritionFacts nf = user.logs.getOrDefault(date, new NutritionFacts());
-                String summary = user.name + "'s nutrition on " + date + ": " + nf;
-                for (String fid : user.friends) {
-                    if (users.containsKey(fid)) {
-                        System.out.printf("Shared with %s: %s\n", users.get(fid).name, summary);
-                    }
-                }
+                String date = today();
+                long start = Metrics.SHARE.start();
+                String summary = user.shareNutrition(date);
+                int recipients = sharing.share(user.studentId, summary);
+                Metrics.SHARE.stop(start);
+                System.out.printf("Shared with %d %s: %s\n", recipients, recipients == 1 ? "friend" : "friends", summary);
+
+                //Updates friends shared since the last time
+                List<ShareFanout.Post> updates = sharing.inbox(user.studentId, 10);
+                if (updates.isEmpty()) System.out.println("No new updates from friends.");
+                for (ShareFanout.Post post : updates) System.out.println("  " + post.text);
             }
             else if (choice.equals("5")) {
+                //Latency percentiles of menu loading, recommendations, logging and sharing so far
+                System.out.print(Metrics.report());
+                System.out.println("Recommendation cache: " + recommendations.stats());
+            }
+            else if (choice.equals("6")) {
                 //Exit the application
+                mealLog.close();
+                sharing.close();
+                live.close();
+                if (metrics != null) metrics.close();
                 System.out.println("Goodbye!");
                 break;
             }
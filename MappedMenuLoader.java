@@ -0,0 +1,582 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * MappedMenuLoader is a parallel loader for large dining hall menu exports.
+ *
+ * The CSV file is memory-mapped and split into record-aligned chunks which are
+ * parsed in parallel on a ForkJoinPool. The result is the same nested map that
+ * DiningHallMenuLoader.loadMenu builds:
+ * <pre>
+ *   HashMap<diningHall, HashMap<mealPeriod, List<MenuItem>>>
+ * </pre>
+ * with halls, meals and items in the same order as the line-by-line loader.
+ *
+ * Loading happens in three passes over the mapped file:
+ * <ol>
+ *   <li>Count the quote characters of every nominal chunk, so the quote state at
+ *       the start of each chunk is known without a serial scan.</li>
+ *   <li>Move each chunk start forward to the first newline that is outside
+ *       quotes. Quoted fields may therefore contain commas and newlines.</li>
+ *   <li>Parse every aligned chunk. Numbers are parsed straight from the mapped
+ *       bytes and repeated hall/meal/station/serving strings are shared, so no
+ *       String is created per cell.</li>
+ * </ol>
+ *
+ * Example usage:
+ * <pre>
+ *   MappedMenuLoader.LoadReport report = new MappedMenuLoader.LoadReport();
+ *   HashMap<String, HashMap<String, List<MenuItem>>> menu =
+ *           MappedMenuLoader.loadMenu("PomonaDiningHalls.csv", report);
+ *   System.out.println(report);
+ * </pre>
+ *
+ * @author Yaseen Osman
+ */
+public class MappedMenuLoader {
+    //Nominal chunk size in bytes; chunk starts are moved forward to the next record
+    public static final int DEFAULT_CHUNK_SIZE = 4 << 20;
+
+    //Minimum number of columns a row needs, same as DiningHallMenuLoader
+    private static final int MIN_COLUMNS = 17;
+
+    //Exact powers of ten used by the fast number parser
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * Row count and throughput of a single load.
+     */
+    public static class LoadReport {
+        //Size of the file in bytes
+        public long bytes;
+        //Number of chunks the file was parsed in
+        public int chunks;
+        //Number of menu items loaded
+        public long rows;
+        //Number of rows skipped because they had too few columns
+        public long skipped;
+        //Wall-clock time of the load in nanoseconds
+        public long nanos;
+
+        /**
+         * Returns the number of loaded rows per second.
+         * @return Rows per second.
+         */
+        public double rowsPerSecond() {
+            return nanos == 0 ? 0 : rows * 1e9 / nanos;
+        }
+
+        /**
+         * Returns the number of megabytes read per second.
+         * @return Megabytes per second.
+         */
+        public double megabytesPerSecond() {
+            return nanos == 0 ? 0 : bytes / (1024.0 * 1024.0) * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Loaded %d rows (%d skipped) from %d chunks, %.1f MB in %.1f ms: %.0f rows/s, %.1f MB/s",
+                    rows, skipped, chunks, bytes / (1024.0 * 1024.0), nanos / 1e6,
+                    rowsPerSecond(), megabytesPerSecond());
+        }
+    }
+
+    /**
+     * Loads the menu on the common ForkJoinPool with the default chunk size.
+     *
+     * @param filename CSV filename
+     * @param report   Report to fill in, or null
+     * @return Nested map: diningHall -> mealPeriod -> List of MenuItem
+     * @throws IOException if the file cannot be read
+     */
+    public static HashMap<String, HashMap<String, List<MenuItem>>> loadMenu(String filename, LoadReport report)
+            throws IOException {
+        return loadMenu(filename, ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE, report);
+    }
+
+    /**
+     * Loads the menu with the given pool and nominal chunk size.
+     *
+     * @param filename  CSV filename
+     * @param pool      Pool the chunks are parsed on
+     * @param chunkSize Nominal chunk size in bytes
+     * @param report    Report to fill in, or null
+     * @return Nested map: diningHall -> mealPeriod -> List of MenuItem
+     * @throws IOException if the file cannot be read
+     */
+    public static HashMap<String, HashMap<String, List<MenuItem>>> loadMenu(String filename, ForkJoinPool pool,
+            int chunkSize, LoadReport report) throws IOException {
+        long start = Metrics.MENU_LOAD.start();
+        ChunkResult[] results = parseChunks(filename, pool, chunkSize, false, report);
+
+        //Merge in file order so the maps see halls and meals in the same order as loadMenu
+        HashMap<String, HashMap<String, List<MenuItem>>> menu = new HashMap<>();
+        for (ChunkResult result : results) {
+            for (Map.Entry<String, LinkedHashMap<String, List<MenuItem>>> hall : result.groups.entrySet()) {
+                HashMap<String, List<MenuItem>> meals = menu.computeIfAbsent(hall.getKey(), k -> new HashMap<>());
+                for (Map.Entry<String, List<MenuItem>> meal : hall.getValue().entrySet()) {
+                    meals.computeIfAbsent(meal.getKey(), k -> new ArrayList<>()).addAll(meal.getValue());
+                }
+            }
+        }
+        if (report != null) report.nanos = System.nanoTime() - start;
+        Metrics.MENU_LOAD.stop(start);
+        return menu;
+    }
+
+    /**
+     * Loads every nutrient column of the CSV into a MenuStore on the common ForkJoinPool.
+     * Dish ids follow the row order of the file, the same as MenuStore.load.
+     *
+     * @param filename CSV filename
+     * @param report   Report to fill in, or null
+     * @return The loaded store
+     * @throws IOException if the file cannot be read
+     */
+    public static MenuStore loadStore(String filename, LoadReport report) throws IOException {
+        return loadStore(filename, ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE, report);
+    }
+
+    /**
+     * Loads every nutrient column of the CSV into a MenuStore with the given pool and chunk size.
+     *
+     * @param filename  CSV filename
+     * @param pool      Pool the chunks are parsed on
+     * @param chunkSize Nominal chunk size in bytes
+     * @param report    Report to fill in, or null
+     * @return The loaded store
+     * @throws IOException if the file cannot be read
+     */
+    public static MenuStore loadStore(String filename, ForkJoinPool pool, int chunkSize, LoadReport report)
+            throws IOException {
+        long start = Metrics.MENU_LOAD.start();
+        ChunkResult[] results = parseChunks(filename, pool, chunkSize, true, report);
+        MenuStore.Builder builder = new MenuStore.Builder();
+        for (ChunkResult result : results) builder.addAll(result.store);
+        MenuStore store = builder.build();
+        if (report != null) report.nanos = System.nanoTime() - start;
+        Metrics.MENU_LOAD.stop(start);
+        return store;
+    }
+
+    //Aligns and parses every chunk, filling in everything but the time of the report
+    private static ChunkResult[] parseChunks(String filename, ForkJoinPool pool, int chunkSize, boolean columnar,
+            LoadReport report) throws IOException {
+        if (chunkSize <= 0) throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long[] bounds = alignChunks(channel, size, chunkSize, pool);
+            int chunks = bounds.length - 1;
+
+            //Pass 3: parse every aligned chunk
+            ChunkResult[] results = new ChunkResult[chunks];
+            forEachChunk(pool, chunks, i -> {
+                long length = bounds[i + 1] - bounds[i];
+                if (length > Integer.MAX_VALUE) throw new IOException("Record too large near offset " + bounds[i]);
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, bounds[i], length);
+                results[i] = new ChunkParser(buf, columnar).parse(i == 0);
+            });
+
+            if (report != null) {
+                report.bytes = size;
+                report.chunks = chunks;
+                report.rows = 0;
+                report.skipped = 0;
+                for (ChunkResult result : results) {
+                    report.rows += result.rows;
+                    report.skipped += result.skipped;
+                }
+            }
+            return results;
+        }
+    }
+
+    /**
+     * Splits the file into nominal chunks and moves each start to a record start.
+     * Returns chunks + 1 offsets; chunk i is [bounds[i], bounds[i + 1]).
+     */
+    private static long[] alignChunks(FileChannel channel, long size, int chunkSize, ForkJoinPool pool)
+            throws IOException {
+        int n = (int) Math.max(1, (size + chunkSize - 1) / chunkSize);
+
+        //Pass 1: quote parity of every nominal chunk
+        boolean[] oddQuotes = new boolean[n];
+        forEachChunk(pool, n, i -> {
+            long from = (long) i * chunkSize;
+            int length = (int) Math.min(chunkSize, size - from);
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, from, length);
+            boolean odd = false;
+            for (int p = 0; p < length; p++) {
+                if (buf.get(p) == '"') odd = !odd;
+            }
+            oddQuotes[i] = odd;
+        });
+        boolean[] inQuotes = new boolean[n];
+        for (int i = 1; i < n; i++) inQuotes[i] = inQuotes[i - 1] ^ oddQuotes[i - 1];
+
+        //Pass 2: first newline outside quotes at or after each nominal start
+        long[] bounds = new long[n + 1];
+        bounds[n] = size;
+        forEachChunk(pool, n, i -> {
+            if (i == 0) return;
+            long from = (long) i * chunkSize;
+            long p = from;
+            boolean quoted = inQuotes[i], found = false;
+            while (p < size && !found) {
+                int length = (int) Math.min(chunkSize, size - p);
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, p, length);
+                int q = 0;
+                while (q < length && !found) {
+                    byte b = buf.get(q++);
+                    if (b == '"') quoted = !quoted;
+                    else if (b == '\n' && !quoted) found = true;
+                }
+                p += q;
+            }
+            bounds[i] = p;
+        });
+        return bounds;
+    }
+
+    /**
+     * Items parsed from one chunk, grouped in first-seen order, or as columns when loading a store.
+     */
+    private static class ChunkResult {
+        final LinkedHashMap<String, LinkedHashMap<String, List<MenuItem>>> groups = new LinkedHashMap<>();
+        final MenuStore.Builder store = new MenuStore.Builder();
+        long rows;
+        long skipped;
+    }
+
+    /**
+     * Parses the records of one mapped chunk without allocating per cell.
+     */
+    private static class ChunkParser {
+        final MappedByteBuffer buf;
+        //Whether rows go into a MenuStore.Builder instead of MenuItems
+        final boolean columnar;
+        //Byte range and quote flag of each field of the current record
+        int[] fieldStart = new int[32];
+        int[] fieldEnd = new int[32];
+        boolean[] fieldQuoted = new boolean[32];
+        //Scratch space fields are copied into before decoding
+        byte[] scratch = new byte[256];
+        //Shared strings for the low-cardinality columns
+        final StringCache halls = new StringCache(), meals = new StringCache();
+        final StringCache stations = new StringCache(), servings = new StringCache();
+        final StringCache allergens = new StringCache();
+        //Group the previous row went to; rows of one hall/meal are usually adjacent
+        String lastHall, lastMeal;
+        List<MenuItem> lastItems;
+        //Reused nutrient values of the current row in columnar mode
+        final double[] values = new double[Nutrient.COUNT];
+
+        ChunkParser(MappedByteBuffer buf, boolean columnar) {
+            this.buf = buf;
+            this.columnar = columnar;
+        }
+
+        ChunkResult parse(boolean skipHeader) {
+            ChunkResult result = new ChunkResult();
+            int limit = buf.limit();
+            int pos = 0;
+            boolean header = skipHeader;
+            while (pos < limit) {
+                int fields = 0;
+                int start = pos;
+                boolean inQuotes = false, quoted = false;
+                int end = pos;
+                while (end < limit) {
+                    byte b = buf.get(end);
+                    if (b == '"') {
+                        inQuotes = !inQuotes;
+                        quoted = true;
+                    } else if (!inQuotes) {
+                        if (b == ',') {
+                            fields = addField(fields, start, end, quoted);
+                            start = end + 1;
+                            quoted = false;
+                        } else if (b == '\n' || b == '\r') {
+                            break;
+                        }
+                    }
+                    end++;
+                }
+                fields = addField(fields, start, end, quoted);
+
+                //Skip the line terminator, treating \r\n as one
+                pos = end;
+                if (pos < limit) {
+                    if (buf.get(pos) == '\r' && pos + 1 < limit && buf.get(pos + 1) == '\n') pos += 2;
+                    else pos++;
+                }
+
+                if (header) {
+                    header = false;
+                } else if (fields < MIN_COLUMNS) {
+                    result.skipped++;
+                } else {
+                    if (columnar) addColumns(result, fields);
+                    else addRow(result, fields);
+                    result.rows++;
+                }
+            }
+            return result;
+        }
+
+        int addField(int index, int start, int end, boolean quoted) {
+            if (index == fieldStart.length) {
+                fieldStart = Arrays.copyOf(fieldStart, index * 2);
+                fieldEnd = Arrays.copyOf(fieldEnd, index * 2);
+                fieldQuoted = Arrays.copyOf(fieldQuoted, index * 2);
+            }
+            fieldStart[index] = start;
+            fieldEnd[index] = end;
+            fieldQuoted[index] = quoted;
+            return index + 1;
+        }
+
+        void addRow(ChunkResult result, int fields) {
+            String diningHall = cached(halls, 1);
+            String mealPeriod = cached(meals, 2);
+            String station = cached(stations, 3);
+            String dish = string(4);
+            String servingSize = cached(servings, 5);
+
+            double calories = number(6);
+            double fat = number(7);
+            double carbs = number(12);
+            double protein = number(16);
+
+            MenuItem item = new MenuItem(dish, station, servingSize, calories, fat, carbs, protein);
+            item.allergens = allergenMask(fields);
+
+            if (diningHall != lastHall || mealPeriod != lastMeal) {
+                lastHall = diningHall;
+                lastMeal = mealPeriod;
+                lastItems = result.groups.computeIfAbsent(diningHall, k -> new LinkedHashMap<>())
+                        .computeIfAbsent(mealPeriod, k -> new ArrayList<>());
+            }
+            lastItems.add(item);
+        }
+
+        void addColumns(ChunkResult result, int fields) {
+            for (Nutrient n : Nutrient.ALL) {
+                values[n.ordinal()] = n.column < fields ? number(n.column) : 0.0;
+            }
+            String ingredients = fields > DiningHallMenuLoader.INGREDIENTS_COLUMN
+                    ? string(DiningHallMenuLoader.INGREDIENTS_COLUMN) : "";
+            result.store.add(string(0), cached(halls, 1), cached(meals, 2), cached(stations, 3), string(4),
+                    cached(servings, 5), values, allergenMask(fields), ingredients);
+        }
+
+        //Allergen mask of the current record; the few distinct lists are decoded once through the cache
+        int allergenMask(int fields) {
+            if (fields <= DiningHallMenuLoader.ALLERGENS_COLUMN) return 0;
+            return Allergen.mask(cached(allergens, DiningHallMenuLoader.ALLERGENS_COLUMN));
+        }
+
+        //Copies a field into scratch with quotes removed, the same way parseCSVLine does; returns its length
+        int copy(int field) {
+            int start = fieldStart[field], end = fieldEnd[field];
+            if (end - start > scratch.length) scratch = new byte[Math.max(end - start, scratch.length * 2)];
+            if (!fieldQuoted[field]) {
+                buf.get(start, scratch, 0, end - start);
+                return end - start;
+            }
+            int length = 0;
+            for (int p = start; p < end; p++) {
+                byte b = buf.get(p);
+                if (b != '"') scratch[length++] = b;
+            }
+            return length;
+        }
+
+        //Offset of the first byte String.trim would keep
+        int trimStart(int length) {
+            int from = 0;
+            while (from < length && (scratch[from] & 0xFF) <= ' ') from++;
+            return from;
+        }
+
+        //Length after String.trim would drop trailing blanks
+        int trimEnd(int from, int length) {
+            while (length > from && (scratch[length - 1] & 0xFF) <= ' ') length--;
+            return length;
+        }
+
+        String string(int field) {
+            int length = copy(field);
+            int from = trimStart(length);
+            int to = trimEnd(from, length);
+            return new String(scratch, from, to - from, StandardCharsets.UTF_8);
+        }
+
+        String cached(StringCache cache, int field) {
+            int length = copy(field);
+            int from = trimStart(length);
+            int to = trimEnd(from, length);
+            return cache.get(scratch, from, to - from);
+        }
+
+        //Parses a number like DiningHallMenuLoader.parseDouble, from bytes when it is plain decimal
+        double number(int field) {
+            int length = copy(field);
+            int from = trimStart(length);
+            int to = trimEnd(from, length);
+            if (from == to) return 0.0;
+            if (to - from == 2 && (scratch[from] | 0x20) == 'n' && (scratch[from + 1] | 0x20) == 'a') return 0.0;
+
+            int p = from;
+            boolean negative = false;
+            if (scratch[p] == '-' || scratch[p] == '+') negative = scratch[p++] == '-';
+            long mantissa = 0;
+            int digits = 0, fraction = 0;
+            boolean dot = false;
+            for (; p < to; p++) {
+                byte b = scratch[p];
+                if (b >= '0' && b <= '9') {
+                    mantissa = mantissa * 10 + (b - '0');
+                    digits++;
+                    if (dot) fraction++;
+                } else if (b == '.' && !dot) {
+                    dot = true;
+                } else {
+                    break;
+                }
+            }
+            //Exact mantissa and power of ten: one correctly rounded division, same as Double.parseDouble
+            if (p == to && digits > 0 && digits <= 15 && fraction < POW10.length) {
+                double value = mantissa / POW10[fraction];
+                return negative ? -value : value;
+            }
+            return DiningHallMenuLoader.parseDouble(new String(scratch, from, to - from, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Small byte-keyed table that hands out one String per distinct value.
+     * Values past the capacity are decoded without being cached.
+     */
+    private static class StringCache {
+        private static final int CAPACITY = 256;
+        private int[] hashes = new int[8];
+        private byte[][] keys = new byte[8][];
+        private String[] values = new String[8];
+        private int size;
+
+        String get(byte[] bytes, int offset, int length) {
+            int hash = 1;
+            for (int i = offset; i < offset + length; i++) hash = 31 * hash + bytes[i];
+            for (int i = 0; i < size; i++) {
+                if (hashes[i] == hash && keys[i].length == length
+                        && Arrays.equals(keys[i], 0, length, bytes, offset, offset + length)) {
+                    return values[i];
+                }
+            }
+            String value = new String(bytes, offset, length, StandardCharsets.UTF_8);
+            if (size < CAPACITY) {
+                if (size == keys.length) {
+                    hashes = Arrays.copyOf(hashes, size * 2);
+                    keys = Arrays.copyOf(keys, size * 2);
+                    values = Arrays.copyOf(values, size * 2);
+                }
+                hashes[size] = hash;
+                keys[size] = Arrays.copyOfRange(bytes, offset, offset + length);
+                values[size] = value;
+                size++;
+            }
+            return value;
+        }
+    }
+
+    //Body run once per chunk index; package-private so MealIngest can split its input the same way
+    interface ChunkBody {
+        void run(int chunk) throws IOException;
+    }
+
+    /**
+     * Runs a body for every chunk index, splitting the range in halves.
+     */
+    private static class ForEachChunk extends RecursiveAction {
+        private final ChunkBody body;
+        private final int lo, hi;
+
+        ForEachChunk(ChunkBody body, int lo, int hi) {
+            this.body = body;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo == 1) {
+                try {
+                    body.run(lo);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new ForEachChunk(body, lo, mid), new ForEachChunk(body, mid, hi));
+        }
+    }
+
+    static void forEachChunk(ForkJoinPool pool, int chunks, ChunkBody body) throws IOException {
+        if (chunks == 0) return;
+        try {
+            pool.invoke(new ForEachChunk(body, 0, chunks));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Loads a CSV with both loaders, checks the results match and prints the report.
+     * @param args CSV filename (defaults to PomonaDiningHalls.csv)
+     * @throws Exception if file loading fails
+     */
+    public static void main(String[] args) throws Exception {
+        String filename = args.length > 0 ? args[0] : "PomonaDiningHalls.csv";
+
+        long start = System.nanoTime();
+        HashMap<String, HashMap<String, List<MenuItem>>> expected = DiningHallMenuLoader.loadMenu(filename);
+        long lineNanos = System.nanoTime() - start;
+
+        LoadReport report = new LoadReport();
+        HashMap<String, HashMap<String, List<MenuItem>>> menu = loadMenu(filename, report);
+
+        System.out.printf("Line loader: %.1f ms%n", lineNanos / 1e6);
+        System.out.println("Mapped loader: " + report);
+        System.out.println(describe(menu).equals(describe(expected)) ? "Results match." : "Results DIFFER.");
+    }
+
+    //Flattens a menu into one comparable string, in iteration order
+    private static String describe(HashMap<String, HashMap<String, List<MenuItem>>> menu) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, HashMap<String, List<MenuItem>>> hall : menu.entrySet()) {
+            for (Map.Entry<String, List<MenuItem>> meal : hall.getValue().entrySet()) {
+                for (MenuItem item : meal.getValue()) {
+                    sb.append(hall.getKey()).append('|').append(meal.getKey()).append('|')
+                      .append(item.dish).append('|').append(item.station).append('|').append(item.servingSize)
+                      .append('|').append(item.calories).append('|').append(item.fat)
+                      .append('|').append(item.carbs).append('|').append(item.protein).append('\n');
+                }
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,740 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/**
+ * MealIngest loads a whole export of meal swipes at once, instead of logging them one
+ * by one through User.logMeal.
+ *
+ * Each line of the input is one event:
+ * <pre>
+ *   studentId,date,rowKey,servings
+ *   1001,2025-05-14,Frank_Breakfast_Scrambled Eggs,1
+ * </pre>
+ * where rowKey is column 0 of the menu CSV (quoted if it contains commas) and servings is
+ * a positive number; lines whose servings User.validServings refuses count as malformed,
+ * as User.logMeal would refuse them. Events are summed into per-student, per-day totals
+ * of every nutrient, then added to each User's history; the meals themselves are added to User.meals. Ingesting runs in two parallel phases on a ForkJoinPool:
+ * <ol>
+ *   <li>Parse: the input is split into newline-aligned chunks. Row keys are resolved
+ *       through a byte-keyed index built once from the MenuStore, so no String is made per
+ *       event. Each chunk files its resolved events into its own buffer per shard of
+ *       students, so parsing tasks never share a table or take a lock.</li>
+ *   <li>Merge: one task per shard owns that shard's accumulator. It sums the shard's
+ *       events from every chunk into per-student, per-day totals, then adds each student's
+ *       days to their User in date order. Shards hold disjoint students, so merge tasks
+ *       never contend for an accumulator or a User.</li>
+ * </ol>
+ * Lines with an unknown row key or student, or that do not parse, are counted in the
+ * report and skipped; a first line that does not parse is taken as a header. A row key
+ * that appears more than once in the menu resolves to its first row. Ingested meals go
+ * into the in-memory histories only; they are not written to a MealLogStore.
+ *
+ * Example usage:
+ * <pre>
+ *   MealIngest ingest = new MealIngest(store);
+ *   MealIngest.BatchReport report = ingest.ingest(Paths.get("swipes-2025-05-14.csv"), registry);
+ *   System.out.println(report);
+ * </pre>
+ *
+ * @author Yaseen Osman
+ */
+public class MealIngest {
+    //Nominal chunk size in bytes; chunk starts are moved forward to the next line
+    public static final int DEFAULT_CHUNK_SIZE = 4 << 20;
+
+    //Values per accumulated day: one NutrientVector
+    private static final int WIDTH = NutrientVector.LENGTH;
+
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+    //Number of student shards, a power of two
+    private final int shards;
+    //UTF-8 row key -> dish id
+    private final ByteTable rowKeys = new ByteTable();
+    //Nutrients of one serving of every dish: dishes[id * WIDTH + nutrient]
+    private final double[] dishes;
+    //DishTable.shared() id and place code of every dish, for User.meals
+    private final int[] canonicalIds, places;
+
+    /**
+     * Counts and timings of one batch.
+     */
+    public static class BatchReport {
+        //Size of the input in bytes
+        public long bytes;
+        //Number of chunks the input was parsed in
+        public int chunks;
+        //Number of student shards the totals were merged in
+        public int shards;
+        //Events that parsed and named a known dish
+        public long events;
+        //Events added to a User; the rest named a student that is not registered
+        public long applied;
+        //Events skipped because their row key is not on the menu
+        public long unknownDishes;
+        //Events skipped because their student is not registered
+        public long unknownStudents;
+        //Lines skipped because they did not parse
+        public long malformed;
+        //Students and (student, day) totals added to histories
+        public long students;
+        public long studentDays;
+        //Wall-clock time of the parse phase, the merge phase and the whole batch in nanoseconds
+        public long parseNanos;
+        public long mergeNanos;
+        public long nanos;
+
+        /**
+         * Returns the number of events read per second.
+         * @return Events per second.
+         */
+        public double eventsPerSecond() {
+            return nanos == 0 ? 0 : events * 1e9 / nanos;
+        }
+
+        /**
+         * Returns the number of megabytes read per second.
+         * @return Megabytes per second.
+         */
+        public double megabytesPerSecond() {
+            return nanos == 0 ? 0 : bytes / (1024.0 * 1024.0) * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Ingested %d events (%d applied, %d unknown dishes, %d unknown students, %d malformed) "
+                    + "into %d days of %d students from %d chunks and %d shards, %.1f MB in %.1f ms "
+                    + "(parse %.1f ms, merge %.1f ms): %.0f events/s, %.1f MB/s",
+                    events, applied, unknownDishes, unknownStudents, malformed, studentDays, students, chunks, shards,
+                    bytes / (1024.0 * 1024.0), nanos / 1e6, parseNanos / 1e6, mergeNanos / 1e6,
+                    eventsPerSecond(), megabytesPerSecond());
+        }
+    }
+
+    /**
+     * Constructs an ingester for a menu that runs on the common ForkJoinPool.
+     *
+     * @param store Menu whose row keys the events name
+     */
+    public MealIngest(MenuStore store) {
+        this(store, ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructs an ingester for a menu with the given pool and nominal chunk size.
+     *
+     * @param store     Menu whose row keys the events name
+     * @param pool      Pool the chunks and shards are processed on
+     * @param chunkSize Nominal chunk size in bytes
+     */
+    public MealIngest(MenuStore store, ForkJoinPool pool, int chunkSize) {
+        if (chunkSize <= 0) throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+        //A few shards per worker so one busy student does not hold up the merge
+        int wanted = Math.max(1, pool.getParallelism()) * 4;
+        shards = Integer.highestOneBit(wanted - 1) << 1;
+        dishes = new double[store.size() * WIDTH];
+        canonicalIds = new int[store.size()];
+        places = new int[store.size()];
+        for (int id = 0; id < store.size(); id++) {
+            byte[] key = store.rowKey(id).getBytes(StandardCharsets.UTF_8);
+            if (rowKeys.get(key, 0, key.length, hash(key, 0, key.length)) < 0) {
+                rowKeys.put(key, 0, key.length, hash(key, 0, key.length), id);
+            }
+            System.arraycopy(store.vector(id).values, 0, dishes, id * WIDTH, WIDTH);
+            canonicalIds[id] = store.canonicalId(id);
+            places[id] = store.place(id);
+        }
+    }
+
+    /**
+     * Ingests an event file into the users of a registry. Each user is updated while
+     * holding their registry lock, so the registry can keep serving requests.
+     *
+     * @param file  Event file
+     * @param users Registry to add the totals to
+     * @return The batch report
+     * @throws IOException if the file cannot be read
+     */
+    public BatchReport ingest(Path file, UserRegistry users) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return ingest((from, length) -> channel.map(FileChannel.MapMode.READ_ONLY, from, length), channel.size(),
+                    registryTarget(users));
+        }
+    }
+
+    /**
+     * Ingests an event file into users that nothing else touches during the call, e.g.
+     * while a server is starting up. The map must not change during the call.
+     *
+     * @param file  Event file
+     * @param users Users by student ID
+     * @return The batch report
+     * @throws IOException if the file cannot be read
+     */
+    public BatchReport ingest(Path file, Map<String, User> users) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return ingest((from, length) -> channel.map(FileChannel.MapMode.READ_ONLY, from, length), channel.size(),
+                    mapTarget(users));
+        }
+    }
+
+    /**
+     * Ingests every event of a stream into the users of a registry. The stream is read to
+     * the end before parsing starts, but not closed.
+     *
+     * @param in    Event stream
+     * @param users Registry to add the totals to
+     * @return The batch report
+     * @throws IOException if the stream cannot be read
+     */
+    public BatchReport ingest(InputStream in, UserRegistry users) throws IOException {
+        byte[] bytes = in.readAllBytes();
+        return ingest((from, length) -> ByteBuffer.wrap(bytes, (int) from, length).slice(), bytes.length,
+                registryTarget(users));
+    }
+
+    /**
+     * Ingests every event of a stream into users that nothing else touches during the call.
+     * The stream is read to the end before parsing starts, but not closed.
+     *
+     * @param in    Event stream
+     * @param users Users by student ID
+     * @return The batch report
+     * @throws IOException if the stream cannot be read
+     */
+    public BatchReport ingest(InputStream in, Map<String, User> users) throws IOException {
+        byte[] bytes = in.readAllBytes();
+        return ingest((from, length) -> ByteBuffer.wrap(bytes, (int) from, length).slice(), bytes.length,
+                mapTarget(users));
+    }
+
+    private static Target registryTarget(UserRegistry users) {
+        return (studentId, action) -> users.withUser(studentId, user -> {
+            action.accept(user);
+            return Boolean.TRUE;
+        }) != null;
+    }
+
+    private static Target mapTarget(Map<String, User> users) {
+        return (studentId, action) -> {
+            User user = users.get(studentId);
+            if (user == null) return false;
+            action.accept(user);
+            return true;
+        };
+    }
+
+    /**
+     * Where merged totals go: runs an action on a student's User, or returns false if the
+     * student is unknown.
+     */
+    private interface Target {
+        boolean with(String studentId, Consumer<User> action);
+    }
+
+    /**
+     * Maps a byte range of the input.
+     */
+    private interface Source {
+        ByteBuffer slice(long from, int length) throws IOException;
+    }
+
+    private BatchReport ingest(Source source, long size, Target target) throws IOException {
+        BatchReport report = new BatchReport();
+        long start = System.nanoTime();
+        long[] bounds = alignChunks(source, size);
+        int chunks = bounds.length - 1;
+
+        //Parse: every chunk resolves its lines and sorts the events into its own per-shard buffers
+        Chunk[] parsed = new Chunk[chunks];
+        MappedMenuLoader.forEachChunk(pool, chunks, i -> {
+            long length = bounds[i + 1] - bounds[i];
+            if (length > Integer.MAX_VALUE) throw new IOException("Line too long near offset " + bounds[i]);
+            parsed[i] = parse(source.slice(bounds[i], (int) length), i == 0);
+        });
+        long parsedAt = System.nanoTime();
+
+        //Merge: one task per shard owns that shard's accumulator and counters
+        long[][] counts = new long[shards][];
+        MappedMenuLoader.forEachChunk(pool, shards, s -> counts[s] = merge(parsed, s, target));
+        long end = System.nanoTime();
+
+        report.bytes = size;
+        report.chunks = chunks;
+        report.shards = shards;
+        for (Chunk chunk : parsed) {
+            report.events += chunk.events;
+            report.unknownDishes += chunk.unknownDishes;
+            report.malformed += chunk.malformed;
+        }
+        for (long[] c : counts) {
+            report.applied += c[0];
+            report.unknownStudents += c[1];
+            report.students += c[2];
+            report.studentDays += c[3];
+        }
+        report.parseNanos = parsedAt - start;
+        report.mergeNanos = end - parsedAt;
+        report.nanos = end - start;
+        return report;
+    }
+
+    /**
+     * Splits the input into nominal chunks and moves each start past the next newline.
+     * Returns chunks + 1 offsets; chunk i is [bounds[i], bounds[i + 1]).
+     */
+    private long[] alignChunks(Source source, long size) throws IOException {
+        int n = (int) Math.max(1, (size + chunkSize - 1) / chunkSize);
+        long[] bounds = new long[n + 1];
+        bounds[n] = size;
+        MappedMenuLoader.forEachChunk(pool, n, i -> {
+            if (i == 0) return;
+            long p = (long) i * chunkSize;
+            boolean found = false;
+            while (p < size && !found) {
+                int length = (int) Math.min(64 << 10, size - p);
+                ByteBuffer buf = source.slice(p, length);
+                int q = 0;
+                while (q < length && !found) found = buf.get(q++) == '\n';
+                p += q;
+            }
+            bounds[i] = p;
+        });
+        return bounds;
+    }
+
+    //Parses every line of one chunk; the chunk is copied to the heap once and parsed in place
+    private Chunk parse(ByteBuffer buf, boolean first) {
+        Chunk chunk = new Chunk(shards);
+        byte[] data = new byte[buf.limit()];
+        buf.get(0, data);
+        boolean header = first;
+        for (int pos = 0; pos < data.length; ) {
+            int end = indexOf(data, pos, data.length, (byte) '\n');
+            if (end < 0) end = data.length;
+            int to = end > pos && data[end - 1] == '\r' ? end - 1 : end;
+            if (to > pos) {
+                if (!addEvent(chunk, data, pos, to) && !header) chunk.malformed++;
+                header = false;
+            }
+            pos = end + 1;
+        }
+        return chunk;
+    }
+
+    //Resolves one event line into the chunk; returns false if the line does not parse
+    private boolean addEvent(Chunk chunk, byte[] line, int from, int to) {
+        int c1 = indexOf(line, from, to, (byte) ',');
+        int c3 = lastIndexOf(line, from, to, (byte) ',');
+        if (c1 <= from || c3 < c1 + 12 || line[c1 + 11] != ',') return false;
+        int day = chunk.epochDay(line, c1 + 1);
+        if (day == Integer.MIN_VALUE) return false;
+        double servings = servings(line, c3 + 1, to);
+        if (!User.validServings(servings)) return false;
+
+        int keyFrom = c1 + 12, keyTo = c3;
+        if (indexOf(line, keyFrom, keyTo, (byte) '"') >= 0) {
+            //Drop quotes in place, the same way the menu loaders read column 0
+            int end = keyFrom;
+            for (int p = keyFrom; p < keyTo; p++) if (line[p] != '"') line[end++] = line[p];
+            keyTo = end;
+        }
+        while (keyFrom < keyTo && (line[keyFrom] & 0xFF) <= ' ') keyFrom++;
+        while (keyTo > keyFrom && (line[keyTo - 1] & 0xFF) <= ' ') keyTo--;
+        int dish = rowKeys.get(line, keyFrom, keyTo, hash(line, keyFrom, keyTo));
+        if (dish < 0) {
+            chunk.unknownDishes++;
+            return true;
+        }
+
+        int h = hash(line, from, c1);
+        int student = chunk.student(line, from, c1, h);
+        chunk.shard((h ^ (h >>> 16)) & (shards - 1)).add(student, day, dish, servings);
+        chunk.events++;
+        return true;
+    }
+
+    //Sums shard s of every chunk and adds each student's days; returns {applied, unknown, students, days}
+    private long[] merge(Chunk[] chunks, int s, Target target) {
+        Accumulator acc = new Accumulator();
+        NutrientKernel kernel = NutrientKernel.INSTANCE;
+        for (Chunk chunk : chunks) {
+            Events events = chunk.shards[s];
+            if (events == null) continue;
+            //Chunk-local student index -> accumulator index, filled in as students are seen
+            int[] remap = new int[chunk.studentCount];
+            Arrays.fill(remap, -1);
+            for (int e = 0; e < events.size; e++) {
+                int local = events.students[e];
+                int student = remap[local];
+                if (student < 0) remap[local] = student = acc.student(chunk.studentKeys[local], chunk.studentHashes[local]);
+                int slot = acc.slot(((long) student << 32) | (events.days[e] & 0xFFFFFFFFL));
+                kernel.addScaled(acc.totals, slot * WIDTH, dishes, events.dishes[e] * WIDTH, events.servings[e], WIDTH);
+                acc.events[slot]++;
+                int dish = events.dishes[e];
+                acc.meals[student].add(events.days[e], canonicalIds[dish], places[dish], events.servings[e]);
+            }
+        }
+
+        //Slot keys in order group each student's days together, oldest first
+        long[] keys = Arrays.copyOf(acc.slotKeys, acc.slots);
+        Arrays.sort(keys);
+        long[] counts = new long[4];
+        double[] day = new double[WIDTH];
+        for (int from = 0, to; from < keys.length; from = to) {
+            int student = (int) (keys[from] >>> 32);
+            long n = 0;
+            for (to = from; to < keys.length && (int) (keys[to] >>> 32) == student; to++) n += acc.events[acc.slot(keys[to])];
+            int first = from, last = to;
+            boolean known = target.with(acc.students[student], user -> {
+                for (int k = first; k < last; k++) {
+                    System.arraycopy(acc.totals, acc.slot(keys[k]) * WIDTH, day, 0, WIDTH);
+                    user.history.add((int) keys[k], day);
+                }
+                user.meals.addAll(acc.meals[student]);
+                user.budget.refresh();
+            });
+            if (known) {
+                counts[0] += n;
+                counts[2]++;
+                counts[3] += last - first;
+            } else {
+                counts[1] += n;
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Resolved events and counters of one parsed chunk. Only the task parsing the chunk
+     * writes to it; event buffers are created when a shard is first used.
+     */
+    private static class Chunk {
+        final Events[] shards;
+        //Student ID bytes -> chunk-local student index, with each student's bytes and hash
+        final ByteTable studentIndex = new ByteTable();
+        byte[][] studentKeys = new byte[16][];
+        int[] studentHashes = new int[16];
+        int studentCount;
+        long events, unknownDishes, malformed;
+        //The previous event's date, which is usually the next one's too
+        int lastDate = -1, lastDay;
+
+        Chunk(int shards) {
+            this.shards = new Events[shards];
+        }
+
+        Events shard(int s) {
+            Events events = shards[s];
+            if (events == null) shards[s] = events = new Events();
+            return events;
+        }
+
+        int student(byte[] line, int from, int to, int hash) {
+            int student = studentIndex.get(line, from, to, hash);
+            if (student >= 0) return student;
+            student = studentCount++;
+            if (student == studentKeys.length) {
+                studentKeys = Arrays.copyOf(studentKeys, student * 2);
+                studentHashes = Arrays.copyOf(studentHashes, student * 2);
+            }
+            studentKeys[student] = studentIndex.put(line, from, to, hash, student);
+            studentHashes[student] = hash;
+            return student;
+        }
+
+        //Epoch day of the YYYY-MM-DD date at from, or Integer.MIN_VALUE if it is not a valid date
+        int epochDay(byte[] line, int from) {
+            if (line[from + 4] != '-' || line[from + 7] != '-') return Integer.MIN_VALUE;
+            int year = digits(line, from, from + 4), month = digits(line, from + 5, from + 7);
+            int day = digits(line, from + 8, from + 10);
+            if (year < 0 || month < 0 || day < 0) return Integer.MIN_VALUE;
+            int date = year * 10000 + month * 100 + day;
+            if (date != lastDate) {
+                try {
+                    lastDay = (int) LocalDate.of(year, month, day).toEpochDay();
+                } catch (DateTimeException e) {
+                    return Integer.MIN_VALUE;
+                }
+                lastDate = date;
+            }
+            return lastDay;
+        }
+
+        private static int digits(byte[] line, int from, int to) {
+            int value = 0;
+            for (int i = from; i < to; i++) {
+                int d = line[i] - '0';
+                if (d < 0 || d > 9) return -1;
+                value = value * 10 + d;
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Resolved events of one shard in one chunk, as parallel arrays.
+     */
+    private static class Events {
+        int size;
+        int[] students = new int[64], days = new int[64], dishes = new int[64];
+        double[] servings = new double[64];
+
+        void add(int student, int day, int dish, double serving) {
+            if (size == students.length) {
+                students = Arrays.copyOf(students, size * 2);
+                days = Arrays.copyOf(days, size * 2);
+                dishes = Arrays.copyOf(dishes, size * 2);
+                servings = Arrays.copyOf(servings, size * 2);
+            }
+            students[size] = student;
+            days[size] = day;
+            dishes[size] = dish;
+            servings[size] = serving;
+            size++;
+        }
+    }
+
+    /**
+     * Per-student, per-day totals of the students in one shard. Only the shard's merge
+     * task touches it, so it needs no locks.
+     */
+    private static class Accumulator {
+        //Student ID bytes -> student index
+        final ByteTable studentIndex = new ByteTable();
+        String[] students = new String[16];
+        //Individual meals of every student, added to User.meals with the totals
+        LoggedMeals[] meals = new LoggedMeals[16];
+        int studentCount;
+        //(student << 32 | epoch day) of every slot, with an open-addressing table of slot + 1
+        long[] slotKeys = new long[16];
+        int[] table = new int[32];
+        int slots;
+        //Totals of every slot: totals[slot * WIDTH + nutrient], and events per slot
+        double[] totals = new double[16 * WIDTH];
+        int[] events = new int[16];
+
+        int student(byte[] key, int hash) {
+            int student = studentIndex.get(key, 0, key.length, hash);
+            if (student >= 0) return student;
+            student = studentCount++;
+            if (student == students.length) {
+                students = Arrays.copyOf(students, student * 2);
+                meals = Arrays.copyOf(meals, student * 2);
+            }
+            students[student] = new String(key, StandardCharsets.UTF_8);
+            meals[student] = new LoggedMeals();
+            studentIndex.put(key, 0, key.length, hash, student);
+            return student;
+        }
+
+        //Finds or adds the slot of a key
+        int slot(long key) {
+            int mask = table.length - 1;
+            int i = (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+            for (int s; (s = table[i]) != 0; i = (i + 1) & mask) {
+                if (slotKeys[s - 1] == key) return s - 1;
+            }
+            int slot = slots++;
+            if (slot == slotKeys.length) {
+                slotKeys = Arrays.copyOf(slotKeys, slot * 2);
+                totals = Arrays.copyOf(totals, slot * 2 * WIDTH);
+                events = Arrays.copyOf(events, slot * 2);
+            }
+            slotKeys[slot] = key;
+            table[i] = slot + 1;
+            if (slots * 2 > table.length) rehash();
+            return slot;
+        }
+
+        private void rehash() {
+            table = new int[table.length * 2];
+            int mask = table.length - 1;
+            for (int s = 0; s < slots; s++) {
+                int i = (int) ((slotKeys[s] * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+                while (table[i] != 0) i = (i + 1) & mask;
+                table[i] = s + 1;
+            }
+        }
+    }
+
+    /**
+     * Open-addressing table from byte strings to non-negative ints.
+     */
+    private static class ByteTable {
+        private int[] hashes = new int[16];
+        private byte[][] keys = new byte[16][];
+        private int[] values = new int[16];
+        private int size;
+
+        //Value of a key, or -1 if it is absent
+        int get(byte[] bytes, int from, int to, int hash) {
+            int mask = keys.length - 1;
+            for (int i = index(hash, mask); keys[i] != null; i = (i + 1) & mask) {
+                if (hashes[i] == hash && Arrays.equals(keys[i], 0, keys[i].length, bytes, from, to)) return values[i];
+            }
+            return -1;
+        }
+
+        //Adds a key that is not in the table and returns its copy
+        byte[] put(byte[] bytes, int from, int to, int hash, int value) {
+            if ((size + 1) * 2 > keys.length) grow();
+            int mask = keys.length - 1;
+            int i = index(hash, mask);
+            while (keys[i] != null) i = (i + 1) & mask;
+            hashes[i] = hash;
+            keys[i] = Arrays.copyOfRange(bytes, from, to);
+            values[i] = value;
+            size++;
+            return keys[i];
+        }
+
+        private void grow() {
+            int[] oldHashes = hashes, oldValues = values;
+            byte[][] oldKeys = keys;
+            hashes = new int[oldKeys.length * 2];
+            keys = new byte[oldKeys.length * 2][];
+            values = new int[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldKeys[j] == null) continue;
+                int i = index(oldHashes[j], mask);
+                while (keys[i] != null) i = (i + 1) & mask;
+                hashes[i] = oldHashes[j];
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+
+        //Slot from the high bits of the hash; shards already use its low bits
+        private static int index(int hash, int mask) {
+            return ((hash * 0x9E3779B9) >>> 16) & mask;
+        }
+    }
+
+    private static int hash(byte[] bytes, int from, int to) {
+        int h = 1;
+        for (int i = from; i < to; i++) h = 31 * h + bytes[i];
+        return h;
+    }
+
+    private static int indexOf(byte[] bytes, int from, int to, byte b) {
+        for (int i = from; i < to; i++) if (bytes[i] == b) return i;
+        return -1;
+    }
+
+    private static int lastIndexOf(byte[] bytes, int from, int to, byte b) {
+        for (int i = to - 1; i >= from; i--) if (bytes[i] == b) return i;
+        return -1;
+    }
+
+    //Parses a servings count, from bytes when it is plain decimal; NaN if it is not a number
+    private static double servings(byte[] line, int from, int to) {
+        while (from < to && (line[from] & 0xFF) <= ' ') from++;
+        while (to > from && (line[to - 1] & 0xFF) <= ' ') to--;
+        if (from == to) return Double.NaN;
+        long mantissa = 0, scale = 1;
+        int digits = 0;
+        boolean dot = false;
+        int p = from;
+        for (; p < to; p++) {
+            byte b = line[p];
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                if (dot) scale *= 10;
+                digits++;
+            } else if (b == '.' && !dot) {
+                dot = true;
+            } else {
+                break;
+            }
+        }
+        if (p == to && digits > 0 && digits <= 15) return (double) mantissa / scale;
+        try {
+            double value = Double.parseDouble(new String(line, from, to - from, StandardCharsets.US_ASCII));
+            return value;
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Writes a synthetic export, then ingests it both with User.logMeal one line at a time
+     * and in a batch, checks that the totals match and prints both timings.
+     * @param args Number of events (default 2000000) and students (default 10000)
+     * @throws Exception if the files cannot be written or read
+     */
+    public static void main(String[] args) throws Exception {
+        int events = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int students = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        MenuStore store = MenuStore.load("PomonaDiningHalls.csv");
+
+        Path file = Files.createTempFile("meal-events", ".csv");
+        Random random = new Random(42);
+        try (BufferedWriter out = Files.newBufferedWriter(file)) {
+            out.write("studentId,date,rowKey,servings\n");
+            for (int i = 0; i < events; i++) {
+                String key = store.rowKey(random.nextInt(store.size()));
+                if (key.indexOf(',') >= 0) key = '"' + key + '"';
+                out.write((100_000 + random.nextInt(students)) + "," + LocalDate.ofEpochDay(20000 + random.nextInt(7))
+                        + "," + key + "," + (1 + random.nextInt(4)) * 0.5 + "\n");
+            }
+        }
+
+        //One line at a time, the way meals are logged interactively
+        HashMap<String, User> expected = population(students);
+        HashMap<String, Integer> ids = new HashMap<>();
+        for (int id = 0; id < store.size(); id++) ids.putIfAbsent(store.rowKey(id), id);
+        long start = System.nanoTime();
+        try (BufferedReader in = Files.newBufferedReader(file)) {
+            in.readLine();
+            for (String line; (line = in.readLine()) != null; ) {
+                int c1 = line.indexOf(','), c2 = line.indexOf(',', c1 + 1), c3 = line.lastIndexOf(',');
+                Integer id = ids.get(line.substring(c2 + 1, c3).replace("\"", ""));
+                User user = expected.get(line.substring(0, c1));
+                if (id != null && user != null) {
+                    user.logMeal(line.substring(c1 + 1, c2), store.vector(id).scale(Double.parseDouble(line.substring(c3 + 1))));
+                }
+            }
+        }
+        long lineNanos = System.nanoTime() - start;
+
+        HashMap<String, User> batch = population(students);
+        UserRegistry registry = new UserRegistry();
+        for (User user : batch.values()) registry.register(user);
+        BatchReport report = new MealIngest(store).ingest(file, registry);
+        Files.delete(file);
+
+        System.out.printf("User.logMeal per line: %.1f ms, %.0f events/s%n", lineNanos / 1e6, events * 1e9 / lineNanos);
+        System.out.println("Batch: " + report);
+        double[] a = new double[WIDTH], b = new double[WIDTH];
+        boolean match = true;
+        for (User user : expected.values()) {
+            for (int day = 20000; day < 20007; day++) {
+                user.history.day(day, a);
+                batch.get(user.studentId).history.day(day, b);
+                for (int n = 0; n < WIDTH; n++) match &= Math.abs(a[n] - b[n]) <= 1e-9 * Math.max(1, Math.abs(a[n]));
+            }
+        }
+        System.out.println(match ? "Totals match." : "Totals DIFFER.");
+    }
+
+    private static HashMap<String, User> population(int students) {
+        HashMap<String, User> users = new HashMap<>();
+        for (int i = 0; i < students; i++) {
+            String id = String.valueOf(100_000 + i);
+            users.put(id, new User(id, "Student " + i, NutritionServer.goals(2000, 100, 250, 70)));
+        }
+        return users;
+    }
+}
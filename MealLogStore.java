@@ -0,0 +1,734 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
+
+/**
+ * MealLogStore persists logged meals so they survive a restart.
+ *
+ * Every logged meal is an event (student id, date, dish, servings) appended to a
+ * segment file in a log directory. The dish is written out in full (name, serving size,
+ * dining hall, meal period and every nutrient of one serving) rather than as a row of
+ * the current menu, so replaying the log after the CSV was republished still adds the
+ * dish that was eaten:
+ * <ul>
+ *   <li>Appends only queue the event; a background thread writes everything queued
+ *       since its last write through a FileChannel and fsyncs once for the whole batch
+ *       (group commit). The returned future completes when the event is durable.</li>
+ *   <li>Every snapshotEvery events the store starts a new segment and writes a
+ *       snapshot of the per-student, per-day totals and of every student's meals.
+ *       The previous snapshot and the segments after it are kept until the next one,
+ *       so a snapshot that later fails its checksum can be recovered around; anything
+ *       older is deleted, so the directory does not grow without bound.</li>
+ *   <li>On open the latest intact snapshot is loaded and the segments after it are
+ *       replayed. A torn record at the end of the last segment (from a crash
+ *       mid-write) is detected by its checksum and cut off. A bad record in any
+ *       earlier segment, or a segment missing after the snapshot, fails open() with
+ *       an IOException naming the segment, rather than silently losing meals.</li>
+ * </ul>
+ * Layout of the directory:
+ * <pre>
+ *   segment-00000001.log    [int length][int crc32][int epochDay][double servings]
+ *                           [studentId][dish][servingSize][hall][meal][short n][n doubles] ...
+ *   snapshot-00000003.snap  totals and meals of every event in segments below 3, followed by a crc32
+ * </pre>
+ * Strings in a record are a short length and UTF-8 bytes. The totals are a NutrientVector
+ * per student and day, so every nutrient of the CSV is kept; the meals are LoggedMeals,
+ * with the dishes and places they use written out by name. Nothing in the log refers to
+ * the menu loaded at restart.
+ *
+ * Example usage:
+ * <pre>
+ *   MealLogStore log = MealLogStore.open(Paths.get("meal-log"));
+ *   System.out.println(log.recoveryReport());
+ *   log.restore(users);                                     // rebuild User.history and User.meals
+ *   log.append("1001", "2025-05-14", store, item.id, 1);   // durable once the future completes
+ *   log.close();
+ * </pre>
+ *
+ * @author Yaseen Osman
+ */
+public class MealLogStore implements Closeable {
+    //Default size after which a new segment is started
+    public static final long DEFAULT_SEGMENT_BYTES = 64L << 20;
+    //Default number of events between snapshots
+    public static final int DEFAULT_SNAPSHOT_EVERY = 100_000;
+
+    private static final int SNAPSHOT_MAGIC = 0x4D4C5331; // "MLS1"
+    private static final int RECORD_HEADER = 8;
+    //Smallest payload: epochDay, servings, five empty strings and the nutrient count
+    private static final int MIN_RECORD = 4 + 8 + 5 * 2 + 2;
+    private static final int MAX_RECORD = 1 << 16;
+    //Values per day: one NutrientVector
+    private static final int TOTALS = NutrientVector.LENGTH;
+
+    private final Path dir;
+    private final long maxSegmentBytes;
+    private final int snapshotEvery;
+
+    //Queue of appended events, guarded by lock
+    private final Object lock = new Object();
+    private List<Event> pending = new ArrayList<>();
+    private boolean closed;
+    private IOException failure;
+
+    //Log files; only touched while holding io
+    private final Object io = new Object();
+    private FileChannel segment;
+    private long segmentId;
+    private long segmentBytes;
+    private long eventsSinceSnapshot;
+    private ByteBuffer out = ByteBuffer.allocate(64 << 10);
+
+    //Totals of every durable event: studentId -> epochDay -> every nutrient
+    private final HashMap<String, HashMap<Integer, double[]>> totals = new HashMap<>();
+    //Meals of every durable event with a known dish, by student ID; guarded by totals
+    private final HashMap<String, LoggedMeals> meals = new HashMap<>();
+
+    private final Stats stats = new Stats();
+    private final RecoveryReport recovery = new RecoveryReport();
+    private final Thread flusher;
+
+    /**
+     * A logged meal waiting to be written.
+     */
+    private static class Event {
+        final String studentId;
+        final int epochDay;
+        final double servings;
+        //Dish as it was when the event was appended; the menu may be reloaded before the flush
+        final String name, servingSize, diningHall, mealPeriod;
+        final NutrientVector dish;
+        final CompletableFuture<Void> durable = new CompletableFuture<>();
+
+        Event(String studentId, int epochDay, double servings, String name, String servingSize,
+              String diningHall, String mealPeriod, NutrientVector dish) {
+            this.studentId = studentId;
+            this.epochDay = epochDay;
+            this.servings = servings;
+            this.name = name;
+            this.servingSize = servingSize == null ? "" : servingSize;
+            this.diningHall = diningHall;
+            this.mealPeriod = mealPeriod;
+            this.dish = dish;
+        }
+    }
+
+    /**
+     * What opening the store had to do to rebuild its state.
+     */
+    public static class RecoveryReport {
+        //Segment id of the snapshot that was loaded, or 0 if there was none
+        public long snapshotSegment;
+        //Number of (student, day) totals loaded from the snapshot
+        public long snapshotDays;
+        //Number of events replayed from segments after the snapshot
+        public long replayedEvents;
+        //Number of meals loaded from the snapshot
+        public long snapshotMeals;
+        //Number of bytes cut off the end of the log because they did not form a whole record
+        public long truncatedBytes;
+        //Number of newer snapshots skipped because they failed their checksum
+        public long skippedSnapshots;
+        //Wall-clock time of the recovery in nanoseconds
+        public long nanos;
+
+        @Override
+        public String toString() {
+            return String.format("Recovered %d days and %d meals from snapshot %d and replayed %d events in %.1f ms "
+                    + "(%d torn bytes dropped, %d damaged snapshots skipped)",
+                    snapshotDays, snapshotMeals, snapshotSegment, replayedEvents, nanos / 1e6, truncatedBytes,
+                    skippedSnapshots);
+        }
+    }
+
+    /**
+     * Append counters since the store was opened.
+     */
+    public static class Stats {
+        //Events written and made durable
+        public volatile long events;
+        //Batches written; each batch is one fsync
+        public volatile long batches;
+        //Bytes written to segments
+        public volatile long bytes;
+        //Snapshots written
+        public volatile long snapshots;
+
+        @Override
+        public String toString() {
+            return String.format("%d events in %d fsyncs (%.1f events/fsync), %d bytes, %d snapshots",
+                    events, batches, batches == 0 ? 0.0 : (double) events / batches, bytes, snapshots);
+        }
+    }
+
+    /**
+     * Opens (or creates) a store with the default segment size and snapshot interval.
+     *
+     * @param dir Log directory
+     * @return The opened store, with its state recovered
+     * @throws IOException if the log cannot be read or created
+     */
+    public static MealLogStore open(Path dir) throws IOException {
+        return open(dir, DEFAULT_SEGMENT_BYTES, DEFAULT_SNAPSHOT_EVERY);
+    }
+
+    /**
+     * Opens (or creates) a store.
+     *
+     * @param dir             Log directory
+     * @param maxSegmentBytes Size after which a new segment is started
+     * @param snapshotEvery   Number of events between snapshots
+     * @return The opened store, with its state recovered
+     * @throws IOException if the log cannot be read or created
+     */
+    public static MealLogStore open(Path dir, long maxSegmentBytes, int snapshotEvery) throws IOException {
+        return new MealLogStore(dir, maxSegmentBytes, snapshotEvery);
+    }
+
+    private MealLogStore(Path dir, long maxSegmentBytes, int snapshotEvery) throws IOException {
+        this.dir = dir;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.snapshotEvery = snapshotEvery;
+        Files.createDirectories(dir);
+        recover();
+        flusher = new Thread(this::flushLoop, "meal-log-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Queues a meal event. The call does not wait for the disk; the returned future
+     * completes once the event has been fsynced, or completes exceptionally if writing failed.
+     * The dish is copied out of the store, e.g. the menu version the request was served
+     * from, so a later reload or republish does not change what was logged.
+     *
+     * @param studentId Student ID
+     * @param date      Date in "YYYY-MM-DD" format
+     * @param store     MenuStore the dish id belongs to
+     * @param dishId    Dish id in the store, e.g. MenuItem.id
+     * @param servings  Number of servings eaten
+     * @return Future that completes when the event is durable
+     */
+    public CompletableFuture<Void> append(String studentId, String date, MenuStore store, int dishId, double servings) {
+        Event event = new Event(studentId, NutritionHistory.epochDay(date), servings, store.dish(dishId),
+                store.servingSize(dishId), store.diningHall(dishId), store.mealPeriod(dishId), store.vector(dishId));
+        synchronized (lock) {
+            if (closed) throw new IllegalStateException("Meal log is closed");
+            if (failure != null) return CompletableFuture.failedFuture(failure);
+            pending.add(event);
+            lock.notifyAll();
+        }
+        return event.durable;
+    }
+
+    /**
+     * Rebuilds the nutrition history and logged meals of every known user from the
+     * recovered log. Call it once, before anything new is logged for these users, since
+     * the meals are added to User.meals. Students in the log that are not in the map are
+     * ignored.
+     *
+     * @param users Users by student ID
+     */
+    public void restore(Map<String, User> users) {
+        synchronized (totals) {
+            for (Map.Entry<String, HashMap<Integer, double[]>> student : totals.entrySet()) {
+                User user = users.get(student.getKey());
+                if (user == null) continue;
+                for (Map.Entry<Integer, double[]> day : student.getValue().entrySet()) {
+                    user.history.set(day.getKey(), day.getValue());
+                }
+                LoggedMeals logged = meals.get(student.getKey());
+                if (logged != null) user.meals.addAll(logged);
+                user.budget.refresh();
+            }
+        }
+    }
+
+    /**
+     * Receives the durable totals of one student on one day.
+     */
+    public interface DayVisitor {
+        /**
+         * @param studentId Student ID
+         * @param date      Date in "YYYY-MM-DD" format
+         * @param totals    Every nutrient, indexed by Nutrient.ordinal()
+         */
+        void visit(String studentId, String date, double[] totals);
+    }
+
+    /**
+     * Calls the visitor with the totals of every student and day in the log.
+     *
+     * @param visitor Receives each day
+     */
+    public void forEachDay(DayVisitor visitor) {
+        synchronized (totals) {
+            for (Map.Entry<String, HashMap<Integer, double[]>> student : totals.entrySet()) {
+                for (Map.Entry<Integer, double[]> day : student.getValue().entrySet()) {
+                    visitor.visit(student.getKey(), LocalDate.ofEpochDay(day.getKey()).toString(), day.getValue().clone());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns what opening the store had to do.
+     * @return The recovery report
+     */
+    public RecoveryReport recoveryReport() {
+        return recovery;
+    }
+
+    /**
+     * Returns the append counters.
+     * @return The stats
+     */
+    public Stats stats() {
+        return stats;
+    }
+
+    /**
+     * Starts a new segment, snapshots the totals of everything before it and deletes
+     * what the previous snapshot already covered. Events queued but not yet written are
+     * not included.
+     *
+     * @throws IOException if the snapshot cannot be written
+     */
+    public void snapshot() throws IOException {
+        synchronized (io) {
+            rollSegment();
+            writeSnapshot(segmentId);
+            compact(segmentId);
+        }
+    }
+
+    /**
+     * Writes every queued event, stops the background writer and closes the segment.
+     *
+     * @throws IOException if the last batch could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) return;
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (io) {
+            segment.close();
+        }
+        synchronized (lock) {
+            if (failure != null) throw failure;
+        }
+    }
+
+    private void flushLoop() {
+        List<Event> batch = new ArrayList<>();
+        while (true) {
+            synchronized (lock) {
+                while (pending.isEmpty() && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (pending.isEmpty()) return;
+                //Everything queued while the previous batch was being fsynced goes out together
+                List<Event> queued = pending;
+                pending = batch;
+                batch = queued;
+            }
+            try {
+                synchronized (io) {
+                    writeBatch(batch);
+                }
+                for (Event event : batch) event.durable.complete(null);
+            } catch (IOException | RuntimeException e) {
+                IOException error = e instanceof IOException ? (IOException) e : new IOException("Meal log write failed", e);
+                synchronized (lock) {
+                    failure = error;
+                    for (Event event : pending) event.durable.completeExceptionally(error);
+                    pending.clear();
+                }
+                for (Event event : batch) event.durable.completeExceptionally(error);
+            }
+            batch.clear();
+        }
+    }
+
+    private void writeBatch(List<Event> batch) throws IOException {
+        out.clear();
+        for (Event event : batch) {
+            byte[][] strings = {utf8(event.studentId), utf8(event.name), utf8(event.servingSize),
+                    utf8(event.diningHall), utf8(event.mealPeriod)};
+            int length = 4 + 8 + 2 + 8 * TOTALS;
+            for (byte[] string : strings) length += 2 + string.length;
+            if (length > MAX_RECORD) throw new IOException("Meal record too long for " + event.studentId);
+            if (out.remaining() < RECORD_HEADER + length) {
+                out = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + RECORD_HEADER + length))
+                                .put(out.flip());
+            }
+            int start = out.position();
+            out.putInt(length).putInt(0);
+            out.putInt(event.epochDay).putDouble(event.servings);
+            for (byte[] string : strings) out.putShort((short) string.length).put(string);
+            out.putShort((short) TOTALS);
+            for (double value : event.dish.values) out.putDouble(value);
+            CRC32 crc = new CRC32();
+            crc.update(out.array(), start + RECORD_HEADER, length);
+            out.putInt(start + 4, (int) crc.getValue());
+        }
+        out.flip();
+        int bytes = out.remaining();
+        while (out.hasRemaining()) segment.write(out);
+        segment.force(false);
+
+        for (Event event : batch) {
+            apply(event.studentId, event.epochDay, event.dish, event.servings,
+                    event.name, event.servingSize, event.diningHall, event.mealPeriod);
+        }
+        segmentBytes += bytes;
+        eventsSinceSnapshot += batch.size();
+        stats.events += batch.size();
+        stats.batches++;
+        stats.bytes += bytes;
+
+        if (eventsSinceSnapshot >= snapshotEvery) {
+            rollSegment();
+            writeSnapshot(segmentId);
+            compact(segmentId);
+        } else if (segmentBytes >= maxSegmentBytes) {
+            rollSegment();
+        }
+    }
+
+    //Adds an event to the totals and the meals
+    private void apply(String studentId, int epochDay, NutrientVector dish, double servings,
+                       String name, String servingSize, String diningHall, String mealPeriod) {
+        synchronized (totals) {
+            double[] day = totals.computeIfAbsent(studentId, k -> new HashMap<>())
+                                 .computeIfAbsent(epochDay, k -> new double[TOTALS]);
+            NutrientKernel.INSTANCE.addScaled(day, 0, dish.values, 0, servings, TOTALS);
+            DishTable table = DishTable.shared();
+            meals.computeIfAbsent(studentId, k -> new LoggedMeals())
+                 .add(epochDay, table.intern(name, servingSize, dish), table.place(diningHall, mealPeriod), servings);
+        }
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getShort() & 0xFFFF];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void rollSegment() throws IOException {
+        segment.close();
+        openSegment(segmentId + 1);
+    }
+
+    private void openSegment(long id) throws IOException {
+        segment = FileChannel.open(segmentPath(id), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        segmentBytes = segment.size();
+        segment.position(segmentBytes);
+        segmentId = id;
+    }
+
+    private void writeSnapshot(long nextSegment) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(SNAPSHOT_MAGIC);
+        data.writeLong(nextSegment);
+        data.writeInt(TOTALS);
+        synchronized (totals) {
+            data.writeInt(totals.size());
+            for (Map.Entry<String, HashMap<Integer, double[]>> student : totals.entrySet()) {
+                data.writeUTF(student.getKey());
+                data.writeInt(student.getValue().size());
+                for (Map.Entry<Integer, double[]> day : student.getValue().entrySet()) {
+                    data.writeInt(day.getKey());
+                    for (double value : day.getValue()) data.writeDouble(value);
+                }
+            }
+            writeMeals(data);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        data.writeLong(crc.getValue());
+        data.flush();
+
+        //Write to a temporary file, fsync, then rename so a crash never leaves half a snapshot
+        Path tmp = dir.resolve("snapshot.tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buf = ByteBuffer.wrap(bytes.toByteArray());
+            while (buf.hasRemaining()) channel.write(buf);
+            channel.force(true);
+        }
+        Files.move(tmp, snapshotPath(nextSegment), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        eventsSinceSnapshot = 0;
+        stats.snapshots++;
+    }
+
+    //Writes every student's meals, with the dishes and places they use written out by name
+    private void writeMeals(DataOutputStream data) throws IOException {
+        DishTable table = DishTable.shared();
+        //Snapshot index of each DishTable dish id and place code that is used
+        Map<Integer, Integer> dishIndex = new LinkedHashMap<>(), placeIndex = new LinkedHashMap<>();
+        for (LoggedMeals logged : meals.values()) {
+            LoggedMeals.Cursor meal = logged.cursor();
+            while (meal.next()) {
+                dishIndex.putIfAbsent(meal.dish, dishIndex.size());
+                placeIndex.putIfAbsent(meal.place, placeIndex.size());
+            }
+        }
+        data.writeInt(dishIndex.size());
+        for (int id : dishIndex.keySet()) {
+            DishTable.Dish dish = table.dish(id);
+            data.writeUTF(dish.name);
+            data.writeUTF(dish.servingSize);
+            for (double value : dish.vector().values) data.writeDouble(value);
+        }
+        data.writeInt(placeIndex.size());
+        for (int place : placeIndex.keySet()) {
+            data.writeUTF(table.hall(place));
+            data.writeUTF(table.meal(place));
+        }
+        data.writeInt(meals.size());
+        for (Map.Entry<String, LoggedMeals> student : meals.entrySet()) {
+            data.writeUTF(student.getKey());
+            data.writeInt(student.getValue().size());
+            LoggedMeals.Cursor meal = student.getValue().cursor();
+            while (meal.next()) {
+                data.writeInt(meal.day);
+                data.writeInt(dishIndex.get(meal.dish));
+                data.writeInt(placeIndex.get(meal.place));
+                data.writeDouble(meal.servings);
+            }
+        }
+    }
+
+    //Deletes segments and snapshots older than the snapshot before the one for nextSegment,
+    //so recovery can fall back a generation if the new snapshot is ever damaged
+    private void compact(long nextSegment) throws IOException {
+        long keep = 0;
+        for (long id : listIds("snapshot-", ".snap")) {
+            if (id < nextSegment) keep = id;
+        }
+        for (long id : listIds("segment-", ".log")) {
+            if (id < keep) Files.deleteIfExists(segmentPath(id));
+        }
+        for (long id : listIds("snapshot-", ".snap")) {
+            if (id < keep) Files.deleteIfExists(snapshotPath(id));
+        }
+    }
+
+    private void recover() throws IOException {
+        long start = System.nanoTime();
+
+        //Latest snapshot that is intact
+        long firstSegment = 1;
+        List<Long> snapshots = listIds("snapshot-", ".snap");
+        for (int i = snapshots.size() - 1; i >= 0; i--) {
+            if (loadSnapshot(snapshots.get(i))) {
+                firstSegment = snapshots.get(i);
+                recovery.snapshotSegment = firstSegment;
+                break;
+            }
+            recovery.skippedSnapshots++;
+        }
+
+        //Replay the segments after it; they must all be there, or meals would be lost
+        List<Long> segments = new ArrayList<>();
+        for (long id : listIds("segment-", ".log")) {
+            if (id >= firstSegment) segments.add(id);
+        }
+        for (int i = 0; i < segments.size(); i++) {
+            if (segments.get(i) != firstSegment + i) {
+                throw new IOException("Meal log in " + dir + " is missing segment " + (firstSegment + i)
+                        + " needed after " + (recovery.snapshotSegment > 0 ? "snapshot " + firstSegment : "no intact snapshot"));
+            }
+        }
+        if (segments.isEmpty() && recovery.skippedSnapshots > 0) {
+            throw new IOException("Meal log in " + dir + " has no intact snapshot and no segments to rebuild from");
+        }
+        long lastSegment = firstSegment;
+        for (int i = 0; i < segments.size(); i++) {
+            replay(segments.get(i), i == segments.size() - 1);
+            lastSegment = segments.get(i);
+        }
+        openSegment(lastSegment);
+        recovery.nanos = System.nanoTime() - start;
+    }
+
+    private boolean loadSnapshot(long id) throws IOException {
+        byte[] bytes = Files.readAllBytes(snapshotPath(id));
+        if (bytes.length < 8) return false;
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 8);
+        if (ByteBuffer.wrap(bytes, bytes.length - 8, 8).getLong() != crc.getValue()) return false;
+
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 8));
+        int magic = data.readInt();
+        if (magic != SNAPSHOT_MAGIC || data.readLong() != id) return false;
+        if (data.readInt() != TOTALS) throw new IOException("Snapshot " + id + " has a different number of nutrients");
+        int students = data.readInt();
+        for (int s = 0; s < students; s++) {
+            String studentId = data.readUTF();
+            int days = data.readInt();
+            HashMap<Integer, double[]> byDay = totals.computeIfAbsent(studentId, k -> new HashMap<>());
+            for (int d = 0; d < days; d++) {
+                int epochDay = data.readInt();
+                double[] day = new double[TOTALS];
+                for (int t = 0; t < TOTALS; t++) day[t] = data.readDouble();
+                byDay.put(epochDay, day);
+                recovery.snapshotDays++;
+            }
+        }
+        loadMeals(data);
+        return true;
+    }
+
+    private void loadMeals(DataInputStream data) throws IOException {
+        DishTable table = DishTable.shared();
+        int[] dishIds = new int[data.readInt()];
+        for (int d = 0; d < dishIds.length; d++) {
+            String name = data.readUTF(), servingSize = data.readUTF();
+            NutrientVector values = new NutrientVector();
+            for (int t = 0; t < TOTALS; t++) values.values[t] = data.readDouble();
+            dishIds[d] = table.intern(name, servingSize, values);
+        }
+        int[] places = new int[data.readInt()];
+        for (int p = 0; p < places.length; p++) places[p] = table.place(data.readUTF(), data.readUTF());
+        int students = data.readInt();
+        for (int s = 0; s < students; s++) {
+            LoggedMeals logged = meals.computeIfAbsent(data.readUTF(), k -> new LoggedMeals());
+            int count = data.readInt();
+            for (int m = 0; m < count; m++) {
+                logged.add(data.readInt(), dishIds[data.readInt()], places[data.readInt()], data.readDouble());
+                recovery.snapshotMeals++;
+            }
+        }
+    }
+
+    //Replays a segment; only the last one may end in a torn record, which is cut off
+    private void replay(long id, boolean last) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(id), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            ByteBuffer buf = ByteBuffer.allocate((int) Math.min(size, Integer.MAX_VALUE));
+            while (buf.hasRemaining() && channel.read(buf) >= 0) { }
+            buf.flip();
+
+            CRC32 crc = new CRC32();
+            int valid = 0;
+            while (buf.remaining() >= RECORD_HEADER) {
+                int length = buf.getInt(valid);
+                if (length < MIN_RECORD || length > MAX_RECORD || valid + RECORD_HEADER + length > buf.limit()) break;
+                crc.reset();
+                crc.update(buf.array(), valid + RECORD_HEADER, length);
+                if (buf.getInt(valid + 4) != (int) crc.getValue()) break;
+
+                buf.position(valid + RECORD_HEADER);
+                int epochDay = buf.getInt();
+                double servings = buf.getDouble();
+                String studentId = readString(buf), name = readString(buf), servingSize = readString(buf);
+                String hall = readString(buf), meal = readString(buf);
+                if (buf.getShort() != TOTALS) throw new IOException("Segment " + id + " has a different number of nutrients");
+                NutrientVector dish = new NutrientVector();
+                for (int t = 0; t < TOTALS; t++) dish.values[t] = buf.getDouble();
+                apply(studentId, epochDay, dish, servings, name, servingSize, hall, meal);
+                recovery.replayedEvents++;
+                valid += RECORD_HEADER + length;
+                buf.position(valid);
+            }
+
+            //Anything after the last whole record is a torn write; cut it off
+            if (valid < size && !last) {
+                throw new IOException("Meal log segment " + segmentPath(id) + " is corrupt at offset " + valid
+                        + " of " + size + "; later segments follow it, so it is not a torn write");
+            }
+            if (valid < size) {
+                recovery.truncatedBytes += size - valid;
+                channel.truncate(valid);
+                channel.force(true);
+            }
+        }
+    }
+
+    private List<Long> listIds(String prefix, String suffix) throws IOException {
+        List<Long> ids = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, prefix + "*" + suffix)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    ids.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+                } catch (NumberFormatException e) {
+                    //Not one of ours
+                }
+            }
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    private Path segmentPath(long id) {
+        return dir.resolve(String.format("segment-%08d.log", id));
+    }
+
+    private Path snapshotPath(long id) {
+        return dir.resolve(String.format("snapshot-%08d.snap", id));
+    }
+
+    /**
+     * Measures append throughput and recovery time on a scratch directory.
+     * @param args Number of events (default 200000) and appending threads (default 4)
+     * @throws Exception if the log cannot be written
+     */
+    public static void main(String[] args) throws Exception {
+        int events = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        MenuStore menu = MenuStore.load("PomonaDiningHalls.csv");
+        Path dir = Files.createTempDirectory("meal-log");
+
+        MealLogStore log = open(dir, 4L << 20, events / 4 + 1);
+        long start = System.nanoTime();
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int first = t;
+            workers[t] = new Thread(() -> {
+                CompletableFuture<Void> last = null;
+                for (int i = first; i < events; i += threads) {
+                    last = log.append(String.valueOf(1000 + i % 500), LocalDate.ofEpochDay(20000 + i % 30).toString(),
+                            menu, i % menu.size(), 1);
+                }
+                if (last != null) last.join();
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) worker.join();
+        long nanos = System.nanoTime() - start;
+        log.close();
+        System.out.printf("Appended %d events from %d threads in %.1f ms: %.0f events/s%n",
+                events, threads, nanos / 1e6, events * 1e9 / nanos);
+        System.out.println(log.stats());
+
+        MealLogStore reopened = open(dir);
+        System.out.println(reopened.recoveryReport());
+        reopened.close();
+    }
+}
@@ -0,0 +1,331 @@
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MealPlanner suggests a whole plate of dishes instead of a single one.
+ *
+ * Given the dishes of one dining hall and meal period, it searches combinations of
+ * distinct dishes (each with a number of servings) whose summed calories, protein,
+ * carbs and fat are closest to a target, using the same weighted distance as
+ * RecommendationIndex.nearestMacros. The search is a depth-first branch and bound:
+ * <ul>
+ *   <li>Going over the target only gets worse as dishes are added, since nutrients
+ *       are non-negative, and falling short is bounded by the largest amount the
+ *       remaining dishes could still add. Branches whose bound is no better than the
+ *       best plate found so far are pruned.</li>
+ *   <li>The first levels of the search are split into fork-join tasks, so the
+ *       branches are explored on every core of the pool and share one best plate.
+ *       Children are only forked while the budget lasts and their bound can still
+ *       beat the best plate, and every task checks both again when it starts.</li>
+ *   <li>The search stops when its time budget runs out and returns the best plate
+ *       found so far, marked as incomplete. A search that finishes after its budget
+ *       is marked incomplete too.</li>
+ * </ul>
+ *
+ * Example usage:
+ * <pre>
+ *   MealPlanner planner = new MealPlanner(4, 2, 200);
+ *   List<MenuItem> lunch = menu.get("Frary").get("Lunch");
+ *   MealPlanner.Plan plan = planner.plan(user, "2025-05-14", lunch);
+ *   System.out.println(plan);
+ * </pre>
+ *
+ * @author Yaseen Osman
+ */
+public class MealPlanner {
+    //Search levels that are split into separate fork-join tasks
+    private static final int SPLIT_DEPTH = 2;
+    //How many nodes a task visits between clock reads; tasks also read the clock when they start
+    private static final int DEADLINE_CHECK_INTERVAL = 1024;
+
+    //Most distinct dishes on one plate
+    private final int maxDishes;
+    //Most servings of any one dish
+    private final int maxServings;
+    //Time budget of one search in nanoseconds
+    private final long budgetNanos;
+    //Pool the search runs on
+    private final ForkJoinPool pool;
+
+    /**
+     * A suggested plate and how the search that found it went.
+     */
+    public static class Plan {
+        //Dishes on the plate
+        public final List<MenuItem> items;
+        //Servings of each dish, same order as items
+        public final int[] servings;
+        //Plate totals, indexed by RecommendationIndex.CALORIES, PROTEIN, CARBS, FAT
+        public final double[] totals;
+        //Weighted distance of the totals from the target
+        public final double distance;
+        //False if the time budget ran out before the search space was exhausted
+        public final boolean complete;
+        //Number of search nodes visited
+        public final long nodes;
+        //Wall-clock time of the search in nanoseconds
+        public final long nanos;
+
+        Plan(List<MenuItem> items, int[] servings, double[] totals, double distance,
+             boolean complete, long nodes, long nanos) {
+            this.items = items;
+            this.servings = servings;
+            this.totals = totals;
+            this.distance = distance;
+            this.complete = complete;
+            this.nodes = nodes;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < items.size(); i++) {
+                sb.append(String.format("%d x %s\n", servings[i], items.get(i)));
+            }
+            sb.append(String.format("Total: %.1f kcal, %.1fg protein, %.1fg carbs, %.1fg fat (%s after %d nodes, %.1f ms)",
+                    totals[RecommendationIndex.CALORIES], totals[RecommendationIndex.PROTEIN],
+                    totals[RecommendationIndex.CARBS], totals[RecommendationIndex.FAT],
+                    complete ? "best plate" : "best so far", nodes, nanos / 1e6));
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Constructs a planner that runs on the common ForkJoinPool.
+     *
+     * @param maxDishes        Most distinct dishes on one plate
+     * @param maxServings      Most servings of any one dish
+     * @param timeBudgetMillis Time budget of one search in milliseconds
+     */
+    public MealPlanner(int maxDishes, int maxServings, long timeBudgetMillis) {
+        this(maxDishes, maxServings, timeBudgetMillis, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructs a planner that runs on the given pool.
+     *
+     * @param maxDishes        Most distinct dishes on one plate
+     * @param maxServings      Most servings of any one dish
+     * @param timeBudgetMillis Time budget of one search in milliseconds
+     * @param pool             Pool the search runs on
+     */
+    public MealPlanner(int maxDishes, int maxServings, long timeBudgetMillis, ForkJoinPool pool) {
+        if (maxDishes < 1 || maxServings < 1) throw new IllegalArgumentException("maxDishes and maxServings must be at least 1");
+        this.maxDishes = maxDishes;
+        this.maxServings = maxServings;
+        this.budgetNanos = timeBudgetMillis * 1_000_000L;
+        this.pool = pool;
+    }
+
+    /**
+     * Plans a plate that fits a user's remaining calories, protein, carbs and fat for a date,
+     * weighing each macro against User.goals like RecommendationIndex.nearestMacros.
+     *
+     * @param user  The user
+     * @param date  Date in "YYYY-MM-DD" format
+     * @param items Dishes to choose from, e.g. one hall and meal period of the menu
+     * @return The best plate found, or an empty plan if there are no dishes
+     */
+    public Plan plan(User user, String date, List<MenuItem> items) {
+        double[] target = new double[RecommendationIndex.DIMS], weights = new double[RecommendationIndex.DIMS];
+        RecommendationIndex.goalTarget(user, date, target, weights);
+        return plan(items, target, weights);
+    }
+
+    /**
+     * Plans a plate whose totals are closest to a target.
+     *
+     * @param items   Dishes to choose from; their nutrients must not be negative
+     * @param target  Target totals, indexed by RecommendationIndex.CALORIES, PROTEIN, CARBS, FAT
+     * @param weights Non-negative weight per dimension
+     * @return The best plate found, or an empty plan if there are no dishes
+     */
+    public Plan plan(List<MenuItem> items, double[] target, double[] weights) {
+        long start = System.nanoTime();
+        Search search = new Search(items, target, weights, start + budgetNanos);
+        if (!items.isEmpty()) {
+            pool.invoke(new Branch(search, new double[RecommendationIndex.DIMS], new int[maxDishes],
+                    new int[maxDishes], 0, 0));
+        }
+        //Over budget counts as incomplete even if the last task finished without noticing
+        search.expired();
+        return search.result(System.nanoTime() - start);
+    }
+
+    /**
+     * State shared by every task of one search.
+     */
+    private class Search {
+        final MenuItem[] items;
+        final double[] target, weights;
+        final long deadline;
+        //Nutrients of each dish, DIMS values per dish
+        final double[] values;
+        //Largest value of each dimension among dishes i.. (DIMS values per i)
+        final double[] suffixMax;
+        final LongAdder nodes = new LongAdder();
+        volatile boolean expired;
+
+        //Best plate so far; bestDistance is read without the lock for pruning
+        volatile double bestDistance = Double.POSITIVE_INFINITY;
+        int[] bestDishes = new int[0], bestServings = new int[0];
+
+        Search(List<MenuItem> list, double[] target, double[] weights, long deadline) {
+            this.items = list.toArray(new MenuItem[0]);
+            this.target = target;
+            this.weights = weights;
+            this.deadline = deadline;
+            int dims = RecommendationIndex.DIMS, n = items.length;
+            values = new double[n * dims];
+            for (int i = 0; i < n; i++) {
+                values[i * dims + RecommendationIndex.CALORIES] = items[i].calories;
+                values[i * dims + RecommendationIndex.PROTEIN] = items[i].protein;
+                values[i * dims + RecommendationIndex.CARBS] = items[i].carbs;
+                values[i * dims + RecommendationIndex.FAT] = items[i].fat;
+            }
+            suffixMax = new double[(n + 1) * dims];
+            for (int i = n - 1; i >= 0; i--) {
+                for (int d = 0; d < dims; d++) {
+                    suffixMax[i * dims + d] = Math.max(suffixMax[(i + 1) * dims + d], values[i * dims + d]);
+                }
+            }
+        }
+
+        double distance(double[] totals) {
+            return NutrientKernel.INSTANCE.distance(totals, 0, target, weights, RecommendationIndex.DIMS);
+        }
+
+        //Lowest distance any plate extending this one with dishes from..n-1 can reach
+        double bound(double[] totals, int depth, int from) {
+            double bound = 0;
+            int slots = maxDishes - depth;
+            for (int d = 0; d < RecommendationIndex.DIMS; d++) {
+                double gap = target[d] - totals[d];
+                if (gap < 0) {
+                    bound += weights[d] * gap * gap;
+                } else {
+                    double shortfall = gap - slots * maxServings * suffixMax[from * RecommendationIndex.DIMS + d];
+                    if (shortfall > 0) bound += weights[d] * shortfall * shortfall;
+                }
+            }
+            return bound;
+        }
+
+        void offer(double distance, int[] dishes, int[] servings, int depth) {
+            if (distance >= bestDistance) return;
+            synchronized (this) {
+                if (distance >= bestDistance) return;
+                bestDishes = Arrays.copyOf(dishes, depth);
+                bestServings = Arrays.copyOf(servings, depth);
+                bestDistance = distance;
+            }
+        }
+
+        //Counts a node and returns false once the time budget has run out
+        boolean visit(long visited) {
+            if (visited % DEADLINE_CHECK_INTERVAL == 0) {
+                nodes.add(DEADLINE_CHECK_INTERVAL);
+                return !expired();
+            }
+            return !expired;
+        }
+
+        //Reads the clock and returns true once the time budget has run out, in any task
+        boolean expired() {
+            if (!expired && System.nanoTime() - deadline > 0) expired = true;
+            return expired;
+        }
+
+        synchronized Plan result(long nanos) {
+            List<MenuItem> chosen = new ArrayList<>();
+            double[] totals = new double[RecommendationIndex.DIMS];
+            for (int i = 0; i < bestDishes.length; i++) {
+                chosen.add(items[bestDishes[i]]);
+                NutrientKernel.INSTANCE.addScaled(totals, 0, values, bestDishes[i] * RecommendationIndex.DIMS,
+                        bestServings[i], RecommendationIndex.DIMS);
+            }
+            double distance = chosen.isEmpty() ? Double.POSITIVE_INFINITY : Math.sqrt(bestDistance);
+            return new Plan(chosen, bestServings.clone(), totals, distance, !expired, nodes.sum(), nanos);
+        }
+    }
+
+    /**
+     * Explores every plate that extends a prefix with dishes from index 'from' on.
+     * Near the root each child becomes its own task; deeper levels run sequentially.
+     */
+    private class Branch extends RecursiveAction {
+        final Search search;
+        final double[] totals;
+        final int[] dishes, servings;
+        final int depth, from;
+        long visited;
+
+        Branch(Search search, double[] totals, int[] dishes, int[] servings, int depth, int from) {
+            this.search = search;
+            this.totals = totals;
+            this.dishes = dishes;
+            this.servings = servings;
+            this.depth = depth;
+            this.from = from;
+        }
+
+        @Override
+        protected void compute() {
+            //Queued tasks may start long after they were forked, with a better plate known by then;
+            //the root always offers every single dish, so even a tiny budget returns a plate
+            if (depth > 0 && search.expired()) return;
+            if (depth > 0 && search.bound(totals, depth, from) >= search.bestDistance) return;
+            if (depth < SPLIT_DEPTH && depth < maxDishes) {
+                List<Branch> children = new ArrayList<>();
+                int n = search.items.length;
+                long visitedChildren = 0;
+                for (int i = from; i < n && (depth == 0 || !search.expired()); i++) {
+                    for (int s = 1; s <= maxServings; s++) {
+                        double[] childTotals = totals.clone();
+                        addServings(childTotals, i, s);
+                        int[] childDishes = dishes.clone(), childServings = servings.clone();
+                        childDishes[depth] = i;
+                        childServings[depth] = s;
+                        visitedChildren++;
+                        search.offer(search.distance(childTotals), childDishes, childServings, depth + 1);
+                        //Only fork children that can still extend to a better plate
+                        if (depth + 1 < maxDishes && i + 1 < n
+                                && search.bound(childTotals, depth + 1, i + 1) < search.bestDistance) {
+                            children.add(new Branch(search, childTotals, childDishes, childServings, depth + 1, i + 1));
+                        }
+                    }
+                }
+                search.nodes.add(visitedChildren);
+                invokeAll(children);
+            } else {
+                explore(depth, from);
+                search.nodes.add(visited % DEADLINE_CHECK_INTERVAL);
+            }
+        }
+
+        private void explore(int depth, int from) {
+            if (depth == maxDishes || from == search.items.length) return;
+            if (search.bound(totals, depth, from) >= search.bestDistance) return;
+            for (int i = from; i < search.items.length; i++) {
+                dishes[depth] = i;
+                for (int s = 1; s <= maxServings; s++) {
+                    if (!search.visit(++visited)) return;
+                    addServings(totals, i, 1);
+                    servings[depth] = s;
+                    search.offer(search.distance(totals), dishes, servings, depth + 1);
+                    explore(depth + 1, i + 1);
+                }
+                addServings(totals, i, -maxServings);
+                if (search.expired) return;
+            }
+        }
+
+        private void addServings(double[] totals, int dish, int count) {
+            NutrientKernel.INSTANCE.addScaled(totals, 0, search.values, dish * RecommendationIndex.DIMS,
+                    count, RecommendationIndex.DIMS);
+        }
+    }
+}
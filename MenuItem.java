@@ -4,8 +4,13 @@
  * Each MenuItem contains:
  * - The dish name
  * - The station where it is served
- * - The serving size
+ * - The serving size, and its weight in grams when the text gives one
  * - Nutrition facts: calories, fat, carbs, and protein
+ * - The allergens the menu lists for it
+ * 
+ * The loaders intern the station and serving size through a SymbolTable, so items
+ * loaded from the same CSV share one String per distinct station and serving size
+ * (a few hundred values) instead of holding two copies per row.
  * 
  * Example usage:
  * <pre>
@@ -22,6 +27,8 @@ public class MenuItem {
     public String station;
     //Serving size, e.g. "85g" 
     public String servingSize;
+    //Weight of one serving in grams, parsed from servingSize; 0 if unknown
+    public double grams;
     //Calories per serving 
     public double calories;
     //Fat (grams) per serving 
@@ -30,6 +37,10 @@ public class MenuItem {
     public double carbs;
     //Protein (grams) per serving 
     public double protein;
+    //Dense dish id in the MenuStore this item was created from, or -1
+    public int id = -1;
+    //Allergens listed for the dish, as a mask of Allergen.bit() values
+    public int allergens;
 
     /**
      * Constructs a MenuItem with the specified properties.
@@ -47,6 +58,7 @@ public class MenuItem {
         this.dish = dish;
         this.station = station;
         this.servingSize = servingSize;
+        this.grams = ServingSize.grams(servingSize);
         this.calories = calories;
         this.fat = fat;
         this.carbs = carbs;
@@ -0,0 +1,487 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32C;
+
+/**
+ * MenuSnapshot is a precompiled binary image of the dining hall CSV, so the menu can
+ * be opened at startup without tokenizing text or parsing numbers.
+ *
+ * The image is written once from a loaded MenuStore and memory-mapped when read:
+ * <pre>
+ *   header  magic, version, CSV size, mtime and crc32c, counts, body length and crc32c
+ *   body    hall and meal names      int[halls], int[meals]        (string ids)
+ *           per-dish columns         int[dishes] x 8               (row key, dish, hall, meal,
+ *                                                                   station, serving size,
+ *                                                                   allergen mask, ingredients)
+ *           nutrient columns         double[dishes] x Nutrient.COUNT
+ *           hall/meal groups         int[halls * meals + 1] offsets, int[dishes] ids
+ *           string table             int[strings + 1] offsets, UTF-8 bytes
+ * </pre>
+ * The snapshot is fresh while the CSV has the size and mtime recorded in the header, or,
+ * if the mtime changed, while its contents still have the recorded checksum. Opening
+ * checks the magic, version and body checksum, so a stale, damaged or foreign file is
+ * never used; the load methods then fall back to parsing the CSV.
+ *
+ * Example usage:
+ * <pre>
+ *   MenuSnapshot.compile("PomonaDiningHalls.csv", "PomonaDiningHalls.snap");
+ *   HashMap<String, HashMap<String, List<MenuItem>>> menu =
+ *           MenuSnapshot.loadMenu("PomonaDiningHalls.csv", "PomonaDiningHalls.snap");
+ *   MenuStore store = MenuSnapshot.loadStore("PomonaDiningHalls.csv", "PomonaDiningHalls.snap");
+ * </pre>
+ *
+ * @author Yaseen Osman
+ */
+public class MenuSnapshot {
+    //"PMNU"
+    private static final int MAGIC = 0x504D4E55;
+    //Bumped whenever the layout changes
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    //Per-dish int columns, in body order
+    private static final int ROW_KEY = 0, DISH = 1, HALL = 2, MEAL = 3, STATION = 4, SERVING_SIZE = 5,
+            ALLERGENS = 6, INGREDIENTS = 7, INT_COLUMNS = 8;
+
+    private final MappedByteBuffer buf;
+    private final long csvSize, csvModified, csvHash;
+    private final int dishes, halls, meals, strings;
+    //Absolute offsets of the body sections
+    private final int hallNames, mealNames, intColumns, nutrientColumns, groupOffsets, groupIds, stringOffsets, stringBytes;
+    //Strings and items decoded so far, indexed by string id and dish id
+    private final String[] decoded;
+    private final MenuItem[] items;
+
+    private MenuSnapshot(MappedByteBuffer buf) throws IOException {
+        this.buf = buf;
+        if (buf.limit() < HEADER_BYTES || buf.getInt(0) != MAGIC) throw new IOException("Not a menu snapshot");
+        if (buf.getInt(4) != VERSION) throw new IOException("Unsupported menu snapshot version " + buf.getInt(4));
+        csvSize = buf.getLong(8);
+        csvModified = buf.getLong(16);
+        csvHash = buf.getLong(24);
+        dishes = buf.getInt(32);
+        int nutrients = buf.getInt(36);
+        strings = buf.getInt(40);
+        halls = buf.getInt(44);
+        meals = buf.getInt(48);
+        int bodyLength = buf.getInt(52);
+        if (nutrients != Nutrient.COUNT) throw new IOException("Menu snapshot has " + nutrients + " nutrient columns");
+        if ((long) HEADER_BYTES + bodyLength != buf.limit()) throw new IOException("Truncated menu snapshot");
+        CRC32C crc = new CRC32C();
+        crc.update(buf.slice(HEADER_BYTES, bodyLength));
+        if ((int) crc.getValue() != buf.getInt(56)) throw new IOException("Menu snapshot checksum mismatch");
+
+        hallNames = HEADER_BYTES;
+        mealNames = hallNames + 4 * halls;
+        intColumns = mealNames + 4 * meals;
+        nutrientColumns = intColumns + 4 * INT_COLUMNS * dishes;
+        groupOffsets = nutrientColumns + 8 * Nutrient.COUNT * dishes;
+        groupIds = groupOffsets + 4 * (halls * meals + 1);
+        stringOffsets = groupIds + 4 * dishes;
+        stringBytes = stringOffsets + 4 * (strings + 1);
+        decoded = new String[strings];
+        items = new MenuItem[dishes];
+    }
+
+    /**
+     * Opens a snapshot and checks its header and checksum. Does not look at the CSV.
+     *
+     * @param snapshot Snapshot filename
+     * @return The opened snapshot
+     * @throws IOException if the file cannot be read or is not a valid snapshot
+     */
+    public static MenuSnapshot open(String snapshot) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(snapshot), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("Menu snapshot too large");
+            return new MenuSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Opens a snapshot if it exists, is valid and is fresh for the CSV.
+     *
+     * @param csv      CSV filename the snapshot was compiled from
+     * @param snapshot Snapshot filename
+     * @return The opened snapshot, or null if it cannot be used
+     */
+    public static MenuSnapshot openIfFresh(String csv, String snapshot) {
+        try {
+            MenuSnapshot opened = open(snapshot);
+            return opened.isFreshFor(csv) ? opened : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns whether the snapshot still matches a CSV: same size and mtime, or same
+     * size and contents if only the mtime changed.
+     *
+     * @param csv CSV filename
+     * @return True if the snapshot can be used instead of the CSV
+     * @throws IOException if the CSV cannot be read
+     */
+    public boolean isFreshFor(String csv) throws IOException {
+        Path path = Paths.get(csv);
+        if (Files.size(path) != csvSize) return false;
+        if (Files.getLastModifiedTime(path).toMillis() == csvModified) return true;
+        return hash(path) == csvHash;
+    }
+
+    /**
+     * Parses a CSV and writes its snapshot.
+     *
+     * @param csv      CSV filename
+     * @param snapshot Snapshot filename
+     * @throws IOException if the CSV cannot be read or the snapshot cannot be written
+     */
+    public static void compile(String csv, String snapshot) throws IOException {
+        Source source = Source.read(csv);
+        write(source.parse(), source, snapshot);
+    }
+
+    /**
+     * The bytes of a CSV and the fingerprint a snapshot of them records. The bytes are
+     * read once and both parsed and checksummed, so a CSV republished while it is being
+     * loaded can never be recorded under the new file's fingerprint.
+     */
+    private static class Source {
+        final byte[] bytes;
+        final long size, modified, hash;
+
+        private Source(byte[] bytes, long modified) {
+            this.bytes = bytes;
+            this.size = bytes.length;
+            this.modified = modified;
+            CRC32C crc = new CRC32C();
+            crc.update(bytes);
+            this.hash = crc.getValue();
+        }
+
+        //The mtime is read first: a change after it shows up as a newer mtime, whose hash is then compared
+        static Source read(String csv) throws IOException {
+            Path path = Paths.get(csv);
+            long modified = Files.getLastModifiedTime(path).toMillis();
+            return new Source(Files.readAllBytes(path), modified);
+        }
+
+        MenuStore parse() throws IOException {
+            //Same charset as FileReader in MenuStore.load(String)
+            return MenuStore.load(new BufferedReader(new InputStreamReader(new ByteArrayInputStream(bytes),
+                    Charset.defaultCharset())));
+        }
+    }
+
+    /**
+     * Writes the snapshot of a store parsed from a CSV's bytes. The file is written next
+     * to its destination and moved into place, so readers never see a partial snapshot.
+     *
+     * @param store    Store parsed from the source's bytes
+     * @param source   Size, mtime and checksum of those bytes, which are recorded
+     * @param snapshot Snapshot filename
+     * @throws IOException if the snapshot cannot be written
+     */
+    private static void write(MenuStore store, Source source, String snapshot) throws IOException {
+        long modified = source.modified, size = source.size, hash = source.hash;
+
+        //Every distinct string gets one id
+        Map<String, Integer> ids = new HashMap<>();
+        List<byte[]> table = new ArrayList<>();
+        int n = store.size(), hallCount = store.halls().size(), mealCount = store.meals().size();
+        int[] hallNameIds = new int[hallCount], mealNameIds = new int[mealCount];
+        for (int h = 0; h < hallCount; h++) hallNameIds[h] = intern(store.halls().decode(h), ids, table);
+        for (int m = 0; m < mealCount; m++) mealNameIds[m] = intern(store.meals().decode(m), ids, table);
+        int[][] columns = new int[INT_COLUMNS][n];
+        for (int id = 0; id < n; id++) {
+            columns[ROW_KEY][id] = intern(store.rowKey(id), ids, table);
+            columns[DISH][id] = intern(store.dish(id), ids, table);
+            columns[HALL][id] = store.hallCode(id);
+            columns[MEAL][id] = store.mealCode(id);
+            columns[STATION][id] = intern(store.station(id), ids, table);
+            columns[SERVING_SIZE][id] = intern(store.servingSize(id), ids, table);
+            columns[ALLERGENS][id] = store.allergens(id);
+            columns[INGREDIENTS][id] = intern(store.ingredients(id), ids, table);
+        }
+        long stringTotal = 0;
+        for (byte[] bytes : table) stringTotal += bytes.length;
+
+        long bodyLength = 4L * (hallCount + mealCount) + 4L * INT_COLUMNS * n + 8L * Nutrient.COUNT * n
+                + 4L * (hallCount * mealCount + 1) + 4L * n + 4L * (table.size() + 1) + stringTotal;
+        if (HEADER_BYTES + bodyLength > Integer.MAX_VALUE) throw new IOException("Menu too large for a snapshot");
+        ByteBuffer out = ByteBuffer.allocate(HEADER_BYTES + (int) bodyLength);
+
+        out.position(HEADER_BYTES);
+        for (int id : hallNameIds) out.putInt(id);
+        for (int id : mealNameIds) out.putInt(id);
+        for (int[] column : columns) {
+            for (int value : column) out.putInt(value);
+        }
+        for (Nutrient nutrient : Nutrient.ALL) {
+            for (double value : store.column(nutrient)) out.putDouble(value);
+        }
+        int offset = 0;
+        for (int h = 0; h < hallCount; h++) {
+            for (int m = 0; m < mealCount; m++) {
+                out.putInt(offset);
+                offset += store.ids(store.halls().decode(h), store.meals().decode(m)).length;
+            }
+        }
+        out.putInt(offset);
+        for (int h = 0; h < hallCount; h++) {
+            for (int m = 0; m < mealCount; m++) {
+                for (int id : store.ids(store.halls().decode(h), store.meals().decode(m))) out.putInt(id);
+            }
+        }
+        int stringOffset = 0;
+        for (byte[] bytes : table) {
+            out.putInt(stringOffset);
+            stringOffset += bytes.length;
+        }
+        out.putInt(stringOffset);
+        for (byte[] bytes : table) out.put(bytes);
+
+        CRC32C crc = new CRC32C();
+        crc.update(out.array(), HEADER_BYTES, (int) bodyLength);
+        out.putInt(0, MAGIC);
+        out.putInt(4, VERSION);
+        out.putLong(8, size);
+        out.putLong(16, modified);
+        out.putLong(24, hash);
+        out.putInt(32, n);
+        out.putInt(36, Nutrient.COUNT);
+        out.putInt(40, table.size());
+        out.putInt(44, hallCount);
+        out.putInt(48, mealCount);
+        out.putInt(52, (int) bodyLength);
+        out.putInt(56, (int) crc.getValue());
+
+        Path path = Paths.get(snapshot).toAbsolutePath();
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(tmp, out.array());
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Loads the nested menu map from a fresh snapshot, or from the CSV with
+     * DiningHallMenuLoader.loadMenu if the snapshot is missing, invalid or stale.
+     *
+     * @param csv      CSV filename
+     * @param snapshot Snapshot filename
+     * @return Nested map: diningHall -> mealPeriod -> List of MenuItem
+     * @throws IOException if the CSV has to be read and cannot be
+     */
+    public static HashMap<String, HashMap<String, List<MenuItem>>> loadMenu(String csv, String snapshot)
+            throws IOException {
+        MenuSnapshot opened = openIfFresh(csv, snapshot);
+        return opened != null ? opened.menu() : DiningHallMenuLoader.loadMenu(csv);
+    }
+
+    /**
+     * Loads a MenuStore from a fresh snapshot. Otherwise parses the CSV and rewrites the
+     * snapshot, so the next start is fast again; failing to write it is not an error.
+     *
+     * @param csv      CSV filename
+     * @param snapshot Snapshot filename
+     * @return The loaded store
+     * @throws IOException if the CSV has to be read and cannot be
+     */
+    public static MenuStore loadStore(String csv, String snapshot) throws IOException {
+        long start = Metrics.MENU_LOAD.start();
+        MenuSnapshot opened = openIfFresh(csv, snapshot);
+        if (opened != null) {
+            MenuStore store = opened.toStore();
+            Metrics.MENU_LOAD.stop(start);
+            return store;
+        }
+        //The CSV parse below is timed on its own
+        Source source = Source.read(csv);
+        MenuStore store = source.parse();
+        try {
+            write(store, source, snapshot);
+        } catch (IOException e) {
+            //Still usable without a snapshot
+        }
+        return store;
+    }
+
+    /**
+     * Returns the number of dishes.
+     * @return Number of dishes
+     */
+    public int size() {
+        return dishes;
+    }
+
+    /**
+     * Builds the nested menu map with lazy item lists: a MenuItem is only decoded from the
+     * mapped file the first time its list position is read, and is reused afterwards.
+     * Items carry their dish id, which matches the MenuStore the snapshot was written from.
+     * The lists are read-only, and should be read from one thread, or walked once before
+     * being shared.
+     *
+     * @return Nested map: diningHall -> mealPeriod -> List of MenuItem
+     */
+    public HashMap<String, HashMap<String, List<MenuItem>>> menu() {
+        HashMap<String, HashMap<String, List<MenuItem>>> menu = new HashMap<>();
+        for (int h = 0; h < halls; h++) {
+            for (int m = 0; m < meals; m++) {
+                int group = h * meals + m;
+                int from = buf.getInt(groupOffsets + 4 * group), to = buf.getInt(groupOffsets + 4 * (group + 1));
+                if (from == to) continue;
+                menu.computeIfAbsent(string(buf.getInt(hallNames + 4 * h)), k -> new HashMap<>())
+                    .put(string(buf.getInt(mealNames + 4 * m)), new GroupList(from, to));
+            }
+        }
+        return menu;
+    }
+
+    /**
+     * Copies the snapshot into a MenuStore. Strings are decoded once each and numbers are
+     * read as they are stored, so nothing is parsed.
+     *
+     * @return A new store with the same dish ids as the one the snapshot was written from
+     */
+    public MenuStore toStore() {
+        MenuStore.Builder builder = new MenuStore.Builder();
+        double[] values = new double[Nutrient.COUNT];
+        for (int id = 0; id < dishes; id++) {
+            for (int n = 0; n < Nutrient.COUNT; n++) values[n] = nutrient(id, n);
+            builder.add(string(column(ROW_KEY, id)), string(buf.getInt(hallNames + 4 * column(HALL, id))),
+                    string(buf.getInt(mealNames + 4 * column(MEAL, id))), string(column(STATION, id)),
+                    string(column(DISH, id)), string(column(SERVING_SIZE, id)), values,
+                    column(ALLERGENS, id), string(column(INGREDIENTS, id)));
+        }
+        return builder.build();
+    }
+
+    private int column(int column, int id) {
+        return buf.getInt(intColumns + 4 * (column * dishes + id));
+    }
+
+    private double nutrient(int id, int nutrient) {
+        return buf.getDouble(nutrientColumns + 8 * (nutrient * dishes + id));
+    }
+
+    private String string(int id) {
+        String s = decoded[id];
+        if (s == null) {
+            int from = buf.getInt(stringOffsets + 4 * id), to = buf.getInt(stringOffsets + 4 * (id + 1));
+            byte[] bytes = new byte[to - from];
+            buf.get(stringBytes + from, bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+            decoded[id] = s;
+        }
+        return s;
+    }
+
+    private MenuItem item(int id) {
+        MenuItem item = items[id];
+        if (item == null) {
+            item = new MenuItem(string(column(DISH, id)), string(column(STATION, id)), string(column(SERVING_SIZE, id)),
+                    nutrient(id, Nutrient.CALORIES.ordinal()), nutrient(id, Nutrient.FAT.ordinal()),
+                    nutrient(id, Nutrient.CARBS.ordinal()), nutrient(id, Nutrient.PROTEIN.ordinal()));
+            item.id = id;
+            item.allergens = column(ALLERGENS, id);
+            items[id] = item;
+        }
+        return item;
+    }
+
+    private static int intern(String s, Map<String, Integer> ids, List<byte[]> table) {
+        Integer id = ids.get(s);
+        if (id == null) {
+            id = table.size();
+            ids.put(s, id);
+            table.add(s.getBytes(StandardCharsets.UTF_8));
+        }
+        return id;
+    }
+
+    private static long hash(Path csv) throws IOException {
+        CRC32C crc = new CRC32C();
+        try (FileChannel channel = FileChannel.open(csv, StandardOpenOption.READ)) {
+            ByteBuffer chunk = ByteBuffer.allocateDirect(64 * 1024);
+            while (channel.read(chunk) >= 0) {
+                chunk.flip();
+                crc.update(chunk);
+                chunk.clear();
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * The dishes of one hall and meal, decoded on first access.
+     */
+    private class GroupList extends AbstractList<MenuItem> implements RandomAccess {
+        final int from, to;
+
+        GroupList(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public MenuItem get(int index) {
+            if (index < 0 || index >= to - from) throw new IndexOutOfBoundsException(index);
+            return item(buf.getInt(groupIds + 4 * (from + index)));
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+
+    /**
+     * Compiles a snapshot and compares startup time from the CSV and from the snapshot.
+     * Each way is timed on its first run, which is what a fresh start pays, and as the
+     * best of several runs once the JIT has warmed up.
+     *
+     * @param args CSV filename and snapshot filename (default PomonaDiningHalls.csv and PomonaDiningHalls.snap),
+     *             then the number of timed runs (default 20)
+     * @throws Exception if file loading fails
+     */
+    public static void main(String[] args) throws Exception {
+        String csv = args.length > 0 ? args[0] : "PomonaDiningHalls.csv";
+        String snapshot = args.length > 1 ? args[1] : "PomonaDiningHalls.snap";
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        long start = System.nanoTime();
+        compile(csv, snapshot);
+        System.out.printf("Compiled %s -> %s (%d bytes) in %.1f ms%n", csv, snapshot,
+                Files.size(Paths.get(snapshot)), (System.nanoTime() - start) / 1e6);
+
+        long[][] nanos = new long[4][runs];
+        String[] labels = {"CSV loadMenu", "CSV MenuStore.load", "Snapshot menu (lazy)", "Snapshot toStore"};
+        for (int r = 0; r < runs; r++) {
+            long t0 = System.nanoTime();
+            DiningHallMenuLoader.loadMenu(csv);
+            long t1 = System.nanoTime();
+            MenuStore.load(csv);
+            long t2 = System.nanoTime();
+            MenuSnapshot.loadMenu(csv, snapshot);
+            long t3 = System.nanoTime();
+            MenuSnapshot opened = openIfFresh(csv, snapshot);
+            if (opened == null) throw new IllegalStateException("Fresh snapshot was not accepted");
+            opened.toStore();
+            long t4 = System.nanoTime();
+            nanos[0][r] = t1 - t0;
+            nanos[1][r] = t2 - t1;
+            nanos[2][r] = t3 - t2;
+            nanos[3][r] = t4 - t3;
+        }
+        for (int i = 0; i < labels.length; i++) {
+            long best = Arrays.stream(nanos[i]).min().getAsLong();
+            System.out.printf("%-22s first %8.2f ms, best %8.3f ms%n", labels[i], nanos[i][0] / 1e6, best / 1e6);
+        }
+    }
+}
@@ -0,0 +1,516 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * MenuStore holds every menu item of the dining hall CSV in columnar form.
+ *
+ * Each dish gets a dense int id (its row number among the loaded rows). Every
+ * nutrient column of the CSV is kept in its own contiguous double[] indexed by
+ * dish id, and the dining hall, meal period, station and serving size columns are
+ * dictionary-encoded through a SymbolTable. Scanning one nutrient therefore walks
+ * a single primitive array with no per-dish objects. The Allergens column is kept as
+ * one Allergen mask per dish and the Ingredients column as its text, for DietaryIndex.
+ * Serving sizes are converted to grams (ServingSize.grams) once per distinct value.
+ * canonicalId and place map dishes to DishTable ids, which logged meals are kept in.
+ *
+ * MenuItem objects are only created as views for code that still works with the
+ * nested map, e.g. the Main console flow:
+ * <pre>
+ *   MenuStore store = MenuStore.load("PomonaDiningHalls.csv");
+ *   HashMap<String, HashMap<String, List<MenuItem>>> menu = store.toMenu();
+ *   double[] sodium = store.column(Nutrient.SODIUM);
+ *   double lunchSodium = store.sum(Nutrient.SODIUM, store.ids("Frary", "Lunch"));
+ *   NutrientVector twoServings = store.vector(42).scale(2);
+ * </pre>
+ *
+ * @author Yaseen Osman
+ */
+public class MenuStore {
+    //Number of dishes
+    private final int size;
+    //Row key (CSV column 0) per dish, e.g. "Frank_Breakfast_Ropa Vieja"
+    private final String[] rowKeys;
+    //Dish name per dish
+    private final String[] dishes;
+    //Dictionaries and per-dish codes of the low-cardinality columns
+    private final SymbolTable halls, meals, stations, servingSizes;
+    private final int[] hallCodes, mealCodes, stationCodes, servingSizeCodes;
+    //Grams of one serving per dish, parsed once per distinct serving size; 0 if unknown
+    private final double[] grams;
+    //One array per nutrient, indexed by Nutrient.ordinal() then dish id
+    private final double[][] nutrients;
+    //Allergen mask (Allergen.bit() values) and ingredient list per dish
+    private final int[] allergens;
+    private final String[] ingredients;
+    //Dish ids per hall and meal, indexed by hallCode * meals.size() + mealCode
+    private final int[][] groups;
+    //DishTable.shared() id and place code per dish, filled on first use
+    private volatile int[] canonicalIds, places;
+
+    private MenuStore(Builder b) {
+        size = b.size;
+        rowKeys = Arrays.copyOf(b.rowKeys, size);
+        dishes = Arrays.copyOf(b.dishes, size);
+        halls = b.halls;
+        meals = b.meals;
+        stations = b.stations;
+        servingSizes = b.servingSizes;
+        hallCodes = Arrays.copyOf(b.hallCodes, size);
+        mealCodes = Arrays.copyOf(b.mealCodes, size);
+        stationCodes = Arrays.copyOf(b.stationCodes, size);
+        servingSizeCodes = Arrays.copyOf(b.servingSizeCodes, size);
+        nutrients = new double[Nutrient.COUNT][];
+        for (int n = 0; n < Nutrient.COUNT; n++) nutrients[n] = Arrays.copyOf(b.nutrients[n], size);
+        allergens = Arrays.copyOf(b.allergens, size);
+        ingredients = Arrays.copyOf(b.ingredients, size);
+        double[] gramsByCode = new double[servingSizes.size()];
+        for (int code = 0; code < gramsByCode.length; code++) gramsByCode[code] = ServingSize.grams(servingSizes.decode(code));
+        grams = new double[size];
+        for (int id = 0; id < size; id++) grams[id] = gramsByCode[servingSizeCodes[id]];
+
+        //Bucket dish ids by hall and meal, keeping row order
+        int mealCount = meals.size();
+        int[] counts = new int[halls.size() * mealCount];
+        for (int id = 0; id < size; id++) counts[hallCodes[id] * mealCount + mealCodes[id]]++;
+        groups = new int[counts.length][];
+        for (int g = 0; g < counts.length; g++) groups[g] = new int[counts[g]];
+        int[] fill = new int[counts.length];
+        for (int id = 0; id < size; id++) {
+            int g = hallCodes[id] * mealCount + mealCodes[id];
+            groups[g][fill[g]++] = id;
+        }
+    }
+
+    /**
+     * Loads every row of a dining hall CSV into a new store.
+     * Rows are read the same way as DiningHallMenuLoader.loadMenu.
+     *
+     * @param filename CSV filename
+     * @return The loaded store
+     * @throws IOException if the file cannot be read
+     */
+    public static MenuStore load(String filename) throws IOException {
+        try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
+            return load(br);
+        }
+    }
+
+    /**
+     * Loads every row of a dining hall CSV from a reader, e.g. over bytes that were
+     * already read and checksummed. The reader is not closed.
+     *
+     * @param br Reader positioned at the header line
+     * @return The loaded store
+     * @throws IOException if the reader fails
+     */
+    public static MenuStore load(BufferedReader br) throws IOException {
+        long start = Metrics.MENU_LOAD.start();
+        Builder builder = new Builder();
+        double[] values = new double[Nutrient.COUNT];
+        br.readLine(); //skip header
+        String line;
+        while ((line = br.readLine()) != null) {
+            String[] tokens = DiningHallMenuLoader.parseCSVLine(line);
+
+            //Defensive: skip if not enough columns
+            if (tokens.length < 17) continue;
+
+            for (Nutrient n : Nutrient.ALL) {
+                values[n.ordinal()] = n.column < tokens.length ? DiningHallMenuLoader.parseDouble(tokens[n.column]) : 0.0;
+            }
+            int allergens = tokens.length > DiningHallMenuLoader.ALLERGENS_COLUMN
+                    ? Allergen.mask(tokens[DiningHallMenuLoader.ALLERGENS_COLUMN]) : 0;
+            String ingredients = tokens.length > DiningHallMenuLoader.INGREDIENTS_COLUMN
+                    ? tokens[DiningHallMenuLoader.INGREDIENTS_COLUMN].trim() : "";
+            builder.add(tokens[0].trim(), tokens[1].trim(), tokens[2].trim(), tokens[3].trim(),
+                    tokens[4].trim(), tokens[5].trim(), values, allergens, ingredients);
+        }
+        MenuStore store = builder.build();
+        Metrics.MENU_LOAD.stop(start);
+        return store;
+    }
+
+    /**
+     * Accumulates rows in insertion order and builds an immutable MenuStore.
+     */
+    public static class Builder {
+        private int size;
+        private String[] rowKeys = new String[64];
+        private String[] dishes = new String[64];
+        private final SymbolTable halls = new SymbolTable(), meals = new SymbolTable();
+        private final SymbolTable stations = new SymbolTable(), servingSizes = new SymbolTable();
+        private int[] hallCodes = new int[64], mealCodes = new int[64];
+        private int[] stationCodes = new int[64], servingSizeCodes = new int[64];
+        private final double[][] nutrients = new double[Nutrient.COUNT][64];
+        private int[] allergens = new int[64];
+        private String[] ingredients = new String[64];
+
+        /**
+         * Adds one dish and returns its id.
+         *
+         * @param rowKey      Row key from CSV column 0
+         * @param diningHall  Dining hall name
+         * @param mealPeriod  Meal period
+         * @param station     Station where the dish is served
+         * @param dish        Dish name
+         * @param servingSize Serving size description
+         * @param values      Nutrient values indexed by Nutrient.ordinal(); copied, so it can be reused
+         * @param allergens   Allergen mask, see Allergen.mask
+         * @param ingredients Ingredient list as written in the CSV
+         * @return Dense id of the new dish
+         */
+        public int add(String rowKey, String diningHall, String mealPeriod, String station, String dish,
+                       String servingSize, double[] values, int allergens, String ingredients) {
+            if (size == rowKeys.length) grow(size * 2);
+            rowKeys[size] = rowKey;
+            dishes[size] = dish;
+            hallCodes[size] = halls.encode(diningHall);
+            mealCodes[size] = meals.encode(mealPeriod);
+            stationCodes[size] = stations.encode(station);
+            servingSizeCodes[size] = servingSizes.encode(servingSize);
+            for (int n = 0; n < Nutrient.COUNT; n++) nutrients[n][size] = values[n];
+            this.allergens[size] = allergens;
+            this.ingredients[size] = ingredients;
+            return size++;
+        }
+
+        /**
+         * Appends every dish of another builder, in its order.
+         *
+         * @param other Builder whose rows are copied
+         */
+        public void addAll(Builder other) {
+            double[] values = new double[Nutrient.COUNT];
+            for (int id = 0; id < other.size; id++) {
+                for (int n = 0; n < Nutrient.COUNT; n++) values[n] = other.nutrients[n][id];
+                add(other.rowKeys[id], other.halls.decode(other.hallCodes[id]), other.meals.decode(other.mealCodes[id]),
+                        other.stations.decode(other.stationCodes[id]), other.dishes[id],
+                        other.servingSizes.decode(other.servingSizeCodes[id]), values,
+                        other.allergens[id], other.ingredients[id]);
+            }
+        }
+
+        /**
+         * Returns the number of dishes added so far.
+         * @return Number of dishes
+         */
+        public int size() {
+            return size;
+        }
+
+        private void grow(int capacity) {
+            rowKeys = Arrays.copyOf(rowKeys, capacity);
+            dishes = Arrays.copyOf(dishes, capacity);
+            hallCodes = Arrays.copyOf(hallCodes, capacity);
+            mealCodes = Arrays.copyOf(mealCodes, capacity);
+            stationCodes = Arrays.copyOf(stationCodes, capacity);
+            servingSizeCodes = Arrays.copyOf(servingSizeCodes, capacity);
+            for (int n = 0; n < Nutrient.COUNT; n++) nutrients[n] = Arrays.copyOf(nutrients[n], capacity);
+            allergens = Arrays.copyOf(allergens, capacity);
+            ingredients = Arrays.copyOf(ingredients, capacity);
+        }
+
+        /**
+         * Builds the store. The builder should not be used afterwards.
+         * @return The new MenuStore
+         */
+        public MenuStore build() {
+            return new MenuStore(this);
+        }
+    }
+
+    /**
+     * Returns the number of dishes.
+     * @return Number of dishes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the column of one nutrient, indexed by dish id.
+     * The array is shared with the store and must not be modified.
+     *
+     * @param nutrient The nutrient
+     * @return Values of that nutrient for every dish
+     */
+    public double[] column(Nutrient nutrient) {
+        return nutrients[nutrient.ordinal()];
+    }
+
+    /**
+     * Returns one nutrient value of one dish.
+     *
+     * @param id       Dish id
+     * @param nutrient The nutrient
+     * @return The value
+     */
+    public double value(int id, Nutrient nutrient) {
+        return nutrients[nutrient.ordinal()][id];
+    }
+
+    /**
+     * Sums one nutrient over a set of dishes.
+     *
+     * @param nutrient The nutrient
+     * @param ids      Dish ids
+     * @return The total
+     */
+    public double sum(Nutrient nutrient, int[] ids) {
+        double[] column = nutrients[nutrient.ordinal()];
+        double total = 0;
+        for (int id : ids) total += column[id];
+        return total;
+    }
+
+    /**
+     * Returns the ids of the dishes served at a dining hall for a meal period, in row order.
+     * The array is shared with the store and must not be modified.
+     *
+     * @param diningHall Dining hall name
+     * @param mealPeriod Meal period
+     * @return Dish ids, or an empty array if the hall or meal is unknown
+     */
+    public int[] ids(String diningHall, String mealPeriod) {
+        int hall = halls.code(diningHall), meal = meals.code(mealPeriod);
+        if (hall < 0 || meal < 0) return new int[0];
+        return ids(hall, meal);
+    }
+
+    /**
+     * Returns the ids of the dishes served at a dining hall for a meal period, by code.
+     * This is a plain array lookup; the array is shared with the store and must not be modified.
+     *
+     * @param hallCode Code in halls()
+     * @param mealCode Code in meals()
+     * @return Dish ids in row order
+     */
+    public int[] ids(int hallCode, int mealCode) {
+        return groups[hallCode * meals.size() + mealCode];
+    }
+
+    /**
+     * Returns the dining hall dictionary.
+     * @return Dining hall symbols
+     */
+    public SymbolTable halls() {
+        return halls;
+    }
+
+    /**
+     * Returns the meal period dictionary.
+     * @return Meal period symbols
+     */
+    public SymbolTable meals() {
+        return meals;
+    }
+
+    /**
+     * Returns the station dictionary.
+     * @return Station symbols
+     */
+    public SymbolTable stations() {
+        return stations;
+    }
+
+    /**
+     * Returns the serving size dictionary.
+     * @return Serving size symbols
+     */
+    public SymbolTable servingSizes() {
+        return servingSizes;
+    }
+
+    /**
+     * Returns the row key (CSV column 0) of a dish.
+     * @param id Dish id
+     * @return Row key
+     */
+    public String rowKey(int id) {
+        return rowKeys[id];
+    }
+
+    /**
+     * Returns the name of a dish.
+     * @param id Dish id
+     * @return Dish name
+     */
+    public String dish(int id) {
+        return dishes[id];
+    }
+
+    /**
+     * Returns the dining hall a dish is served at.
+     * @param id Dish id
+     * @return Dining hall name
+     */
+    public String diningHall(int id) {
+        return halls.decode(hallCodes[id]);
+    }
+
+    /**
+     * Returns the meal period a dish is served in.
+     * @param id Dish id
+     * @return Meal period
+     */
+    public String mealPeriod(int id) {
+        return meals.decode(mealCodes[id]);
+    }
+
+    /**
+     * Returns the station a dish is served at.
+     * @param id Dish id
+     * @return Station
+     */
+    public String station(int id) {
+        return stations.decode(stationCodes[id]);
+    }
+
+    /**
+     * Returns the serving size description of a dish.
+     * @param id Dish id
+     * @return Serving size
+     */
+    public String servingSize(int id) {
+        return servingSizes.decode(servingSizeCodes[id]);
+    }
+
+    /**
+     * Returns the allergen mask of a dish.
+     * @param id Dish id
+     * @return Mask of Allergen.bit() values
+     */
+    public int allergens(int id) {
+        return allergens[id];
+    }
+
+    /**
+     * Returns the ingredient list of a dish as written in the CSV.
+     * @param id Dish id
+     * @return Ingredient list, empty if the CSV has none
+     */
+    public String ingredients(int id) {
+        return ingredients[id];
+    }
+
+    /**
+     * Returns the dining hall code of a dish.
+     * @param id Dish id
+     * @return Code in halls()
+     */
+    public int hallCode(int id) {
+        return hallCodes[id];
+    }
+
+    /**
+     * Returns the meal period code of a dish.
+     * @param id Dish id
+     * @return Code in meals()
+     */
+    public int mealCode(int id) {
+        return mealCodes[id];
+    }
+
+    /**
+     * Returns the station code of a dish.
+     * @param id Dish id
+     * @return Code in stations()
+     */
+    public int stationCode(int id) {
+        return stationCodes[id];
+    }
+
+    /**
+     * Returns the weight of one serving of a dish.
+     *
+     * @param id Dish id
+     * @return Grams, or 0 if the serving size gives no weight
+     */
+    public double grams(int id) {
+        return grams[id];
+    }
+
+    /**
+     * Returns the canonical id of a dish in DishTable.shared(), which stays the same for
+     * the same dish at other halls and in later menu versions. Every dish of the store is
+     * interned on the first call.
+     *
+     * @param id Dish id
+     * @return Canonical id
+     */
+    public int canonicalId(int id) {
+        if (canonicalIds == null) intern();
+        return canonicalIds[id];
+    }
+
+    /**
+     * Returns the DishTable.shared() place code of a dish's dining hall and meal period.
+     *
+     * @param id Dish id
+     * @return Place code
+     */
+    public int place(int id) {
+        if (canonicalIds == null) intern();
+        return places[id];
+    }
+
+    private synchronized void intern() {
+        if (canonicalIds != null) return;
+        DishTable table = DishTable.shared();
+        int[] byCode = new int[halls.size() * meals.size()];
+        Arrays.fill(byCode, -1);
+        int[] ids = new int[size], codes = new int[size];
+        for (int id = 0; id < size; id++) {
+            ids[id] = table.intern(dishes[id], servingSize(id), vector(id));
+            int g = hallCodes[id] * meals.size() + mealCodes[id];
+            if (byCode[g] < 0) byCode[g] = table.place(diningHall(id), mealPeriod(id));
+            codes[id] = byCode[g];
+        }
+        places = codes;
+        canonicalIds = ids;
+    }
+
+    /**
+     * Returns every nutrient of one serving of a dish.
+     *
+     * @param id Dish id
+     * @return A new NutrientVector
+     */
+    public NutrientVector vector(int id) {
+        NutrientVector v = new NutrientVector();
+        for (int n = 0; n < Nutrient.COUNT; n++) v.values[n] = nutrients[n][id];
+        return v;
+    }
+
+    /**
+     * Creates a MenuItem view of one dish. The view carries the dish id, so the
+     * remaining nutrient columns can still be read from the store.
+     *
+     * @param id Dish id
+     * @return A new MenuItem for the dish
+     */
+    public MenuItem item(int id) {
+        MenuItem item = new MenuItem(dishes[id], station(id), servingSize(id),
+                nutrients[Nutrient.CALORIES.ordinal()][id], nutrients[Nutrient.FAT.ordinal()][id],
+                nutrients[Nutrient.CARBS.ordinal()][id], nutrients[Nutrient.PROTEIN.ordinal()][id]);
+        item.id = id;
+        item.allergens = allergens[id];
+        return item;
+    }
+
+    /**
+     * Builds the nested map used by Main, with one MenuItem view per dish.
+     * Halls, meals and items come out in the same order as DiningHallMenuLoader.loadMenu.
+     *
+     * @return Nested map: diningHall -> mealPeriod -> List of MenuItem
+     */
+    public HashMap<String, HashMap<String, List<MenuItem>>> toMenu() {
+        HashMap<String, HashMap<String, List<MenuItem>>> menu = new HashMap<>();
+        for (int id = 0; id < size; id++) {
+            menu.computeIfAbsent(diningHall(id), k -> new HashMap<>())
+                .computeIfAbsent(mealPeriod(id), k -> new ArrayList<>())
+                .add(item(id));
+        }
+        return menu;
+    }
+}
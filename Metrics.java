@@ -0,0 +1,224 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Metrics times the tracker's main operations: loading the menu, searching for
+ * recommendations, logging meals and sharing with friends.
+ *
+ * Each Operation keeps a LatencyHistogram and emits a "nutrition.Operation" JDK Flight
+ * Recorder event per call, so a recording shows where the time goes next to GC and
+ * allocation. Timing a call costs two System.nanoTime() reads and one histogram update,
+ * and allocates nothing while no recording has the event enabled.
+ *
+ * Percentiles are available on demand from report() and json(), and dumpEvery appends
+ * them to a file on a schedule. Main and NutritionServer.main start that dump when
+ * -Dnutrition.metrics=FILE is set (every -Dnutrition.metrics.seconds, default 60).
+ *
+ * Example usage:
+ * <pre>
+ * long start = Metrics.RECOMMEND.start();
+ * List<RecommendationIndex.Match> matches = index.nearestCalories(650, 3, null, null);
+ * Metrics.RECOMMEND.stop(start);
+ * System.out.println(Metrics.report());
+ *
+ * java -XX:StartFlightRecording=filename=tracker.jfr Main   // then: jfr print --events nutrition.Operation tracker.jfr
+ * </pre>
+ *
+ * @author Yaseen Osman
+ */
+public final class Metrics {
+    //Every registered operation, in registration order; must be set before the operations below
+    private static final List<Operation> OPERATIONS = new CopyOnWriteArrayList<>();
+
+    //Loading a menu: parsing a CSV (DiningHallMenuLoader, MenuStore and MappedMenuLoader) or a fresh MenuSnapshot
+    public static final Operation MENU_LOAD = register("menu.load");
+    //One nearest-calories or nearest-macros search of a RecommendationIndex
+    public static final Operation RECOMMEND = register("recommend");
+    //User.logMeal
+    public static final Operation LOG_MEAL = register("meal.log");
+    //Sharing a day's summary with every friend
+    public static final Operation SHARE = register("share");
+
+    //Percentiles shown by report() and json()
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    private Metrics() {
+    }
+
+    /**
+     * One timed operation: a latency histogram and a JFR event per call.
+     */
+    public static final class Operation {
+        //Name shown in reports and in the JFR event
+        public final String name;
+        //Latency of every call
+        public final LatencyHistogram latency = new LatencyHistogram();
+
+        private Operation(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Starts timing a call.
+         * @return Start time to pass to stop
+         */
+        public long start() {
+            return System.nanoTime();
+        }
+
+        /**
+         * Finishes timing a call that began at start.
+         * @param start Value returned by start()
+         */
+        public void stop(long start) {
+            long nanos = System.nanoTime() - start;
+            latency.record(nanos);
+            OperationEvent event = new OperationEvent();
+            if (event.isEnabled()) {
+                event.operation = name;
+                event.latency = nanos;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * JFR event emitted for every timed call. The event is committed when the call ends;
+     * latency holds its duration.
+     */
+    @Name("nutrition.Operation")
+    @Label("Nutrition Operation")
+    @Category("Nutrition Tracker")
+    @Description("A menu load, recommendation search, meal log or share")
+    static class OperationEvent extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;
+    }
+
+    /**
+     * Registers a new operation, e.g. for a subsystem that wants its own line in the report.
+     *
+     * @param name Operation name
+     * @return The operation
+     */
+    public static Operation register(String name) {
+        Operation operation = new Operation(name);
+        OPERATIONS.add(operation);
+        return operation;
+    }
+
+    /**
+     * Returns every registered operation.
+     * @return Operations in registration order
+     */
+    public static List<Operation> operations() {
+        return List.copyOf(OPERATIONS);
+    }
+
+    /**
+     * Formats a table of every operation: count, mean, p50, p99, p999 and max in microseconds.
+     * @return The table, one line per operation
+     */
+    public static String report() {
+        //Name column as wide as the longest registered name
+        int width = "operation".length();
+        for (Operation op : OPERATIONS) width = Math.max(width, op.name.length());
+        String name = "%-" + width + "s";
+        StringBuilder sb = new StringBuilder(String.format(Locale.ROOT, name + " %10s %10s %10s %10s %10s %10s%n",
+                "operation", "count", "mean us", "p50 us", "p99 us", "p999 us", "max us"));
+        for (Operation op : OPERATIONS) {
+            long count = op.latency.count();
+            long[] p = op.latency.percentiles(QUANTILES);
+            sb.append(String.format(Locale.ROOT, name + " %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n", op.name, count,
+                    count == 0 ? 0.0 : op.latency.total() / 1e3 / count, p[0] / 1e3, p[1] / 1e3, p[2] / 1e3,
+                    op.latency.max() / 1e3));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the same figures as report() as a JSON object keyed by operation name.
+     * @return JSON object
+     */
+    public static String json() {
+        StringBuilder sb = new StringBuilder("{");
+        for (Operation op : OPERATIONS) {
+            long count = op.latency.count();
+            long[] p = op.latency.percentiles(QUANTILES);
+            if (sb.length() > 1) sb.append(',');
+            sb.append(NutritionServer.json(op.name)).append(String.format(Locale.ROOT,
+                    ":{\"count\":%d,\"meanMicros\":%.1f,\"p50Micros\":%.1f,\"p99Micros\":%.1f,\"p999Micros\":%.1f,"
+                    + "\"maxMicros\":%.1f}", count, count == 0 ? 0.0 : op.latency.total() / 1e3 / count,
+                    p[0] / 1e3, p[1] / 1e3, p[2] / 1e3, op.latency.max() / 1e3));
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * Appends the report to a file now and then every period on a daemon thread, with a
+     * timestamp before each table. Closing the returned handle stops the thread and
+     * appends one last report.
+     *
+     * @param file    File to append to; created if missing
+     * @param seconds Seconds between reports
+     * @return Handle that stops the dumps
+     */
+    public static AutoCloseable dumpEvery(Path file, long seconds) {
+        if (seconds <= 0) throw new IllegalArgumentException("seconds must be positive: " + seconds);
+        Thread dumper = new Thread(() -> {
+            try {
+                while (true) {
+                    dump(file);
+                    Thread.sleep(seconds * 1000);
+                }
+            } catch (InterruptedException e) {
+                //Stopped by close()
+            }
+        }, "metrics-dump");
+        dumper.setDaemon(true);
+        dumper.start();
+        return () -> {
+            dumper.interrupt();
+            dumper.join();
+            dump(file);
+        };
+    }
+
+    /**
+     * Starts dumpEvery from -Dnutrition.metrics=FILE and -Dnutrition.metrics.seconds (default 60).
+     * @return Handle that stops the dumps, or null if nutrition.metrics is not set
+     */
+    public static AutoCloseable dumpFromProperties() {
+        String file = System.getProperty("nutrition.metrics");
+        if (file == null || file.isEmpty()) return null;
+        return dumpEvery(Path.of(file), Long.getLong("nutrition.metrics.seconds", 60));
+    }
+
+    //Appends one timestamped report; a failed write is reported and the next one tried later
+    private static void dump(Path file) {
+        try {
+            Files.writeString(file, "# " + Instant.now() + System.lineSeparator() + report(), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            System.err.println("Could not write metrics to " + file + ": " + e.getMessage());
+        }
+    }
+}
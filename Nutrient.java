@@ -0,0 +1,69 @@
+/**
+ * Nutrient lists every nutrient column of the dining hall CSV.
+ *
+ * Each constant knows the CSV column it is read from, a display label and its unit.
+ * The declaration order is the order nutrient columns appear in the CSV, so
+ * ordinal() can be used to index per-nutrient arrays.
+ *
+ * Example usage:
+ * <pre>
+ * double[] sodium = store.column(Nutrient.SODIUM);
+ * System.out.println(Nutrient.SODIUM.label + " (" + Nutrient.SODIUM.unit + ")");
+ * </pre>
+ *
+ * @author Yaseen Osman
+ */
+public enum Nutrient {
+    CALORIES(6, "Calories", "kcal"),
+    FAT(7, "Total Fat", "g"),
+    SATURATED_FAT(8, "Saturated Fat", "g"),
+    TRANS_FAT(9, "Trans Fat", "g"),
+    CHOLESTEROL(10, "Cholesterol", "mg"),
+    SODIUM(11, "Sodium", "mg"),
+    CARBS(12, "Carbohydrate", "g"),
+    FIBER(13, "Dietary Fiber", "g"),
+    SUGAR(14, "Sugar", "g"),
+    ADDED_SUGAR(15, "Added Sugar", "g"),
+    PROTEIN(16, "Protein", "g"),
+    VITAMIN_A_IU(17, "Vitamin A", "iu"),
+    VITAMIN_C(18, "Vitamin C", "mg"),
+    CALCIUM(19, "Calcium", "mg"),
+    IRON(20, "Iron", "mg"),
+    VITAMIN_A_RAE(21, "Vitamin A", "rae"),
+    PHOSPHORUS(22, "Phosphorus", "mg"),
+    POTASSIUM(23, "Potassium", "mg"),
+    VITAMIN_D(24, "Vitamin D", "iu");
+
+    //Shared copy of values(), which allocates a new array on every call
+    public static final Nutrient[] ALL = values();
+    //Number of nutrient columns
+    public static final int COUNT = ALL.length;
+
+    //Index of the CSV column this nutrient is read from
+    public final int column;
+    //Display label, e.g. "Sodium"
+    public final String label;
+    //Unit of the values, e.g. "mg"
+    public final String unit;
+
+    Nutrient(int column, String label, String unit) {
+        this.column = column;
+        this.label = label;
+        this.unit = unit;
+    }
+
+    /**
+     * Looks up a nutrient by constant name, ignoring case; spaces and dashes count as
+     * underscores, so "protein", "Sodium" and "saturated fat" all match.
+     *
+     * @param name Nutrient name
+     * @return The nutrient, or null if none matches
+     */
+    public static Nutrient forName(String name) {
+        String key = name.trim().replace(' ', '_').replace('-', '_');
+        for (Nutrient nutrient : ALL) {
+            if (nutrient.name().equalsIgnoreCase(key)) return nutrient;
+        }
+        return null;
+    }
+}
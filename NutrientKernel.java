@@ -0,0 +1,122 @@
+/**
+ * NutrientKernel is the arithmetic behind NutrientVector, NutritionHistory and MealPlanner:
+ * element-wise operations on slices of double arrays.
+ *
+ * Two implementations exist. Scalar is a plain loop and always available. The SIMD
+ * kernel, VectorNutrientKernel in the vector/ source directory, uses the incubating
+ * jdk.incubator.vector API and is only compiled by the Maven build. INSTANCE is the SIMD
+ * kernel when it is on the class path and the JVM was started with
+ * --add-modules jdk.incubator.vector, and Scalar otherwise. -Dnutrition.kernel=scalar
+ * forces the scalar loops.
+ *
+ * Example usage:
+ * <pre>
+ *   double[] totals = new double[4], dish = {117.65, 10.63, 0, 7.55};
+ *   NutrientKernel.INSTANCE.addScaled(totals, 0, dish, 0, 2, 4);   // two servings
+ *   System.out.println(NutrientKernel.INSTANCE.name());
+ * </pre>
+ *
+ * @author Yaseen Osman
+ */
+public interface NutrientKernel {
+    //Kernel used by every caller, chosen once when the class is loaded
+    NutrientKernel INSTANCE = load();
+
+    /**
+     * Returns a short name for reports, e.g. "scalar" or "vector (4 x double)".
+     * @return Kernel name
+     */
+    String name();
+
+    /**
+     * Adds a slice of x to a slice of acc: acc[accFrom + i] += x[xFrom + i].
+     */
+    void add(double[] acc, int accFrom, double[] x, int xFrom, int length);
+
+    /**
+     * Adds a multiple of a slice of x to a slice of acc: acc[accFrom + i] += factor * x[xFrom + i].
+     */
+    void addScaled(double[] acc, int accFrom, double[] x, int xFrom, double factor, int length);
+
+    /**
+     * Multiplies a slice in place: a[from + i] *= factor.
+     */
+    void scale(double[] a, int from, double factor, int length);
+
+    /**
+     * Returns the sum of a slice.
+     */
+    double sum(double[] a, int from, int length);
+
+    /**
+     * Returns the dot product of two slices.
+     */
+    double dot(double[] a, int aFrom, double[] b, int bFrom, int length);
+
+    /**
+     * Returns the weighted squared distance sum(weights[i] * (a[aFrom + i] - b[i])^2)
+     * over the first length entries of b and weights.
+     */
+    double distance(double[] a, int aFrom, double[] b, double[] weights, int length);
+
+    private static NutrientKernel load() {
+        if ("scalar".equals(System.getProperty("nutrition.kernel"))) return new Scalar();
+        String pkg = NutrientKernel.class.getPackageName();
+        String name = pkg.isEmpty() ? "VectorNutrientKernel" : pkg + ".VectorNutrientKernel";
+        try {
+            return (NutrientKernel) Class.forName(name).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            //Not compiled in, or jdk.incubator.vector is not resolved in this JVM
+            return new Scalar();
+        }
+    }
+
+    /**
+     * Plain loops; the JIT may still auto-vectorize some of them.
+     */
+    class Scalar implements NutrientKernel {
+        @Override
+        public String name() {
+            return "scalar";
+        }
+
+        @Override
+        public void add(double[] acc, int accFrom, double[] x, int xFrom, int length) {
+            for (int i = 0; i < length; i++) acc[accFrom + i] += x[xFrom + i];
+        }
+
+        @Override
+        public void addScaled(double[] acc, int accFrom, double[] x, int xFrom, double factor, int length) {
+            for (int i = 0; i < length; i++) acc[accFrom + i] += factor * x[xFrom + i];
+        }
+
+        @Override
+        public void scale(double[] a, int from, double factor, int length) {
+            for (int i = 0; i < length; i++) a[from + i] *= factor;
+        }
+
+        @Override
+        public double sum(double[] a, int from, int length) {
+            double sum = 0;
+            for (int i = 0; i < length; i++) sum += a[from + i];
+            return sum;
+        }
+
+        @Override
+        public double dot(double[] a, int aFrom, double[] b, int bFrom, int length) {
+            double dot = 0;
+            for (int i = 0; i < length; i++) dot += a[aFrom + i] * b[bFrom + i];
+            return dot;
+        }
+
+        @Override
+        public double distance(double[] a, int aFrom, double[] b, double[] weights, int length) {
+            double distance = 0;
+            for (int i = 0; i < length; i++) {
+                double diff = a[aFrom + i] - b[i];
+                distance += weights[i] * diff * diff;
+            }
+            return distance;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+import java.util.Arrays;
+
+/**
+ * NutrientVector holds one value for every nutrient column of the dining hall CSV, e.g.
+ * the nutrients of one serving of a dish, a plate, or a day's total.
+ *
+ * Values are doubles indexed by Nutrient.ordinal(), so fractional grams are kept exactly
+ * as the CSV gives them. The bulk operations (add, addScaled, scale, sum, dot, distance)
+ * run through NutrientKernel.INSTANCE, which uses SIMD instructions when the vector API
+ * is available. Operations that change the vector do so in place and return it, so
+ * they can be chained.
+ *
+ * Example usage:
+ * <pre>
+ * NutrientVector day = new NutrientVector();
+ * day.add(store.vector(eggs)).addScaled(store.vector(toast), 2);
+ * double sodium = day.get(Nutrient.SODIUM);
+ * NutritionFacts summary = day.facts();
+ * </pre>
+ *
+ * @author Yaseen Osman
+ */
+public final class NutrientVector {
+    //Number of values, one per Nutrient
+    public static final int LENGTH = Nutrient.COUNT;
+
+    //Values indexed by Nutrient.ordinal(); package-private so histories and stores can copy slices
+    final double[] values;
+
+    /**
+     * Constructs a vector of zeros.
+     */
+    public NutrientVector() {
+        values = new double[LENGTH];
+    }
+
+    private NutrientVector(double[] values) {
+        this.values = values;
+    }
+
+    /**
+     * Creates a vector from values indexed by Nutrient.ordinal().
+     *
+     * @param values LENGTH values; copied
+     * @return The new vector
+     */
+    public static NutrientVector of(double[] values) {
+        if (values.length != LENGTH) throw new IllegalArgumentException("Expected " + LENGTH + " values, got " + values.length);
+        return new NutrientVector(values.clone());
+    }
+
+    /**
+     * Creates a vector from the four nutrients a MenuItem carries. The other nutrients are 0;
+     * use MenuStore.vector for the full row.
+     *
+     * @param item The menu item
+     * @return The new vector
+     */
+    public static NutrientVector of(MenuItem item) {
+        NutrientVector v = new NutrientVector();
+        v.values[Nutrient.CALORIES.ordinal()] = item.calories;
+        v.values[Nutrient.FAT.ordinal()] = item.fat;
+        v.values[Nutrient.CARBS.ordinal()] = item.carbs;
+        v.values[Nutrient.PROTEIN.ordinal()] = item.protein;
+        return v;
+    }
+
+    /**
+     * Returns one nutrient.
+     * @param nutrient The nutrient
+     * @return Its value
+     */
+    public double get(Nutrient nutrient) {
+        return values[nutrient.ordinal()];
+    }
+
+    /**
+     * Sets one nutrient.
+     * @param nutrient The nutrient
+     * @param value    Its new value
+     * @return This vector
+     */
+    public NutrientVector set(Nutrient nutrient, double value) {
+        values[nutrient.ordinal()] = value;
+        return this;
+    }
+
+    /**
+     * Adds another vector to this one.
+     * @param other Vector to add
+     * @return This vector
+     */
+    public NutrientVector add(NutrientVector other) {
+        NutrientKernel.INSTANCE.add(values, 0, other.values, 0, LENGTH);
+        return this;
+    }
+
+    /**
+     * Adds a multiple of another vector to this one, e.g. a number of servings of a dish.
+     * @param other  Vector to add
+     * @param factor Multiple of it to add
+     * @return This vector
+     */
+    public NutrientVector addScaled(NutrientVector other, double factor) {
+        NutrientKernel.INSTANCE.addScaled(values, 0, other.values, 0, factor, LENGTH);
+        return this;
+    }
+
+    /**
+     * Multiplies every nutrient by a factor.
+     * @param factor The factor
+     * @return This vector
+     */
+    public NutrientVector scale(double factor) {
+        NutrientKernel.INSTANCE.scale(values, 0, factor, LENGTH);
+        return this;
+    }
+
+    /**
+     * Returns the dot product with another vector, e.g. with a vector of per-nutrient weights.
+     * @param other The other vector
+     * @return Sum of the products of matching nutrients
+     */
+    public double dot(NutrientVector other) {
+        return NutrientKernel.INSTANCE.dot(values, 0, other.values, 0, LENGTH);
+    }
+
+    /**
+     * Returns the weighted squared distance to a target: the sum over nutrients of
+     * weight * (this - target)^2. Nutrients with weight 0 are ignored.
+     *
+     * @param target  Target values
+     * @param weights Non-negative weight per nutrient
+     * @return The weighted squared distance
+     */
+    public double distance(NutrientVector target, NutrientVector weights) {
+        return NutrientKernel.INSTANCE.distance(values, 0, target.values, weights.values, LENGTH);
+    }
+
+    /**
+     * Returns the sum of several vectors.
+     * @param vectors The vectors
+     * @return A new vector holding their sum
+     */
+    public static NutrientVector sum(Iterable<NutrientVector> vectors) {
+        NutrientVector sum = new NutrientVector();
+        for (NutrientVector v : vectors) sum.add(v);
+        return sum;
+    }
+
+    /**
+     * Returns a copy of this vector.
+     * @return The copy
+     */
+    public NutrientVector copy() {
+        return new NutrientVector(values.clone());
+    }
+
+    /**
+     * Returns the values indexed by Nutrient.ordinal().
+     * @return A copy of the values
+     */
+    public double[] toArray() {
+        return values.clone();
+    }
+
+    /**
+     * Returns calories, protein, carbs and fat as a NutritionFacts summary.
+     * @return The summary
+     */
+    public NutritionFacts facts() {
+        return new NutritionFacts(get(Nutrient.CALORIES), get(Nutrient.PROTEIN), get(Nutrient.CARBS), get(Nutrient.FAT));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof NutrientVector && Arrays.equals(values, ((NutrientVector) o).values);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(values);
+    }
+
+    /**
+     * Returns the non-zero nutrients with their units.
+     * @return A formatted string, e.g. "Calories 153.1kcal, Total Fat 2.98g"
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Nutrient n : Nutrient.ALL) {
+            if (values[n.ordinal()] == 0) continue;
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(n.label).append(' ').append(String.format("%.1f", values[n.ordinal()])).append(n.unit);
+        }
+        return sb.toString();
+    }
+}
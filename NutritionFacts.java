@@ -2,26 +2,30 @@
  * NutritionFacts stores nutrition information for a food item or a daily total.
  * 
  * This class is used to represent the calories, protein, carbohydrates, and fat content
- * of a single menu item or to accumulate totals for a user's daily intake.
+ * of a single menu item or to accumulate totals for a user's daily intake. Values are
+ * kept as doubles, so the CSV's fractional grams are not truncated. It is the four-macro
+ * summary of a NutrientVector, which holds every nutrient column and does the arithmetic
+ * for daily totals, plates and goal distances.
  * 
  * Example usage:
  * <pre>
  * NutritionFacts egg = new NutritionFacts(117, 11, 1, 7);
  * NutritionFacts toast = new NutritionFacts(80, 2, 15, 1);
  * egg.add(toast); // Now egg contains the sum of both items' nutrition.
+ * NutrientVector full = egg.toVector();
  * </pre>
  * 
  * @author Yaseen Osman
  */
 public class NutritionFacts {
     //Calories per serving or total calories 
-    public int calories;
+    public double calories;
     //Protein grams per serving or total protein
-    public int protein;
+    public double protein;
     //Carbohydrate grams per serving or total carbs 
-    public int carbs;
+    public double carbs;
     //Fat grams per serving or total fat 
-    public int fat;
+    public double fat;
 
     /**
      * Constructs a NutritionFacts object with the specified values.
@@ -31,13 +35,35 @@ public class NutritionFacts {
      * @param carbs    Carbohydrate grams per serving or total carbs
      * @param fat      Fat grams per serving or total fat
      */
-    public NutritionFacts(int calories, int protein, int carbs, int fat) {
+    public NutritionFacts(double calories, double protein, double carbs, double fat) {
         this.calories = calories;
         this.protein = protein;
         this.carbs = carbs;
         this.fat = fat;
     }
 
+    /**
+     * Creates the NutritionFacts of a number of servings of a menu item.
+     * 
+     * @param item     The menu item
+     * @param servings Number of servings
+     * @return NutritionFacts for the servings
+     */
+    public static NutritionFacts of(MenuItem item, double servings) {
+        return new NutritionFacts(item.calories * servings, item.protein * servings,
+                                  item.carbs * servings, item.fat * servings);
+    }
+
+    /**
+     * Returns these values as a NutrientVector; nutrients other than the four macros are 0.
+     * 
+     * @return A new NutrientVector
+     */
+    public NutrientVector toVector() {
+        return new NutrientVector().set(Nutrient.CALORIES, calories).set(Nutrient.PROTEIN, protein)
+                                   .set(Nutrient.CARBS, carbs).set(Nutrient.FAT, fat);
+    }
+
     /**
      * Adds the nutrition values from another NutritionFacts object to this one.
      * Useful for accumulating daily totals.
@@ -58,7 +84,7 @@ public class NutritionFacts {
      */
     @Override
     public String toString() {
-        return String.format("Calories: %d, Protein: %dg, Carbs: %dg, Fat: %dg", 
+        return String.format("Calories: %.1f, Protein: %.1fg, Carbs: %.1fg, Fat: %.1fg", 
                              calories, protein, carbs, fat);
     }
 }
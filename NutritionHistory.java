@@ -0,0 +1,358 @@
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * NutritionHistory is a per-user time series of daily nutrition totals.
+ *
+ * Days are indexed by epoch day (days since 1970-01-01) relative to the first day
+ * in the series, and every nutrient is kept in primitive arrays:
+ * <ul>
+ *   <li>daily: the total of each nutrient on each day</li>
+ *   <li>prefix: running sums of daily, so the total over any range of days is one
+ *       subtraction, and averages and rolling windows are constant-time</li>
+ * </ul>
+ * Adding to the latest day, the usual case, updates a single prefix row. Adding to an
+ * earlier day updates the prefix rows of every later day.
+ *
+ * The arrays are dense from the first day to the last, so memory and the cost of an
+ * early add grow with the span of days, not with the number of days logged: about
+ * 2 * width * 8 bytes per day, 304 bytes at NUTRIENTS. A single day logged centuries
+ * before the others costs hundreds of megabytes, so callers taking dates from clients
+ * bound them first (NutritionServer refuses dates more than a year from today). Rows are updated and read
+ * through NutrientKernel, so a whole day is added or subtracted at once.
+ *
+ * User keeps one NutrientVector per day (width NUTRIENTS, indexed by Nutrient.ordinal()).
+ * OffHeapHistoryStore hands out subclasses that keep the days outside the Java heap.
+ *
+ * Example usage:
+ * <pre>
+ * NutritionHistory history = new NutritionHistory(NutritionHistory.NUTRIENTS);
+ * int today = NutritionHistory.epochDay("2025-05-14");
+ * history.add(today, store.vector(eggs).toArray());
+ * double weekCalories = history.sum(today - 6, today, NutritionHistory.CALORIES);
+ * double average = history.average(today - 6, today, NutritionHistory.CALORIES);
+ * double[] week = new double[history.width()];
+ * history.sum(today - 6, today, week);             // every nutrient at once
+ * </pre>
+ *
+ * @author Yaseen Osman
+ */
+public class NutritionHistory {
+    //Nutrient indexes of the series User keeps
+    public static final int CALORIES = Nutrient.CALORIES.ordinal(), PROTEIN = Nutrient.PROTEIN.ordinal(),
+            CARBS = Nutrient.CARBS.ordinal(), FAT = Nutrient.FAT.ordinal();
+    //Number of nutrients in the series User keeps: one NutrientVector per day
+    public static final int NUTRIENTS = NutrientVector.LENGTH;
+
+    //Number of nutrients per day
+    private final int width;
+    //Epoch day of index 0
+    private int firstDay;
+    //Number of days from firstDay to the last day with an entry
+    private int length;
+    //Totals per day: daily[day * width + nutrient]
+    private double[] daily;
+    //Running sums: prefix[(day + 1) * width + nutrient] = sum of daily[0..day]; row 0 is all zeros
+    private double[] prefix;
+    //Whether anything was logged on a day, and running counts of logged days
+    private boolean[] logged;
+    private int[] loggedPrefix;
+
+    /**
+     * Constructs an empty history.
+     *
+     * @param width Number of nutrients per day
+     */
+    public NutritionHistory(int width) {
+        this(width, 16);
+    }
+
+    /**
+     * Constructs an empty history with room for a number of days before it grows.
+     * Subclasses that keep their days elsewhere, such as OffHeapHistoryStore's views,
+     * pass 0.
+     *
+     * @param width    Number of nutrients per day
+     * @param capacity Days to allocate up front
+     */
+    protected NutritionHistory(int width, int capacity) {
+        this.width = width;
+        daily = new double[capacity * width];
+        prefix = new double[(capacity + 1) * width];
+        logged = new boolean[capacity];
+        loggedPrefix = new int[capacity + 1];
+    }
+
+    /**
+     * Converts a "YYYY-MM-DD" date to its epoch day without going through a formatter.
+     *
+     * @param date Date in "YYYY-MM-DD" format
+     * @return Days since 1970-01-01
+     * @throws IllegalArgumentException if the date is not in that format
+     */
+    public static int epochDay(String date) {
+        if (date.length() != 10 || date.charAt(4) != '-' || date.charAt(7) != '-') {
+            throw new IllegalArgumentException("Date must be YYYY-MM-DD: " + date);
+        }
+        int year = digits(date, 0, 4), month = digits(date, 5, 7), day = digits(date, 8, 10);
+        return (int) LocalDate.of(year, month, day).toEpochDay();
+    }
+
+    /**
+     * Converts an epoch day back to a "YYYY-MM-DD" date.
+     *
+     * @param epochDay Days since 1970-01-01
+     * @return Date in "YYYY-MM-DD" format
+     */
+    public static String date(int epochDay) {
+        return LocalDate.ofEpochDay(epochDay).toString();
+    }
+
+    private static int digits(String s, int from, int to) {
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') throw new IllegalArgumentException("Date must be YYYY-MM-DD: " + s);
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Returns the number of nutrients per day.
+     * @return Number of nutrients
+     */
+    public int width() {
+        return width;
+    }
+
+    /**
+     * Returns whether nothing has been logged yet.
+     * @return True if the history is empty
+     */
+    public boolean isEmpty() {
+        return length == 0;
+    }
+
+    /**
+     * Returns the epoch day of the first day in the series.
+     * @return First epoch day; only meaningful if the history is not empty
+     */
+    public int firstDay() {
+        return firstDay;
+    }
+
+    /**
+     * Returns the epoch day of the last day in the series.
+     * @return Last epoch day; only meaningful if the history is not empty
+     */
+    public int lastDay() {
+        return firstDay + length - 1;
+    }
+
+    /**
+     * Adds nutrient values to a day.
+     *
+     * @param epochDay Day to add to
+     * @param values   One value per nutrient
+     */
+    public void add(int epochDay, double[] values) {
+        int d = slot(epochDay);
+        NutrientKernel kernel = NutrientKernel.INSTANCE;
+        kernel.add(daily, d * width, values, 0, width);
+        if (!logged[d]) {
+            logged[d] = true;
+            for (int i = d + 1; i <= length; i++) loggedPrefix[i]++;
+        }
+        for (int i = d + 1; i <= length; i++) kernel.add(prefix, i * width, values, 0, width);
+    }
+
+    /**
+     * Replaces the totals of a day.
+     *
+     * @param epochDay Day to set
+     * @param values   One value per nutrient
+     */
+    public void set(int epochDay, double[] values) {
+        double[] delta = new double[width];
+        for (int n = 0; n < width; n++) delta[n] = values[n] - get(epochDay, n);
+        add(epochDay, delta);
+    }
+
+    /**
+     * Returns whether anything was logged on a day.
+     *
+     * @param epochDay The day
+     * @return True if the day has an entry
+     */
+    public boolean hasEntry(int epochDay) {
+        int d = epochDay - firstDay;
+        return d >= 0 && d < length && logged[d];
+    }
+
+    /**
+     * Returns one nutrient total of one day.
+     *
+     * @param epochDay The day
+     * @param nutrient Nutrient index
+     * @return The total, or 0 if nothing was logged that day
+     */
+    public double get(int epochDay, int nutrient) {
+        int d = epochDay - firstDay;
+        return d >= 0 && d < length ? daily[d * width + nutrient] : 0;
+    }
+
+    /**
+     * Copies every nutrient total of one day into an array.
+     *
+     * @param epochDay The day
+     * @param out      Receives width() values; all 0 if nothing was logged that day
+     */
+    public void day(int epochDay, double[] out) {
+        int d = epochDay - firstDay;
+        if (d >= 0 && d < length) System.arraycopy(daily, d * width, out, 0, width);
+        else Arrays.fill(out, 0, width, 0);
+    }
+
+    /**
+     * Computes the total of every nutrient from one day to another, both inclusive.
+     *
+     * @param fromDay First epoch day
+     * @param toDay   Last epoch day
+     * @param out     Receives width() totals
+     */
+    public void sum(int fromDay, int toDay, double[] out) {
+        Arrays.fill(out, 0, width, 0);
+        int from = clamp(fromDay - firstDay), to = clamp(toDay - firstDay + 1);
+        if (to <= from) return;
+        NutrientKernel.INSTANCE.add(out, 0, prefix, to * width, width);
+        NutrientKernel.INSTANCE.addScaled(out, 0, prefix, from * width, -1, width);
+    }
+
+    /**
+     * Computes the average of every nutrient per calendar day over a range, both ends
+     * inclusive. Days without entries count as zero.
+     *
+     * @param fromDay First epoch day
+     * @param toDay   Last epoch day
+     * @param out     Receives width() averages; all 0 for an empty range
+     */
+    public void average(int fromDay, int toDay, double[] out) {
+        sum(fromDay, toDay, out);
+        if (toDay >= fromDay) NutrientKernel.INSTANCE.scale(out, 0, 1.0 / (toDay - fromDay + 1), width);
+    }
+
+    /**
+     * Returns the total of one nutrient from one day to another, both inclusive.
+     *
+     * @param fromDay  First epoch day
+     * @param toDay    Last epoch day
+     * @param nutrient Nutrient index
+     * @return The total over the range
+     */
+    public double sum(int fromDay, int toDay, int nutrient) {
+        int from = clamp(fromDay - firstDay), to = clamp(toDay - firstDay + 1);
+        if (to <= from) return 0;
+        return prefix[to * width + nutrient] - prefix[from * width + nutrient];
+    }
+
+    /**
+     * Returns the average of one nutrient per calendar day over a range, both ends inclusive.
+     * Days without entries count as zero.
+     *
+     * @param fromDay  First epoch day
+     * @param toDay    Last epoch day
+     * @param nutrient Nutrient index
+     * @return The average per day, or 0 for an empty range
+     */
+    public double average(int fromDay, int toDay, int nutrient) {
+        if (toDay < fromDay) return 0;
+        return sum(fromDay, toDay, nutrient) / (toDay - fromDay + 1);
+    }
+
+    /**
+     * Returns the average of one nutrient over the days in a range that have entries.
+     *
+     * @param fromDay  First epoch day
+     * @param toDay    Last epoch day
+     * @param nutrient Nutrient index
+     * @return The average per logged day, or 0 if no day in the range was logged
+     */
+    public double averageOfLoggedDays(int fromDay, int toDay, int nutrient) {
+        int days = loggedDays(fromDay, toDay);
+        return days == 0 ? 0 : sum(fromDay, toDay, nutrient) / days;
+    }
+
+    /**
+     * Returns the number of days with entries in a range, both ends inclusive.
+     *
+     * @param fromDay First epoch day
+     * @param toDay   Last epoch day
+     * @return Number of logged days
+     */
+    public int loggedDays(int fromDay, int toDay) {
+        int from = clamp(fromDay - firstDay), to = clamp(toDay - firstDay + 1);
+        return to <= from ? 0 : loggedPrefix[to] - loggedPrefix[from];
+    }
+
+    /**
+     * Returns the average of one nutrient over the window of days ending at a day.
+     *
+     * @param epochDay Last day of the window
+     * @param days     Window length, e.g. 7 for a rolling week
+     * @param nutrient Nutrient index
+     * @return The average per calendar day over the window
+     */
+    public double rollingAverage(int epochDay, int days, int nutrient) {
+        return average(epochDay - days + 1, epochDay, nutrient);
+    }
+
+    private int clamp(int index) {
+        return Math.max(0, Math.min(length, index));
+    }
+
+    //Returns the index of a day, growing the series at either end if needed
+    private int slot(int epochDay) {
+        if (length == 0) {
+            firstDay = epochDay;
+            length = 1;
+            return 0;
+        }
+        if (epochDay < firstDay) {
+            int shift = firstDay - epochDay;
+            ensureCapacity(length + shift);
+            System.arraycopy(daily, 0, daily, shift * width, length * width);
+            Arrays.fill(daily, 0, shift * width, 0);
+            System.arraycopy(logged, 0, logged, shift, length);
+            Arrays.fill(logged, 0, shift, false);
+            //New leading days are empty, so the running sums move over unchanged
+            System.arraycopy(prefix, width, prefix, (shift + 1) * width, length * width);
+            Arrays.fill(prefix, width, (shift + 1) * width, 0);
+            System.arraycopy(loggedPrefix, 1, loggedPrefix, shift + 1, length);
+            Arrays.fill(loggedPrefix, 1, shift + 1, 0);
+            firstDay = epochDay;
+            length += shift;
+            return 0;
+        }
+        int d = epochDay - firstDay;
+        if (d >= length) {
+            ensureCapacity(d + 1);
+            //Days after the old end carry the last running sum forward
+            for (int i = length + 1; i <= d + 1; i++) {
+                System.arraycopy(prefix, length * width, prefix, i * width, width);
+                loggedPrefix[i] = loggedPrefix[length];
+            }
+            length = d + 1;
+        }
+        return d;
+    }
+
+    private void ensureCapacity(int days) {
+        if (days <= logged.length) return;
+        int capacity = Math.max(days, logged.length * 2);
+        daily = Arrays.copyOf(daily, capacity * width);
+        prefix = Arrays.copyOf(prefix, (capacity + 1) * width);
+        logged = Arrays.copyOf(logged, capacity);
+        loggedPrefix = Arrays.copyOf(loggedPrefix, capacity + 1);
+    }
+}
@@ -0,0 +1,562 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * NutritionServer serves the tracker over HTTP so the whole campus can use it at once.
+ *
+ * It is built on the JDK's com.sun.net.httpserver and runs every request on its own
+ * virtual thread. Users live in a UserRegistry, and logged meals are written to the
+ * MealLogStore when one is given. Dates must be within a year of today, and servings
+ * positive. All endpoints answer with JSON:
+ * <pre>
+ *   GET  /menu?hall=Frank&meal=Breakfast                       dishes with their ids
+ *   POST /log?student=1001&dish=42[&servings=1][&date=...]     log a dish for a student
+ *   GET  /summary?student=1001[&date=...]                      the student's totals for a day
+ *   GET  /meals?student=1001[&date=...]                        the dishes the student logged that day
+ *   GET  /budget?student=1001[&date=...]                       what is left of each goal that day
+ *   GET  /recommend?student=1001[&hall=..][&meal=..][&k=3][&macros=true]
+ *   GET  /rank?ratio=protein_per_kcal[&hall=..][&meal=..][&offset=0][&limit=10][&order=asc]
+ *   POST /share?student=1001[&date=...]                        share the day's summary with friends
+ *   GET  /inbox?student=1002[&limit=20]                        summaries friends shared since the last read
+ *   GET  /leaderboard?nutrient=protein[&by=students|halls|meals][&from=..][&to=..][&hall=..][&meal=..][&k=20]
+ *   GET  /metrics                                              latency percentiles of every timed operation
+ *   GET  /cache                                                recommendation cache hits, misses and evictions
+ *   GET  /fanout                                               share deliveries, drops, backlog and inbox depth
+ * </pre>
+ * /menu and /recommend also take dietary restrictions: avoid=Soy,Milk skips dishes with
+ * those allergens, without=peanut,sesame oil skips dishes listing those ingredients and
+ * with=chickpea keeps only dishes listing them. /log takes portion=200g instead of
+ * servings to log a weight, converted through the dish's serving size, and /rank pages
+ * through the DensityIndex views. The date defaults to today, and a leaderboard covers
+ * the week ending today unless from and to are given, with k between 1 and 1000.
+ * Recommendations go through a RecommendationCache sized by the -Dnutrition.cache.*
+ * properties. Dish ids refer to the current menu version; with a LiveMenu they can
+ * change when the CSV is republished. On shutdown the server stops accepting
+ * connections, waits for in-flight requests to finish and closes the meal log. Shares follow a FriendGraph rebuilt in the background
+ * every -Dnutrition.share.refresh milliseconds (default 30000), so new students and
+ * friendships reach /share and /inbox within one period.
+ *
+ * Example usage:
+ * <pre>
+ *   NutritionServer server = new NutritionServer(store, registry, mealLog);
+ *   server.start(8080);
+ *   Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+ * </pre>
+ *
+ * @author Yaseen Osman
+ */
+public class NutritionServer {
+    //Seconds stop() waits for in-flight requests
+    private static final int DRAIN_SECONDS = 10;
+
+    //Current menu and indexes; each request reads one version and uses it throughout
+    private final LiveMenu live;
+    private final UserRegistry users;
+    private final MealLogStore mealLog;
+    //Campus-wide leaderboards over the same users and menu
+    private final Analytics analytics;
+    //Answers to repeated recommendation queries, emptied on every menu reload
+    private final RecommendationCache recommendations;
+    //Delivers shared summaries to friends' inboxes in the background
+    private final ShareFanout sharing;
+
+    private HttpServer server;
+    private ExecutorService executor;
+    //Requests served, by outcome
+    private final LongAdder served = new LongAdder(), failed = new LongAdder();
+
+    /**
+     * Constructs a server over a loaded menu and user registry. The menu never changes.
+     *
+     * @param store   The loaded menu
+     * @param users   Registered users
+     * @param mealLog Log logged meals are persisted to, or null to keep them in memory only
+     */
+    public NutritionServer(MenuStore store, UserRegistry users, MealLogStore mealLog) {
+        this(new LiveMenu(null, store), users, mealLog);
+    }
+
+    /**
+     * Constructs a server over a menu that may be reloaded while it serves.
+     *
+     * @param live    The live menu
+     * @param users   Registered users
+     * @param mealLog Log logged meals are persisted to, or null to keep them in memory only
+     */
+    public NutritionServer(LiveMenu live, UserRegistry users, MealLogStore mealLog) {
+        this.live = live;
+        this.users = users;
+        this.mealLog = mealLog;
+        this.analytics = new Analytics(users, live);
+        this.recommendations = RecommendationCache.fromProperties(live);
+        this.sharing = ShareFanout.fromProperties(FriendGraph.of(users));
+        sharing.refreshEvery(() -> FriendGraph.of(users), Long.getLong("nutrition.share.refresh", 30_000));
+    }
+
+    /**
+     * Starts listening on a port.
+     *
+     * @param port Port to listen on, or 0 for any free port
+     * @throws IOException if the port cannot be bound
+     */
+    public void start(int port) throws IOException {
+        //Small JSON responses would otherwise wait on Nagle's algorithm; read once when the first server starts
+        System.getProperties().putIfAbsent("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/menu", handler(this::menu));
+        server.createContext("/log", handler(this::log));
+        server.createContext("/summary", handler(this::summary));
+        server.createContext("/meals", handler(this::meals));
+        server.createContext("/budget", handler(this::budget));
+        server.createContext("/recommend", handler(this::recommend));
+        server.createContext("/rank", handler(this::rank));
+        server.createContext("/share", handler(this::share));
+        server.createContext("/inbox", handler(this::inbox));
+        server.createContext("/fanout", handler((exchange, params) -> sharing.json()));
+        server.createContext("/leaderboard", handler(this::leaderboard));
+        server.createContext("/metrics", handler((exchange, params) -> Metrics.json()));
+        server.createContext("/cache", handler((exchange, params) -> recommendations.json()));
+        server.start();
+    }
+
+    /**
+     * Returns the port the server listens on.
+     * @return The port
+     */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Returns the number of requests answered successfully.
+     * @return Requests served
+     */
+    public long served() {
+        return served.sum();
+    }
+
+    /**
+     * Stops accepting connections, waits for in-flight requests and closes the meal log.
+     */
+    public void stop() {
+        if (server == null) return;
+        server.stop(DRAIN_SECONDS);
+        executor.close(); //waits for handlers that are still running
+        sharing.close();
+        if (mealLog != null) {
+            try {
+                mealLog.close();
+            } catch (IOException e) {
+                System.err.println("Could not close meal log: " + e.getMessage());
+            }
+        }
+        server = null;
+    }
+
+    /**
+     * Starts a server over PomonaDiningHalls.csv with the sample users, persisting meals to meal-log/.
+     * The menu is reloaded whenever the CSV changes. The server drains in-flight requests
+     * when the JVM shuts down.
+     *
+     * @param args Port to listen on (default 8080)
+     * @throws Exception if the menu or meal log cannot be loaded
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        LiveMenu live = new LiveMenu("PomonaDiningHalls.csv", MenuStore.load("PomonaDiningHalls.csv"));
+        live.addListener((version, diff) -> System.out.println("Menu version " + version.number + ": " + diff));
+        live.watch();
+
+        //Sample users; same students as the console app
+        Map<String, User> sample = new HashMap<>();
+        User alice = new User("1001", "Alice", goals(2000, 100, 250, 70));
+        User bob = new User("1002", "Bob", goals(2200, 120, 275, 75));
+        alice.friends.add("1002");
+        bob.friends.add("1001");
+        sample.put(alice.studentId, alice);
+        sample.put(bob.studentId, bob);
+
+        MealLogStore mealLog = MealLogStore.open(Paths.get("meal-log"));
+        mealLog.restore(sample);
+        UserRegistry registry = new UserRegistry();
+        sample.values().forEach(registry::register);
+
+        NutritionServer server = new NutritionServer(live, registry, mealLog);
+        server.start(port);
+        AutoCloseable metrics = Metrics.dumpFromProperties();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            if (metrics != null) {
+                try {
+                    metrics.close();
+                } catch (Exception e) {
+                    System.err.println("Could not stop metrics dump: " + e.getMessage());
+                }
+            }
+        }, "nutrition-server-shutdown"));
+        System.out.println("Serving on http://localhost:" + server.port() + "/ (Ctrl+C to stop)");
+    }
+
+    /**
+     * Builds a goals map in the format User expects.
+     *
+     * @param calories Calorie goal
+     * @param protein  Protein goal in grams
+     * @param carbs    Carbohydrate goal in grams
+     * @param fat      Fat goal in grams
+     * @return Goals map
+     */
+    static Map<String, Integer> goals(int calories, int protein, int carbs, int fat) {
+        Map<String, Integer> goals = new HashMap<>();
+        goals.put("calories", calories);
+        goals.put("protein", protein);
+        goals.put("carbs", carbs);
+        goals.put("fat", fat);
+        return goals;
+    }
+
+    /**
+     * An endpoint: reads query parameters and returns a JSON body.
+     */
+    private interface Endpoint {
+        String handle(HttpExchange exchange, Map<String, String> params);
+    }
+
+    /**
+     * Raised by endpoints for bad requests; carries the HTTP status.
+     */
+    private static class RequestException extends RuntimeException {
+        final int status;
+
+        RequestException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private HttpHandler handler(Endpoint endpoint) {
+        return exchange -> {
+            int status = 200;
+            String body;
+            try {
+                body = endpoint.handle(exchange, params(exchange));
+                served.increment();
+            } catch (RequestException e) {
+                status = e.status;
+                body = "{\"error\":" + json(e.getMessage()) + "}";
+                failed.increment();
+            } catch (RuntimeException e) {
+                status = 500;
+                body = "{\"error\":" + json(String.valueOf(e)) + "}";
+                failed.increment();
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        };
+    }
+
+    private String menu(HttpExchange exchange, Map<String, String> params) {
+        String hall = required(params, "hall"), meal = required(params, "meal");
+        LiveMenu.Version v = live.current();
+        MenuStore store = v.store;
+        StringBuilder sb = new StringBuilder("[");
+        for (int id : v.dietary.search(hall, meal, filter(params))) {
+            if (sb.length() > 1) sb.append(',');
+            sb.append("{\"id\":").append(id).append(",\"dish\":").append(json(store.dish(id)))
+              .append(",\"calories\":").append(store.value(id, Nutrient.CALORIES))
+              .append(",\"allergens\":").append(json(Allergen.labels(store.allergens(id)))).append('}');
+        }
+        return sb.append(']').toString();
+    }
+
+    private String log(HttpExchange exchange, Map<String, String> params) {
+        requirePost(exchange);
+        String student = student(params);
+        String date = date(params);
+        int dish = intParam(params, "dish", -1);
+        MenuStore store = live.current().store;
+        if (dish < 0 || dish >= store.size()) throw new RequestException(400, "Unknown dish: " + params.get("dish"));
+        MenuItem item = store.item(dish);
+        //User.logMeal refuses servings that are not positive and finite, before anything is logged
+        double servings;
+        try {
+            servings = params.containsKey("portion")
+                    ? ServingSize.servings(params.get("portion"), store.grams(dish))
+                    : doubleParam(params, "servings", 1);
+            users.logMeal(student, date, store, dish, servings);
+        } catch (IllegalArgumentException e) {
+            throw new RequestException(400, e.getMessage());
+        }
+        if (mealLog != null) mealLog.append(student, date, store, dish, servings);
+        return "{\"logged\":" + json(item.dish) + ",\"date\":" + json(date) + "}";
+    }
+
+    private String summary(HttpExchange exchange, Map<String, String> params) {
+        String student = student(params);
+        String date = date(params);
+        NutritionFacts nf = users.getDailyNutrition(student, date);
+        return facts(nf, date);
+    }
+
+    private String meals(HttpExchange exchange, Map<String, String> params) {
+        String student = student(params);
+        String date = date(params);
+        List<LoggedMeals.Meal> meals = users.withUser(student, u -> u.getMeals(date));
+        if (meals == null) throw new RequestException(404, "User not found: " + student);
+        DishTable table = DishTable.shared();
+        StringBuilder sb = new StringBuilder("[");
+        for (LoggedMeals.Meal m : meals) {
+            DishTable.Dish dish = table.dish(m.dish);
+            if (sb.length() > 1) sb.append(',');
+            sb.append("{\"dish\":").append(json(dish.name)).append(",\"hall\":").append(json(table.hall(m.place)))
+              .append(",\"meal\":").append(json(table.meal(m.place))).append(",\"servings\":").append(m.servings)
+              .append(",\"calories\":").append(m.servings * dish.value(Nutrient.CALORIES)).append('}');
+        }
+        return sb.append(']').toString();
+    }
+
+    private String budget(HttpExchange exchange, Map<String, String> params) {
+        String student = student(params);
+        String date = date(params);
+        int day = NutritionHistory.epochDay(date);
+        String body = users.withUser(student, u -> {
+            StringBuilder sb = new StringBuilder("{\"date\":\"").append(date).append('"');
+            for (Nutrient nutrient : Nutrient.ALL) {
+                if (!u.budget.hasGoal(nutrient)) continue;
+                sb.append(",\"").append(nutrient.name().toLowerCase(Locale.ROOT)).append("\":{\"goal\":")
+                  .append(u.budget.goal(nutrient)).append(",\"remaining\":").append(u.budget.remaining(nutrient, day))
+                  .append('}');
+            }
+            return sb.append('}').toString();
+        });
+        if (body == null) throw new RequestException(404, "User not found: " + student);
+        return body;
+    }
+
+    private String recommend(HttpExchange exchange, Map<String, String> params) {
+        String student = student(params);
+        String date = date(params);
+        String hall = params.get("hall"), meal = params.get("meal");
+        int k = intParam(params, "k", 1);
+        DietaryIndex.Filter filter = filter(params);
+        List<RecommendationIndex.Match> matches;
+        if (Boolean.parseBoolean(params.get("macros"))) {
+            matches = users.withUser(student, u -> recommendations.nearestMacros(u, date, k, hall, meal, filter));
+        } else {
+            int day = NutritionHistory.epochDay(date);
+            double remaining = users.withUser(student, u -> u.budget.remaining(Nutrient.CALORIES, day));
+            matches = recommendations.nearestCalories(remaining, k, hall, meal, filter);
+        }
+        StringBuilder sb = new StringBuilder("[");
+        for (RecommendationIndex.Match m : matches) {
+            if (sb.length() > 1) sb.append(',');
+            sb.append("{\"dish\":").append(json(m.item.dish)).append(",\"hall\":").append(json(m.diningHall))
+              .append(",\"meal\":").append(json(m.mealPeriod)).append(",\"calories\":").append(m.item.calories)
+              .append(",\"id\":").append(m.item.id).append('}');
+        }
+        return sb.append(']').toString();
+    }
+
+    private String rank(HttpExchange exchange, Map<String, String> params) {
+        DensityIndex.Ratio ratio = DensityIndex.Ratio.forName(required(params, "ratio"));
+        if (ratio == null) throw new RequestException(400, "Unknown ratio: " + params.get("ratio"));
+        String hall = params.get("hall"), meal = params.get("meal");
+        int offset = intParam(params, "offset", 0), limit = intParam(params, "limit", 10);
+        boolean ascending = "asc".equalsIgnoreCase(params.get("order"));
+        LiveMenu.Version v = live.current();
+        MenuStore store = v.store;
+        StringBuilder sb = new StringBuilder("{\"ratio\":").append(json(ratio.name().toLowerCase()))
+                .append(",\"unit\":").append(json(ratio.unit()))
+                .append(",\"total\":").append(v.density.count(ratio, hall, meal)).append(",\"dishes\":[");
+        boolean first = true;
+        for (int id : v.density.top(ratio, hall, meal, offset, limit, ascending)) {
+            if (!first) sb.append(',');
+            sb.append("{\"id\":").append(id).append(",\"dish\":").append(json(store.dish(id)))
+              .append(",\"hall\":").append(json(store.diningHall(id))).append(",\"meal\":").append(json(store.mealPeriod(id)))
+              .append(",\"grams\":").append(store.grams(id)).append(",\"value\":").append(v.density.value(ratio, id))
+              .append('}');
+            first = false;
+        }
+        return sb.append("]}").toString();
+    }
+
+    private String share(HttpExchange exchange, Map<String, String> params) {
+        requirePost(exchange);
+        String student = student(params);
+        String date = date(params);
+        long start = Metrics.SHARE.start();
+        String summary = users.withUser(student, u -> u.shareNutrition(date));
+        int recipients = sharing.share(student, summary);
+        Metrics.SHARE.stop(start);
+        return "{\"summary\":" + json(summary) + ",\"recipients\":" + recipients + "}";
+    }
+
+    private String inbox(HttpExchange exchange, Map<String, String> params) {
+        String student = student(params);
+        StringBuilder sb = new StringBuilder("[");
+        for (ShareFanout.Post post : sharing.inbox(student, intParam(params, "limit", 20))) {
+            if (sb.length() > 1) sb.append(',');
+            sb.append("{\"from\":").append(json(post.from)).append(",\"text\":").append(json(post.text)).append('}');
+        }
+        return sb.append(']').toString();
+    }
+
+    private String leaderboard(HttpExchange exchange, Map<String, String> params) {
+        Nutrient nutrient = Nutrient.forName(required(params, "nutrient"));
+        if (nutrient == null) throw new RequestException(400, "Unknown nutrient: " + params.get("nutrient"));
+        String to = params.containsKey("to") ? date(Map.of("date", params.get("to"))) : LocalDate.now().toString();
+        String from = params.containsKey("from") ? date(Map.of("date", params.get("from")))
+                : LocalDate.parse(to).minusDays(6).toString();
+        String hall = params.get("hall"), meal = params.get("meal");
+        int k = intParam(params, "k", 20);
+        if (k < 1 || k > MAX_LEADERBOARD_K) {
+            throw new RequestException(400, "k must be between 1 and " + MAX_LEADERBOARD_K + ": " + params.get("k"));
+        }
+        List<Analytics.Entry> entries;
+        switch (params.getOrDefault("by", "students")) {
+            case "students" -> entries = analytics.topStudents(nutrient, from, to, hall, meal, k);
+            case "halls" -> entries = analytics.topHalls(nutrient, from, to, meal, k);
+            case "meals" -> entries = analytics.topMealPeriods(nutrient, from, to, hall, k);
+            default -> throw new RequestException(400, "by must be students, halls or meals");
+        }
+        StringBuilder sb = new StringBuilder("{\"nutrient\":").append(json(nutrient.label)).append(",\"unit\":")
+                .append(json(nutrient.unit)).append(",\"from\":").append(json(from)).append(",\"to\":").append(json(to))
+                .append(",\"top\":[");
+        for (Analytics.Entry e : entries) {
+            if (sb.charAt(sb.length() - 1) != '[') sb.append(',');
+            sb.append("{\"key\":").append(json(e.key)).append(",\"name\":").append(json(e.label))
+              .append(",\"value\":").append(String.format(Locale.ROOT, "%.2f", e.value))
+              .append(",\"meals\":").append(e.meals).append('}');
+        }
+        return sb.append("]}").toString();
+    }
+
+    private String student(Map<String, String> params) {
+        String student = required(params, "student");
+        if (!users.contains(student)) throw new RequestException(404, "User not found: " + student);
+        return student;
+    }
+
+    //Dietary restrictions from the avoid, without and with parameters
+    private static DietaryIndex.Filter filter(Map<String, String> params) {
+        DietaryIndex.Filter filter = new DietaryIndex.Filter();
+        for (String label : list(params.get("avoid"))) {
+            Allergen allergen = Allergen.forLabel(label);
+            if (allergen == null) throw new RequestException(400, "Unknown allergen: " + label);
+            filter.avoid(allergen);
+        }
+        for (String phrase : list(params.get("without"))) filter.avoidIngredient(phrase);
+        for (String phrase : list(params.get("with"))) filter.requireIngredient(phrase);
+        return filter;
+    }
+
+    //Non-blank, trimmed items of a comma-separated parameter
+    private static List<String> list(String value) {
+        List<String> items = new ArrayList<>();
+        if (value == null) return items;
+        for (String item : value.split(",")) {
+            if (!item.isBlank()) items.add(item.trim());
+        }
+        return items;
+    }
+
+    //Most entries a leaderboard returns
+    static final int MAX_LEADERBOARD_K = 1000;
+
+    //Dates further than this from today are refused; a history's memory grows with the span of its days
+    static final int MAX_DAYS_FROM_TODAY = 366;
+
+    private static String date(Map<String, String> params) {
+        String date = params.get("date");
+        LocalDate today = LocalDate.now();
+        if (date == null) return today.toString();
+        LocalDate parsed;
+        try {
+            parsed = LocalDate.parse(date);
+        } catch (RuntimeException e) {
+            throw new RequestException(400, "Bad date: " + date);
+        }
+        if (Math.abs(parsed.toEpochDay() - today.toEpochDay()) > MAX_DAYS_FROM_TODAY) {
+            throw new RequestException(400, "Date must be within " + MAX_DAYS_FROM_TODAY + " days of today: " + date);
+        }
+        return parsed.toString();
+    }
+
+    private static void requirePost(HttpExchange exchange) {
+        if (!exchange.getRequestMethod().equals("POST")) throw new RequestException(405, "Use POST");
+    }
+
+    private static String required(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) throw new RequestException(400, "Missing parameter: " + name);
+        return value;
+    }
+
+    private static int intParam(Map<String, String> params, String name, int fallback) {
+        String value = params.get(name);
+        try {
+            return value == null ? fallback : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new RequestException(400, "Bad " + name + ": " + value);
+        }
+    }
+
+    private static double doubleParam(Map<String, String> params, String name, double fallback) {
+        String value = params.get(name);
+        try {
+            return value == null ? fallback : Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new RequestException(400, "Bad " + name + ": " + value);
+        }
+    }
+
+    private static Map<String, String> params(HttpExchange exchange) {
+        Map<String, String> params = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) return params;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq <= 0) continue;
+            params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                       URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private static String facts(NutritionFacts nf, String date) {
+        return String.format(Locale.ROOT, "{\"date\":\"%s\",\"calories\":%.1f,\"protein\":%.1f,\"carbs\":%.1f,\"fat\":%.1f}",
+                date, nf.calories, nf.protein, nf.carbs, nf.fat);
+    }
+
+    //Quotes and escapes a string as a JSON string literal
+    static String json(String s) {
+        if (s == null) return "null";
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,407 @@
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * OffHeapHistoryStore keeps the daily nutrient totals of many users outside the Java
+ * heap, so a campus of 100,000 students with a year of history each adds almost nothing
+ * for the garbage collector to copy or mark.
+ *
+ * The store covers a fixed window of days starting at an origin day. Every user gets a
+ * fixed-stride slot: an 8-byte header with the first and last logged day, then one row
+ * per day of the window holding a float per nutrient and an entry flag. The slot of user
+ * u and day d is therefore found by arithmetic alone. Slots live in direct ByteBuffers,
+ * or in MappedByteBuffers over a file so the histories survive a restart; either way
+ * they are split into chunks of whole users below 2 GB, the most one buffer can hold.
+ * Values are little-endian floats, which keep daily totals to about seven significant
+ * digits, more than the menu's nutrient data has.
+ *
+ * newHistory() returns a NutritionHistory view of the next free slot, so User.logMeal,
+ * getDailyNutrition and every other User method work unchanged on top of it. Views
+ * trade the heap history's running sums for memory: a range total reads each day in
+ * the range, at most the window's length. Logging a day outside the window throws
+ * IllegalArgumentException. Like heap histories, a view is not thread-safe on its own;
+ * UserRegistry already serializes each user's calls, and different users' slots never
+ * overlap. Direct buffers count against -XX:MaxDirectMemorySize, which defaults to the
+ * maximum heap size; mapped stores have no such limit and only touch the pages used.
+ *
+ * Example usage:
+ * <pre>
+ * int origin = NutritionHistory.epochDay("2025-01-01");
+ * try (OffHeapHistoryStore store = OffHeapHistoryStore.map(Paths.get("histories.bin"), origin, 365, 100_000)) {
+ *     User alice = new User("1001", "Alice", goals, store.newHistory());
+ *     alice.logMeal("2025-05-14", menuStore, 42, 1);
+ *     NutritionFacts today = alice.getDailyNutrition("2025-05-14");
+ * }
+ * </pre>
+ *
+ * @author Yaseen Osman
+ */
+public class OffHeapHistoryStore implements Closeable {
+    //"NHS1", the first int of a mapped file
+    private static final int MAGIC = 0x4E485331;
+    //Bytes before the first chunk of a mapped file: magic, origin, days, width, capacity, users
+    private static final int FILE_HEADER = 64;
+    //Bytes per user before its days: first and last logged day index + 1, 0 while empty
+    private static final int USER_HEADER = 8;
+
+    //Epoch day of row 0, and rows per user
+    private final int origin, days;
+    //Nutrients per day, and floats per row: the nutrients and the entry flag
+    private final int width, stride;
+    //Most users the store holds
+    private final int capacity;
+    private final int userBytes, usersPerChunk;
+    private final ByteBuffer[] chunks;
+    private final FloatBuffer[] floats;
+    //File header of a mapped store, or null
+    private final MappedByteBuffer fileHeader;
+    private final FileChannel channel;
+    private int users;
+
+    private OffHeapHistoryStore(int origin, int days, int capacity, FileChannel channel) throws IOException {
+        if (days <= 0 || capacity <= 0) throw new IllegalArgumentException("days and capacity must be positive");
+        this.origin = origin;
+        this.days = days;
+        this.width = NutritionHistory.NUTRIENTS;
+        this.stride = width + 1;
+        this.capacity = capacity;
+        long bytes = USER_HEADER + (long) days * stride * Float.BYTES;
+        if (bytes > Integer.MAX_VALUE) throw new IllegalArgumentException("Too many days for one slot: " + days);
+        userBytes = (int) bytes;
+        usersPerChunk = Math.min(capacity, Integer.MAX_VALUE / userBytes);
+        this.channel = channel;
+
+        int count = (capacity + usersPerChunk - 1) / usersPerChunk;
+        chunks = new ByteBuffer[count];
+        floats = new FloatBuffer[count];
+        if (channel != null) {
+            fileHeader = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_HEADER);
+            fileHeader.order(ByteOrder.LITTLE_ENDIAN);
+            if (fileHeader.getInt(0) == 0) {
+                fileHeader.putInt(0, MAGIC).putInt(4, origin).putInt(8, days).putInt(12, width).putInt(16, capacity);
+            } else if (fileHeader.getInt(0) != MAGIC || fileHeader.getInt(4) != origin || fileHeader.getInt(8) != days
+                    || fileHeader.getInt(12) != width || fileHeader.getInt(16) != capacity) {
+                throw new IOException("History file has a different layout or is not a history file");
+            }
+            users = fileHeader.getInt(20);
+        } else {
+            fileHeader = null;
+        }
+        for (int c = 0; c < count; c++) {
+            int size = Math.min(usersPerChunk, capacity - c * usersPerChunk) * userBytes;
+            chunks[c] = channel == null ? ByteBuffer.allocateDirect(size)
+                    : channel.map(FileChannel.MapMode.READ_WRITE, FILE_HEADER + (long) c * usersPerChunk * userBytes, size);
+            chunks[c].order(ByteOrder.LITTLE_ENDIAN);
+            floats[c] = chunks[c].asFloatBuffer();
+        }
+    }
+
+    /**
+     * Allocates a store in direct memory.
+     *
+     * @param origin   Epoch day of the first day in the window
+     * @param days     Number of days in the window
+     * @param capacity Most users the store holds
+     * @return A new empty store
+     */
+    public static OffHeapHistoryStore allocate(int origin, int days, int capacity) {
+        try {
+            return new OffHeapHistoryStore(origin, days, capacity, null);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Opens a store backed by a file, creating it if it does not exist. The file must
+     * have been created with the same window and capacity; its users are available
+     * again through history(int).
+     *
+     * @param file     File to map
+     * @param origin   Epoch day of the first day in the window
+     * @param days     Number of days in the window
+     * @param capacity Most users the store holds
+     * @return The store
+     * @throws IOException if the file cannot be mapped or has a different layout
+     */
+    public static OffHeapHistoryStore map(Path file, int origin, int days, int capacity) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            return new OffHeapHistoryStore(origin, days, capacity, channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Gives the next free slot to a new, empty history.
+     *
+     * @return A NutritionHistory view of the slot
+     * @throws IllegalStateException if every slot is taken
+     */
+    public synchronized NutritionHistory newHistory() {
+        if (users == capacity) throw new IllegalStateException("History store is full: " + capacity + " users");
+        int user = users++;
+        if (fileHeader != null) fileHeader.putInt(20, users);
+        return new View(user);
+    }
+
+    /**
+     * Returns a view of a slot already handed out, e.g. after reopening a mapped store.
+     *
+     * @param user Slot index, in the order newHistory() handed them out
+     * @return A NutritionHistory view of the slot
+     */
+    public synchronized NutritionHistory history(int user) {
+        if (user < 0 || user >= users) throw new IndexOutOfBoundsException("No history " + user + " of " + users);
+        return new View(user);
+    }
+
+    /**
+     * Returns the number of slots handed out.
+     * @return Number of users
+     */
+    public synchronized int users() {
+        return users;
+    }
+
+    /**
+     * Returns the bytes reserved outside the heap for every slot.
+     * @return Bytes
+     */
+    public long bytes() {
+        return (long) capacity * userBytes;
+    }
+
+    /**
+     * Writes a mapped store's changes to its file. Does nothing for direct stores.
+     */
+    public void force() {
+        if (fileHeader == null) return;
+        fileHeader.force();
+        for (ByteBuffer chunk : chunks) ((MappedByteBuffer) chunk).force();
+    }
+
+    /**
+     * Forces a mapped store's changes to its file and closes it. The mapping stays valid
+     * until the buffers are collected, so views must not be used afterwards.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        force();
+        if (channel != null) channel.close();
+    }
+
+    /**
+     * A NutritionHistory over one user's slot.
+     */
+    private final class View extends NutritionHistory {
+        private final ByteBuffer bytes;
+        private final FloatBuffer data;
+        //Byte offset of the user header, and float index of row 0
+        private final int header, base;
+
+        View(int user) {
+            super(width, 0);
+            int c = user / usersPerChunk;
+            bytes = chunks[c];
+            data = floats[c];
+            header = (user % usersPerChunk) * userBytes;
+            base = (header + USER_HEADER) / Float.BYTES;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return bytes.getInt(header) == 0;
+        }
+
+        @Override
+        public int firstDay() {
+            return origin + bytes.getInt(header) - 1;
+        }
+
+        @Override
+        public int lastDay() {
+            return origin + bytes.getInt(header + 4) - 1;
+        }
+
+        @Override
+        public void add(int epochDay, double[] values) {
+            int d = epochDay - origin;
+            if (d < 0 || d >= days) {
+                throw new IllegalArgumentException("Day outside the history store's window: " + NutritionHistory.date(epochDay));
+            }
+            int at = base + d * stride;
+            for (int n = 0; n < width; n++) data.put(at + n, (float) (data.get(at + n) + values[n]));
+            data.put(at + width, 1f);
+            int first = bytes.getInt(header), last = bytes.getInt(header + 4);
+            if (first == 0 || d + 1 < first) bytes.putInt(header, d + 1);
+            if (d + 1 > last) bytes.putInt(header + 4, d + 1);
+        }
+
+        @Override
+        public boolean hasEntry(int epochDay) {
+            int d = epochDay - origin;
+            return d >= 0 && d < days && data.get(base + d * stride + width) != 0;
+        }
+
+        @Override
+        public double get(int epochDay, int nutrient) {
+            int d = epochDay - origin;
+            return d >= 0 && d < days ? data.get(base + d * stride + nutrient) : 0;
+        }
+
+        @Override
+        public void day(int epochDay, double[] out) {
+            int d = epochDay - origin;
+            for (int n = 0; n < width; n++) out[n] = d >= 0 && d < days ? data.get(base + d * stride + n) : 0;
+        }
+
+        @Override
+        public void sum(int fromDay, int toDay, double[] out) {
+            Arrays.fill(out, 0, width, 0);
+            int last = to(toDay);
+            for (int d = from(fromDay); d <= last; d++) {
+                int at = base + d * stride;
+                for (int n = 0; n < width; n++) out[n] += data.get(at + n);
+            }
+        }
+
+        @Override
+        public double sum(int fromDay, int toDay, int nutrient) {
+            double sum = 0;
+            int last = to(toDay);
+            for (int d = from(fromDay); d <= last; d++) sum += data.get(base + d * stride + nutrient);
+            return sum;
+        }
+
+        @Override
+        public int loggedDays(int fromDay, int toDay) {
+            int count = 0, last = to(toDay);
+            for (int d = from(fromDay); d <= last; d++) if (data.get(base + d * stride + width) != 0) count++;
+            return count;
+        }
+
+        //First and last rows of a range that can hold entries; from > to if none
+        private int from(int fromDay) {
+            int first = bytes.getInt(header);
+            return first == 0 ? Integer.MAX_VALUE : Math.max(fromDay - origin, first - 1);
+        }
+
+        private int to(int toDay) {
+            return Math.min(toDay - origin, bytes.getInt(header + 4) - 1);
+        }
+    }
+
+    /**
+     * Fills a year of histories for a campus of users, on the heap or in a store, and
+     * prints the heap they leave behind and the GC pauses while loading and while a
+     * mixed logging and reading workload runs. Run once per mode in its own JVM.
+     *
+     * @param args --mode=heap|direct|mapped (default heap), --users=100000, --days=365,
+     *             --meals=3 (per user per day), --seconds=20 (workload), --file=histories.bin
+     * @throws Exception if the mapped file cannot be opened
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) throw new IllegalArgumentException("Expected --name=value: " + arg);
+            int eq = arg.indexOf('=');
+            options.put(eq < 0 ? arg.substring(2) : arg.substring(2, eq), eq < 0 ? "true" : arg.substring(eq + 1));
+        }
+        String mode = options.getOrDefault("mode", "heap");
+        int count = Integer.parseInt(options.getOrDefault("users", "100000"));
+        int days = Integer.parseInt(options.getOrDefault("days", "365"));
+        int meals = Integer.parseInt(options.getOrDefault("meals", "3"));
+        int seconds = Integer.parseInt(options.getOrDefault("seconds", "20"));
+        Path file = Paths.get(options.getOrDefault("file", "histories.bin"));
+        int origin = (int) LocalDate.of(2025, 1, 1).toEpochDay();
+
+        AtomicLong pauses = new AtomicLong(), pauseNanos = new AtomicLong(), maxPause = new AtomicLong();
+        NotificationListener listener = (notification, handback) -> {
+            if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) return;
+            GarbageCollectionNotificationInfo info =
+                    GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            //Concurrent cycles run beside the application; only pauses count
+            if (info.getGcAction().contains("concurrent") || info.getGcName().contains("Concurrent")) return;
+            long nanos = info.getGcInfo().getDuration() * 1_000_000;
+            pauses.incrementAndGet();
+            pauseNanos.addAndGet(nanos);
+            maxPause.accumulateAndGet(nanos, Math::max);
+        };
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter) ((NotificationEmitter) gc).addNotificationListener(listener, null, null);
+        }
+
+        //A few hundred distinct meals, reused so loading itself makes little garbage
+        Random random = new Random(42);
+        double[][] pool = new double[256][NutritionHistory.NUTRIENTS];
+        for (double[] meal : pool) for (int n = 0; n < meal.length; n++) meal[n] = random.nextDouble() * 100;
+
+        OffHeapHistoryStore store = mode.equals("direct") ? allocate(origin, days, count)
+                : mode.equals("mapped") ? map(file, origin, days, count) : null;
+        if (store == null && !mode.equals("heap")) throw new IllegalArgumentException("Unknown mode: " + mode);
+        long start = System.nanoTime();
+        User[] users = new User[count];
+        for (int u = 0; u < count; u++) {
+            NutritionHistory history = store == null ? new NutritionHistory(NutritionHistory.NUTRIENTS) : store.newHistory();
+            users[u] = new User(String.valueOf(100_000 + u), "Student " + u, NutritionServer.goals(2000, 100, 250, 70), history);
+            for (int d = 0; d < days; d++) {
+                for (int m = 0; m < meals; m++) history.add(origin + d, pool[random.nextInt(pool.length)]);
+            }
+        }
+        double loadSeconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf(Locale.ROOT, "%s: %d users x %d days loaded in %.1f s; %d GC pauses, %.0f ms total, max %.1f ms%n",
+                mode, count, days, loadSeconds, pauses.get(), pauseNanos.get() / 1e6, maxPause.get() / 1e6);
+
+        //Live heap once the load's garbage is gone, and the pause of a full collection over it
+        long fullStart = System.nanoTime();
+        System.gc();
+        double fullMillis = (System.nanoTime() - fullStart) / 1e6;
+        long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        System.out.printf(Locale.ROOT, "  heap after full GC %.0f MB (full GC %.0f ms); off-heap %.0f MB%n",
+                heap / 1e6, fullMillis, store == null ? 0 : store.bytes() / 1e6);
+
+        //Mixed workload: log a meal and read the day and the week for random students
+        pauses.set(0);
+        pauseNanos.set(0);
+        maxPause.set(0);
+        long operations = 0, end = System.nanoTime() + seconds * 1_000_000_000L;
+        double checksum = 0;
+        while (System.nanoTime() < end) {
+            for (int i = 0; i < 1000; i++) {
+                User user = users[random.nextInt(count)];
+                String date = NutritionHistory.date(origin + random.nextInt(days));
+                user.logMeal(date, NutrientVector.of(pool[random.nextInt(pool.length)]));
+                checksum += user.getDailyNutrition(date).calories + user.getWeeklyAverage(date).protein;
+            }
+            operations += 1000;
+        }
+        System.out.printf(Locale.ROOT, "  workload %.0f ops/s; %d GC pauses, %.0f ms total, max %.1f ms (checksum %.0f)%n",
+                operations / (double) seconds, pauses.get(), pauseNanos.get() / 1e6, maxPause.get() / 1e6, checksum);
+        if (store != null) store.close();
+    }
+}
@@ -0,0 +1,470 @@
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * RecommendationCache answers repeated recommendation queries from memory instead of
+ * searching the RecommendationIndex again.
+ *
+ * Many students ask for a recommendation with nearly the same remaining budget at the
+ * same hall and meal, so queries are keyed by:
+ * <ul>
+ *   <li>dining hall, meal period, k and the canonical DietaryIndex.Filter key</li>
+ *   <li>remaining calories rounded down to a bucket of calorieWidth kcal, and for macro
+ *       queries protein, carbs and fat rounded to gramWidth grams plus the goal weights</li>
+ *   <li>the menu version number</li>
+ * </ul>
+ * A miss searches the index at the center of the bucket, so every query in a bucket gets
+ * the same answer whichever one arrived first; Match.distance is measured from that
+ * center. A width of 0 turns rounding off and only caches exact repeats. Wider buckets
+ * give more hits and answers further from the exact one; main() measures both.
+ *
+ * Eviction follows W-TinyLFU: new entries go into a small LRU window, and an entry
+ * leaving the window only replaces the least recently used entry of the main area if a
+ * frequency sketch has seen its key more often. One-off budgets therefore cannot flush
+ * the popular ones. Every published menu version empties the cache, and the version in
+ * the key keeps a search that raced a reload from being served afterwards.
+ *
+ * Hits, misses, evictions, rejected admissions and invalidated entries are counted for
+ * tuning the widths and capacity; stats() formats them.
+ *
+ * Example usage:
+ * <pre>
+ * RecommendationCache cache = new RecommendationCache(live, 10_000, 10, 2);
+ * List<RecommendationIndex.Match> lunch = cache.nearestCalories(650, 3, "Frary", "Lunch", filter);
+ * List<RecommendationIndex.Match> plates = cache.nearestMacros(user, "2025-05-14", 3, null, null, null);
+ * System.out.println(cache.stats());
+ *
+ * java RecommendationCache [queries] [capacity]   // hit rate and answer quality per bucket width
+ * </pre>
+ *
+ * @author Yaseen Osman
+ */
+public class RecommendationCache {
+    //Default size and bucket widths, used by fromProperties when nothing is set
+    public static final int DEFAULT_CAPACITY = 10_000;
+    public static final double DEFAULT_CALORIE_WIDTH = 10, DEFAULT_GRAM_WIDTH = 2;
+
+    //Whole cached call, hit or miss; misses also show up under Metrics.RECOMMEND
+    private static final Metrics.Operation LOOKUP = Metrics.register("recommend.cached");
+
+    private final LiveMenu live;
+    private final double calorieWidth, gramWidth;
+    private final int windowCapacity, mainCapacity;
+
+    //Recently added entries, and the entries admitted past the window; both in access order
+    private final LinkedHashMap<Key, List<RecommendationIndex.Match>> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<Key, List<RecommendationIndex.Match>> main = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch sketch;
+    //Guards the two maps and the sketch; searches run outside it
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder(), rejections = new LongAdder(), invalidations = new LongAdder();
+
+    /**
+     * Constructs a cache in front of a live menu's recommendation index.
+     *
+     * @param live         The live menu; the cache empties itself on every reload
+     * @param capacity     Maximum number of cached answers
+     * @param calorieWidth Width of a remaining-calories bucket in kcal, or 0 for exact keys
+     * @param gramWidth    Width of a protein, carbs or fat bucket in grams, or 0 for exact keys
+     */
+    public RecommendationCache(LiveMenu live, int capacity, double calorieWidth, double gramWidth) {
+        if (capacity < 2) throw new IllegalArgumentException("capacity must be at least 2: " + capacity);
+        if (calorieWidth < 0 || gramWidth < 0) throw new IllegalArgumentException("bucket widths must not be negative");
+        this.live = live;
+        this.calorieWidth = calorieWidth;
+        this.gramWidth = gramWidth;
+        windowCapacity = Math.max(1, capacity / 100);
+        mainCapacity = capacity - windowCapacity;
+        sketch = new FrequencySketch(capacity);
+        live.addListener((version, diff) -> invalidate());
+    }
+
+    /**
+     * Constructs a cache sized by -Dnutrition.cache.size, -Dnutrition.cache.calories and
+     * -Dnutrition.cache.grams, falling back to the defaults above.
+     *
+     * @param live The live menu
+     * @return The cache
+     */
+    public static RecommendationCache fromProperties(LiveMenu live) {
+        return new RecommendationCache(live, Integer.getInteger("nutrition.cache.size", DEFAULT_CAPACITY),
+                doubleProperty("nutrition.cache.calories", DEFAULT_CALORIE_WIDTH),
+                doubleProperty("nutrition.cache.grams", DEFAULT_GRAM_WIDTH));
+    }
+
+    /**
+     * Returns the k dishes whose calories are closest to the remaining calories, as
+     * RecommendationIndex.nearestCalories does for the center of the calorie bucket.
+     *
+     * @param remaining  Remaining calories
+     * @param k          Maximum number of dishes to return
+     * @param diningHall Dining hall to search, or null for every hall
+     * @param mealPeriod Meal period to search, or null for every meal
+     * @param filter     Dietary restrictions, or null for none
+     * @return Up to k allowed dishes, closest first; the list is shared and cannot be modified
+     */
+    public List<RecommendationIndex.Match> nearestCalories(double remaining, int k, String diningHall,
+                                                           String mealPeriod, DietaryIndex.Filter filter) {
+        long start = LOOKUP.start();
+        LiveMenu.Version version = live.current();
+        long bucket = bucket(remaining, calorieWidth);
+        Key key = new Key(version.number, diningHall, mealPeriod, k, filter, new long[]{bucket}, null);
+        List<RecommendationIndex.Match> matches = get(key);
+        if (matches == null) {
+            matches = List.copyOf(version.recommendations.nearestCalories(center(bucket, remaining, calorieWidth), k,
+                    diningHall, mealPeriod, version.dietary.excluded(filter)));
+            put(key, matches);
+        }
+        LOOKUP.stop(start);
+        return matches;
+    }
+
+    /**
+     * Returns the k dishes that best fit a user's remaining calories, protein, carbs and
+     * fat for a date, as RecommendationIndex.nearestMacros does for the center of the
+     * user's bucket. Call it under the user's lock, e.g. inside UserRegistry.withUser.
+     *
+     * @param user       The user
+     * @param date       Date in "YYYY-MM-DD" format
+     * @param k          Maximum number of dishes to return
+     * @param diningHall Dining hall to search, or null for every hall
+     * @param mealPeriod Meal period to search, or null for every meal
+     * @param filter     Dietary restrictions, or null for none
+     * @return Up to k allowed dishes, closest first; the list is shared and cannot be modified
+     */
+    public List<RecommendationIndex.Match> nearestMacros(User user, String date, int k, String diningHall,
+                                                         String mealPeriod, DietaryIndex.Filter filter) {
+        long start = LOOKUP.start();
+        LiveMenu.Version version = live.current();
+        double[] target = new double[RecommendationIndex.DIMS], weights = new double[RecommendationIndex.DIMS];
+        RecommendationIndex.goalTarget(user, date, target, weights);
+        long[] buckets = new long[RecommendationIndex.DIMS];
+        for (int d = 0; d < buckets.length; d++) {
+            double width = d == RecommendationIndex.CALORIES ? calorieWidth : gramWidth;
+            buckets[d] = bucket(target[d], width);
+            target[d] = center(buckets[d], target[d], width);
+        }
+        Key key = new Key(version.number, diningHall, mealPeriod, k, filter, buckets, weights);
+        List<RecommendationIndex.Match> matches = get(key);
+        if (matches == null) {
+            matches = List.copyOf(version.recommendations.nearestMacros(target, weights, k, diningHall, mealPeriod,
+                    version.dietary.excluded(filter)));
+            put(key, matches);
+        }
+        LOOKUP.stop(start);
+        return matches;
+    }
+
+    /**
+     * Drops every cached answer. Called automatically when the menu is reloaded.
+     */
+    public void invalidate() {
+        lock.lock();
+        try {
+            invalidations.add(window.size() + main.size());
+            window.clear();
+            main.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of cached answers.
+     * @return Number of entries
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return window.size() + main.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of queries answered from the cache.
+     * @return Hits
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of queries that had to search the index.
+     * @return Misses
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of answers dropped to make room, including rejected ones.
+     * @return Evictions
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns how many answers leaving the window lost to the main area's least recently
+     * used entry and were dropped instead of it.
+     * @return Rejected admissions
+     */
+    public long rejections() {
+        return rejections.sum();
+    }
+
+    /**
+     * Returns the number of answers dropped because the menu changed.
+     * @return Invalidated entries
+     */
+    public long invalidations() {
+        return invalidations.sum();
+    }
+
+    /**
+     * Formats the counters on one line.
+     * @return e.g. "8123 hits, 1877 misses (81.2% hit rate), 12 evictions (3 rejected), 0 invalidated, 1865 entries"
+     */
+    public String stats() {
+        long h = hits(), m = misses();
+        return String.format(Locale.ROOT, "%d hits, %d misses (%.1f%% hit rate), %d evictions (%d rejected), "
+                + "%d invalidated, %d entries", h, m, h + m == 0 ? 0.0 : 100.0 * h / (h + m), evictions(),
+                rejections(), invalidations(), size());
+    }
+
+    /**
+     * Returns the same counters as stats() as a JSON object.
+     * @return JSON object
+     */
+    public String json() {
+        return String.format(Locale.ROOT, "{\"hits\":%d,\"misses\":%d,\"evictions\":%d,\"rejections\":%d,"
+                + "\"invalidations\":%d,\"entries\":%d,\"capacity\":%d,\"calorieWidth\":%s,\"gramWidth\":%s}",
+                hits(), misses(), evictions(), rejections(), invalidations(), size(), windowCapacity + mainCapacity,
+                calorieWidth, gramWidth);
+    }
+
+    private List<RecommendationIndex.Match> get(Key key) {
+        lock.lock();
+        try {
+            sketch.increment(key.hash);
+            List<RecommendationIndex.Match> matches = window.get(key);
+            if (matches == null) matches = main.get(key);
+            if (matches == null) misses.increment();
+            else hits.increment();
+            return matches;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void put(Key key, List<RecommendationIndex.Match> matches) {
+        lock.lock();
+        try {
+            //Another thread may have searched the same key meanwhile, or the menu moved on
+            if (key.version != live.current().number || window.containsKey(key) || main.containsKey(key)) return;
+            window.put(key, matches);
+            if (window.size() <= windowCapacity) return;
+
+            Map.Entry<Key, List<RecommendationIndex.Match>> candidate = removeEldest(window);
+            if (main.size() < mainCapacity) {
+                main.put(candidate.getKey(), candidate.getValue());
+                return;
+            }
+            Key victim = main.keySet().iterator().next();
+            evictions.increment();
+            if (sketch.frequency(candidate.getKey().hash) > sketch.frequency(victim.hash)) {
+                main.remove(victim);
+                main.put(candidate.getKey(), candidate.getValue());
+            } else {
+                rejections.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static Map.Entry<Key, List<RecommendationIndex.Match>> removeEldest(
+            LinkedHashMap<Key, List<RecommendationIndex.Match>> map) {
+        Iterator<Map.Entry<Key, List<RecommendationIndex.Match>>> it = map.entrySet().iterator();
+        Map.Entry<Key, List<RecommendationIndex.Match>> eldest = it.next();
+        it.remove();
+        return Map.entry(eldest.getKey(), eldest.getValue());
+    }
+
+    //Bucket of a value; with width 0 the bits of the value itself
+    private static long bucket(double value, double width) {
+        return width == 0 ? Double.doubleToLongBits(value) : (long) Math.floor(value / width);
+    }
+
+    //Value a bucket is searched at
+    private static double center(long bucket, double value, double width) {
+        return width == 0 ? value : (bucket + 0.5) * width;
+    }
+
+    private static double doubleProperty(String name, double fallback) {
+        String value = System.getProperty(name);
+        return value == null || value.isEmpty() ? fallback : Double.parseDouble(value);
+    }
+
+    /**
+     * Everything a cached answer depends on.
+     */
+    private static final class Key {
+        final long version;
+        final String diningHall, mealPeriod, filter;
+        final int k;
+        final long[] buckets;
+        final double[] weights;
+        final int hash;
+
+        Key(long version, String diningHall, String mealPeriod, int k, DietaryIndex.Filter filter, long[] buckets,
+            double[] weights) {
+            this.version = version;
+            this.diningHall = diningHall;
+            this.mealPeriod = mealPeriod;
+            this.k = k;
+            this.filter = filter == null || filter.isEmpty() ? "" : filter.key();
+            this.buckets = buckets;
+            this.weights = weights;
+            int h = Long.hashCode(version);
+            h = 31 * h + Objects.hashCode(diningHall);
+            h = 31 * h + Objects.hashCode(mealPeriod);
+            h = 31 * h + k;
+            h = 31 * h + this.filter.hashCode();
+            h = 31 * h + Arrays.hashCode(buckets);
+            h = 31 * h + Arrays.hashCode(weights);
+            hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return hash == other.hash && version == other.version && k == other.k
+                    && Objects.equals(diningHall, other.diningHall) && Objects.equals(mealPeriod, other.mealPeriod)
+                    && filter.equals(other.filter) && Arrays.equals(buckets, other.buckets)
+                    && Arrays.equals(weights, other.weights);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Count-min sketch of how often each key was asked for recently: four counters per key
+     * in a table of small saturating counts, all halved every 10 x capacity lookups so old
+     * popularity fades.
+     */
+    private static final class FrequencySketch {
+        private static final int MAX = 15;
+        private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+        private final byte[] counts;
+        private final int mask, sampleSize;
+        private int additions;
+
+        FrequencySketch(int capacity) {
+            int size = Integer.highestOneBit(Math.max(16, capacity * 8 - 1)) << 1;
+            counts = new byte[size];
+            mask = size - 1;
+            sampleSize = 10 * capacity;
+        }
+
+        void increment(int hash) {
+            for (int seed : SEEDS) {
+                int i = index(hash, seed);
+                if (counts[i] < MAX) counts[i]++;
+            }
+            if (++additions == sampleSize) {
+                for (int i = 0; i < counts.length; i++) counts[i] >>= 1;
+                additions /= 2;
+            }
+        }
+
+        int frequency(int hash) {
+            int min = MAX;
+            for (int seed : SEEDS) min = Math.min(min, counts[index(hash, seed)]);
+            return min;
+        }
+
+        private int index(int hash, int seed) {
+            int h = (hash ^ seed) * 0x9E3779B1;
+            return (h ^ (h >>> 15)) & mask;
+        }
+    }
+
+    /**
+     * Replays skewed recommendation traffic against the menu at several bucket widths
+     * and prints the hit rate, the time per query, and how far the cached answer's
+     * calories are from the remaining calories compared with an uncached search.
+     *
+     * @param args [queries] [capacity]
+     * @throws Exception if the menu cannot be loaded
+     */
+    public static void main(String[] args) throws Exception {
+        int queries = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int capacity = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_CAPACITY;
+        MenuStore store = MenuStore.load("PomonaDiningHalls.csv");
+        LiveMenu live = new LiveMenu(null, store);
+        List<String> halls = new ArrayList<>(live.current().menu.keySet());
+        Collections.sort(halls);
+        List<String> meals = new ArrayList<>();
+        for (String hall : halls) {
+            for (String meal : live.current().menu.get(hall).keySet()) if (!meals.contains(meal)) meals.add(meal);
+        }
+        Collections.sort(meals);
+        DietaryIndex.Filter[] filters = {null, null, null, new DietaryIndex.Filter().avoid(Allergen.MILK),
+                new DietaryIndex.Filter().avoid(Allergen.SOY, Allergen.WHEAT), new DietaryIndex.Filter().avoidIngredient("peanut")};
+
+        //Budgets cluster around typical meals; halls and meals are skewed towards a few popular ones
+        Random random = new Random(42);
+        double[] remaining = new double[queries];
+        String[] hall = new String[queries], meal = new String[queries];
+        DietaryIndex.Filter[] filter = new DietaryIndex.Filter[queries];
+        for (int i = 0; i < queries; i++) {
+            remaining[i] = Math.max(0, 650 + 250 * random.nextGaussian());
+            hall[i] = random.nextInt(4) == 0 ? null : halls.get(skewed(random, halls.size()));
+            meal[i] = random.nextInt(4) == 0 ? null : meals.get(skewed(random, meals.size()));
+            filter[i] = filters[random.nextInt(filters.length)];
+        }
+
+        RecommendationIndex index = live.current().recommendations;
+        DietaryIndex dietary = live.current().dietary;
+        double[] exact = new double[queries];
+        long start = System.nanoTime();
+        for (int i = 0; i < queries; i++) {
+            RecommendationIndex.Match m = index.nearestCalories(remaining[i], hall[i], meal[i], dietary.excluded(filter[i]));
+            exact[i] = m == null ? 0 : Math.abs(m.item.calories - remaining[i]);
+        }
+        System.out.printf(Locale.ROOT, "%d queries over %d dishes, capacity %d; uncached: %.2f us/query%n",
+                queries, store.size(), capacity, (System.nanoTime() - start) / 1e3 / queries);
+        System.out.printf("%8s %9s %9s %12s %14s%n", "kcal", "hit rate", "us/query", "same answer", "extra kcal off");
+        for (double width : new double[]{0, 1, 5, 10, 25, 50, 100}) {
+            RecommendationCache cache = new RecommendationCache(live, capacity, width, DEFAULT_GRAM_WIDTH);
+            int same = 0;
+            double extra = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < queries; i++) {
+                List<RecommendationIndex.Match> m = cache.nearestCalories(remaining[i], 1, hall[i], meal[i], filter[i]);
+                double off = m.isEmpty() ? 0 : Math.abs(m.get(0).item.calories - remaining[i]);
+                if (off == exact[i]) same++;
+                extra += off - exact[i];
+            }
+            long nanos = System.nanoTime() - start;
+            System.out.printf(Locale.ROOT, "%8.0f %8.1f%% %9.2f %11.1f%% %14.2f%n", width,
+                    100.0 * cache.hits() / queries, nanos / 1e3 / queries, 100.0 * same / queries, extra / queries);
+        }
+    }
+
+    //Index in [0, n) with smaller indexes much more likely
+    private static int skewed(Random random, int n) {
+        return Math.min(n - 1, (int) (n * Math.pow(random.nextDouble(), 3)));
+    }
+}
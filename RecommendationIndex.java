@@ -0,0 +1,531 @@
+import java.util.*;
+
+/**
+ * RecommendationIndex answers "which dish is closest to what I have left" queries
+ * without walking the whole menu.
+ *
+ * The index is built once from the menu map when the menu is loaded. For every
+ * scope (whole menu, one dining hall, one meal period, or one hall and meal) it keeps:
+ * <ul>
+ *   <li>a sorted calories array, so the nearest-calorie dish is found by binary search in O(log N)</li>
+ *   <li>a k-d tree over calories, protein, carbs and fat for weighted multi-macro queries</li>
+ * </ul>
+ * Ties are broken by the order Main used to scan the menu (hall, then meal, then item),
+ * so nearestCalories with k = 1 returns exactly the dish the old linear scan did.
+ * Every query can also skip a set of dish ids, e.g. the dishes a DietaryIndex.Filter
+ * rules out; this needs menu items that carry their MenuStore id.
+ *
+ * Example usage:
+ * <pre>
+ *   RecommendationIndex index = new RecommendationIndex(menu);
+ *   RecommendationIndex.Match best = index.nearestCalories(650, null, null);
+ *   List<RecommendationIndex.Match> lunch = index.nearestCalories(650, 5, "Frary", "Lunch");
+ *   List<RecommendationIndex.Match> plates = index.nearestMacros(user, "2025-05-14", 3, "Frank", null);
+ *   BitSet excluded = dietary.excluded(new DietaryIndex.Filter().avoid(Allergen.MILK));
+ *   RecommendationIndex.Match dairyFree = index.nearestCalories(650, null, null, excluded);
+ * </pre>
+ *
+ * @author Yaseen Osman
+ */
+public class RecommendationIndex {
+    //Dimensions of the multi-macro index, in the order targets and weights are given
+    public static final int CALORIES = 0, PROTEIN = 1, CARBS = 2, FAT = 3;
+    static final int DIMS = 4;
+    //Nutrients matching the dimensions above, as kept in User.budget
+    private static final Nutrient[] GOAL_NUTRIENTS = {Nutrient.CALORIES, Nutrient.PROTEIN, Nutrient.CARBS, Nutrient.FAT};
+
+    /**
+     * One recommended dish together with where it is served.
+     */
+    public static class Match {
+        //Dining hall serving the dish
+        public final String diningHall;
+        //Meal period the dish is served in
+        public final String mealPeriod;
+        //The recommended dish
+        public final MenuItem item;
+        //Distance from the target (kcal for calorie queries, weighted for macro queries)
+        public final double distance;
+
+        Match(String diningHall, String mealPeriod, MenuItem item, double distance) {
+            this.diningHall = diningHall;
+            this.mealPeriod = mealPeriod;
+            this.item = item;
+            this.distance = distance;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s at %s (%s)", item.dish, diningHall, mealPeriod);
+        }
+    }
+
+    private final Scope all;
+    private final Map<String, Scope> byHall = new HashMap<>();
+    private final Map<String, Scope> byMeal = new HashMap<>();
+    private final Map<String, Map<String, Scope>> byHallAndMeal = new HashMap<>();
+    //How many scopes were built from scratch and how many reused from a previous index
+    private int built, reused;
+
+    /**
+     * Builds the index from a loaded menu.
+     *
+     * @param menu Nested map: diningHall -> mealPeriod -> List of MenuItem
+     */
+    public RecommendationIndex(Map<String, ? extends Map<String, List<MenuItem>>> menu) {
+        this(menu, null, null);
+    }
+
+    /**
+     * Builds the index for a new version of a menu. Every scope whose hall/meal groups
+     * are all unchanged keeps the sorted arrays and k-d tree of the previous index and
+     * only picks up the new MenuItem objects; the other scopes are rebuilt.
+     *
+     * @param menu     Nested map: diningHall -> mealPeriod -> List of MenuItem
+     * @param previous Index of the previous version, or null to build everything
+     * @param changed  Meal periods whose dishes changed, by dining hall; groups that
+     *                 appeared or disappeared count as changed. Ignored without a previous index.
+     */
+    public RecommendationIndex(Map<String, ? extends Map<String, List<MenuItem>>> menu,
+                               RecommendationIndex previous, Map<String, ? extends Set<String>> changed) {
+        //Collect every scope's dishes in the order Main scanned the menu
+        ScopeBuilder everything = new ScopeBuilder();
+        Map<String, ScopeBuilder> hallScopes = new HashMap<>(), mealScopes = new HashMap<>();
+        Map<String, Map<String, ScopeBuilder>> hallMealScopes = new HashMap<>();
+        for (String hall : menu.keySet()) {
+            for (String meal : menu.get(hall).keySet()) {
+                List<MenuItem> list = menu.get(hall).get(meal);
+                boolean dirty = previous == null || changed.containsKey(hall) && changed.get(hall).contains(meal);
+                everything.addGroup(hall, meal, list, dirty);
+                hallScopes.computeIfAbsent(hall, k -> new ScopeBuilder()).addGroup(hall, meal, list, dirty);
+                mealScopes.computeIfAbsent(meal, k -> new ScopeBuilder()).addGroup(hall, meal, list, dirty);
+                hallMealScopes.computeIfAbsent(hall, k -> new HashMap<>())
+                              .computeIfAbsent(meal, k -> new ScopeBuilder()).addGroup(hall, meal, list, dirty);
+            }
+        }
+
+        all = build(everything, previous == null ? null : previous.all);
+        hallScopes.forEach((hall, b) -> byHall.put(hall, build(b, previous == null ? null : previous.byHall.get(hall))));
+        mealScopes.forEach((meal, b) -> byMeal.put(meal, build(b, previous == null ? null : previous.byMeal.get(meal))));
+        hallMealScopes.forEach((hall, meals) -> {
+            Map<String, Scope> scopes = new HashMap<>();
+            meals.forEach((meal, b) -> scopes.put(meal, build(b, previous == null ? null : previous.scope(hall, meal))));
+            byHallAndMeal.put(hall, scopes);
+        });
+    }
+
+    /**
+     * Returns how many scopes (whole menu, halls, meals and hall/meal pairs) were built
+     * from scratch when this index was created.
+     * @return Number of rebuilt scopes
+     */
+    public int builtScopes() {
+        return built;
+    }
+
+    /**
+     * Returns how many scopes were taken over from the previous index.
+     * @return Number of reused scopes
+     */
+    public int reusedScopes() {
+        return reused;
+    }
+
+    private Scope build(ScopeBuilder b, Scope old) {
+        if (old != null && !b.dirty && old.groups.equals(b.groups)) {
+            reused++;
+            return old.withItems(b.items.toArray(new MenuItem[0]), b.halls.toArray(new String[0]),
+                    b.meals.toArray(new String[0]));
+        }
+        built++;
+        return new Scope(b.groups, b.items.toArray(new MenuItem[0]), b.halls.toArray(new String[0]),
+                b.meals.toArray(new String[0]));
+    }
+
+    /**
+     * Returns the dish whose calories are closest to the remaining calories.
+     *
+     * @param remaining  Remaining calories
+     * @param diningHall Dining hall to search, or null for every hall
+     * @param mealPeriod Meal period to search, or null for every meal
+     * @return The closest dish, or null if the scope has no dishes
+     */
+    public Match nearestCalories(double remaining, String diningHall, String mealPeriod) {
+        return nearestCalories(remaining, diningHall, mealPeriod, null);
+    }
+
+    /**
+     * Returns the dish whose calories are closest to the remaining calories, skipping excluded dishes.
+     *
+     * @param remaining  Remaining calories
+     * @param diningHall Dining hall to search, or null for every hall
+     * @param mealPeriod Meal period to search, or null for every meal
+     * @param excluded   Dish ids to skip, e.g. from DietaryIndex.excluded, or null
+     * @return The closest allowed dish, or null if there is none
+     */
+    public Match nearestCalories(double remaining, String diningHall, String mealPeriod, BitSet excluded) {
+        List<Match> matches = nearestCalories(remaining, 1, diningHall, mealPeriod, excluded);
+        return matches.isEmpty() ? null : matches.get(0);
+    }
+
+    /**
+     * Returns the k dishes whose calories are closest to the remaining calories, closest first.
+     *
+     * @param remaining  Remaining calories
+     * @param k          Maximum number of dishes to return
+     * @param diningHall Dining hall to search, or null for every hall
+     * @param mealPeriod Meal period to search, or null for every meal
+     * @return Up to k dishes, closest first
+     */
+    public List<Match> nearestCalories(double remaining, int k, String diningHall, String mealPeriod) {
+        return nearestCalories(remaining, k, diningHall, mealPeriod, null);
+    }
+
+    /**
+     * Returns the k dishes whose calories are closest to the remaining calories, closest first,
+     * skipping excluded dishes.
+     *
+     * @param remaining  Remaining calories
+     * @param k          Maximum number of dishes to return
+     * @param diningHall Dining hall to search, or null for every hall
+     * @param mealPeriod Meal period to search, or null for every meal
+     * @param excluded   Dish ids to skip, e.g. from DietaryIndex.excluded, or null
+     * @return Up to k allowed dishes, closest first
+     */
+    public List<Match> nearestCalories(double remaining, int k, String diningHall, String mealPeriod, BitSet excluded) {
+        long start = Metrics.RECOMMEND.start();
+        Scope scope = scope(diningHall, mealPeriod);
+        List<Match> matches = new ArrayList<>();
+        if (scope == null || k <= 0) {
+            Metrics.RECOMMEND.stop(start);
+            return matches;
+        }
+        double[] cal = scope.calories;
+        int[] ranks = scope.byCalories;
+
+        //Walk outwards from the insertion point one run of equal calories at a time
+        int hi = lowerBound(cal, remaining);
+        int lo = hi - 1;
+        while (matches.size() < k && (lo >= 0 || hi < cal.length)) {
+            double loDiff = lo >= 0 ? Math.abs(cal[lo] - remaining) : Double.POSITIVE_INFINITY;
+            double hiDiff = hi < cal.length ? Math.abs(cal[hi] - remaining) : Double.POSITIVE_INFINITY;
+            int loStart = lo, hiEnd = hi;
+            if (loDiff <= hiDiff) while (loStart > 0 && cal[loStart - 1] == cal[lo]) loStart--;
+            if (hiDiff <= loDiff) while (hiEnd + 1 < cal.length && cal[hiEnd + 1] == cal[hi]) hiEnd++;
+
+            //Each run is sorted by rank; merge both runs when they are equally close
+            int a = loDiff <= hiDiff ? loStart : lo + 1, aEnd = lo;
+            int b = hiDiff <= loDiff ? hi : hiEnd + 1, bEnd = hiEnd;
+            while (matches.size() < k && (a <= aEnd || b <= bEnd)) {
+                boolean below = b > bEnd || a <= aEnd && ranks[a] < ranks[b];
+                int rank = below ? ranks[a++] : ranks[b++];
+                if (!scope.isExcluded(rank, excluded)) matches.add(scope.match(rank, below ? loDiff : hiDiff));
+            }
+            if (loDiff <= hiDiff) lo = loStart - 1;
+            if (hiDiff <= loDiff) hi = hiEnd + 1;
+        }
+        Metrics.RECOMMEND.stop(start);
+        return matches;
+    }
+
+    /**
+     * Returns the k dishes closest to a target over calories, protein, carbs and fat.
+     * The distance is sqrt(sum of weights[d] * (value[d] - target[d])^2).
+     *
+     * @param target     Target values, indexed by CALORIES, PROTEIN, CARBS, FAT
+     * @param weights    Non-negative weight per dimension
+     * @param k          Maximum number of dishes to return
+     * @param diningHall Dining hall to search, or null for every hall
+     * @param mealPeriod Meal period to search, or null for every meal
+     * @return Up to k dishes, closest first
+     */
+    public List<Match> nearestMacros(double[] target, double[] weights, int k, String diningHall, String mealPeriod) {
+        return nearestMacros(target, weights, k, diningHall, mealPeriod, null);
+    }
+
+    /**
+     * Returns the k dishes closest to a target over calories, protein, carbs and fat,
+     * skipping excluded dishes.
+     *
+     * @param target     Target values, indexed by CALORIES, PROTEIN, CARBS, FAT
+     * @param weights    Non-negative weight per dimension
+     * @param k          Maximum number of dishes to return
+     * @param diningHall Dining hall to search, or null for every hall
+     * @param mealPeriod Meal period to search, or null for every meal
+     * @param excluded   Dish ids to skip, e.g. from DietaryIndex.excluded, or null
+     * @return Up to k allowed dishes, closest first
+     */
+    public List<Match> nearestMacros(double[] target, double[] weights, int k, String diningHall, String mealPeriod,
+                                     BitSet excluded) {
+        long start = Metrics.RECOMMEND.start();
+        Scope scope = scope(diningHall, mealPeriod);
+        List<Match> matches = new ArrayList<>();
+        if (scope != null && k > 0) {
+            Neighbors best = new Neighbors(Math.min(k, scope.tree.length));
+            scope.search(0, scope.tree.length, 0, target, weights, excluded, best);
+            for (int i = 0; i < best.size; i++) matches.add(scope.match(best.ranks[i], Math.sqrt(best.distances[i])));
+        }
+        Metrics.RECOMMEND.stop(start);
+        return matches;
+    }
+
+    /**
+     * Returns the k dishes that best fit a user's remaining calories, protein, carbs and fat
+     * for a date. Each macro is weighted by 1 / goal^2, so a miss counts relative to the goal;
+     * macros without a goal are ignored.
+     *
+     * @param user       The user
+     * @param date       Date in "YYYY-MM-DD" format
+     * @param k          Maximum number of dishes to return
+     * @param diningHall Dining hall to search, or null for every hall
+     * @param mealPeriod Meal period to search, or null for every meal
+     * @return Up to k dishes, closest first
+     */
+    public List<Match> nearestMacros(User user, String date, int k, String diningHall, String mealPeriod) {
+        return nearestMacros(user, date, k, diningHall, mealPeriod, null);
+    }
+
+    /**
+     * Returns the k dishes that best fit a user's remaining calories, protein, carbs and fat
+     * for a date, skipping excluded dishes.
+     *
+     * @param user       The user
+     * @param date       Date in "YYYY-MM-DD" format
+     * @param k          Maximum number of dishes to return
+     * @param diningHall Dining hall to search, or null for every hall
+     * @param mealPeriod Meal period to search, or null for every meal
+     * @param excluded   Dish ids to skip, e.g. from DietaryIndex.excluded, or null
+     * @return Up to k allowed dishes, closest first
+     */
+    public List<Match> nearestMacros(User user, String date, int k, String diningHall, String mealPeriod,
+                                     BitSet excluded) {
+        double[] target = new double[DIMS], weights = new double[DIMS];
+        goalTarget(user, date, target, weights);
+        return nearestMacros(target, weights, k, diningHall, mealPeriod, excluded);
+    }
+
+    /**
+     * Fills in a user's remaining calories, protein, carbs and fat for a date, and a
+     * weight of 1 / goal^2 for each of them. Macros without a goal get target and weight 0.
+     *
+     * @param user    The user
+     * @param date    Date in "YYYY-MM-DD" format
+     * @param target  Filled with the remaining amounts, indexed by CALORIES, PROTEIN, CARBS, FAT
+     * @param weights Filled with the weights, same indexing
+     */
+    static void goalTarget(User user, String date, double[] target, double[] weights) {
+        int day = NutritionHistory.epochDay(date);
+        for (int d = 0; d < DIMS; d++) {
+            double goal = user.budget.goal(GOAL_NUTRIENTS[d]);
+            if (goal <= 0) {
+                target[d] = 0;
+                weights[d] = 0;
+            } else {
+                target[d] = user.budget.remaining(GOAL_NUTRIENTS[d], day);
+                weights[d] = 1.0 / (goal * goal);
+            }
+        }
+    }
+
+    private Scope scope(String diningHall, String mealPeriod) {
+        if (diningHall == null && mealPeriod == null) return all;
+        if (mealPeriod == null) return byHall.get(diningHall);
+        if (diningHall == null) return byMeal.get(mealPeriod);
+        Map<String, Scope> meals = byHallAndMeal.get(diningHall);
+        return meals == null ? null : meals.get(mealPeriod);
+    }
+
+
+    //First index whose value is >= key
+    private static int lowerBound(double[] sorted, double key) {
+        int lo = 0, hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] < key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * The dishes of one scope while the menu is scanned, grouped by hall and meal.
+     */
+    private static class ScopeBuilder {
+        final List<String> groups = new ArrayList<>();
+        final List<MenuItem> items = new ArrayList<>();
+        final List<String> halls = new ArrayList<>(), meals = new ArrayList<>();
+        //Whether any group of the scope changed since the previous index
+        boolean dirty;
+
+        void addGroup(String hall, String meal, List<MenuItem> list, boolean changed) {
+            groups.add(hall + '\u0000' + meal);
+            for (MenuItem item : list) {
+                items.add(item);
+                halls.add(hall);
+                meals.add(meal);
+            }
+            dirty |= changed;
+        }
+    }
+
+    /**
+     * The dishes of one scope, sorted by calories and arranged as a k-d tree.
+     * Dishes are numbered by rank, the order the old nested scan visited them in
+     * within this scope; ties are broken by rank.
+     */
+    private static class Scope {
+        //Hall/meal groups of the scope, in scan order
+        final List<String> groups;
+        //Every dish of the scope and where it is served, indexed by rank
+        final MenuItem[] items;
+        final String[] hallOf, mealOf;
+        //Calories, protein, carbs and fat of every dish, DIMS values per rank
+        final double[] points;
+        //Ranks sorted by (calories, rank) and their calories
+        final int[] byCalories;
+        final double[] calories;
+        //Ranks laid out as an implicit k-d tree: the median of [lo, hi) is the node, split on depth % DIMS
+        final int[] tree;
+
+        Scope(List<String> groups, MenuItem[] items, String[] hallOf, String[] mealOf) {
+            this.groups = groups;
+            this.items = items;
+            this.hallOf = hallOf;
+            this.mealOf = mealOf;
+            int n = items.length;
+            points = new double[n * DIMS];
+            for (int rank = 0; rank < n; rank++) {
+                points[rank * DIMS + CALORIES] = items[rank].calories;
+                points[rank * DIMS + PROTEIN] = items[rank].protein;
+                points[rank * DIMS + CARBS] = items[rank].carbs;
+                points[rank * DIMS + FAT] = items[rank].fat;
+            }
+
+            Integer[] boxed = new Integer[n];
+            for (int i = 0; i < n; i++) boxed[i] = i;
+            Arrays.sort(boxed, (x, y) -> {
+                int c = Double.compare(points[x * DIMS + CALORIES], points[y * DIMS + CALORIES]);
+                return c != 0 ? c : Integer.compare(x, y);
+            });
+            byCalories = new int[n];
+            calories = new double[n];
+            for (int i = 0; i < n; i++) {
+                byCalories[i] = boxed[i];
+                calories[i] = points[boxed[i] * DIMS + CALORIES];
+            }
+
+            tree = new int[n];
+            for (int i = 0; i < n; i++) tree[i] = i;
+            build(0, tree.length, 0);
+        }
+
+        //Same dishes and layout with the MenuItem objects of a new menu version
+        private Scope(Scope old, MenuItem[] items, String[] hallOf, String[] mealOf) {
+            groups = old.groups;
+            this.items = items;
+            this.hallOf = hallOf;
+            this.mealOf = mealOf;
+            points = old.points;
+            byCalories = old.byCalories;
+            calories = old.calories;
+            tree = old.tree;
+        }
+
+        Scope withItems(MenuItem[] items, String[] hallOf, String[] mealOf) {
+            return new Scope(this, items, hallOf, mealOf);
+        }
+
+        //Whether the dish at a rank is in the excluded id set
+        boolean isExcluded(int rank, BitSet excluded) {
+            return excluded != null && items[rank].id >= 0 && excluded.get(items[rank].id);
+        }
+
+        Match match(int rank, double distance) {
+            return new Match(hallOf[rank], mealOf[rank], items[rank], distance);
+        }
+
+        private void build(int lo, int hi, int depth) {
+            if (hi - lo <= 1) return;
+            int mid = (lo + hi) >>> 1;
+            select(lo, hi - 1, mid, depth % DIMS);
+            build(lo, mid, depth + 1);
+            build(mid + 1, hi, depth + 1);
+        }
+
+        //Quickselect: puts the k-th smallest rank on the axis at index k of tree[lo..hi]
+        private void select(int lo, int hi, int k, int axis) {
+            while (lo < hi) {
+                double pivot = points[tree[(lo + hi) >>> 1] * DIMS + axis];
+                int i = lo, j = hi;
+                while (i <= j) {
+                    while (points[tree[i] * DIMS + axis] < pivot) i++;
+                    while (points[tree[j] * DIMS + axis] > pivot) j--;
+                    if (i <= j) {
+                        int t = tree[i];
+                        tree[i++] = tree[j];
+                        tree[j--] = t;
+                    }
+                }
+                if (k <= j) hi = j;
+                else if (k >= i) lo = i;
+                else return;
+            }
+        }
+
+        void search(int lo, int hi, int depth, double[] target, double[] weights, BitSet excluded, Neighbors best) {
+            if (lo >= hi) return;
+            int mid = (lo + hi) >>> 1;
+            int rank = tree[mid];
+            double distance = 0;
+            for (int d = 0; d < DIMS; d++) {
+                double diff = points[rank * DIMS + d] - target[d];
+                distance += weights[d] * diff * diff;
+            }
+            if (!isExcluded(rank, excluded)) best.offer(rank, distance);
+
+            int axis = depth % DIMS;
+            double diff = target[axis] - points[rank * DIMS + axis];
+            boolean leftFirst = diff < 0;
+            search(leftFirst ? lo : mid + 1, leftFirst ? mid : hi, depth + 1, target, weights, excluded, best);
+            //Points on the far side are at least this far away; <= keeps equally close, lower-ranked dishes
+            if (!best.isFull() || weights[axis] * diff * diff <= best.worst()) {
+                search(leftFirst ? mid + 1 : lo, leftFirst ? hi : mid, depth + 1, target, weights, excluded, best);
+            }
+        }
+    }
+
+    /**
+     * The k best candidates seen so far, sorted by (distance, rank).
+     */
+    private static class Neighbors {
+        final int[] ranks;
+        final double[] distances;
+        int size;
+
+        Neighbors(int k) {
+            ranks = new int[k];
+            distances = new double[k];
+        }
+
+        boolean isFull() {
+            return size == ranks.length;
+        }
+
+        double worst() {
+            return distances[size - 1];
+        }
+
+        void offer(int rank, double distance) {
+            if (ranks.length == 0) return;
+            if (isFull() && (distance > worst() || distance == worst() && rank > ranks[size - 1])) return;
+            int i = isFull() ? size - 1 : size++;
+            while (i > 0 && (distances[i - 1] > distance || distances[i - 1] == distance && ranks[i - 1] > rank)) {
+                ranks[i] = ranks[i - 1];
+                distances[i] = distances[i - 1];
+                i--;
+            }
+            ranks[i] = rank;
+            distances[i] = distance;
+        }
+    }
+}
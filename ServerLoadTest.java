@@ -0,0 +1,95 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ServerLoadTest measures NutritionServer throughput on the local machine.
+ *
+ * It starts a server on a free port with a synthetic student population (meals are
+ * kept in memory only), then runs many client virtual threads that log meals, read
+ * summaries, ask for recommendations and share with friends for a fixed time.
+ *
+ * Throughput should grow with the number of cores. Compare runs such as:
+ * <pre>
+ *   java -XX:ActiveProcessorCount=1 ServerLoadTest 10 256
+ *   java -XX:ActiveProcessorCount=4 ServerLoadTest 10 256
+ * </pre>
+ *
+ * @author Yaseen Osman
+ */
+public class ServerLoadTest {
+    /**
+     * Runs the load test.
+     * @param args Seconds to run (default 10), client threads (default 256), students (default 10000)
+     * @throws Exception if the server cannot start
+     */
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+        int students = args.length > 2 ? Integer.parseInt(args[2]) : 10_000;
+
+        MenuStore store = MenuStore.load("PomonaDiningHalls.csv");
+        UserRegistry registry = new UserRegistry();
+        for (int i = 0; i < students; i++) {
+            User user = new User(String.valueOf(100_000 + i), "Student " + i, NutritionServer.goals(2000, 100, 250, 70));
+            user.friends.add(String.valueOf(100_000 + (i + 1) % students));
+            registry.register(user);
+        }
+        NutritionServer server = new NutritionServer(store, registry, null);
+        server.start(0);
+        String base = "http://localhost:" + server.port();
+        String today = LocalDate.now().toString();
+
+        LongAdder ok = new LongAdder(), errors = new LongAdder();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        long start = System.nanoTime();
+        //Resources close in reverse order: the workers finish before the client shuts down
+        try (ExecutorService clientThreads = Executors.newVirtualThreadPerTaskExecutor();
+             HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+                     .executor(clientThreads).build();
+             ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < clients; c++) {
+                long seed = c;
+                workers.submit(() -> {
+                    Random rnd = new Random(seed);
+                    while (System.nanoTime() < deadline) {
+                        String student = String.valueOf(100_000 + rnd.nextInt(students));
+                        int op = rnd.nextInt(10);
+                        HttpRequest.Builder request;
+                        if (op < 4) {
+                            request = HttpRequest.newBuilder(URI.create(base + "/log?student=" + student
+                                    + "&dish=" + rnd.nextInt(store.size()) + "&date=" + today))
+                                    .POST(HttpRequest.BodyPublishers.noBody());
+                        } else if (op < 7) {
+                            request = HttpRequest.newBuilder(URI.create(base + "/summary?student=" + student));
+                        } else if (op < 9) {
+                            request = HttpRequest.newBuilder(URI.create(base + "/recommend?student=" + student + "&k=3"));
+                        } else {
+                            request = HttpRequest.newBuilder(URI.create(base + "/share?student=" + student))
+                                    .POST(HttpRequest.BodyPublishers.noBody());
+                        }
+                        try {
+                            HttpResponse<Void> response = client.send(request.build(), HttpResponse.BodyHandlers.discarding());
+                            if (response.statusCode() == 200) ok.increment();
+                            else errors.increment();
+                        } catch (Exception e) {
+                            errors.increment();
+                        }
+                    }
+                    return null;
+                });
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        server.stop();
+        System.out.printf("%d cores, %d clients, %d students: %d requests in %.1f s = %.0f req/s (%d errors)%n",
+                Runtime.getRuntime().availableProcessors(), clients, students, ok.sum(), nanos / 1e9,
+                ok.sum() * 1e9 / nanos, errors.sum());
+    }
+}
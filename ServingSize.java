@@ -0,0 +1,92 @@
+import java.util.Locale;
+
+/**
+ * ServingSize turns the CSV's serving size text into grams, and portion text typed by a
+ * student into a number of servings.
+ *
+ * The menu export writes a serving as a weight and a recipe unit code, e.g. "85.00 FHP2"
+ * (a 2-inch full hotel pan), "28.35 OZ" or "453.00 LB". The number is the portion weight
+ * in grams whatever the code; the code only names the unit the recipe is produced in.
+ * Values below 2 are the exception: they are counted in the unit itself ("0.06 LB",
+ * "0.25 GAL", "1.00 EA"), so they are converted for mass and volume units and unknown
+ * for counts such as EA, PCE or SLCE.
+ *
+ * Example usage:
+ * <pre>
+ * double grams = ServingSize.grams("113.40 FHP2");          // 113.4
+ * double servings = ServingSize.servings("200g", grams);    // 1.76
+ * double twice = ServingSize.servings("2", grams);          // 2.0
+ * </pre>
+ *
+ * @author Yaseen Osman
+ */
+public final class ServingSize {
+    //Smallest value that is always a weight in grams
+    private static final double GRAMS_FROM = 2;
+
+    private ServingSize() {
+    }
+
+    /**
+     * Returns the weight of one serving in grams.
+     *
+     * @param servingSize Serving size from the CSV, e.g. "85.00 FHP2"
+     * @return Grams, or 0 if the text has no weight
+     */
+    public static double grams(String servingSize) {
+        if (servingSize == null) return 0;
+        String text = servingSize.trim();
+        int space = text.indexOf(' ');
+        double value;
+        try {
+            value = Double.parseDouble(space < 0 ? text : text.substring(0, space));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+        if (!(value > 0) || Double.isInfinite(value)) return 0;
+        if (value >= GRAMS_FROM) return value;
+        double perUnit = space < 0 ? 0 : gramsPerUnit(text.substring(space + 1).trim());
+        return value * perUnit;
+    }
+
+    /**
+     * Returns how many servings a portion is.
+     *
+     * @param portion      A multiplier such as "1.5" or "1.5x", or a weight such as "200g"
+     *                     or "200 g"; blank means one serving
+     * @param servingGrams Weight of one serving, from grams(); needed for weights only
+     * @return Number of servings
+     * @throws IllegalArgumentException if the portion cannot be read, is not positive, or
+     *                                  is a weight for a dish without a known serving weight
+     */
+    public static double servings(String portion, double servingGrams) {
+        if (portion == null || portion.isBlank()) return 1;
+        String text = portion.trim().toLowerCase(Locale.ROOT);
+        boolean weight = text.endsWith("g");
+        if (weight || text.endsWith("x")) text = text.substring(0, text.length() - 1).trim();
+        double value;
+        try {
+            value = Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a portion: " + portion);
+        }
+        if (!(value > 0) || Double.isInfinite(value)) throw new IllegalArgumentException("Portion must be positive: " + portion);
+        if (!weight) return value;
+        if (!(servingGrams > 0)) throw new IllegalArgumentException("This dish has no serving weight; give a number of servings");
+        return value / servingGrams;
+    }
+
+    //Grams in one of a unit code, for the codes that measure mass or volume (volumes as water)
+    private static double gramsPerUnit(String unit) {
+        switch (unit.toUpperCase(Locale.ROOT)) {
+            case "G": return 1;
+            case "KG": return 1000;
+            case "OZ": return 28.3495;
+            case "LB": return 453.592;
+            case "CUP": return 236.588;
+            case "QT": return 946.353;
+            case "GAL": return 3785.41;
+            default: return 0;
+        }
+    }
+}
@@ -0,0 +1,407 @@
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * ShareFanout delivers a student's shared summary to their friends' inboxes off the
+ * caller's thread.
+ *
+ * A share is formatted once by the caller and wrapped in one immutable Post that every
+ * recipient's inbox points to. Friends come from a FriendGraph, so finding them is a
+ * scan of an int[] slice. Delivery depends on the sender's number of friends:
+ * <ul>
+ *   <li>Push (up to pullDegree friends): the friends are split into batches of
+ *       batchSize, and each batch is a task on the delivery threads that appends the
+ *       post to each recipient's inbox. share() returns as soon as the batches are
+ *       queued.</li>
+ *   <li>Pull (more than pullDegree friends): the post is appended to the sender's own
+ *       outbox only, in O(1). A reader's inbox() merges in the outboxes of the
+ *       high-degree senders that list the reader as a friend, the same recipients push
+ *       would deliver to, so a popular student's update costs nothing per friend until
+ *       a friend actually reads.</li>
+ * </ul>
+ * Inboxes and outboxes are bounded rings of inboxCapacity posts; when one is full the
+ * oldest post is dropped and counted. Reading an inbox removes its pushed posts; pulled
+ * posts are remembered per outbox so each is returned once.
+ *
+ * Delivery latency (share to post in a recipient's inbox) is recorded as the
+ * "share.deliver" operation and reads as "share.read" in Metrics. stats() and json()
+ * report posts, deliveries, drops, the delivery backlog and inbox depths.
+ *
+ * Example usage:
+ * <pre>
+ * ShareFanout fanout = ShareFanout.fromProperties(FriendGraph.of(registry));
+ * int recipients = fanout.share("1001", registry.withUser("1001", u -> u.shareNutrition("2025-05-14")));
+ * List<ShareFanout.Post> updates = fanout.inbox("1002", 20);
+ * </pre>
+ *
+ * @author Yaseen Osman
+ */
+public class ShareFanout implements AutoCloseable {
+    //Time from share() to a pushed post landing in one recipient's inbox
+    public static final Metrics.Operation DELIVER = Metrics.register("share.deliver");
+    //One inbox() call
+    public static final Metrics.Operation READ = Metrics.register("share.read");
+
+    /**
+     * One shared summary, the same object in every inbox it is delivered to.
+     */
+    public static final class Post {
+        //Sender's student ID and the formatted summary
+        public final String from;
+        public final String text;
+        //System.nanoTime() when it was shared
+        public final long sharedAt;
+        //Position in the sender's outbox, for pull delivery
+        final long sequence;
+
+        Post(String from, String text, long sharedAt, long sequence) {
+            this.from = from;
+            this.text = text;
+            this.sharedAt = sharedAt;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    /**
+     * A bounded ring of posts. Used as a student's inbox of pushed posts and, for pull
+     * delivery, as their outbox of their own posts.
+     */
+    private final class Ring {
+        private Post[] posts;
+        private int head, size;
+        //Posts ever appended, the sequence of the next one
+        private long appended;
+        //For an inbox: the last sequence read from each pulled outbox
+        private IdentityHashMap<Ring, Long> seen;
+
+        synchronized Post append(String from, String text, long sharedAt) {
+            Post post = new Post(from, text, sharedAt, appended);
+            append(post);
+            return post;
+        }
+
+        synchronized void append(Post post) {
+            if (posts == null) posts = new Post[inboxCapacity];
+            if (size == posts.length) {
+                head = (head + 1) % posts.length;
+                size--;
+                dropped.increment();
+            }
+            posts[(head + size) % posts.length] = post;
+            size++;
+            appended++;
+        }
+
+        //Removes and returns the pushed posts, oldest first
+        synchronized List<Post> drain() {
+            List<Post> result = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                result.add(posts[(head + i) % posts.length]);
+                posts[(head + i) % posts.length] = null;
+            }
+            head = 0;
+            size = 0;
+            return result;
+        }
+
+        //Posts of this outbox after the reader's last pull, oldest first
+        List<Post> since(Ring reader) {
+            List<Post> result = new ArrayList<>();
+            long last;
+            synchronized (reader) {
+                if (reader.seen == null) reader.seen = new IdentityHashMap<>();
+                last = reader.seen.getOrDefault(this, -1L);
+            }
+            long newest = last;
+            synchronized (this) {
+                for (int i = 0; i < size; i++) {
+                    Post post = posts[(head + i) % posts.length];
+                    if (post.sequence > last) {
+                        result.add(post);
+                        newest = post.sequence;
+                    }
+                }
+            }
+            synchronized (reader) {
+                reader.seen.merge(this, newest, Math::max);
+            }
+            return result;
+        }
+
+        synchronized int depth() {
+            return size;
+        }
+    }
+
+    /**
+     * A graph with the inbox and outbox of each of its students, swapped as a whole.
+     */
+    private final class State {
+        final FriendGraph graph;
+        final Ring[] inboxes, outboxes;
+        //pullFrom[pullOffsets[i]..pullOffsets[i + 1]) are the pull senders that list student i as a friend
+        final int[] pullOffsets, pullFrom;
+
+        State(FriendGraph graph, State previous) {
+            this.graph = graph;
+            int n = graph.size();
+            inboxes = new Ring[n];
+            outboxes = new Ring[n];
+            //Students already in the old graph keep their rings, so undelivered posts and pull positions survive
+            for (int i = 0; i < n; i++) {
+                int old = previous == null ? -1 : previous.graph.index(graph.id(i));
+                inboxes[i] = old >= 0 ? previous.inboxes[old] : new Ring();
+                outboxes[i] = old >= 0 ? previous.outboxes[old] : new Ring();
+            }
+            //Reverse edges of the pull senders: a reader may pull exactly the posts push would have
+            //delivered to it, i.e. from senders whose own friends include the reader
+            pullOffsets = new int[n + 1];
+            for (int f = 0; f < n; f++) {
+                if (graph.degree(f) <= pullDegree) continue;
+                for (int e = graph.from(f); e < graph.to(f); e++) pullOffsets[graph.friendAt(e) + 1]++;
+            }
+            for (int i = 0; i < n; i++) pullOffsets[i + 1] += pullOffsets[i];
+            pullFrom = new int[pullOffsets[n]];
+            int[] at = Arrays.copyOf(pullOffsets, n);
+            for (int f = 0; f < n; f++) {
+                if (graph.degree(f) <= pullDegree) continue;
+                for (int e = graph.from(f); e < graph.to(f); e++) pullFrom[at[graph.friendAt(e)]++] = f;
+            }
+        }
+    }
+
+    private final int inboxCapacity, pullDegree, batchSize;
+    private final ExecutorService delivery;
+    private volatile State state;
+    //Rebuilds the graph in the background once refreshEvery() is called
+    private ScheduledExecutorService refresher;
+
+    //Posts shared, by delivery mode; pushes to inboxes; posts dropped from a full ring
+    private final LongAdder pushed = new LongAdder(), pulled = new LongAdder();
+    private final LongAdder delivered = new LongAdder(), dropped = new LongAdder();
+    //Batches queued but not yet delivered
+    private final AtomicLong backlog = new AtomicLong();
+
+    /**
+     * Constructs a fan-out engine with its own delivery threads.
+     *
+     * @param graph         Friendships to deliver along
+     * @param inboxCapacity Posts each inbox and outbox keeps
+     * @param pullDegree    Senders with more friends than this deliver by pull
+     * @param batchSize     Recipients per delivery task
+     * @param threads       Delivery threads
+     */
+    public ShareFanout(FriendGraph graph, int inboxCapacity, int pullDegree, int batchSize, int threads) {
+        if (inboxCapacity <= 0 || batchSize <= 0 || threads <= 0) {
+            throw new IllegalArgumentException("inboxCapacity, batchSize and threads must be positive");
+        }
+        this.inboxCapacity = inboxCapacity;
+        this.pullDegree = pullDegree;
+        this.batchSize = batchSize;
+        AtomicInteger names = new AtomicInteger();
+        this.delivery = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "share-fanout-" + names.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.state = new State(graph, null);
+    }
+
+    /**
+     * Constructs a fan-out engine configured by -Dnutrition.share.inbox (posts per inbox,
+     * default 64), -Dnutrition.share.pull (friends above which a sender delivers by pull,
+     * default 500), -Dnutrition.share.batch (recipients per delivery task, default 256)
+     * and -Dnutrition.share.threads (default 2).
+     *
+     * @param graph Friendships to deliver along
+     * @return The engine
+     */
+    public static ShareFanout fromProperties(FriendGraph graph) {
+        return new ShareFanout(graph, Integer.getInteger("nutrition.share.inbox", 64),
+                Integer.getInteger("nutrition.share.pull", 500), Integer.getInteger("nutrition.share.batch", 256),
+                Integer.getInteger("nutrition.share.threads", 2));
+    }
+
+    /**
+     * Returns the graph deliveries currently follow.
+     * @return The graph
+     */
+    public FriendGraph graph() {
+        return state.graph;
+    }
+
+    /**
+     * Replaces the graph, e.g. after friendships change. Students in both graphs keep
+     * their inbox, outbox and undelivered posts.
+     *
+     * @param graph The new graph
+     */
+    public synchronized void graph(FriendGraph graph) {
+        state = new State(graph, state);
+    }
+
+    /**
+     * Rebuilds the graph from a source on a background thread every period, so students
+     * who register and friendships made after startup are picked up without any request
+     * paying for a rebuild. Until the next rebuild, which is at most one period away, a
+     * new student's shares reach nobody and their inbox stays empty, and new or removed
+     * friendships are not followed. A rebuild that throws keeps the current graph.
+     *
+     * @param source       Builds a graph, e.g. () -> FriendGraph.of(registry)
+     * @param periodMillis Time between the end of one rebuild and the start of the next
+     */
+    public synchronized void refreshEvery(Supplier<FriendGraph> source, long periodMillis) {
+        if (refresher != null) refresher.shutdownNow();
+        refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "share-graph-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+        refresher.scheduleWithFixedDelay(() -> {
+            try {
+                graph(source.get());
+            } catch (RuntimeException e) {
+                //Keep delivering along the current graph
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Shares a summary with every friend of a student. Returns once the post is in the
+     * sender's outbox (pull) or its delivery batches are queued (push).
+     *
+     * @param studentId Sender's student ID
+     * @param summary   Text to share, formatted once, e.g. User.shareNutrition(date)
+     * @return Number of friends it goes to; 0 if the sender is not in the graph
+     */
+    public int share(String studentId, String summary) {
+        State s = state;
+        int sender = s.graph.index(studentId);
+        if (sender < 0) return 0;
+        long now = System.nanoTime();
+        int from = s.graph.from(sender), to = s.graph.to(sender);
+        if (to - from > pullDegree) {
+            s.outboxes[sender].append(studentId, summary, now);
+            pulled.increment();
+            return to - from;
+        }
+        if (from == to) return 0;
+        Post post = new Post(studentId, summary, now, -1);
+        pushed.increment();
+        for (int start = from; start < to; start += batchSize) {
+            int first = start, last = Math.min(to, start + batchSize);
+            backlog.incrementAndGet();
+            delivery.execute(() -> {
+                try {
+                    for (int e = first; e < last; e++) {
+                        s.inboxes[s.graph.friendAt(e)].append(post);
+                        DELIVER.stop(post.sharedAt);
+                    }
+                    delivered.add(last - first);
+                } finally {
+                    backlog.decrementAndGet();
+                }
+            });
+        }
+        return to - from;
+    }
+
+    /**
+     * Returns a student's new posts: those pushed to their inbox since the last read and
+     * those shared since then by high-degree senders that list the student as a friend.
+     *
+     * @param studentId Reader's student ID
+     * @param limit     Most posts to return; older ones beyond it are discarded
+     * @return Posts, newest first; empty if the student is not in the graph
+     */
+    public List<Post> inbox(String studentId, int limit) {
+        long start = READ.start();
+        State s = state;
+        int reader = s.graph.index(studentId);
+        if (reader < 0) {
+            READ.stop(start);
+            return new ArrayList<>();
+        }
+        Ring inbox = s.inboxes[reader];
+        List<Post> posts = inbox.drain();
+        for (int p = s.pullOffsets[reader]; p < s.pullOffsets[reader + 1]; p++) posts.addAll(s.outboxes[s.pullFrom[p]].since(inbox));
+        posts.sort((a, b) -> Long.compare(b.sharedAt, a.sharedAt));
+        if (posts.size() > limit) posts = new ArrayList<>(posts.subList(0, Math.max(0, limit)));
+        READ.stop(start);
+        return posts;
+    }
+
+    /**
+     * Returns the number of delivery batches queued but not yet delivered.
+     * @return Backlog of batches
+     */
+    public long backlog() {
+        return backlog.get();
+    }
+
+    /**
+     * Formats post, delivery and queue counters on one line.
+     * @return Summary of the counters
+     */
+    public String stats() {
+        int[] depth = depths();
+        long[] p = DELIVER.latency.percentiles(0.5, 0.99);
+        return String.format(Locale.ROOT, "%d posts pushed, %d pulled; %d deliveries (p50 %.1f us, p99 %.1f us), "
+                        + "%d dropped; backlog %d batches; inbox depth total %d, max %d",
+                pushed.sum(), pulled.sum(), delivered.sum(), p[0] / 1e3, p[1] / 1e3, dropped.sum(), backlog.get(),
+                depth[0], depth[1]);
+    }
+
+    /**
+     * Returns the same counters as stats() as a JSON object.
+     * @return JSON object
+     */
+    public String json() {
+        int[] depth = depths();
+        long[] p = DELIVER.latency.percentiles(0.5, 0.99, 0.999);
+        return String.format(Locale.ROOT, "{\"pushed\":%d,\"pulled\":%d,\"delivered\":%d,\"dropped\":%d,\"backlog\":%d,"
+                        + "\"inboxDepthTotal\":%d,\"inboxDepthMax\":%d,\"deliverP50Micros\":%.1f,\"deliverP99Micros\":%.1f,"
+                        + "\"deliverP999Micros\":%.1f}",
+                pushed.sum(), pulled.sum(), delivered.sum(), dropped.sum(), backlog.get(), depth[0], depth[1],
+                p[0] / 1e3, p[1] / 1e3, p[2] / 1e3);
+    }
+
+    //Total and largest number of unread pushed posts over every inbox
+    private int[] depths() {
+        int total = 0, max = 0;
+        for (Ring inbox : state.inboxes) {
+            int d = inbox.depth();
+            total += d;
+            max = Math.max(max, d);
+        }
+        return new int[]{total, max};
+    }
+
+    /**
+     * Delivers the queued batches and stops the delivery threads.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (refresher != null) refresher.shutdownNow();
+        }
+        delivery.shutdown();
+        try {
+            delivery.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+import java.util.*;
+
+/**
+ * SymbolTable maps a low-cardinality set of strings to small dense int codes.
+ *
+ * Codes are handed out in first-seen order starting at 0, and decoding a code is
+ * a plain array lookup. It is used to dictionary-encode columns such as the
+ * dining hall, meal period, station and serving size, which only take a handful of
+ * values, and to intern them so every row shares one String per distinct value.
+ *
+ * Example usage:
+ * <pre>
+ * SymbolTable halls = new SymbolTable();
+ * int frank = halls.encode("Frank");   // 0
+ * int frary = halls.encode("Frary");   // 1
+ * String name = halls.decode(frank);   // "Frank"
+ * String same = halls.intern(new String("Frank"));   // the instance decode(frank) returns
+ * </pre>
+ *
+ * @author Yaseen Osman
+ */
+public class SymbolTable {
+    //Code of every symbol seen so far
+    private final HashMap<String, Integer> codes = new HashMap<>();
+    //Decode array: code -> symbol
+    private String[] symbols = new String[8];
+    //Number of symbols
+    private int size;
+
+    /**
+     * Returns the code of a symbol, adding it if it has not been seen before.
+     *
+     * @param symbol The string to encode
+     * @return Its code
+     */
+    public int encode(String symbol) {
+        Integer code = codes.get(symbol);
+        if (code != null) return code;
+        if (size == symbols.length) symbols = Arrays.copyOf(symbols, size * 2);
+        symbols[size] = symbol;
+        codes.put(symbol, size);
+        return size++;
+    }
+
+    /**
+     * Returns the shared instance of a symbol, adding it if it has not been seen before.
+     * Equal strings passed here all come back as the same String object, so per-row
+     * copies made while parsing can be dropped.
+     *
+     * @param symbol The string to intern
+     * @return The instance held in the decode array
+     */
+    public String intern(String symbol) {
+        int code = encode(symbol); //may grow symbols, so look it up afterwards
+        return symbols[code];
+    }
+
+    /**
+     * Returns the code of a symbol without adding it.
+     *
+     * @param symbol The string to look up
+     * @return Its code, or -1 if the symbol is unknown
+     */
+    public int code(String symbol) {
+        Integer code = codes.get(symbol);
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * Returns the symbol for a code.
+     *
+     * @param code A code returned by encode
+     * @return The symbol
+     */
+    public String decode(int code) {
+        return symbols[code];
+    }
+
+    /**
+     * Returns the number of distinct symbols.
+     *
+     * @return Number of symbols
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns all symbols in code order.
+     *
+     * @return List of symbols
+     */
+    public List<String> symbols() {
+        return Collections.unmodifiableList(Arrays.asList(symbols).subList(0, size));
+    }
+}
@@ -6,7 +6,12 @@ import java.util.*;
  * Each User object stores:
  * - The user's student ID and name
  * - Their nutrition goals (calories, protein, carbs, fat)
- * - A daily log of nutrition facts (date → NutritionFacts)
+ * - A daily nutrition history of every nutrient (one NutrientVector per day) indexed by
+ *   epoch day, with constant-time range totals and averages
+ * - A GoalBudget with the goals as a nutrient-indexed array and what is left of each
+ *   for the latest logged day, updated by every logMeal, with threshold alerts
+ * - The individual meals logged with a canonical dish id and place, for per-hall and
+ *   per-meal analytics and "what did I eat" queries
  * - A set of friends (by student ID) for social sharing
  * 
  * Example usage:
@@ -28,8 +33,12 @@ public class User {
     public String name;
     //Nutrition goals: map of goal type ("calories", "protein", etc.) to value 
     public Map<String, Integer> goals; // calories, protein, carbs, fat
-    //Daily nutrition log: date (YYYY-MM-DD) → NutritionFacts
-    public Map<String, NutritionFacts> nutritionLog;
+    //Daily totals of every nutrient by epoch day, with prefix sums for range queries
+    public NutritionHistory history;
+    //Meals logged with a canonical dish id, in logging order
+    public LoggedMeals meals;
+    //Goals by nutrient and what is left of them, updated as meals are logged
+    public GoalBudget budget;
     //Set of friend student IDs for social features
     public Set<String> friends;
 
@@ -41,23 +50,119 @@ public class User {
      * @param goals     Nutrition goals (map: "calories", "protein", "carbs", "fat")
      */
     public User(String studentId, String name, Map<String, Integer> goals) {
+        this(studentId, name, goals, new NutritionHistory(NutritionHistory.NUTRIENTS));
+    }
+
+    /**
+     * Constructs a User whose daily totals are kept in the given history, e.g. an
+     * off-heap one from OffHeapHistoryStore.newHistory().
+     * 
+     * @param studentId The user's unique student ID
+     * @param name      The user's name
+     * @param goals     Nutrition goals (map: "calories", "protein", "carbs", "fat")
+     * @param history   Empty history of width NutritionHistory.NUTRIENTS
+     */
+    public User(String studentId, String name, Map<String, Integer> goals, NutritionHistory history) {
         this.studentId = studentId;
         this.name = name;
         this.goals = goals;
-        this.nutritionLog = new HashMap<>();
+        this.history = history;
+        this.meals = new LoggedMeals();
         this.friends = new HashSet<>();
+        this.budget = new GoalBudget(this);
+    }
+
+    /**
+     * Sets a nutrition goal, e.g. "calories" or "sodium", in the goals map and the budget.
+     * 
+     * @param nutrient Nutrient name as accepted by Nutrient.forName
+     * @param value    The goal, or 0 for none
+     * @throws IllegalArgumentException If the nutrient is unknown
+     */
+    public void setGoal(String nutrient, int value) {
+        Nutrient n = Nutrient.forName(nutrient);
+        if (n == null) throw new IllegalArgumentException("Unknown nutrient: " + nutrient);
+        goals.put(nutrient, value);
+        budget.setGoal(n, value);
     }
 
     /**
      * Logs a meal for the given date by adding the provided NutritionFacts to that day's log.
-     * If there is no entry for the date, a new one is created.
+     * If there is no entry for the date, a new one is created. Only calories, protein, carbs
+     * and fat are logged; use logMeal(String, NutrientVector) to log every nutrient.
      * 
      * @param date Date in "YYYY-MM-DD" format
      * @param nf   NutritionFacts to add for this meal
+     * @throws IllegalArgumentException If an amount is negative or not finite
      */
     public void logMeal(String date, NutritionFacts nf) {
-        nutritionLog.putIfAbsent(date, new NutritionFacts(0, 0, 0, 0));
-        nutritionLog.get(date).add(nf);
+        logMeal(date, nf.toVector());
+    }
+
+    /**
+     * Logs a meal for the given date by adding every nutrient of it to that day's log,
+     * e.g. store.vector(dish) scaled by the servings eaten.
+     * 
+     * @param date      Date in "YYYY-MM-DD" format
+     * @param nutrients Nutrients of the meal
+     * @throws IllegalArgumentException If an amount is negative or not finite
+     */
+    public void logMeal(String date, NutrientVector nutrients) {
+        log(date, nutrients.values, 1, -1, -1);
+    }
+
+    /**
+     * Logs a number of servings of a menu dish for the given date: adds their nutrients to
+     * that day's totals and records the dish by its canonical id, so the meal counts
+     * towards its dining hall and meal period in Analytics.
+     * 
+     * @param date     Date in "YYYY-MM-DD" format
+     * @param store    MenuStore the dish id belongs to
+     * @param dishId   Dish id in the store
+     * @param servings Number of servings eaten
+     * @throws IllegalArgumentException If servings is not a positive, finite number
+     */
+    public void logMeal(String date, MenuStore store, int dishId, double servings) {
+        log(date, store.vector(dishId).scale(servings).values, servings, store.canonicalId(dishId), store.place(dishId));
+    }
+
+    /**
+     * Returns whether a number of servings can be logged: positive and finite. logMeal
+     * refuses anything else, and MealIngest counts lines that fail it as malformed.
+     *
+     * @param servings Number of servings
+     * @return True if it can be logged
+     */
+    public static boolean validServings(double servings) {
+        return servings > 0 && servings < Double.POSITIVE_INFINITY;
+    }
+
+    //Every logMeal ends here, so the servings and amounts are checked in one place;
+    //dish is -1 for nutrients logged without a dish
+    private void log(String date, double[] values, double servings, int dish, int place) {
+        if (!validServings(servings)) throw new IllegalArgumentException("Servings must be positive: " + servings);
+        for (int n = 0; n < values.length; n++) {
+            if (!(values[n] >= 0) || values[n] == Double.POSITIVE_INFINITY) {
+                throw new IllegalArgumentException(Nutrient.ALL[n].label + " must be a finite amount of at least 0: " + values[n]);
+            }
+        }
+        long start = Metrics.LOG_MEAL.start();
+        int day = NutritionHistory.epochDay(date);
+        history.add(day, values);
+        budget.added(day, values);
+        if (dish >= 0) meals.add(day, dish, place, servings);
+        Metrics.LOG_MEAL.stop(start);
+    }
+
+    /**
+     * Returns the dishes logged for the given date, in logging order. Nutrients logged
+     * without a dish are not included.
+     * 
+     * @param date Date in "YYYY-MM-DD" format
+     * @return Meals with DishTable.shared() dish ids and place codes
+     */
+    public List<LoggedMeals.Meal> getMeals(String date) {
+        return meals.on(NutritionHistory.epochDay(date));
     }
 
     /**
@@ -68,7 +173,83 @@ public class User {
      * @return NutritionFacts for the date (or empty if none logged)
      */
     public NutritionFacts getDailyNutrition(String date) {
-        return nutritionLog.getOrDefault(date, new NutritionFacts(0, 0, 0, 0));
+        return getDailyTotals(date).facts();
+    }
+
+    /**
+     * Gets every nutrient total for the given date.
+     * 
+     * @param date Date in "YYYY-MM-DD" format
+     * @return A new NutrientVector with the day's totals (zeros if none logged)
+     */
+    public NutrientVector getDailyTotals(String date) {
+        NutrientVector totals = new NutrientVector();
+        history.day(NutritionHistory.epochDay(date), totals.values);
+        return totals;
+    }
+
+    /**
+     * Gets the total NutritionFacts from one date to another, both inclusive.
+     * Runs in constant time regardless of the length of the range.
+     * 
+     * @param from First date in "YYYY-MM-DD" format
+     * @param to   Last date in "YYYY-MM-DD" format
+     * @return Total NutritionFacts over the range (empty if none logged)
+     */
+    public NutritionFacts getNutritionBetween(String from, String to) {
+        return getTotalsBetween(from, to).facts();
+    }
+
+    /**
+     * Gets every nutrient total from one date to another, both inclusive, in constant time.
+     * 
+     * @param from First date in "YYYY-MM-DD" format
+     * @param to   Last date in "YYYY-MM-DD" format
+     * @return A new NutrientVector with the totals over the range
+     */
+    public NutrientVector getTotalsBetween(String from, String to) {
+        NutrientVector totals = new NutrientVector();
+        history.sum(NutritionHistory.epochDay(from), NutritionHistory.epochDay(to), totals.values);
+        return totals;
+    }
+
+    /**
+     * Gets the average daily NutritionFacts from one date to another, both inclusive.
+     * Days without logged meals count as zero. Runs in constant time.
+     * 
+     * @param from First date in "YYYY-MM-DD" format
+     * @param to   Last date in "YYYY-MM-DD" format
+     * @return Average NutritionFacts per day over the range
+     */
+    public NutritionFacts getAverageNutrition(String from, String to) {
+        NutrientVector average = new NutrientVector();
+        history.average(NutritionHistory.epochDay(from), NutritionHistory.epochDay(to), average.values);
+        return average.facts();
+    }
+
+    /**
+     * Gets the average daily NutritionFacts over the given number of days ending at a date.
+     * Runs in constant time.
+     * 
+     * @param date Last date of the window in "YYYY-MM-DD" format
+     * @param days Window length in days
+     * @return Average NutritionFacts per day over the window
+     */
+    public NutritionFacts getRollingAverage(String date, int days) {
+        int last = NutritionHistory.epochDay(date);
+        NutrientVector average = new NutrientVector();
+        history.average(last - days + 1, last, average.values);
+        return average.facts();
+    }
+
+    /**
+     * Gets the rolling 7-day average NutritionFacts ending at a date.
+     * 
+     * @param date Last date of the week in "YYYY-MM-DD" format
+     * @return Average NutritionFacts per day over the week
+     */
+    public NutritionFacts getWeeklyAverage(String date) {
+        return getRollingAverage(date, 7);
     }
 
     /**
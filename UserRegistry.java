@@ -0,0 +1,179 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * UserRegistry is a thread-safe directory of users for serving many students at once.
+ *
+ * User keeps its goals, log and friends in plain HashMaps, so the registry guards
+ * every access to a user with a lock. Locks are striped by student ID: two requests
+ * for the same student are serialized, while requests for different students almost
+ * always take different locks and run in parallel.
+ *
+ * Example usage:
+ * <pre>
+ * UserRegistry registry = new UserRegistry();
+ * registry.register(alice);
+ * registry.logMeal("1001", "2025-05-14", NutritionFacts.of(item, 1));
+ * NutritionFacts today = registry.getDailyNutrition("1001", "2025-05-14");
+ * String summary = registry.withUser("1001", u -> u.shareNutrition("2025-05-14"));
+ * </pre>
+ *
+ * @author Yaseen Osman
+ */
+public class UserRegistry {
+    //Number of lock stripes; a power of two so a stripe is picked with a mask
+    private static final int STRIPES = 64;
+
+    //Users by student ID
+    private final ConcurrentHashMap<String, User> users = new ConcurrentHashMap<>();
+    //Stripe i guards every user whose ID hashes to i
+    private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+
+    /**
+     * Constructs an empty registry.
+     */
+    public UserRegistry() {
+        for (int i = 0; i < STRIPES; i++) locks[i] = new ReentrantLock();
+    }
+
+    /**
+     * Adds a user, replacing any user with the same student ID.
+     *
+     * @param user The user to add
+     */
+    public void register(User user) {
+        users.put(user.studentId, user);
+    }
+
+    /**
+     * Returns whether a student is registered.
+     *
+     * @param studentId Student ID
+     * @return True if the student is registered
+     */
+    public boolean contains(String studentId) {
+        return users.containsKey(studentId);
+    }
+
+    /**
+     * Returns the number of registered users.
+     * @return Number of users
+     */
+    public int size() {
+        return users.size();
+    }
+
+    /**
+     * Returns every registered student ID.
+     * @return Set of student IDs
+     */
+    public Set<String> studentIds() {
+        return Collections.unmodifiableSet(users.keySet());
+    }
+
+    /**
+     * Runs an action on a user while holding that user's lock.
+     * The action must not keep references to the user's maps after it returns.
+     *
+     * @param studentId Student ID
+     * @param action    Action to run
+     * @return The action's result, or null if the student is not registered
+     */
+    public <T> T withUser(String studentId, Function<User, T> action) {
+        User user = users.get(studentId);
+        if (user == null) return null;
+        ReentrantLock lock = lockFor(studentId);
+        lock.lock();
+        try {
+            return action.apply(user);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Logs a meal for a student.
+     *
+     * @param studentId Student ID
+     * @param date      Date in "YYYY-MM-DD" format
+     * @param nf        NutritionFacts to add for this meal
+     * @return False if the student is not registered
+     * @throws IllegalArgumentException If User.logMeal refuses the servings or an amount
+     */
+    public boolean logMeal(String studentId, String date, NutritionFacts nf) {
+        return withUser(studentId, u -> {
+            u.logMeal(date, nf);
+            return Boolean.TRUE;
+        }) != null;
+    }
+
+    /**
+     * Adds every nutrient of a meal to a student's log for a date.
+     *
+     * @param studentId Student ID
+     * @param date      Date in "YYYY-MM-DD" format
+     * @param nutrients Nutrients of the meal, e.g. store.vector(dish).scale(servings)
+     * @return False if the student is not registered
+     * @throws IllegalArgumentException If User.logMeal refuses the servings or an amount
+     */
+    public boolean logMeal(String studentId, String date, NutrientVector nutrients) {
+        return withUser(studentId, u -> {
+            u.logMeal(date, nutrients);
+            return Boolean.TRUE;
+        }) != null;
+    }
+
+    /**
+     * Logs a number of servings of a menu dish for a student, recording the dish as well
+     * as its nutrients.
+     *
+     * @param studentId Student ID
+     * @param date      Date in "YYYY-MM-DD" format
+     * @param store     MenuStore the dish id belongs to
+     * @param dishId    Dish id in the store
+     * @param servings  Number of servings eaten
+     * @return False if the student is not registered
+     * @throws IllegalArgumentException If User.logMeal refuses the servings or an amount
+     */
+    public boolean logMeal(String studentId, String date, MenuStore store, int dishId, double servings) {
+        return withUser(studentId, u -> {
+            u.logMeal(date, store, dishId, servings);
+            return Boolean.TRUE;
+        }) != null;
+    }
+
+    /**
+     * Returns a parallel stream of one result per registered user. Each result is
+     * computed while holding only that user's lock, so logging for other users is never
+     * held up and logging for this user waits only for this one call. Users that are
+     * removed while the stream runs, and null results, are skipped.
+     *
+     * @param action Computes a result from one user; must not keep references to the user's data
+     * @return Parallel stream of the results
+     */
+    public <T> Stream<T> mapEach(Function<User, T> action) {
+        return users.keySet().parallelStream().map(id -> withUser(id, action)).filter(Objects::nonNull);
+    }
+
+    /**
+     * Returns a copy of a student's totals for a date.
+     *
+     * @param studentId Student ID
+     * @param date      Date in "YYYY-MM-DD" format
+     * @return Copy of the totals, or null if the student is not registered
+     */
+    public NutritionFacts getDailyNutrition(String studentId, String date) {
+        return withUser(studentId, u -> {
+            NutritionFacts nf = u.getDailyNutrition(date);
+            return new NutritionFacts(nf.calories, nf.protein, nf.carbs, nf.fat);
+        });
+    }
+
+    private ReentrantLock lockFor(String studentId) {
+        int h = studentId.hashCode();
+        return locks[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+}
@@ -0,0 +1,29 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * MappedMenuLoader.loadStore must build the same store as MenuStore.load.
+ *
+ * @author Yaseen Osman
+ */
+class MappedMenuLoaderTest {
+    @Test
+    void loadStoreMatchesMenuStoreLoad() throws Exception {
+        MenuStore expected = MenuStore.load(MenuStores.CSV);
+        MappedMenuLoader.LoadReport report = new MappedMenuLoader.LoadReport();
+        MenuStores.assertSameRows(expected, MappedMenuLoader.loadStore(MenuStores.CSV, report));
+    }
+
+    @Test
+    void smallChunksMatchMenuStoreLoad() throws Exception {
+        //Many chunk boundaries, so rows split across chunks are exercised
+        MenuStore expected = MenuStore.load(MenuStores.CSV);
+        MenuStore actual = MappedMenuLoader.loadStore(MenuStores.CSV, ForkJoinPool.commonPool(), 4096,
+                new MappedMenuLoader.LoadReport());
+        MenuStores.assertSameRows(expected, actual);
+        assertEquals(expected.halls().size(), actual.halls().size());
+    }
+}
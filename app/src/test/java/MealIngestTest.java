@@ -0,0 +1,106 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A batch ingest must leave every user with the same totals as logging each line with
+ * User.logMeal.
+ *
+ * @author Yaseen Osman
+ */
+class MealIngestTest {
+    private static final int STUDENTS = 50, FIRST_DAY = 20000, DAYS = 5;
+    private static MenuStore store;
+
+    @BeforeAll
+    static void loadMenu() throws Exception {
+        store = MenuStore.load(MenuStores.CSV);
+    }
+
+    private static HashMap<String, User> population() {
+        HashMap<String, User> users = new HashMap<>();
+        for (int i = 0; i < STUDENTS; i++) {
+            String id = String.valueOf(1000 + i);
+            users.put(id, new User(id, "Student " + i, NutritionServer.goals(2000, 100, 250, 70)));
+        }
+        return users;
+    }
+
+    @Test
+    void batchTotalsMatchPerLineLogMeal() throws Exception {
+        HashMap<String, User> expected = population();
+        StringBuilder events = new StringBuilder("studentId,date,rowKey,servings\n");
+        Random random = new Random(7);
+        int lines = 5000;
+        for (int i = 0; i < lines; i++) {
+            int dish = random.nextInt(store.size());
+            //Ingest resolves a repeated row key to its first row, so log that row too
+            while (store.rowKey(dish).isEmpty() || firstRow(store.rowKey(dish)) != dish) dish = random.nextInt(store.size());
+            String student = String.valueOf(1000 + random.nextInt(STUDENTS));
+            String date = LocalDate.ofEpochDay(FIRST_DAY + random.nextInt(DAYS)).toString();
+            double servings = (1 + random.nextInt(4)) * 0.5;
+            String key = store.rowKey(dish);
+            if (key.indexOf(',') >= 0) key = '"' + key + '"';
+            events.append(student).append(',').append(date).append(',').append(key).append(',').append(servings).append('\n');
+            expected.get(student).logMeal(date, store, dish, servings);
+        }
+
+        HashMap<String, User> batch = population();
+        //Small chunks, so lines are split across several parse tasks
+        MealIngest.BatchReport report = new MealIngest(store, ForkJoinPool.commonPool(), 8192)
+                .ingest(new ByteArrayInputStream(events.toString().getBytes(StandardCharsets.UTF_8)), batch);
+        assertEquals(lines, report.applied);
+
+        double[] want = new double[Nutrient.COUNT], got = new double[Nutrient.COUNT];
+        for (User user : expected.values()) {
+            User ingested = batch.get(user.studentId);
+            for (int day = FIRST_DAY; day < FIRST_DAY + DAYS; day++) {
+                user.history.day(day, want);
+                ingested.history.day(day, got);
+                for (int n = 0; n < Nutrient.COUNT; n++) {
+                    assertEquals(want[n], got[n], 1e-9 * Math.max(1, Math.abs(want[n])), user.studentId + " day " + day);
+                }
+                String date = LocalDate.ofEpochDay(day).toString();
+                assertEquals(user.getMeals(date).size(), ingested.getMeals(date).size(), user.studentId + " " + date);
+            }
+        }
+    }
+
+    @Test
+    void badLinesAreCountedNotApplied() throws Exception {
+        String key = store.rowKey(firstRow(store.rowKey(0)));
+        String events = "studentId,date,rowKey,servings\n"
+                + "1000,2025-05-14," + key + ",0\n"
+                + "1000,2025-05-14," + key + ",-1\n"
+                + "1000,2025-05-14," + key + ",abc\n"
+                + "9999,2025-05-14," + key + ",1\n"
+                + "1000,2025-05-14," + key + ",2\n";
+        HashMap<String, User> users = population();
+        MealIngest.BatchReport report = new MealIngest(store)
+                .ingest(new ByteArrayInputStream(events.getBytes(StandardCharsets.UTF_8)), users);
+        assertEquals(1, report.applied);
+        assertEquals(3, report.malformed);
+        assertEquals(1, report.unknownStudents);
+
+        User expected = population().get("1000");
+        expected.logMeal("2025-05-14", store, firstRow(key), 2);
+        assertArrayEquals(expected.getDailyTotals("2025-05-14").values, users.get("1000").getDailyTotals("2025-05-14").values, 1e-9);
+    }
+
+    //First row with a row key, the one MealIngest resolves it to
+    private static int firstRow(String rowKey) {
+        for (int id = 0; id < store.size(); id++) {
+            if (store.rowKey(id).equals(rowKey)) return id;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,150 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Reopening a MealLogStore must rebuild the same totals, whether from a snapshot plus
+ * replay or from the segments alone, and must survive a torn write at the end of the log.
+ *
+ * @author Yaseen Osman
+ */
+class MealLogStoreTest {
+    private static MenuStore store;
+
+    @TempDir
+    Path dir;
+
+    @BeforeAll
+    static void loadMenu() throws Exception {
+        store = MenuStore.load(MenuStores.CSV);
+    }
+
+    //Appends events and waits until they are durable
+    private static void log(MealLogStore log, int from, int to) {
+        CompletableFuture<Void> last = null;
+        for (int i = from; i < to; i++) {
+            last = log.append(String.valueOf(1000 + i % 7), LocalDate.ofEpochDay(20000 + i % 5).toString(),
+                    store, i % store.size(), 1 + i % 3 * 0.5);
+        }
+        if (last != null) last.join();
+    }
+
+    //Totals of every student and day, as "studentId date" -> values
+    private static Map<String, List<Double>> totals(MealLogStore log) {
+        Map<String, List<Double>> totals = new TreeMap<>();
+        log.forEachDay((studentId, date, values) ->
+                totals.put(studentId + " " + date, Arrays.stream(values).boxed().collect(Collectors.toList())));
+        return totals;
+    }
+
+    private List<Path> files(String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.toString().endsWith(suffix)).sorted().collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    void snapshotPlusReplayMatchesFullReplay() throws Exception {
+        Path full = Files.createDirectory(dir.resolve("full")), snapped = Files.createDirectory(dir.resolve("snapped"));
+        try (MealLogStore a = MealLogStore.open(full, 1L << 30, Integer.MAX_VALUE);
+             MealLogStore b = MealLogStore.open(snapped, 1L << 30, 100)) {
+            log(a, 0, 350);
+            log(b, 0, 350);
+        }
+        try (MealLogStore a = MealLogStore.open(full); MealLogStore b = MealLogStore.open(snapped)) {
+            assertEquals(0, a.recoveryReport().snapshotSegment);
+            assertEquals(350, a.recoveryReport().replayedEvents);
+            assertTrue(b.recoveryReport().snapshotSegment > 0, "no snapshot was loaded");
+            assertTrue(b.recoveryReport().replayedEvents < 350, "snapshot did not cover any events");
+            assertEquals(totals(a), totals(b));
+        }
+    }
+
+    @Test
+    void damagedLatestSnapshotFallsBackAGeneration() throws Exception {
+        Map<String, List<Double>> expected;
+        try (MealLogStore log = MealLogStore.open(dir, 1L << 30, Integer.MAX_VALUE)) {
+            log(log, 0, 100);
+            log.snapshot();
+            log(log, 100, 200);
+            log.snapshot();
+            log(log, 200, 250);
+            expected = totals(log);
+        }
+        List<Path> snapshots = files(".snap");
+        assertEquals(2, snapshots.size(), "the previous snapshot generation was not kept");
+        try (RandomAccessFile file = new RandomAccessFile(snapshots.get(1).toFile(), "rw")) {
+            file.seek(20);
+            file.write(file.read() ^ 0xFF);
+        }
+        try (MealLogStore log = MealLogStore.open(dir)) {
+            assertEquals(1, log.recoveryReport().skippedSnapshots);
+            assertEquals(expected, totals(log));
+        }
+    }
+
+    @Test
+    void tornTailIsCutOffAndLoggingContinues() throws Exception {
+        Map<String, List<Double>> expected;
+        try (MealLogStore log = MealLogStore.open(dir, 1L << 30, Integer.MAX_VALUE)) {
+            log(log, 0, 50);
+            expected = totals(log);
+        }
+        //Half a record: a length and part of a payload
+        Path segment = files(".log").get(0);
+        long size = Files.size(segment);
+        Files.write(segment, new byte[]{0, 0, 0, 60, 1, 2, 3, 4, 5, 6, 7}, StandardOpenOption.APPEND);
+
+        try (MealLogStore log = MealLogStore.open(dir)) {
+            assertEquals(11, log.recoveryReport().truncatedBytes);
+            assertEquals(50, log.recoveryReport().replayedEvents);
+            assertEquals(expected, totals(log));
+            assertEquals(size, Files.size(segment));
+            log(log, 50, 60);
+            expected = totals(log);
+        }
+        try (MealLogStore log = MealLogStore.open(dir)) {
+            assertEquals(0, log.recoveryReport().truncatedBytes);
+            assertEquals(60, log.recoveryReport().replayedEvents);
+            assertEquals(expected, totals(log));
+        }
+    }
+
+    @Test
+    void corruptionBeforeTheLastSegmentFailsOpen() throws Exception {
+        try (MealLogStore log = MealLogStore.open(dir, 4096, Integer.MAX_VALUE)) {
+            log(log, 0, 200);
+        }
+        List<Path> segments = files(".log");
+        assertTrue(segments.size() > 1, "the log did not roll over");
+        try (RandomAccessFile file = new RandomAccessFile(segments.get(0).toFile(), "rw")) {
+            file.seek(12);
+            file.write(file.read() ^ 0xFF);
+        }
+        long size = Files.size(segments.get(0));
+        IOException e = assertThrows(IOException.class, () -> MealLogStore.open(dir));
+        assertTrue(e.getMessage().contains(segments.get(0).getFileName().toString()), e.getMessage());
+        //Nothing was cut off the damaged segment
+        assertEquals(size, Files.size(segments.get(0)));
+        assertFalse(segments.get(0).toFile().length() == 0);
+    }
+}
@@ -0,0 +1,94 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * A compiled MenuSnapshot must give back the store it was compiled from, and must not be
+ * used once the CSV changes.
+ *
+ * @author Yaseen Osman
+ */
+class MenuSnapshotTest {
+    @TempDir
+    Path dir;
+
+    //Copy of the bundled CSV that the test may modify, and its snapshot
+    private String csv, snapshot;
+
+    private void compile() throws IOException {
+        csv = Files.copy(Paths.get(MenuStores.CSV), dir.resolve("menu.csv"), StandardCopyOption.REPLACE_EXISTING).toString();
+        snapshot = dir.resolve("menu.snap").toString();
+        MenuSnapshot.compile(csv, snapshot);
+    }
+
+    @Test
+    void roundTripMatchesCsv() throws Exception {
+        compile();
+        MenuSnapshot opened = MenuSnapshot.openIfFresh(csv, snapshot);
+        assertNotNull(opened, "fresh snapshot was not accepted");
+        MenuStores.assertSameRows(MenuStore.load(csv), opened.toStore());
+        MenuStores.assertSameRows(MenuStore.load(csv), MenuSnapshot.loadStore(csv, snapshot));
+    }
+
+    @Test
+    void newerMtimeWithSameContentsIsFresh() throws Exception {
+        compile();
+        Path path = Paths.get(csv);
+        Files.setLastModifiedTime(path, FileTime.fromMillis(Files.getLastModifiedTime(path).toMillis() + 60_000));
+        assertTrue(MenuSnapshot.open(snapshot).isFreshFor(csv));
+    }
+
+    @Test
+    void appendedRowIsStale() throws Exception {
+        compile();
+        Files.write(Paths.get(csv), "\nx,Frank,Lunch,Grill,Extra,1 each,1,1,1,1,1,1,1,1,1,1,1\n"
+                .getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        assertNull(MenuSnapshot.openIfFresh(csv, snapshot));
+        //Loading falls back to the CSV and sees the new row
+        assertEquals(MenuStore.load(csv).size(), MenuSnapshot.loadStore(csv, snapshot).size());
+    }
+
+    @Test
+    void sameSizeEditIsStale() throws Exception {
+        compile();
+        Path path = Paths.get(csv);
+        long modified = Files.getLastModifiedTime(path).toMillis();
+        byte[] bytes = Files.readAllBytes(path);
+        //Flip the case of the last letter, e.g. in the last dish's name
+        int last = bytes.length - 1;
+        while (!Character.isLetter(bytes[last])) last--;
+        bytes[last] ^= 0x20;
+        Files.write(path, bytes);
+        Files.setLastModifiedTime(path, FileTime.fromMillis(modified + 60_000));
+        assertFalse(MenuSnapshot.open(snapshot).isFreshFor(csv));
+    }
+
+    @Test
+    void damagedSnapshotIsRejected() throws Exception {
+        compile();
+        try (RandomAccessFile file = new RandomAccessFile(snapshot, "rw")) {
+            file.seek(file.length() / 2);
+            int b = file.read();
+            file.seek(file.length() / 2);
+            file.write(b ^ 0xFF);
+        }
+        assertThrows(IOException.class, () -> MenuSnapshot.open(snapshot));
+        assertNull(MenuSnapshot.openIfFresh(csv, snapshot));
+    }
+}
@@ -0,0 +1,37 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Assertions shared by the menu tests.
+ *
+ * @author Yaseen Osman
+ */
+final class MenuStores {
+    //Path of the bundled menu, relative to the repository root the tests run from
+    static final String CSV = "PomonaDiningHalls.csv";
+
+    private MenuStores() {
+    }
+
+    /**
+     * Asserts that two stores hold the same rows in the same order.
+     *
+     * @param expected Store loaded the reference way
+     * @param actual   Store under test
+     */
+    static void assertSameRows(MenuStore expected, MenuStore actual) {
+        assertEquals(expected.size(), actual.size(), "rows");
+        for (int id = 0; id < expected.size(); id++) {
+            String row = "row " + id;
+            assertEquals(expected.rowKey(id), actual.rowKey(id), row);
+            assertEquals(expected.dish(id), actual.dish(id), row);
+            assertEquals(expected.diningHall(id), actual.diningHall(id), row);
+            assertEquals(expected.mealPeriod(id), actual.mealPeriod(id), row);
+            assertEquals(expected.station(id), actual.station(id), row);
+            assertEquals(expected.servingSize(id), actual.servingSize(id), row);
+            assertEquals(expected.allergens(id), actual.allergens(id), row);
+            assertEquals(expected.ingredients(id), actual.ingredients(id), row);
+            assertArrayEquals(expected.vector(id).values, actual.vector(id).values, 0.0, row);
+        }
+    }
+}
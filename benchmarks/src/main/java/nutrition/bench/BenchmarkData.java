@@ -0,0 +1,77 @@
+package nutrition.bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Locates the bundled dining hall CSV and writes scaled copies of it for the benchmarks.
+ *
+ * The CSV is looked up through the "tracker.csv" system property, then in the working
+ * directory and its parent, so the suite runs from the repository root or from benchmarks/.
+ * A copy scaled by N holds the header once and every data row N times, and is written
+ * to the temp directory once per JVM.
+ *
+ * @author Yaseen Osman
+ */
+final class BenchmarkData {
+    static final String CSV_NAME = "PomonaDiningHalls.csv";
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Returns the bundled CSV.
+     * @return Path of PomonaDiningHalls.csv
+     */
+    static Path bundledCsv() {
+        String configured = System.getProperty("tracker.csv");
+        if (configured != null) return Paths.get(configured);
+        for (Path candidate : new Path[] {Paths.get(CSV_NAME), Paths.get("..", CSV_NAME)}) {
+            if (Files.isRegularFile(candidate)) return candidate;
+        }
+        throw new IllegalStateException(CSV_NAME + " not found; run from the repository root or set -Dtracker.csv=...");
+    }
+
+    /**
+     * Returns the bundled CSV with every data row repeated.
+     *
+     * @param scale How many times each data row appears; 1 returns the bundled CSV itself
+     * @return Path of the scaled CSV
+     * @throws IOException if the copy cannot be written
+     */
+    static Path csv(int scale) throws IOException {
+        Path bundled = bundledCsv();
+        if (scale == 1) return bundled;
+        Path scaled = Paths.get(System.getProperty("java.io.tmpdir"), "nutrition-bench-x" + scale + ".csv");
+        if (Files.isRegularFile(scaled)) return scaled;
+        List<String> lines = Files.readAllLines(bundled, StandardCharsets.UTF_8);
+        Path tmp = Files.createTempFile(scaled.getParent(), "nutrition-bench", ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            out.write(lines.get(0));
+            out.newLine();
+            for (int copy = 0; copy < scale; copy++) {
+                for (int i = 1; i < lines.size(); i++) {
+                    out.write(lines.get(i));
+                    out.newLine();
+                }
+            }
+        }
+        Files.move(tmp, scaled, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+        return scaled;
+    }
+
+    /**
+     * Returns the data rows of the bundled CSV.
+     * @return Every line but the header
+     * @throws IOException if the CSV cannot be read
+     */
+    static List<String> rows() throws IOException {
+        List<String> lines = Files.readAllLines(bundledCsv(), StandardCharsets.UTF_8);
+        return lines.subList(1, lines.size());
+    }
+}
@@ -0,0 +1,41 @@
+package nutrition.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the usual JMH command line, adding two defaults so every run
+ * can be compared with earlier releases: the gc profiler, which reports allocation rates
+ * (gc.alloc.rate.norm is bytes per operation), and JSON results in jmh-result.json.
+ * Passing -prof or -rf on the command line replaces the corresponding default. Forks also
+ * get --add-modules jdk.incubator.vector so NutrientKernel uses its SIMD kernel, as the
+ * tracker does when started with that flag.
+ *
+ * Example usage:
+ * <pre>
+ *   java -jar benchmarks/target/benchmarks.jar                      # everything
+ *   java -jar benchmarks/target/benchmarks.jar Recommendation -f 1
+ *   java -jar benchmarks/target/benchmarks.jar -l                   # list benchmarks
+ * </pre>
+ *
+ * @author Yaseen Osman
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cli = new CommandLineOptions(args);
+        if (cli.shouldHelp() || cli.shouldList() || cli.shouldListWithParams() || cli.shouldListProfilers()
+                || cli.shouldListResultFormats()) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(cli);
+        if (cli.getProfilers().isEmpty()) options.addProfiler(GCProfiler.class);
+        if (!cli.getResultFormat().hasValue()) options.resultFormat(ResultFormatType.JSON).result("jmh-result.json");
+        options.jvmArgsAppend("--add-modules=jdk.incubator.vector");
+        new Runner(options.build()).run();
+    }
+}
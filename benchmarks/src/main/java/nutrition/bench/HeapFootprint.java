@@ -0,0 +1,72 @@
+package nutrition.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.ref.Reference;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Reports how much heap the loaded menu keeps alive on a scaled copy of the bundled CSV.
+ *
+ * Each variant is loaded, the heap is collected before and after, and the difference in
+ * used heap is the retained size. "one String per cell" reproduces the loader before
+ * dictionary encoding by giving every item its own copy of the station and serving size;
+ * "interned" is DiningHallMenuLoader.loadMenu as it is now; MenuStore is the columnar form.
+ * This is not a JMH benchmark: it measures retained size, not time.
+ *
+ * Example usage:
+ * <pre>
+ *   java -cp benchmarks/target/benchmarks.jar nutrition.bench.HeapFootprint          # scale 100
+ *   java -cp benchmarks/target/benchmarks.jar nutrition.bench.HeapFootprint 1000
+ * </pre>
+ *
+ * @author Yaseen Osman
+ */
+public class HeapFootprint {
+    public static void main(String[] args) throws Exception {
+        int scale = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        String csv = BenchmarkData.csv(scale).toString();
+        int rows = BenchmarkData.rows().size() * scale;
+        System.out.printf("Retained heap for %,d rows (bundled CSV x%d)%n", rows, scale);
+
+        report("loadMenu, one String per cell", rows, () -> {
+            HashMap<String, HashMap<String, List<MenuItem>>> menu = DiningHallMenuLoader.loadMenu(csv);
+            for (HashMap<String, List<MenuItem>> meals : menu.values()) {
+                for (List<MenuItem> items : meals.values()) {
+                    for (MenuItem item : items) {
+                        item.station = new String(item.station);
+                        item.servingSize = new String(item.servingSize);
+                    }
+                }
+            }
+            return menu;
+        });
+        report("loadMenu, interned", rows, () -> DiningHallMenuLoader.loadMenu(csv));
+        report("MenuStore.load", rows, () -> MenuStore.load(csv));
+    }
+
+    private static void report(String label, int rows, Callable<Object> load) throws Exception {
+        long before = usedAfterGc();
+        Object loaded = load.call();
+        long retained = usedAfterGc() - before;
+        Reference.reachabilityFence(loaded);
+        System.out.printf("  %-32s %8.1f MB  %6d bytes/row%n", label, retained / 1048576.0, retained / rows);
+    }
+
+    //Used heap after collecting until it stops shrinking
+    private static long usedAfterGc() throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            Thread.sleep(50);
+            long now = memory.getHeapMemoryUsage().getUsed();
+            if (now >= used) return now;
+            used = now;
+        }
+        return used;
+    }
+}
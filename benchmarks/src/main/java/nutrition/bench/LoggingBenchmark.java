@@ -0,0 +1,70 @@
+package nutrition.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logging meals on a User and reading its history back.
+ *
+ * The user starts with one meal on each of the last 365 days. logMeal adds to today,
+ * the common case; getDailyNutrition and getWeeklyAverage read a different day each call.
+ *
+ * @author Yaseen Osman
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoggingBenchmark {
+    private static final int DAYS = 365;
+
+    private User user;
+    private String[] dates;
+    private String today;
+    private final NutritionFacts meal = new NutritionFacts(650, 30, 80, 20);
+    private int next;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        Map<String, Integer> goals = new HashMap<>();
+        goals.put("calories", 2000);
+        goals.put("protein", 100);
+        goals.put("carbs", 250);
+        goals.put("fat", 70);
+        user = new User("1001", "Alice", goals);
+        dates = new String[DAYS];
+        LocalDate first = LocalDate.of(2025, 1, 1);
+        for (int i = 0; i < DAYS; i++) {
+            dates[i] = first.plusDays(i).toString();
+            user.logMeal(dates[i], meal);
+        }
+        today = dates[DAYS - 1];
+    }
+
+    private String nextDate() {
+        next = next + 1 == DAYS ? 0 : next + 1;
+        return dates[next];
+    }
+
+    @Benchmark
+    public User logMeal() {
+        user.logMeal(today, meal);
+        return user;
+    }
+
+    @Benchmark
+    public NutritionFacts getDailyNutrition() {
+        return user.getDailyNutrition(nextDate());
+    }
+
+    @Benchmark
+    public NutritionFacts getWeeklyAverage() {
+        return user.getWeeklyAverage(nextDate());
+    }
+}
@@ -0,0 +1,52 @@
+package nutrition.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading the menu from the bundled CSV and from copies scaled 10x, 100x and 1000x.
+ *
+ * loadMenu is the whole DiningHallMenuLoader path; parseFile reads the same file line by
+ * line and only tokenizes it with parseCSVLine, which separates tokenizing from the
+ * number parsing and map building around it.
+ *
+ * @author Yaseen Osman
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class MenuLoadBenchmark {
+    @Param({"1", "10", "100", "1000"})
+    public int scale;
+
+    private String csv;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        csv = BenchmarkData.csv(scale).toString();
+    }
+
+    @Benchmark
+    public HashMap<String, HashMap<String, List<MenuItem>>> loadMenu() throws IOException {
+        return DiningHallMenuLoader.loadMenu(csv);
+    }
+
+    @Benchmark
+    public void parseFile(Blackhole bh) throws IOException {
+        try (BufferedReader br = new BufferedReader(new FileReader(csv))) {
+            br.readLine(); //skip header
+            String line;
+            while ((line = br.readLine()) != null) bh.consume(DiningHallMenuLoader.parseCSVLine(line));
+        }
+    }
+}
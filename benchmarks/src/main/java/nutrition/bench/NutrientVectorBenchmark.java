@@ -0,0 +1,80 @@
+package nutrition.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Summing a day's worth of meals and scoring dishes against a goal over every nutrient
+ * column, with the scalar and the SIMD NutrientKernel side by side. The kernel parameter
+ * picks the implementation directly, so both run in the same JVM. The meals are random
+ * rows of the bundled CSV; NutritionFactsBenchmark.add is the field-by-field baseline
+ * over four macros for the same meal counts.
+ *
+ * @author Yaseen Osman
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NutrientVectorBenchmark {
+    @Param({"8", "1024"})
+    public int meals;
+
+    @Param({"scalar", "vector"})
+    public String kernel;
+
+    private NutrientKernel impl;
+    private NutrientVector[] vectors;
+    private double[] target, weights;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        impl = kernel.equals("vector") ? new VectorNutrientKernel() : new NutrientKernel.Scalar();
+        MenuStore store = MenuStore.load(BenchmarkData.bundledCsv().toString());
+        Random random = new Random(42);
+        vectors = new NutrientVector[meals];
+        for (int i = 0; i < meals; i++) {
+            int id = random.nextInt(store.size());
+            vectors[i] = store.vector(id);
+        }
+        target = new double[NutrientVector.LENGTH];
+        weights = new double[NutrientVector.LENGTH];
+        for (int n = 0; n < NutrientVector.LENGTH; n++) {
+            target[n] = 100 + random.nextInt(900);
+            weights[n] = 1.0 / (target[n] * target[n]);
+        }
+    }
+
+    @Benchmark
+    public double[] add() {
+        double[] total = new double[NutrientVector.LENGTH];
+        for (NutrientVector v : vectors) impl.add(total, 0, v.values, 0, NutrientVector.LENGTH);
+        return total;
+    }
+
+    @Benchmark
+    public double[] addServings() {
+        double[] total = new double[NutrientVector.LENGTH];
+        for (NutrientVector v : vectors) impl.addScaled(total, 0, v.values, 0, 1.5, NutrientVector.LENGTH);
+        return total;
+    }
+
+    @Benchmark
+    public double goalDistance() {
+        double best = Double.POSITIVE_INFINITY;
+        for (NutrientVector v : vectors) best = Math.min(best, impl.distance(v.values, 0, target, weights, NutrientVector.LENGTH));
+        return best;
+    }
+
+    @Benchmark
+    public double dot() {
+        double sum = 0;
+        for (NutrientVector v : vectors) sum += impl.dot(v.values, 0, weights, 0, NutrientVector.LENGTH);
+        return sum;
+    }
+}
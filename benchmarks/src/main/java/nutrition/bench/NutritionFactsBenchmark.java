@@ -0,0 +1,40 @@
+package nutrition.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregating a day's worth of meals with NutritionFacts.add.
+ *
+ * @author Yaseen Osman
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NutritionFactsBenchmark {
+    @Param({"8", "1024"})
+    public int meals;
+
+    private NutritionFacts[] facts;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        facts = new NutritionFacts[meals];
+        for (int i = 0; i < meals; i++) {
+            facts[i] = new NutritionFacts(random.nextInt(900), random.nextInt(50), random.nextInt(120), random.nextInt(40));
+        }
+    }
+
+    @Benchmark
+    public NutritionFacts add() {
+        NutritionFacts total = new NutritionFacts(0, 0, 0, 0);
+        for (NutritionFacts nf : facts) total.add(nf);
+        return total;
+    }
+}
@@ -0,0 +1,35 @@
+package nutrition.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * parseCSVLine on single rows of the bundled CSV, cycling through every row so long
+ * quoted ingredient lists and short rows are both covered.
+ *
+ * @author Yaseen Osman
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseLineBenchmark {
+    private String[] rows;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        rows = BenchmarkData.rows().toArray(new String[0]);
+    }
+
+    @Benchmark
+    public String[] parseCSVLine() {
+        String row = rows[next];
+        next = next + 1 == rows.length ? 0 : next + 1;
+        return DiningHallMenuLoader.parseCSVLine(row);
+    }
+}
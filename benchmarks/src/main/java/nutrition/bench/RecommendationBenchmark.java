@@ -0,0 +1,87 @@
+package nutrition.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Main option-3 recommendation: the dish whose calories are closest to what is left.
+ *
+ * linearScan is the nested loop Main used before RecommendationIndex, kept here as the
+ * baseline; nearestCalories is the index lookup, nearestMacros the weighted four-macro
+ * query, and cachedCalories the RecommendationCache lookup Main uses now (1024 budgets
+ * over 10 kcal buckets, so nearly every call is a hit).
+ *
+ * @author Yaseen Osman
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecommendationBenchmark {
+    private HashMap<String, HashMap<String, List<MenuItem>>> menu;
+    private RecommendationIndex index;
+    private RecommendationCache cache;
+    //Remaining calories of successive queries
+    private final double[] remaining = new double[1024];
+    private final double[] weights = {1.0 / (2000.0 * 2000.0), 1.0 / (100.0 * 100.0), 1.0 / (250.0 * 250.0), 1.0 / (70.0 * 70.0)};
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        menu = MenuStore.load(BenchmarkData.bundledCsv().toString()).toMenu();
+        index = new RecommendationIndex(menu);
+        cache = new RecommendationCache(new LiveMenu(null, MenuStore.load(BenchmarkData.bundledCsv().toString())),
+                RecommendationCache.DEFAULT_CAPACITY, RecommendationCache.DEFAULT_CALORIE_WIDTH,
+                RecommendationCache.DEFAULT_GRAM_WIDTH);
+        Random random = new Random(42);
+        for (int i = 0; i < remaining.length; i++) remaining[i] = random.nextDouble() * 2500;
+    }
+
+    private double nextRemaining() {
+        next = (next + 1) & (remaining.length - 1);
+        return remaining[next];
+    }
+
+    @Benchmark
+    public MenuItem linearScan() {
+        double target = nextRemaining();
+        MenuItem best = null;
+        double minDiff = Double.MAX_VALUE;
+        for (String hall : menu.keySet()) {
+            for (String meal : menu.get(hall).keySet()) {
+                for (MenuItem item : menu.get(hall).get(meal)) {
+                    double diff = Math.abs(item.calories - target);
+                    if (diff < minDiff) {
+                        minDiff = diff;
+                        best = item;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    @Benchmark
+    public RecommendationIndex.Match nearestCalories() {
+        return index.nearestCalories(nextRemaining(), null, null);
+    }
+
+    @Benchmark
+    public List<RecommendationIndex.Match> cachedCalories() {
+        return cache.nearestCalories(nextRemaining(), 1, null, null, null);
+    }
+
+    @Benchmark
+    public List<RecommendationIndex.Match> nearestMacros() {
+        double calories = nextRemaining();
+        double[] target = {calories, calories / 20, calories / 8, calories / 28};
+        return index.nearestMacros(target, weights, 3, null, null);
+    }
+}
@@ -0,0 +1,99 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * VectorNutrientKernel runs the NutrientKernel operations with the jdk.incubator.vector API.
+ *
+ * Nutrient vectors are short (19 values for a dish, 4 for a plate), so the kernel uses
+ * at most 4 doubles per lane group: with wider registers a 19-value vector would spend
+ * most of its time in the scalar tail. Each loop handles whole lane groups with SIMD
+ * instructions and finishes the remainder with scalar code.
+ *
+ * This file lives outside the root directory so that "javac *.java" does not need the
+ * incubator module; the Maven build compiles it with --add-modules jdk.incubator.vector,
+ * and NutrientKernel loads it by name. Run with --add-modules jdk.incubator.vector to use it.
+ *
+ * @author Yaseen Osman
+ */
+public class VectorNutrientKernel implements NutrientKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED.length() > 4
+            ? DoubleVector.SPECIES_256 : DoubleVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+
+    @Override
+    public String name() {
+        return "vector (" + LANES + " x double)";
+    }
+
+    @Override
+    public void add(double[] acc, int accFrom, double[] x, int xFrom, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += LANES) {
+            DoubleVector.fromArray(SPECIES, acc, accFrom + i)
+                    .add(DoubleVector.fromArray(SPECIES, x, xFrom + i))
+                    .intoArray(acc, accFrom + i);
+        }
+        for (; i < length; i++) acc[accFrom + i] += x[xFrom + i];
+    }
+
+    @Override
+    public void addScaled(double[] acc, int accFrom, double[] x, int xFrom, double factor, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += LANES) {
+            DoubleVector.fromArray(SPECIES, x, xFrom + i).mul(factor)
+                    .add(DoubleVector.fromArray(SPECIES, acc, accFrom + i))
+                    .intoArray(acc, accFrom + i);
+        }
+        for (; i < length; i++) acc[accFrom + i] += factor * x[xFrom + i];
+    }
+
+    @Override
+    public void scale(double[] a, int from, double factor, int length) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(length); i < bound; i += LANES) {
+            DoubleVector.fromArray(SPECIES, a, from + i).mul(factor).intoArray(a, from + i);
+        }
+        for (; i < length; i++) a[from + i] *= factor;
+    }
+
+    @Override
+    public double sum(double[] a, int from, int length) {
+        int i = 0;
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        for (int bound = SPECIES.loopBound(length); i < bound; i += LANES) {
+            acc = acc.add(DoubleVector.fromArray(SPECIES, a, from + i));
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) sum += a[from + i];
+        return sum;
+    }
+
+    @Override
+    public double dot(double[] a, int aFrom, double[] b, int bFrom, int length) {
+        int i = 0;
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        for (int bound = SPECIES.loopBound(length); i < bound; i += LANES) {
+            acc = DoubleVector.fromArray(SPECIES, a, aFrom + i).fma(DoubleVector.fromArray(SPECIES, b, bFrom + i), acc);
+        }
+        double dot = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) dot += a[aFrom + i] * b[bFrom + i];
+        return dot;
+    }
+
+    @Override
+    public double distance(double[] a, int aFrom, double[] b, double[] weights, int length) {
+        int i = 0;
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        for (int bound = SPECIES.loopBound(length); i < bound; i += LANES) {
+            DoubleVector diff = DoubleVector.fromArray(SPECIES, a, aFrom + i).sub(DoubleVector.fromArray(SPECIES, b, i));
+            acc = diff.mul(DoubleVector.fromArray(SPECIES, weights, i)).fma(diff, acc);
+        }
+        double distance = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            double diff = a[aFrom + i] - b[i];
+            distance += weights[i] * diff * diff;
+        }
+        return distance;
+    }
+}